@@ -0,0 +1,10 @@
+#!/bin/sh
+# Times the dominator tree, dominance frontiers and loop forest on generated functions of
+# nests x depth for loops. The deepest nest needs a large stack to parse.
+set -e
+cd "$(dirname "$0")/.."
+mvn -q test-compile
+CP=target/test-classes:target/classes:${M2_REPO:-$HOME/.m2/repository}/org/antlr/antlr4-runtime/4.7.2/antlr4-runtime-4.7.2.jar
+for shape in "125 8" "250 8" "500 8" "1000 8" "1 1000"; do
+  java -Xss512m -cp "$CP" crux.ir.AnalysisBenchmark $shape
+done
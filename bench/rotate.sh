@@ -0,0 +1,28 @@
+#!/bin/sh
+# Optimizes rotate.crx with the full pipeline and with LoopRotation left out. For each, counts the
+# jumps the native code executes per inner iteration in the emulator, then builds it natively and
+# prints the best of 11 run times.
+set -e
+ROOT=$(cd "$(dirname "$0")/.." && pwd)
+cd "$ROOT"
+mvn -q test-compile
+CP=$ROOT/target/test-classes:$ROOT/target/classes:${M2_REPO:-$HOME/.m2/repository}/org/antlr/antlr4-runtime/4.7.2/antlr4-runtime-4.7.2.jar
+WORK=$(mktemp -d)
+trap 'rm -rf "$WORK"' EXIT
+cd "$WORK"
+# One repetition in the emulator, a hundred natively.
+printf '1000\n1\n' > emulated.in
+printf '1000\n100\n' > native.in
+for without in LoopRotation ""; do
+  if [ -n "$without" ]; then echo "without $without:"; else echo "full pipeline:"; fi
+  java -cp "$CP" crux.ir.JumpBenchmark "$ROOT/bench/rotate.crx" emulated.in $without
+  gcc a.s "$ROOT/src/runtime/runtime.c" -o rotate -z noexecstack
+  best=
+  for i in 1 2 3 4 5 6 7 8 9 10 11; do
+    start=$(date +%s%N)
+    ./rotate < native.in > /dev/null || true
+    time=$(( ($(date +%s%N) - start) / 1000000 ))
+    if [ -z "$best" ] || [ "$time" -lt "$best" ]; then best=$time; fi
+  done
+  echo "native: $best ms"
+done
@@ -0,0 +1,25 @@
+#!/bin/sh
+# Builds unroll.crx natively for several unroll factors and budgets, and prints the size of the
+# assembly and the best of 7 run times of each.
+set -e
+ROOT=$(cd "$(dirname "$0")/.." && pwd)
+cd "$ROOT"
+mvn -q compile
+CP=$ROOT/target/classes:${M2_REPO:-$HOME/.m2/repository}/org/antlr/antlr4-runtime/4.7.2/antlr4-runtime-4.7.2.jar
+WORK=$(mktemp -d)
+trap 'rm -rf "$WORK"' EXIT
+cd "$WORK"
+for setting in "1 0" "2 64" "4 64" "8 128"; do
+  set -- $setting
+  java -cp "$CP" crux.Compiler --optimize --unroll-factor "$1" --unroll-budget "$2" \
+    "$ROOT/bench/unroll.crx" > /dev/null
+  gcc a.s "$ROOT/src/runtime/runtime.c" -o unroll -z noexecstack
+  best=
+  for i in 1 2 3 4 5 6 7; do
+    start=$(date +%s%N)
+    ./unroll < "$ROOT/bench/unroll.in" > /dev/null || true
+    time=$(( ($(date +%s%N) - start) / 1000000 ))
+    if [ -z "$best" ] || [ "$time" -lt "$best" ]; then best=$time; fi
+  done
+  echo "factor $1 budget $2: $(wc -l < a.s) asm lines, $best ms"
+done
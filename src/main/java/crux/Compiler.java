@@ -59,6 +59,33 @@ public final class Compiler {
         case "--emulator":
           driver.enableEmulator();
           break;
+        case "--optimize":
+          driver.enableOptimizations();
+          break;
+        case "--optimization-report":
+          driver.enableOptimizationReport();
+          break;
+        case "--effects-report":
+          driver.enableEffectsReport();
+          break;
+        case "--reachability-report":
+          driver.enableReachabilityReport();
+          break;
+        case "--memoize":
+          driver.enableMemoization();
+          break;
+        case "--eval-fuel":
+          driver.setEvalFuel(Long.parseLong(args[++i]));
+          break;
+        case "--inline-limit":
+          driver.setInlineLimit(Integer.parseInt(args[++i]));
+          break;
+        case "--unroll-factor":
+          driver.setUnrollFactor(Integer.parseInt(args[++i]));
+          break;
+        case "--unroll-budget":
+          driver.setUnrollBudget(Integer.parseInt(args[++i]));
+          break;
         case "--debug-emulator":
           driver.enableDebugEmulator();
           break;
@@ -129,6 +156,15 @@ public final class Compiler {
         "--serialize\t\t\tDump serialized versions of compiler represenatations out to files.");
     System.out.println("--print-ir\t\t\tDump dot compatible representation of IR.");
     System.out.println("--emulator\t\t\tRun Emulator on IR.");
+    System.out.println("--optimize\t\t\tOptimize the IR before emulating or compiling it.");
+    System.out.println("--optimization-report\t\tOptimize and print what each pass did to stderr.");
+    System.out.println("--effects-report\t\tPrint which functions are pure to stderr.");
+    System.out.println("--reachability-report\t\tOptimize and print unused code to stderr.");
+    System.out.println("--memoize\t\t\tOptimize and memoize pure recursive functions.");
+    System.out.println("--eval-fuel <n>\t\tSteps per call evaluated while compiling; 0 disables.");
+    System.out.println("--inline-limit <n>\t\tSize limit of an inlined function; 0 disables.");
+    System.out.println("--unroll-factor <n>\t\tCopies per trip of a partially unrolled loop.");
+    System.out.println("--unroll-budget <n>\t\tSize limit of an unrolled loop; 0 disables.");
     System.out.println("--debug-emulator\t\tRun Emulator on IR with debugging turned on.");
     System.out.println("--emulator-input <input file>\tInput File for the emulator");
     System.out.println("--read-ast <input file>\t\tRead serialized version of AST in,");
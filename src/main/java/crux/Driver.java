@@ -3,6 +3,7 @@ package crux;
 import crux.ast.ANTLRErrorRecorder;
 import crux.ast.ParseTreeLower;
 import crux.ast.DeclarationList;
+import crux.ast.Reachability;
 import crux.pt.CruxLexer;
 import crux.pt.CruxParser;
 import crux.ast.types.TypeChecker;
@@ -10,6 +11,10 @@ import crux.ir.ASTLower;
 import crux.printing.IRPrinter;
 import crux.ir.Program;
 import crux.ir.Emulator;
+import crux.ir.opt.CompileTimeEvaluation;
+import crux.ir.opt.Inliner;
+import crux.ir.opt.LoopUnrolling;
+import crux.ir.opt.Optimizer;
 import crux.backend.CodeGen;
 import crux.printing.ASTPrinter;
 import crux.printing.ParseTreePrinter;
@@ -36,6 +41,8 @@ public final class Driver {
     PARSE, AST, TYPECHECK, IR, CODEGEN;
   }
 
+  private static final long SERIALIZATION_STACK_SIZE = 256L << 20;
+
   private final InputStream in;
   private final PrintStream out;
   private final PrintStream err;
@@ -47,6 +54,15 @@ public final class Driver {
   private boolean printIR = false;
   private boolean runEmulator = false;
   private boolean serialize = false;
+  private boolean optimize = false;
+  private boolean printOptimizationReport = false;
+  private boolean printEffectsReport = false;
+  private boolean printReachabilityReport = false;
+  private boolean memoize = false;
+  private long evalFuel = CompileTimeEvaluation.DEFAULT_FUEL;
+  private int inlineLimit = Inliner.DEFAULT_SIZE_LIMIT;
+  private int unrollFactor = LoopUnrolling.DEFAULT_FACTOR;
+  private int unrollBudget = LoopUnrolling.DEFAULT_BUDGET;
 
   // Set this flag to false if earlier stages in your compiler do not work.
   private final boolean supportsEndToEnd = true;
@@ -109,6 +125,45 @@ public final class Driver {
     runEmulator = true;
   }
 
+  public void enableOptimizations() {
+    optimize = true;
+  }
+
+  public void enableOptimizationReport() {
+    enableOptimizations();
+    printOptimizationReport = true;
+  }
+
+  public void enableEffectsReport() {
+    printEffectsReport = true;
+  }
+
+  public void enableReachabilityReport() {
+    enableOptimizations();
+    printReachabilityReport = true;
+  }
+
+  public void enableMemoization() {
+    enableOptimizations();
+    memoize = true;
+  }
+
+  public void setEvalFuel(long fuel) {
+    evalFuel = fuel;
+  }
+
+  public void setInlineLimit(int limit) {
+    inlineLimit = limit;
+  }
+
+  public void setUnrollFactor(int factor) {
+    unrollFactor = factor;
+  }
+
+  public void setUnrollBudget(int budget) {
+    unrollBudget = budget;
+  }
+
   public void enableDebugEmulator() {
     runEmulator = true;
     Emulator.DEBUG = true;
@@ -201,14 +256,32 @@ public final class Driver {
   }
 
   public void readIR(InputStream is) {
+    withSerializationStack(() -> {
+      try {
+        ObjectInputStream ois = new ObjectInputStream(is);
+        irProgram = (Program) ois.readObject();
+        ois.close();
+        setStartStage(Stage.CODEGEN);
+      } catch (Exception e) {
+        e.printStackTrace();
+        System.out.println("Failure to deserialize IR");
+      }
+    });
+  }
+
+  /**
+   * Runs a serialization of IR on a thread of its own with a large stack. Instructions refer to
+   * their successors, so serialization recurses once per instruction along a path, and long
+   * functions would overflow the stack of the calling thread.
+   */
+  private static void withSerializationStack(Runnable task) {
+    Thread thread = new Thread(null, task, "crux-serialization", SERIALIZATION_STACK_SIZE);
+    thread.start();
     try {
-      ObjectInputStream ois = new ObjectInputStream(is);
-      irProgram = (Program) ois.readObject();
-      ois.close();
-      setStartStage(Stage.CODEGEN);
-    } catch (Exception e) {
-      e.printStackTrace();
-      System.out.println("Failure to deserialize IR");
+      thread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("interrupted while serializing IR", e);
     }
   }
 
@@ -307,8 +380,26 @@ public final class Driver {
   }
 
   private State emitIR() {
-    var astLower = new ASTLower();
+    // Only optimized builds leave out what main cannot reach; a plain build lowers everything.
+    var reachability = optimize ? Reachability.of(ast) : null;
+    long start = System.nanoTime();
+    var astLower = new ASTLower(reachability);
     irProgram = astLower.lower(ast);
+    if (printReachabilityReport) {
+      reachability.print(err);
+      err.printf("lowered: %d instructions in %.1f ms%n", sizeOf(irProgram),
+          (System.nanoTime() - start) / 1e6);
+    }
+    if (printEffectsReport)
+      irProgram.getSideEffects().print(err);
+    if (optimize) {
+      var optimizer = new Optimizer(inlineLimit, unrollFactor, unrollBudget, evalFuel, memoize);
+      optimizer.optimize(irProgram);
+      if (printOptimizationReport)
+        optimizer.getReport().print(err);
+    }
+    if (printReachabilityReport)
+      err.printf("bss: %d bytes%n", bssSizeOf(irProgram));
 
     if (printIR) {
       var printer = new IRPrinter(out);
@@ -317,18 +408,38 @@ public final class Driver {
     }
 
     if (serialize) {
-      try {
-        ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream("ir.ser"));
-        oos.writeObject(irProgram);
-        oos.close();
-      } catch (Exception e) {
-        System.out.println("Failed to serialize IR");
-      }
+      withSerializationStack(() -> {
+        try {
+          ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream("ir.ser"));
+          oos.writeObject(irProgram);
+          oos.close();
+        } catch (Exception e) {
+          System.out.println("Failed to serialize IR");
+        }
+      });
     }
 
     return State.Continue;
   }
 
+  private static int sizeOf(Program program) {
+    int size = 0;
+    for (var it = program.getFunctions(); it.hasNext();) {
+      for (var block : it.next().getCFG().getBlocks()) {
+        size += block.getInstructions().size();
+      }
+    }
+    return size;
+  }
+
+  private static long bssSizeOf(Program program) {
+    long size = 0;
+    for (var it = program.getGlobals(); it.hasNext();) {
+      size += Reachability.sizeOf(it.next().getSymbol());
+    }
+    return size;
+  }
+
   private State emitASM() {
     var codegen = new CodeGen(irProgram);
     codegen.genCode();
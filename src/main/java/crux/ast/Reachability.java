@@ -0,0 +1,156 @@
+package crux.ast;
+
+import crux.ast.SymbolTable.Symbol;
+import crux.ast.types.ArrayType;
+
+import java.io.PrintStream;
+import java.util.*;
+
+/**
+ * The functions and globals a program can reach from main: main itself, every function a reachable
+ * function calls, and every global a reachable function names. Lowering skips everything else, so
+ * functions of a library that main never calls cost no time to compile and no space in the
+ * assembly, and globals only such functions use take no space in the BSS section.
+ * <p>
+ * Symbols are compared by identity, as the symbol table hands out one per declaration. A program
+ * without main, such as a library on its own, reaches everything.
+ */
+public final class Reachability {
+  private static final int WORD_SIZE = 8;
+  private final Set<Symbol> mReachable = Collections.newSetFromMap(new IdentityHashMap<>());
+  private final List<FunctionDefinition> mUnusedFunctions = new ArrayList<>();
+  private final List<Symbol> mUnusedGlobals = new ArrayList<>();
+  private final boolean mHasMain;
+  private int mNumFunctions, mNumGlobals, mUnusedNodes;
+
+  private Reachability(DeclarationList program) {
+    Map<Symbol, FunctionDefinition> definitions = new IdentityHashMap<>();
+    FunctionDefinition main = null;
+    for (Node node : program.getChildren()) {
+      if (node instanceof FunctionDefinition) {
+        FunctionDefinition definition = (FunctionDefinition) node;
+        definitions.put(definition.getSymbol(), definition);
+        if (definition.getSymbol().getName().equals("main"))
+          main = definition;
+      }
+    }
+    mHasMain = main != null;
+    if (!mHasMain)
+      return;
+
+    Deque<FunctionDefinition> worklist = new ArrayDeque<>();
+    mReachable.add(main.getSymbol());
+    worklist.add(main);
+    while (!worklist.isEmpty()) {
+      List<Symbol> used = new ArrayList<>();
+      addUses(worklist.pop().getStatements(), used);
+      for (Symbol symbol : used) {
+        if (mReachable.add(symbol) && definitions.containsKey(symbol))
+          worklist.add(definitions.get(symbol));
+      }
+    }
+
+    for (Node node : program.getChildren()) {
+      if (node instanceof FunctionDefinition) {
+        mNumFunctions++;
+        if (!isReachable(((FunctionDefinition) node).getSymbol())) {
+          mUnusedFunctions.add((FunctionDefinition) node);
+          mUnusedNodes += sizeOf(node);
+        }
+      } else {
+        Symbol global = node instanceof VariableDeclaration
+            ? ((VariableDeclaration) node).getSymbol() : ((ArrayDeclaration) node).getSymbol();
+        mNumGlobals++;
+        if (!isReachable(global))
+          mUnusedGlobals.add(global);
+      }
+    }
+  }
+
+  public static Reachability of(DeclarationList program) {
+    return new Reachability(program);
+  }
+
+  /**
+   * Returns true if the function or global is reachable from main, or the program has no main.
+   */
+  public boolean isReachable(Symbol symbol) {
+    return !mHasMain || mReachable.contains(symbol);
+  }
+
+  /**
+   * Returns the number of bytes the unused globals would take.
+   */
+  public long getUnusedBytes() {
+    long bytes = 0;
+    for (Symbol global : mUnusedGlobals) {
+      bytes += sizeOf(global);
+    }
+    return bytes;
+  }
+
+  /**
+   * Returns the number of bytes a global takes in the BSS section.
+   */
+  public static long sizeOf(Symbol global) {
+    if (global.getType() instanceof ArrayType)
+      return ((ArrayType) global.getType()).getExtent() * WORD_SIZE;
+    return WORD_SIZE;
+  }
+
+  /**
+   * Prints the functions and globals lowering skips.
+   */
+  public void print(PrintStream out) {
+    List<String> functions = new ArrayList<>();
+    for (FunctionDefinition function : mUnusedFunctions) {
+      functions.add(function.getSymbol().getName());
+    }
+    List<String> globals = new ArrayList<>();
+    for (Symbol global : mUnusedGlobals) {
+      globals.add(global.getName());
+    }
+    out.printf("unreachable functions: %d of %d, %d AST nodes%s%n", mUnusedFunctions.size(),
+        mNumFunctions, mUnusedNodes, names(functions));
+    out.printf("unused globals: %d of %d, %d bytes%s%n", mUnusedGlobals.size(), mNumGlobals,
+        getUnusedBytes(), names(globals));
+  }
+
+  private static String names(List<String> names) {
+    return names.isEmpty() ? "" : " (" + String.join(" ", names) + ")";
+  }
+
+  /**
+   * Adds the functions a subtree calls and the variables it names.
+   */
+  private static void addUses(Node node, List<Symbol> used) {
+    if (node instanceof Call)
+      used.add(((Call) node).getCallee());
+    else if (node instanceof VarAccess)
+      used.add(((VarAccess) node).getSymbol());
+    else if (node instanceof ArrayAccess)
+      used.add(((ArrayAccess) node).getBase());
+    for (Node child : childrenOf(node)) {
+      addUses(child, used);
+    }
+  }
+
+  private static int sizeOf(Node node) {
+    int size = 1;
+    for (Node child : childrenOf(node)) {
+      size += sizeOf(child);
+    }
+    return size;
+  }
+
+  /**
+   * Returns the children of a node, including the header of a loop, which {@link For} leaves out.
+   */
+  private static List<Node> childrenOf(Node node) {
+    if (node instanceof For) {
+      For loop = (For) node;
+      return List.of(loop.getInit(), loop.getCond(), loop.getIncrement(), loop.getBody());
+    }
+    return node.getChildren();
+  }
+}
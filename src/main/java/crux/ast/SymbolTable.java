@@ -42,6 +42,14 @@ public final class SymbolTable {
       this.error = error;
     }
 
+    /**
+     * Creates a symbol that is not declared in any scope, for names the compiler makes up. Such
+     * names should contain a character identifiers cannot, so they never clash with the program's.
+     */
+    public static Symbol generated(String name, Type type) {
+      return new Symbol(name, type);
+    }
+
     /**
      *
      * @return String the name
@@ -31,6 +31,14 @@ public final class CodeGen extends InstVisitor {
     return -8 * variableSlot;
   }
 
+  /**
+   * Returns whether a constant can be an immediate operand; only movabsq takes more than a
+   * sign-extended 32-bit immediate. Source literals always fit, but folded constants need not.
+   */
+  private static boolean fitsImmediate(long constant) {
+    return constant == (int) constant;
+  }
+
   public CodeGen(Program p) {
     this.p = p;
     // Do not change the file name that is outputted or it will
@@ -123,6 +131,20 @@ public final class CodeGen extends InstVisitor {
     out.printCodef("movq %%rsi, %d(%%rbp)", getOffset(destinationSlot));
   }
 
+  public void visit(AddressAdd i) {
+    int sourceSlot = getVariableSlot(i.getSrcAddress());
+    int destinationSlot = getVariableSlot(i.getDst());
+    long step = 8 * i.getStride().getValue();
+    out.printCodef("movq %d(%%rbp), %%rsi", getOffset(sourceSlot));
+    if (fitsImmediate(step)) {
+      out.printCodef("addq $%d, %%rsi", step);
+    } else {
+      out.printCodef("movabsq $%d, %%rdx", step);
+      out.printCode("addq %rdx, %rsi");
+    }
+    out.printCodef("movq %%rsi, %d(%%rbp)", getOffset(destinationSlot));
+  }
+
   public void visit(BinaryOperator i) {
     int lhsSlot = getVariableSlot(i.getLeftOperand());
     int rhsSlot = getVariableSlot(i.getRightOperand());
@@ -167,8 +189,13 @@ public final class CodeGen extends InstVisitor {
     int destinationSlot = getVariableSlot(i.getDstVar());
     Value value = i.getSrcValue();
     if (value instanceof IntegerConstant) {
-      IntegerConstant constant = (IntegerConstant) value;
-      out.printCodef("movq $%d, %d(%%rbp)", constant.getValue(), getOffset(destinationSlot));
+      long constant = ((IntegerConstant) value).getValue();
+      if (fitsImmediate(constant)) {
+        out.printCodef("movq $%d, %d(%%rbp)", constant, getOffset(destinationSlot));
+      } else {
+        out.printCodef("movabsq $%d, %%rax", constant);
+        out.printCodef("movq %%rax, %d(%%rbp)", getOffset(destinationSlot));
+      }
     } else if (value instanceof BooleanConstant) {
       BooleanConstant constant = (BooleanConstant) value;
       out.printCodef("movq $%d, %d(%%rbp)", constant.getValue() ? 1 : 0, getOffset(destinationSlot));
@@ -215,7 +242,6 @@ public final class CodeGen extends InstVisitor {
   }
 
   public void visit(CallInst i) {
-    int destinationSlot = getVariableSlot(i.getDst());
     for (int j = 0; j < Math.min(i.getParams().size(), argsRegisters.length); j++) {
       int parameterSlot = getVariableSlot(i.getParams().get(j));
       out.printCodef("movq %d(%%rbp), %s", getOffset(parameterSlot), argsRegisters[j]);
@@ -225,12 +251,26 @@ public final class CodeGen extends InstVisitor {
       out.printCodef("pushq %d(%%rbp)", getOffset(parameterSlot));
     }
     out.printCodef("call %s", i.getCallee().getName());
-    out.printCodef("movq %%rax, %d(%%rbp)", getOffset(destinationSlot));
+    if (i.getDst() != null) {
+      out.printCodef("movq %%rax, %d(%%rbp)", getOffset(getVariableSlot(i.getDst())));
+    }
     if (i.getParams().size() > argsRegisters.length) {
       out.printCodef("addq $%d, %%rsp", (i.getParams().size() - argsRegisters.length) * 8);
     }
   }
 
+  public void visit(SelectInst i) {
+    int destinationSlot = getVariableSlot(i.getDst());
+    int conditionSlot = getVariableSlot(i.getCondition());
+    int trueSlot = getVariableSlot(i.getTrueValue());
+    int falseSlot = getVariableSlot(i.getFalseValue());
+    out.printCodef("movq %d(%%rbp), %%rax", getOffset(falseSlot));
+    out.printCodef("movq %d(%%rbp), %%r10", getOffset(trueSlot));
+    out.printCodef("testq $1, %d(%%rbp)", getOffset(conditionSlot));
+    out.printCode("cmovnz %r10, %rax");
+    out.printCodef("movq %%rax, %d(%%rbp)", getOffset(destinationSlot));
+  }
+
   public void visit(UnaryNotInst i) {
     int destinationSlot = getVariableSlot(i.getDst());
     int operandSlot = getVariableSlot(i.getInner());
@@ -60,6 +60,7 @@ class InstPair {
 public final class ASTLower implements NodeVisitor<InstPair> {
   private Program mCurrentProgram = null;
   private Function mCurrentFunction = null;
+  private final Reachability mReachability;
 
   private Map<Symbol, LocalVar> mCurrentLocalVarMap = null;
 
@@ -133,7 +134,21 @@ public final class ASTLower implements NodeVisitor<InstPair> {
   /**
    * A constructor to initialize member variables
    */
-  public ASTLower() {}
+  public ASTLower() {
+    this(null);
+  }
+
+  /**
+   * Creates a lowering that skips the functions and globals that are not reachable, or lowers
+   * everything if reachability is null.
+   */
+  public ASTLower(Reachability reachability) {
+    mReachability = reachability;
+  }
+
+  private boolean isSkipped(Symbol symbol) {
+    return mReachability != null && !mReachability.isReachable(symbol);
+  }
 
   public Program lower(DeclarationList ast) {
     visit(ast);
@@ -152,6 +167,8 @@ public final class ASTLower implements NodeVisitor<InstPair> {
    */
   @Override
   public InstPair visit(FunctionDefinition functionDefinition) {
+    if (isSkipped(functionDefinition.getSymbol()))
+      return null;
     mCurrentFunction = new Function(functionDefinition.getSymbol().getName(), (FuncType) functionDefinition.getSymbol().getType());
     mCurrentLocalVarMap = new HashMap<>();
 
@@ -180,7 +197,7 @@ public final class ASTLower implements NodeVisitor<InstPair> {
   public InstPair visit(VariableDeclaration variableDeclaration) {
     if (mCurrentFunction != null) {
       makeLocalVar(variableDeclaration.getSymbol());
-    } else {
+    } else if (!isSkipped(variableDeclaration.getSymbol())) {
       mCurrentProgram.addGlobalVar(new GlobalDecl(variableDeclaration.getSymbol(), IntegerConstant.get(mCurrentProgram, 1)));
     }
     return null;
@@ -194,6 +211,8 @@ public final class ASTLower implements NodeVisitor<InstPair> {
     if (mCurrentFunction != null) {
       throw new RuntimeException("array declaration inside function");
     }
+    if (isSkipped(arrayDeclaration.getSymbol()))
+      return null;
     ArrayType arrayType = (ArrayType) arrayDeclaration.getSymbol().getType();
     mCurrentProgram.addGlobalVar(new GlobalDecl(arrayDeclaration.getSymbol(), IntegerConstant.get(mCurrentProgram, arrayType.getExtent())));
     return null;
@@ -20,10 +20,15 @@ public class AddressVar extends Variable implements java.io.Serializable {
 
   public AddressVar(Type type, String name) {
     super(type, name);
-    mName = String.format("%%%s", mName);
+    mName = formatName(name);
   }
 
-  public String toString() {
-    return mName;
+  AddressVar(Type type, String prefix, int id) {
+    super(type, prefix, id);
+  }
+
+  @Override
+  protected String formatName(String baseName) {
+    return "%" + baseName;
   }
 }
@@ -1,8 +1,5 @@
 package crux.ir;
 
-import crux.ast.types.BoolType;
-import java.util.HashMap;
-
 /**
  * A constant boolean (i.e. true or false). This is equivalent to {@link crux.ast.LiteralBool}.
  */
@@ -10,8 +7,8 @@ public final class BooleanConstant extends Constant implements java.io.Serializa
   static final long serialVersionUID = 12022L;
   private boolean mValue;
 
-  private BooleanConstant(Program ctx, boolean val) {
-    super(new BoolType());
+  BooleanConstant(boolean val) {
+    super(BOOL_TYPE);
     mValue = val;
   }
 
@@ -20,7 +17,6 @@ public final class BooleanConstant extends Constant implements java.io.Serializa
   }
 
   public static BooleanConstant get(Program ctx, boolean value) {
-    var currentMap = mBoolConstantPool.computeIfAbsent(ctx, p -> new HashMap<>());
-    return currentMap.computeIfAbsent(value, p -> new BooleanConstant(ctx, value));
+    return ctx.getBooleanConstant(value);
   }
 }
@@ -2,15 +2,14 @@ package crux.ir;
 
 import crux.ast.types.Type;
 
-import java.util.HashMap;
-import java.util.Map;
-
 /**
  * A constant represents any kind of constant value. In our language that is integers and booleans.
+ * Constants are interned per {@link Program}, so two constants of the same program with the same
+ * value are the same object. The pool is owned by the program and is released together with it.
  */
 public abstract class Constant extends Value {
-  protected static Map<Program, Map<Long, IntegerConstant>> mIntConstantPool = new HashMap<>();
-  protected static Map<Program, Map<Boolean, BooleanConstant>> mBoolConstantPool = new HashMap<>();
+  // The id the class had when its IR was first serialized, which it must keep to read such IR.
+  static final long serialVersionUID = 2436184821860290159L;
 
   protected Constant(Type type) {
     super(type);
@@ -0,0 +1,477 @@
+package crux.ir;
+
+import crux.ast.SymbolTable.Symbol;
+import crux.ir.insts.*;
+
+import java.util.*;
+
+/**
+ * A dense, array-backed copy of the instruction graph of a {@link Function}. Every instruction
+ * reachable from the start gets an id in depth-first preorder (the start is 0), and its opcode,
+ * destination, operands and successors are stored in parallel primitive arrays indexed by that id.
+ * <p>
+ * Values are encoded as integer references: the low two bits select the kind ({@link LocalVar},
+ * {@link AddressVar} or {@link Constant}) and the remaining bits index the matching table. For
+ * variables created by the function that index is the variable id, so per-variable data can be kept
+ * in arrays as well. {@link #NONE} stands for a missing value or successor.
+ * <p>
+ * The dense form converts losslessly in both directions: {@link #build(Function)} reads the object
+ * graph and {@link #toInstructions()} recreates it with the same variables, constants and symbols.
+ * This allows consumers to move to the dense form one at a time; the {@link Emulator} runs on it.
+ */
+public final class DenseFunction {
+  public enum Opcode {
+    ADDRESS_AT, ADDRESS_ADD, BINARY, CALL, COMPARE, COPY, JUMP, LOAD, NOP, RETURN, STORE, NOT,
+    SELECT
+  }
+
+  public static final int NONE = -1;
+
+  public static final int KIND_LOCAL = 0;
+  public static final int KIND_ADDRESS = 1;
+  public static final int KIND_CONSTANT = 2;
+  private static final int KIND_BITS = 2;
+  private static final int KIND_MASK = (1 << KIND_BITS) - 1;
+
+  private static final Opcode[] OPCODES = Opcode.values();
+  private static final BinaryOperator.Op[] BINARY_OPS = BinaryOperator.Op.values();
+  private static final CompareInst.Predicate[] PREDICATES = CompareInst.Predicate.values();
+
+  private final Function mFunction;
+  private final int mSize;
+  private final byte[] mOpcode;
+  /** The operator of a binary instruction or the predicate of a compare instruction. */
+  private final byte[] mSubop;
+  private final int[] mDest;
+  /** Operands of instruction i are mOperands[mOperandStart[i]] to mOperands[mOperandStart[i+1]-1]. */
+  private final int[] mOperandStart;
+  private final int[] mOperands;
+  private final byte[] mNumNext;
+  private final int[] mNext0;
+  private final int[] mNext1;
+  /** The base of an addressAt or the callee of a call, as an index into mSymbols. */
+  private final int[] mSymbol;
+
+  /** The arguments of the function, as local references. */
+  private final int[] mArguments;
+
+  private final Symbol[] mSymbols;
+  private final LocalVar[] mLocals;
+  private final AddressVar[] mAddresses;
+  private final Constant[] mConstants;
+
+  private DenseFunction(Function function, List<Instruction> insts,
+      Map<Instruction, Integer> ids) {
+    mFunction = function;
+    mSize = insts.size();
+    mOpcode = new byte[mSize];
+    mSubop = new byte[mSize];
+    mDest = new int[mSize];
+    mOperandStart = new int[mSize + 1];
+    mNumNext = new byte[mSize];
+    mNext0 = new int[mSize];
+    mNext1 = new int[mSize];
+    mSymbol = new int[mSize];
+
+    var tables = new Tables(function);
+    var opcodes = new OpcodeReader();
+    List<LocalVar> args = function.getArguments();
+    mArguments = new int[args.size()];
+    for (int i = 0; i < mArguments.length; i++) {
+      mArguments[i] = tables.ref(args.get(i));
+    }
+    int numOperands = 0;
+    for (Instruction inst : insts) {
+      numOperands += inst.numOperands();
+    }
+    mOperands = new int[numOperands];
+
+    int operandIdx = 0;
+    for (int id = 0; id < mSize; id++) {
+      Instruction inst = insts.get(id);
+      inst.accept(opcodes);
+      mOpcode[id] = (byte) opcodes.opcode.ordinal();
+      mSubop[id] = (byte) opcodes.subop;
+      mSymbol[id] = opcodes.symbol == null ? NONE : tables.symbol(opcodes.symbol);
+      mDest[id] = tables.ref(inst.getDestVar());
+      mOperandStart[id] = operandIdx;
+      for (int k = 0; k < inst.numOperands(); k++) {
+        mOperands[operandIdx++] = tables.ref(inst.getOperand(k));
+      }
+      mNumNext[id] = (byte) inst.numNext();
+      mNext0[id] = successorId(ids, inst.getNext(0));
+      mNext1[id] = successorId(ids, inst.getNext(1));
+    }
+    mOperandStart[mSize] = operandIdx;
+
+    mSymbols = tables.symbols.toArray(new Symbol[0]);
+    mLocals = Arrays.copyOf(tables.locals, tables.numLocals);
+    mAddresses = Arrays.copyOf(tables.addresses, tables.numAddresses);
+    mConstants = tables.constants.toArray(new Constant[0]);
+  }
+
+  private static int successorId(Map<Instruction, Integer> ids, Instruction next) {
+    return next == null ? NONE : ids.get(next);
+  }
+
+  /**
+   * Builds the dense form of all instructions reachable from the start of the function.
+   */
+  public static DenseFunction build(Function function) {
+    List<Instruction> insts = new ArrayList<>();
+    Map<Instruction, Integer> ids = new IdentityHashMap<>();
+    Deque<Instruction> tovisit = new ArrayDeque<>();
+    if (function.getStart() != null)
+      tovisit.push(function.getStart());
+    while (!tovisit.isEmpty()) {
+      Instruction inst = tovisit.pop();
+      if (ids.containsKey(inst))
+        continue;
+      ids.put(inst, insts.size());
+      insts.add(inst);
+      for (int i = inst.numNext() - 1; i >= 0; i--) {
+        Instruction child = inst.getNext(i);
+        if (child != null && !ids.containsKey(child))
+          tovisit.push(child);
+      }
+    }
+    return new DenseFunction(function, insts, ids);
+  }
+
+  public Function getFunction() {
+    return mFunction;
+  }
+
+  /**
+   * The number of instructions; ids range from 0 to size() - 1 and the start has id 0.
+   */
+  public int size() {
+    return mSize;
+  }
+
+  public int numArguments() {
+    return mArguments.length;
+  }
+
+  /**
+   * The reference of an argument of the function, which is a local whether or not the
+   * instructions read it.
+   */
+  public int getArgument(int i) {
+    return mArguments[i];
+  }
+
+  public Opcode getOpcode(int inst) {
+    return OPCODES[mOpcode[inst]];
+  }
+
+  public BinaryOperator.Op getBinaryOp(int inst) {
+    return BINARY_OPS[mSubop[inst]];
+  }
+
+  public CompareInst.Predicate getPredicate(int inst) {
+    return PREDICATES[mSubop[inst]];
+  }
+
+  /**
+   * The base symbol of an addressAt or the callee of a call instruction, otherwise null.
+   */
+  public Symbol getSymbol(int inst) {
+    return mSymbol[inst] == NONE ? null : mSymbols[mSymbol[inst]];
+  }
+
+  public int getDest(int inst) {
+    return mDest[inst];
+  }
+
+  public int numOperands(int inst) {
+    return mOperandStart[inst + 1] - mOperandStart[inst];
+  }
+
+  public int getOperand(int inst, int i) {
+    return mOperands[mOperandStart[inst] + i];
+  }
+
+  public int numNext(int inst) {
+    return mNumNext[inst];
+  }
+
+  public int getNext(int inst, int i) {
+    if (i >= mNumNext[inst])
+      return NONE;
+    return i == 0 ? mNext0[inst] : mNext1[inst];
+  }
+
+  public static int kindOf(int ref) {
+    return ref & KIND_MASK;
+  }
+
+  public static int indexOf(int ref) {
+    return ref >>> KIND_BITS;
+  }
+
+  /**
+   * The number of slots in the local variable table. This is at least the number of temporaries
+   * of the function, so variable ids are valid indices.
+   */
+  public int numLocals() {
+    return mLocals.length;
+  }
+
+  public int numAddresses() {
+    return mAddresses.length;
+  }
+
+  public Value getValue(int ref) {
+    if (ref == NONE)
+      return null;
+    switch (kindOf(ref)) {
+      case KIND_LOCAL:
+        return mLocals[indexOf(ref)];
+      case KIND_ADDRESS:
+        return mAddresses[indexOf(ref)];
+      default:
+        return mConstants[indexOf(ref)];
+    }
+  }
+
+  /**
+   * Recreates the instruction graph and returns its start instruction. The function itself is
+   * left untouched; use {@link #writeBack()} to replace its body.
+   */
+  public Instruction toInstructions() {
+    if (mSize == 0)
+      return null;
+    Instruction[] insts = new Instruction[mSize];
+    for (int id = 0; id < mSize; id++) {
+      insts[id] = materialize(id);
+    }
+    for (int id = 0; id < mSize; id++) {
+      for (int i = 0; i < mNumNext[id]; i++) {
+        int next = getNext(id, i);
+        insts[id].setNext(i, next == NONE ? null : insts[next]);
+      }
+    }
+    return insts[0];
+  }
+
+  /**
+   * Replaces the body of the function this was built from with a fresh copy of the dense form.
+   */
+  public void writeBack() {
+    mFunction.setStart(toInstructions());
+  }
+
+  private LocalVar local(int ref) {
+    return (LocalVar) getValue(ref);
+  }
+
+  private Variable variable(int ref) {
+    return (Variable) getValue(ref);
+  }
+
+  private AddressVar address(int ref) {
+    return (AddressVar) getValue(ref);
+  }
+
+  private Instruction materialize(int id) {
+    int dest = mDest[id];
+    switch (getOpcode(id)) {
+      case ADDRESS_AT:
+        if (numOperands(id) == 0)
+          return new AddressAt(address(dest), getSymbol(id));
+        return new AddressAt(address(dest), getSymbol(id), local(getOperand(id, 0)));
+      case ADDRESS_ADD:
+        return new AddressAdd(address(dest), address(getOperand(id, 0)),
+            (IntegerConstant) getValue(getOperand(id, 1)));
+      case BINARY:
+        return new BinaryOperator(getBinaryOp(id), local(dest), local(getOperand(id, 0)),
+            local(getOperand(id, 1)));
+      case CALL: {
+        List<LocalVar> params = new ArrayList<>(numOperands(id));
+        for (int i = 0; i < numOperands(id); i++) {
+          params.add(local(getOperand(id, i)));
+        }
+        if (dest == NONE)
+          return new CallInst(getSymbol(id), params);
+        return new CallInst(local(dest), getSymbol(id), params);
+      }
+      case COMPARE:
+        return new CompareInst(local(dest), getPredicate(id), variable(getOperand(id, 0)),
+            variable(getOperand(id, 1)));
+      case COPY:
+        return new CopyInst(local(dest), getValue(getOperand(id, 0)));
+      case JUMP:
+        return new JumpInst(local(getOperand(id, 0)));
+      case LOAD:
+        return new LoadInst(local(dest), address(getOperand(id, 0)));
+      case NOP:
+        return new NopInst();
+      case RETURN:
+        return new ReturnInst(local(getOperand(id, 0)));
+      case STORE:
+        return new StoreInst(local(getOperand(id, 0)), address(getOperand(id, 1)));
+      case NOT:
+        return new UnaryNotInst(local(dest), local(getOperand(id, 0)));
+      case SELECT:
+        return new SelectInst(local(dest), local(getOperand(id, 0)), local(getOperand(id, 1)),
+            local(getOperand(id, 2)));
+    }
+    throw new RuntimeException("unknown opcode " + getOpcode(id));
+  }
+
+  /**
+   * Interns the values and symbols referenced by the instructions.
+   */
+  private static final class Tables {
+    LocalVar[] locals;
+    int numLocals;
+    AddressVar[] addresses;
+    int numAddresses;
+    final List<Constant> constants = new ArrayList<>();
+    final Map<Constant, Integer> constantIdx = new IdentityHashMap<>();
+    final List<Symbol> symbols = new ArrayList<>();
+    final Map<Symbol, Integer> symbolIdx = new IdentityHashMap<>();
+    /** Variables without a usable id, e.g. ones not created by this function. */
+    final Map<Variable, Integer> extraIdx = new IdentityHashMap<>();
+
+    Tables(Function function) {
+      numLocals = function.getNumTempVars();
+      locals = new LocalVar[Math.max(numLocals, 1)];
+      numAddresses = function.getNumTempAddressVars();
+      addresses = new AddressVar[Math.max(numAddresses, 1)];
+    }
+
+    int ref(Value value) {
+      if (value == null)
+        return NONE;
+      if (value instanceof LocalVar)
+        return (localIndex((LocalVar) value) << KIND_BITS) | KIND_LOCAL;
+      if (value instanceof AddressVar)
+        return (addressIndex((AddressVar) value) << KIND_BITS) | KIND_ADDRESS;
+      Constant constant = (Constant) value;
+      Integer idx = constantIdx.get(constant);
+      if (idx == null) {
+        idx = constants.size();
+        constants.add(constant);
+        constantIdx.put(constant, idx);
+      }
+      return (idx << KIND_BITS) | KIND_CONSTANT;
+    }
+
+    int symbol(Symbol symbol) {
+      Integer idx = symbolIdx.get(symbol);
+      if (idx == null) {
+        idx = symbols.size();
+        symbols.add(symbol);
+        symbolIdx.put(symbol, idx);
+      }
+      return idx;
+    }
+
+    private int localIndex(LocalVar var) {
+      int id = var.getId();
+      if (id >= 0 && id < numLocals && (locals[id] == null || locals[id] == var)) {
+        locals[id] = var;
+        return id;
+      }
+      Integer idx = extraIdx.get(var);
+      if (idx == null) {
+        idx = numLocals++;
+        if (idx >= locals.length)
+          locals = Arrays.copyOf(locals, locals.length * 2);
+        locals[idx] = var;
+        extraIdx.put(var, idx);
+      }
+      return idx;
+    }
+
+    private int addressIndex(AddressVar var) {
+      int id = var.getId();
+      if (id >= 0 && id < numAddresses && (addresses[id] == null || addresses[id] == var)) {
+        addresses[id] = var;
+        return id;
+      }
+      Integer idx = extraIdx.get(var);
+      if (idx == null) {
+        idx = numAddresses++;
+        if (idx >= addresses.length)
+          addresses = Arrays.copyOf(addresses, addresses.length * 2);
+        addresses[idx] = var;
+        extraIdx.put(var, idx);
+      }
+      return idx;
+    }
+  }
+
+  /**
+   * Reads the opcode and the instruction specific attributes of an instruction.
+   */
+  private static final class OpcodeReader extends InstVisitor {
+    Opcode opcode;
+    int subop;
+    Symbol symbol;
+
+    private void set(Opcode opcode, int subop, Symbol symbol) {
+      this.opcode = opcode;
+      this.subop = subop;
+      this.symbol = symbol;
+    }
+
+    public void visit(AddressAt i) {
+      set(Opcode.ADDRESS_AT, 0, i.getBase());
+    }
+
+    public void visit(AddressAdd i) {
+      set(Opcode.ADDRESS_ADD, 0, null);
+    }
+
+    public void visit(BinaryOperator i) {
+      set(Opcode.BINARY, i.getOperator().ordinal(), null);
+    }
+
+    public void visit(CompareInst i) {
+      set(Opcode.COMPARE, i.getPredicate().ordinal(), null);
+    }
+
+    public void visit(CopyInst i) {
+      set(Opcode.COPY, 0, null);
+    }
+
+    public void visit(JumpInst i) {
+      set(Opcode.JUMP, 0, null);
+    }
+
+    public void visit(LoadInst i) {
+      set(Opcode.LOAD, 0, null);
+    }
+
+    public void visit(NopInst i) {
+      set(Opcode.NOP, 0, null);
+    }
+
+    public void visit(StoreInst i) {
+      set(Opcode.STORE, 0, null);
+    }
+
+    public void visit(UnaryNotInst i) {
+      set(Opcode.NOT, 0, null);
+    }
+
+    public void visit(CallInst i) {
+      set(Opcode.CALL, 0, i.getCallee());
+    }
+
+    public void visit(ReturnInst i) {
+      set(Opcode.RETURN, 0, null);
+    }
+
+    public void visit(SelectInst i) {
+      set(Opcode.SELECT, 0, null);
+    }
+
+    public void visit(PhiInst i) {
+      throw new RuntimeException("phi instructions have no dense form; leave SSA first");
+    }
+  }
+}
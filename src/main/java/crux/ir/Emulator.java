@@ -2,18 +2,24 @@ package crux.ir;
 
 import java.util.*;
 import java.io.*;
-import crux.ir.insts.*;
 import crux.ast.SymbolTable.Symbol;
 import crux.ast.types.*;
 
+/**
+ * Runs a program on its IR. Functions run on their {@link DenseFunction} form, built on their
+ * first call, so locals live in arrays indexed by variable id instead of maps.
+ */
 public class Emulator {
   HashMap<String, Function> functions = new HashMap<>();
+  HashMap<Function, DenseFunction> denseFunctions = new HashMap<>();
   Stack<CallContext> stack = new Stack<>();
   HashMap<Long, Long> globalMap = new HashMap<>();
   HashMap<Symbol, Long> offsetMap = new HashMap<>();
 
   BufferedReader br;
   PrintStream out;
+  Object returnValue;
+  long steps;
   public static boolean DEBUG = false;
 
   public Emulator(Program p, InputStream emulatorInput, OutputStream emulatorOutput) {
@@ -34,200 +40,285 @@ public class Emulator {
 
   public void run() {
     Function main = functions.get("main");
-    CallContext mainc = new CallContext(main, null, null);
+    CallContext mainc = new CallContext(main, null, DenseFunction.NONE);
     stack.push(mainc);
     while (!stack.isEmpty()) {
       CallContext c = stack.peek();
-      if (c.pc == null) {
+      if (c.pc == DenseFunction.NONE) {
         // Handle implicit return from void function
         stack.pop();
       } else {
-        c.pc.accept(c);
+        c.step();
       }
     }
   }
 
+  /**
+   * Runs a single call of a function with the given arguments instead of main, and returns its
+   * result. Returns null if the call does not return within {@code fuel} instructions; errors of
+   * the program, like a division by zero, are thrown. {@link #getSteps()} tells how many
+   * instructions ran.
+   */
+  public Object evaluate(Function function, List<Object> arguments, long fuel) {
+    stack.clear();
+    returnValue = null;
+    steps = 0;
+    stack.push(new CallContext(function, arguments.toArray(), DenseFunction.NONE));
+    while (!stack.isEmpty()) {
+      if (steps++ >= fuel) {
+        stack.clear();
+        return null;
+      }
+      CallContext c = stack.peek();
+      if (c.pc == DenseFunction.NONE) {
+        stack.pop();
+      } else {
+        c.step();
+      }
+    }
+    return returnValue;
+  }
+
+  /**
+   * Returns the number of instructions the last {@link #evaluate} ran.
+   */
+  public long getSteps() {
+    return steps;
+  }
+
   void debug(String msg) {
     if (DEBUG)
       out.println(msg);
   }
 
-  class CallContext extends InstVisitor {
-    Function f;
-    Instruction pc;
-    HashMap<Variable, Object> localMap;
-    LocalVar retval;
+  class CallContext {
+    DenseFunction f;
+    int pc;
+    Object[] locals;
+    long[] addresses;
+    /** The local of the caller that receives the result, or NONE. */
+    int retval;
 
-    CallContext(Function f, Object[] arguments, LocalVar retval) {
-      this.f = f;
-      pc = f.getStart();
-      localMap = new HashMap<>();
+    CallContext(Function function, Object[] arguments, int retval) {
+      f = denseFunctions.computeIfAbsent(function, DenseFunction::build);
+      pc = f.size() == 0 ? DenseFunction.NONE : 0;
+      locals = new Object[f.numLocals()];
+      addresses = new long[f.numAddresses()];
       if (arguments != null) {
-        int index = 0;
-        for (LocalVar arg : f.getArguments()) {
-          localMap.put(arg, arguments[index++]);
+        for (int index = 0; index < f.numArguments(); index++) {
+          locals[DenseFunction.indexOf(f.getArgument(index))] = arguments[index];
         }
       }
       this.retval = retval;
     }
 
-    public void visit(AddressAt i) {
-      Symbol base = i.getBase();
-      long address = offsetMap.get(base);
-      Value v = i.getOffset();
-      if (v != null) {
-        address += 8 * ((Long) localMap.get(v));
+    Object get(int ref) {
+      switch (DenseFunction.kindOf(ref)) {
+        case DenseFunction.KIND_LOCAL:
+          return locals[DenseFunction.indexOf(ref)];
+        case DenseFunction.KIND_ADDRESS:
+          return addresses[DenseFunction.indexOf(ref)];
+        default:
+          Value constant = f.getValue(ref);
+          if (constant instanceof IntegerConstant)
+            return ((IntegerConstant) constant).getValue();
+          return ((BooleanConstant) constant).getValue();
       }
-      localMap.put(i.getDst(), address);
-      debug("AddressAt: " + i.getDst() + " = " + address);
-      pc = pc.getNext(0);
     }
 
-    public void visit(BinaryOperator i) {
-      Object left = localMap.get(i.getLeftOperand());
-      Object right = localMap.get(i.getRightOperand());
-      Object result = null;
-      switch (i.getOperator()) {
-        case Add:
-          result = ((Long) left) + ((Long) right);
+    long getLong(int ref) {
+      return (Long) get(ref);
+    }
+
+    void set(int ref, Object value) {
+      locals[DenseFunction.indexOf(ref)] = value;
+    }
+
+    String name(int ref) {
+      return String.valueOf(f.getValue(ref));
+    }
+
+    void step() {
+      int i = pc;
+      int dst = f.getDest(i);
+      switch (f.getOpcode(i)) {
+        case ADDRESS_AT: {
+          long address = offsetMap.get(f.getSymbol(i));
+          if (f.numOperands(i) > 0) {
+            address += 8 * getLong(f.getOperand(i, 0));
+          }
+          addresses[DenseFunction.indexOf(dst)] = address;
+          if (DEBUG)
+            debug("AddressAt: " + name(dst) + " = " + address);
           break;
-        case Sub:
-          result = ((Long) left) - ((Long) right);
+        }
+        case ADDRESS_ADD: {
+          long address = getLong(f.getOperand(i, 0)) + 8 * getLong(f.getOperand(i, 1));
+          addresses[DenseFunction.indexOf(dst)] = address;
+          if (DEBUG)
+            debug("AddressAdd: " + name(dst) + " = " + address);
           break;
-        case Mul:
-          result = ((Long) left) * ((Long) right);
+        }
+        case BINARY: {
+          long left = getLong(f.getOperand(i, 0));
+          long right = getLong(f.getOperand(i, 1));
+          long result = 0;
+          switch (f.getBinaryOp(i)) {
+            case Add:
+              result = left + right;
+              break;
+            case Sub:
+              result = left - right;
+              break;
+            case Mul:
+              result = left * right;
+              break;
+            case Div:
+              result = left / right;
+              break;
+          }
+          set(dst, result);
+          if (DEBUG)
+            debug("BinaryOperator: " + name(dst) + "=" + left + f.getBinaryOp(i) + right);
           break;
-        case Div:
-          result = ((Long) left) / ((Long) right);
+        }
+        case COMPARE: {
+          Long left = (Long) get(f.getOperand(i, 0));
+          Long right = (Long) get(f.getOperand(i, 1));
+          Boolean result = null;
+          switch (f.getPredicate(i)) {
+            case GE:
+              result = left >= right;
+              break;
+            case GT:
+              result = left > right;
+              break;
+            case LE:
+              result = left <= right;
+              break;
+            case LT:
+              result = left < right;
+              break;
+            case EQ:
+              result = left.equals(right);
+              break;
+            case NE:
+              result = !left.equals(right);
+              break;
+          }
+          set(dst, result);
+          if (DEBUG)
+            debug("CompareInst: " + name(dst) + "=" + left + f.getPredicate(i) + right);
           break;
-      }
-      localMap.put(i.getDst(), result);
-      debug("BinaryOperator: " + i.getDst() + "=" + left + i.getOperator() + right);
-      pc = pc.getNext(0);
-    }
+        }
+        case COPY: {
+          Object val = get(f.getOperand(i, 0));
+          if (DEBUG)
+            debug("CopyInst: " + name(dst) + "=" + val);
+          set(dst, val);
+          break;
+        }
+        case JUMP: {
+          Boolean pred = (Boolean) get(f.getOperand(i, 0));
+          if (DEBUG)
+            debug("Jump: " + name(f.getOperand(i, 0)) + "=" + pred);
+          pc = f.getNext(i, pred ? 1 : 0);
+          return;
+        }
+        case LOAD: {
+          int src = f.getOperand(i, 0);
+          Long value = globalMap.get(getLong(src));
+          if (value == null) {
+            out.println("Reading from uninitialized memory");
+            value = Long.valueOf(0);
+          }
 
-    public void visit(CompareInst i) {
-      Long left = (Long) localMap.get(i.getLeftOperand());
-      Long right = (Long) localMap.get(i.getRightOperand());
-      Boolean result = null;
-      switch (i.getPredicate()) {
-        case GE:
-          result = left >= right;
+          Object val;
+          if (f.getValue(src).getType() instanceof IntType) {
+            val = value;
+          } else {
+            val = Boolean.valueOf(value != 0);
+          }
+
+          if (DEBUG)
+            debug("LoadInst: " + name(dst) + "=" + val);
+          set(dst, val);
           break;
-        case GT:
-          result = left > right;
+        }
+        case NOP:
+          // Do nothing
+          if (DEBUG)
+            debug("Nop:");
           break;
-        case LE:
-          result = left <= right;
+        case STORE: {
+          Object val = get(f.getOperand(i, 0));
+          long address = getLong(f.getOperand(i, 1));
+          if (DEBUG)
+            debug("StoreInst: *" + address + "=" + val);
+
+          if (val instanceof Long) {
+            globalMap.put(address, (Long) val);
+          } else if (val instanceof Boolean) {
+            globalMap.put(address, ((Boolean) val) ? Long.valueOf(1) : Long.valueOf(0));
+          }
           break;
-        case LT:
-          result = left < right;
+        }
+        case RETURN: {
+          int ret = f.getOperand(i, 0);
+          Object val = ret != DenseFunction.NONE ? get(ret) : null;
+          if (DEBUG)
+            debug("ReturnInst: " + val);
+          // Remove ourselves from the stack
+          stack.pop();
+          // Return value to caller
+          if (!stack.isEmpty()) {
+            CallContext caller = stack.peek();
+            if (retval != DenseFunction.NONE)
+              caller.set(retval, val);
+          } else {
+            returnValue = val;
+          }
+          return;
+        }
+        case CALL:
+          call(i, dst);
           break;
-        case EQ:
-          result = left.equals(right);
+        case NOT: {
+          Object result = !((Boolean) get(f.getOperand(i, 0)));
+          set(dst, result);
+          if (DEBUG)
+            debug("UnaryNotInst: " + result);
           break;
-        case NE:
-          result = !left.equals(right);
+        }
+        case SELECT: {
+          boolean condition = (Boolean) get(f.getOperand(i, 0));
+          Object result = get(f.getOperand(i, condition ? 1 : 2));
+          set(dst, result);
+          if (DEBUG)
+            debug("SelectInst: " + result);
           break;
+        }
       }
-      localMap.put(i.getDst(), result);
-      debug("CompareInst: " + i.getDst() + "=" + left + i.getPredicate() + right);
-      pc = pc.getNext(0);
-    }
-
-    public void visit(CopyInst i) {
-      Value srcval = i.getSrcValue();
-      Object val;
-      if (srcval instanceof IntegerConstant) {
-        val = Long.valueOf(((IntegerConstant) srcval).getValue());
-      } else if (srcval instanceof BooleanConstant) {
-        val = ((BooleanConstant) srcval).getValue();
-      } else {
-        val = localMap.get(srcval);
-      }
-
-      debug("CopyInst: " + i.getDstVar() + "=" + val);
-      localMap.put(i.getDstVar(), val);
-      pc = pc.getNext(0);
-    }
-
-    public void visit(JumpInst i) {
-      Boolean pred = (Boolean) localMap.get(i.getPredicate());
-      debug("Jump: " + i.getPredicate() + "=" + pred);
-      pc = pred ? pc.getNext(1) : pc.getNext(0);
-    }
-
-    public void visit(LoadInst i) {
-      AddressVar var = i.getSrcAddress();
-      Long address = (Long) localMap.get(var);
-      Long value = globalMap.get(address);
-      if (value == null) {
-        out.println("Reading from uninitialized memory");
-        value = Long.valueOf(0);
-      }
-
-      Object val;
-      if (var.getType() instanceof IntType) {
-        val = value;
-      } else {
-        val = Boolean.valueOf(value != 0);
-      }
-
-      debug("LoadInst: " + i.getDst() + "=" + val);
-      localMap.put(i.getDst(), val);
-      pc = pc.getNext(0);
-    }
-
-    public void visit(NopInst i) {
-      // Do nothing
-      debug("Nop:");
-      pc = pc.getNext(0);
-    }
-
-    public void visit(StoreInst i) {
-      Value srcval = i.getSrcValue();
-      Object val = localMap.get(srcval);
-      AddressVar dst = i.getDestAddress();
-      Long address = (Long) localMap.get(dst);
-      debug("StoreInst: *" + address + "=" + val);
-
-      if (val instanceof Long) {
-        globalMap.put(address, (Long) val);
-      } else if (val instanceof Boolean) {
-        globalMap.put(address, ((Boolean) val) ? Long.valueOf(1) : Long.valueOf(0));
-      }
-      pc = pc.getNext(0);
-    }
-
-    public void visit(ReturnInst i) {
-      Object val = i.getReturnValue() != null ? localMap.get(i.getReturnValue()) : null;
-      debug("ReturnInst: " + val);
-      // Remove ourselves from the stack
-      stack.pop();
-      // Return value to caller
-      if (!stack.isEmpty()) {
-        CallContext caller = stack.peek();
-        if (retval != null)
-          caller.localMap.put(retval, val);
-      }
+      pc = f.getNext(i, 0);
     }
 
-    public void visit(CallInst i) {
-      List<LocalVar> params = i.getParams();
-      Object[] args = new Object[params.size()];
+    private void call(int i, int dst) {
+      Object[] args = new Object[f.numOperands(i)];
       for (int j = 0; j < args.length; j++) {
-        args[j] = localMap.get(params.get(j));
+        args[j] = get(f.getOperand(i, j));
       }
 
-      Symbol varCallee = i.getCallee();
-      String fName = varCallee.getName();
-      debug("Calling " + fName + " with " + Arrays.toString(args));
+      String fName = f.getSymbol(i).getName();
+      if (DEBUG)
+        debug("Calling " + fName + " with " + Arrays.toString(args));
 
       if (fName.equals("readInt")) {
         try {
           out.print("int?");
           String line = br.readLine();
-          localMap.put(i.mDestVar, Long.valueOf(line));
+          Long val = Long.valueOf(line);
+          if (dst != DenseFunction.NONE)
+            set(dst, val);
         } catch (IOException e) {
           throw new Error("Error in inputting Integer.");
         }
@@ -236,7 +327,8 @@ public class Emulator {
           int val = br.read();
           if (val == -1)
             throw new Error("Reading past end of stream.");
-          localMap.put(i.mDestVar, new Long(val));
+          if (dst != DenseFunction.NONE)
+            set(dst, Long.valueOf(val));
         } catch (IOException e) {
           throw new Error("Error in inputting Integer.");
         }
@@ -249,19 +341,9 @@ public class Emulator {
       } else if (fName.equals("println")) {
         out.println("");
       } else {
-        Function f = functions.get(fName);
-        CallContext callee = new CallContext(f, args, (LocalVar) i.getDst());
-        stack.push(callee);
+        Function callee = functions.get(fName);
+        stack.push(new CallContext(callee, args, dst));
       }
-      pc = pc.getNext(0);
-    }
-
-    public void visit(UnaryNotInst i) {
-      Object left = localMap.get(i.getInner());
-      Object result = !((Boolean) left);
-      localMap.put(i.getDst(), result);
-      debug("UnaryNotInst: " + result);
-      pc = pc.getNext(0);
     }
   }
 }
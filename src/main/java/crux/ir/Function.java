@@ -2,7 +2,10 @@ package crux.ir;
 
 import crux.ast.types.FuncType;
 import crux.ast.types.Type;
-import crux.backend.CodeGen;
+import crux.ir.analysis.ControlFlowGraph;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -21,6 +24,7 @@ public final class Function implements Formattable, java.io.Serializable {
   private static final int FUNC_FORMAT_INDENT = 2;
   private int mTempVarCounter, mTempAddressVarCounter;
   private Instruction startInstruction;
+  private transient ControlFlowGraph mCFG;
 
   public Function(String name, FuncType funcType) {
     mFuncName = name;
@@ -33,8 +37,11 @@ public final class Function implements Formattable, java.io.Serializable {
     mArgs = List.copyOf(args);
   }
 
+  /**
+   * Returns the arguments of the function. The returned list is immutable, so it is not copied.
+   */
   public List<LocalVar> getArguments() {
-    return List.copyOf(mArgs);
+    return mArgs;
   }
 
   public String getName() {
@@ -45,14 +52,20 @@ public final class Function implements Formattable, java.io.Serializable {
     return mFuncType;
   }
 
+  /**
+   * Changes the signature of the function, for passes that remove arguments or the result. The
+   * arguments must be changed to match.
+   */
+  public void setFuncType(FuncType funcType) {
+    mFuncType = funcType;
+  }
+
   public LocalVar getTempVar(Type type, String prefix) {
-    var name = String.format("%s%d", prefix, mTempVarCounter++);
-    return new LocalVar(type, name);
+    return new LocalVar(type, prefix, mTempVarCounter++);
   }
 
   public LocalVar getTempVar(Type type) {
-    var name = String.format("t%d", mTempVarCounter++);
-    return new LocalVar(type, name);
+    return new LocalVar(type, "t", mTempVarCounter++);
   }
 
   public int getNumTempVars() {
@@ -60,8 +73,7 @@ public final class Function implements Formattable, java.io.Serializable {
   }
 
   public AddressVar getTempAddressVar(Type type) {
-    var name = String.format("av%d", mTempAddressVarCounter++);
-    return new AddressVar(type, name);
+    return new AddressVar(type, "av", mTempAddressVarCounter++);
   }
 
   public int getNumTempAddressVars() {
@@ -74,6 +86,71 @@ public final class Function implements Formattable, java.io.Serializable {
 
   public void setStart(Instruction inst) {
     startInstruction = inst;
+    invalidateCFG();
+  }
+
+  /**
+   * Returns the basic-block view of the function. The graph is cached until an edge between two
+   * instructions of the function changes or a new start is set.
+   */
+  public ControlFlowGraph getCFG() {
+    if (mCFG == null) {
+      mCFG = ControlFlowGraph.build(this);
+      for (var block : mCFG.getBlocks()) {
+        for (Instruction inst : block.getInstructions()) {
+          inst.mOwner = this;
+        }
+      }
+    }
+    return mCFG;
+  }
+
+  /**
+   * Numbers the variables of a function that was read back, which come without ids, in the order
+   * of the arguments and then of the instructions, so they can index arrays like new ones.
+   */
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    mTempVarCounter = 0;
+    mTempAddressVarCounter = 0;
+    if (mArgs != null) {
+      for (LocalVar arg : mArgs) {
+        number(arg);
+      }
+    }
+    Set<Instruction> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+    Deque<Instruction> tovisit = new ArrayDeque<>();
+    if (startInstruction != null)
+      tovisit.push(startInstruction);
+    while (!tovisit.isEmpty()) {
+      Instruction inst = tovisit.pop();
+      if (!seen.add(inst))
+        continue;
+      number(inst.getDestVar());
+      for (int i = 0; i < inst.numOperands(); i++) {
+        number(inst.getOperand(i));
+      }
+      for (int i = inst.numNext() - 1; i >= 0; i--) {
+        if (inst.getNext(i) != null)
+          tovisit.push(inst.getNext(i));
+      }
+    }
+  }
+
+  private void number(Value value) {
+    if (!(value instanceof Variable) || ((Variable) value).getId() != Variable.NO_ID)
+      return;
+    if (value instanceof AddressVar)
+      ((Variable) value).setId(mTempAddressVarCounter++);
+    else
+      ((Variable) value).setId(mTempVarCounter++);
+  }
+
+  /**
+   * Drops the cached control flow graph and everything derived from it.
+   */
+  public void invalidateCFG() {
+    mCFG = null;
   }
 
   /**
@@ -1,5 +1,10 @@
 package crux.ir;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Vector;
 import crux.ir.insts.InstVisitor;
@@ -9,41 +14,138 @@ import crux.ir.insts.InstVisitor;
  * list of operands. Note that not every instruction needs a destination variable (for example a
  * jump instruction that takes a target address as operand). Further, the list operands can be empty
  * as well (e.g. a nop instruction that does nothing.)
+ * <p>
+ * Operands and successors are kept in plain arrays sized exactly to their contents; an instruction
+ * has at most two successors and a handful of operands. The serialized form still holds them in a
+ * list and a vector, as it always did, so IR written by earlier versions can be read.
  */
 public abstract class Instruction implements Formattable, java.io.Serializable {
   static final long serialVersionUID = 12022L;
+  private static final Value[] NO_OPERANDS = new Value[0];
+  private static final Instruction[] NO_NEXT = new Instruction[0];
+
   protected Variable mDestVar;
-  protected List<Value> mOperands;
-  protected Vector<Instruction> next;
+  protected Value[] mOperands;
+  private Instruction[] mNext;
+  /** The function whose cached CFG contains this instruction, if any. */
+  transient Function mOwner;
+
+  private static final ObjectStreamField[] serialPersistentFields = {
+      new ObjectStreamField("mDestVar", Variable.class),
+      new ObjectStreamField("mOperands", List.class),
+      new ObjectStreamField("next", Vector.class)};
 
   protected Instruction(Variable destVar, List<Value> operands) {
     mDestVar = destVar;
-    mOperands = List.copyOf(operands);
-    next = new Vector<>();
+    mOperands = toArray(operands);
+    mNext = NO_NEXT;
   }
 
   protected Instruction(List<Value> operands) {
-    mDestVar = null;
-    mOperands = List.copyOf(operands);
-    next = new Vector<>();
+    this(null, operands);
+  }
+
+  private static Value[] toArray(List<Value> operands) {
+    if (operands.isEmpty())
+      return NO_OPERANDS;
+    Value[] array = new Value[operands.size()];
+    for (int i = 0; i < array.length; i++) {
+      array[i] = operands.get(i);
+    }
+    return array;
+  }
+
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    ObjectOutputStream.PutField fields = out.putFields();
+    fields.put("mDestVar", mDestVar);
+    fields.put("mOperands", List.of(mOperands));
+    fields.put("next", new Vector<>(Arrays.asList(mNext)));
+    out.writeFields();
+  }
+
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    ObjectInputStream.GetField fields = in.readFields();
+    mDestVar = (Variable) fields.get("mDestVar", null);
+    List<?> operands = (List<?>) fields.get("mOperands", null);
+    mOperands = operands == null || operands.isEmpty() ? NO_OPERANDS : new Value[operands.size()];
+    for (int i = 0; i < mOperands.length; i++) {
+      mOperands[i] = (Value) operands.get(i);
+    }
+    Vector<?> next = (Vector<?>) fields.get("next", null);
+    mNext = next == null || next.isEmpty() ? NO_NEXT : new Instruction[next.size()];
+    for (int i = 0; i < mNext.length; i++) {
+      mNext[i] = (Instruction) next.get(i);
+    }
   }
 
   public abstract void accept(InstVisitor v);
 
+  /**
+   * The variable written by this instruction, or null if it does not write one.
+   */
+  public Variable getDestVar() {
+    return mDestVar;
+  }
+
+  public int numOperands() {
+    return mOperands.length;
+  }
+
+  public Value getOperand(int i) {
+    return mOperands[i];
+  }
+
+  /**
+   * Replaces an operand. The caller has to respect the operand kinds the instruction accepts; only
+   * copies and phis take constants, for example.
+   */
+  public void setOperand(int i, Value value) {
+    mOperands[i] = value;
+  }
+
+  /**
+   * Replaces the destination variable of an instruction that writes one.
+   */
+  public void setDestVar(Variable destVar) {
+    mDestVar = destVar;
+  }
+
   public Instruction getNext(int i) {
     if (i >= numNext())
       return null;
     else
-      return next.get(i);
+      return mNext[i];
   }
 
   public int numNext() {
-    return next.size();
+    return mNext.length;
   }
 
   public void setNext(int i, Instruction inst) {
-    if (next.size() <= i)
-      next.setSize(i + 1);
-    next.set(i, inst);
+    if (mNext.length <= i)
+      mNext = Arrays.copyOf(mNext, i + 1);
+    mNext[i] = inst;
+    if (mOwner != null)
+      mOwner.invalidateCFG();
+  }
+
+  /**
+   * Removes all successors, making this the last instruction on its path.
+   */
+  public void clearNext() {
+    mNext = NO_NEXT;
+    if (mOwner != null)
+      mOwner.invalidateCFG();
+  }
+
+  /**
+   * Redirects every edge from this instruction to {@code from} so that it leads to {@code to}
+   * instead.
+   */
+  public void replaceNext(Instruction from, Instruction to) {
+    for (int i = 0; i < mNext.length; i++) {
+      if (mNext[i] == from)
+        setNext(i, to);
+    }
   }
 }
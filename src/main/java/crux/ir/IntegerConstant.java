@@ -1,8 +1,5 @@
 package crux.ir;
 
-import crux.ast.types.IntType;
-import java.util.HashMap;
-
 /**
  * A constant integer, e.g. an array offset (like the 2 in a[2]). This is equivalent to
  * {@link crux.ast.LiteralInt}.
@@ -11,8 +8,8 @@ public final class IntegerConstant extends Constant implements java.io.Serializa
   static final long serialVersionUID = 12022L;
   private long mValue;
 
-  private IntegerConstant(Program ctx, long val) {
-    super(new IntType());
+  IntegerConstant(long val) {
+    super(INT_TYPE);
     mValue = val;
   }
 
@@ -21,7 +18,6 @@ public final class IntegerConstant extends Constant implements java.io.Serializa
   }
 
   public static IntegerConstant get(Program ctx, long value) {
-    var currentMap = mIntConstantPool.computeIfAbsent(ctx, p -> new HashMap<>());
-    return currentMap.computeIfAbsent(value, p -> new IntegerConstant(ctx, value));
+    return ctx.getIntegerConstant(value);
   }
 }
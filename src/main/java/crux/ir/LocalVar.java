@@ -23,10 +23,15 @@ public final class LocalVar extends Variable implements java.io.Serializable {
 
   public LocalVar(Type type, String name) {
     super(type, name);
-    mName = String.format("$%s", mName);
+    mName = formatName(name);
   }
 
-  public String toString() {
-    return mName;
+  LocalVar(Type type, String prefix, int id) {
+    super(type, prefix, id);
+  }
+
+  @Override
+  protected String formatName(String baseName) {
+    return "$" + baseName;
   }
 }
@@ -0,0 +1,102 @@
+package crux.ir;
+
+import java.util.Arrays;
+
+/**
+ * A hash map from primitive {@code long} keys to objects. Keys are stored unboxed in an
+ * open-addressing table with linear probing, so a lookup does not allocate. Entries can not be
+ * removed individually; the map only grows until it is cleared.
+ */
+public final class LongMap<V> implements java.io.Serializable {
+  static final long serialVersionUID = 12022L;
+  private static final int INITIAL_CAPACITY = 16;
+
+  private long[] mKeys;
+  private Object[] mValues;
+  private int mSize;
+
+  public LongMap() {
+    mKeys = new long[INITIAL_CAPACITY];
+    mValues = new Object[INITIAL_CAPACITY];
+    mSize = 0;
+  }
+
+  public int size() {
+    return mSize;
+  }
+
+  @SuppressWarnings("unchecked")
+  public V get(long key) {
+    int slot = find(mKeys, mValues, key);
+    return (V) mValues[slot];
+  }
+
+  public boolean containsKey(long key) {
+    return get(key) != null;
+  }
+
+  /**
+   * Associates the value with the key, replacing any previous mapping. Null values are not
+   * supported, since an empty slot is marked by a null value.
+   */
+  public void put(long key, V value) {
+    if (value == null)
+      throw new IllegalArgumentException("LongMap does not support null values");
+    int slot = find(mKeys, mValues, key);
+    if (mValues[slot] == null) {
+      if (2 * (mSize + 1) > mKeys.length) {
+        grow();
+        slot = find(mKeys, mValues, key);
+      }
+      mKeys[slot] = key;
+      mSize++;
+    }
+    mValues[slot] = value;
+  }
+
+  /**
+   * Returns the value for the key, creating and inserting it with the mapping function if the key
+   * is not yet present.
+   */
+  public V computeIfAbsent(long key, java.util.function.LongFunction<? extends V> mapping) {
+    V value = get(key);
+    if (value == null) {
+      value = mapping.apply(key);
+      put(key, value);
+    }
+    return value;
+  }
+
+  public void clear() {
+    Arrays.fill(mValues, null);
+    mSize = 0;
+  }
+
+  private static int find(long[] keys, Object[] values, long key) {
+    int mask = keys.length - 1;
+    int slot = hash(key) & mask;
+    while (values[slot] != null && keys[slot] != key) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  private static int hash(long key) {
+    long h = key * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32));
+  }
+
+  private void grow() {
+    long[] keys = new long[mKeys.length * 2];
+    Object[] values = new Object[mValues.length * 2];
+    for (int i = 0; i < mKeys.length; i++) {
+      if (mValues[i] != null) {
+        int slot = find(keys, values, mKeys[i]);
+        keys[slot] = mKeys[i];
+        values[slot] = mValues[i];
+      }
+    }
+    mKeys = keys;
+    mValues = values;
+  }
+}
@@ -1,5 +1,10 @@
 package crux.ir;
 
+import crux.ir.analysis.CallGraph;
+import crux.ir.analysis.SideEffectSummary;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Iterator;
@@ -12,18 +17,85 @@ public final class Program implements Formattable, java.io.Serializable {
   static final long serialVersionUID = 12022L;
   private List<Function> mFunctions;
   private List<GlobalDecl> mGlobalVars;
+  private transient LongMap<IntegerConstant> mIntConstantPool;
+  private transient BooleanConstant mTrueConstant, mFalseConstant;
+  private transient SideEffectSummary mSideEffects;
 
   private static final int PROGRAM_FORMAT_INDENT = 2;
 
   public Program() {
     mFunctions = new ArrayList<>();
     mGlobalVars = new ArrayList<>();
+    mIntConstantPool = new LongMap<>();
+  }
+
+  /**
+   * Returns the interned integer constant of this program with the given value. Use
+   * {@link IntegerConstant#get} instead of calling this directly.
+   */
+  IntegerConstant getIntegerConstant(long value) {
+    return mIntConstantPool.computeIfAbsent(value, IntegerConstant::new);
+  }
+
+  /**
+   * Returns the interned boolean constant of this program with the given value. Use
+   * {@link BooleanConstant#get} instead of calling this directly.
+   */
+  BooleanConstant getBooleanConstant(boolean value) {
+    if (value) {
+      if (mTrueConstant == null)
+        mTrueConstant = new BooleanConstant(true);
+      return mTrueConstant;
+    }
+    if (mFalseConstant == null)
+      mFalseConstant = new BooleanConstant(false);
+    return mFalseConstant;
+  }
+
+  /**
+   * Interns the constants of a program that was read back, whose instructions each come with
+   * constants of their own.
+   */
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    mIntConstantPool = new LongMap<>();
+    for (Function function : mFunctions) {
+      if (function.getStart() == null)
+        continue;
+      for (Instruction inst : function.getCFG().instructions()) {
+        for (int i = 0; i < inst.numOperands(); i++) {
+          Value operand = inst.getOperand(i);
+          if (operand instanceof IntegerConstant)
+            inst.setOperand(i, getIntegerConstant(((IntegerConstant) operand).getValue()));
+          else if (operand instanceof BooleanConstant)
+            inst.setOperand(i, getBooleanConstant(((BooleanConstant) operand).getValue()));
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns what calling each function can do. The summary is cached until
+   * {@link #invalidateSideEffects()} is called, which passes that add calls or effects must do.
+   */
+  public SideEffectSummary getSideEffects() {
+    if (mSideEffects == null)
+      mSideEffects = SideEffectSummary.build(this, CallGraph.build(this));
+    return mSideEffects;
+  }
+
+  public void invalidateSideEffects() {
+    mSideEffects = null;
   }
 
   public void addGlobalVar(GlobalDecl globalAllocate) {
     mGlobalVars.add(globalAllocate);
   }
 
+  public void removeGlobalVar(GlobalDecl globalAllocate) {
+    mGlobalVars.remove(globalAllocate);
+  }
+
   public Iterator<GlobalDecl> getGlobals() {
     return mGlobalVars.iterator();
   }
@@ -32,6 +104,10 @@ public final class Program implements Formattable, java.io.Serializable {
     mFunctions.add(function);
   }
 
+  public void removeFunction(Function function) {
+    mFunctions.remove(function);
+  }
+
   public Iterator<Function> getFunctions() {
     return mFunctions.iterator();
   }
@@ -1,5 +1,7 @@
 package crux.ir;
 
+import crux.ast.types.BoolType;
+import crux.ast.types.IntType;
 import crux.ast.types.Type;
 
 /**
@@ -9,6 +11,9 @@ import crux.ast.types.Type;
  */
 public abstract class Value implements java.io.Serializable {
   static final long serialVersionUID = 12022L;
+  static final IntType INT_TYPE = new IntType();
+  static final BoolType BOOL_TYPE = new BoolType();
+
   protected Type mType;
 
   protected Value(Type type) {
@@ -18,4 +23,17 @@ public abstract class Value implements java.io.Serializable {
   public Type getType() {
     return mType;
   }
+
+  /**
+   * Scalar types carry no state, so all values of the same scalar type can share one instance
+   * instead of each holding a private copy. Other types (e.g. the array type of an address) are
+   * returned unchanged.
+   */
+  static Type sharedType(Type type) {
+    if (type instanceof IntType)
+      return INT_TYPE;
+    if (type instanceof BoolType)
+      return BOOL_TYPE;
+    return type;
+  }
 }
@@ -2,24 +2,106 @@ package crux.ir;
 
 import crux.ast.types.Type;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
+
 /**
  * Any sort of value in the memory which holds a value that can be read or written by instructions.
  * This includes both variables declared in the AST, as well as temporaries.
+ * <p>
+ * Variables created by a {@link Function} are numbered densely from zero, separately for
+ * {@link LocalVar}s and {@link AddressVar}s, so the id can be used directly as an index into an
+ * array of size {@link Function#getNumTempVars()} or {@link Function#getNumTempAddressVars()}. The
+ * printable name is only built when it is asked for.
+ * <p>
+ * The serialized form only holds the name, as it always did. A variable that is read back has no
+ * id until the {@link Function} it belongs to numbers it.
  */
 public abstract class Variable extends Value implements java.io.Serializable {
   static final long serialVersionUID = 12022L;
-  protected String mName = "";
+  public static final int NO_ID = -1;
+
+  protected String mName;
+  private String mPrefix;
+  private int mId;
+
+  private static final ObjectStreamField[] serialPersistentFields = {
+      new ObjectStreamField("mName", String.class)};
 
   protected Variable(Type type) {
     super(type);
+    mName = "";
+    mPrefix = "";
+    mId = NO_ID;
   }
 
   protected Variable(Type type, String name) {
-    this(type);
+    super(type);
     mName = name;
+    mPrefix = name;
+    mId = NO_ID;
+  }
+
+  protected Variable(Type type, String prefix, int id) {
+    super(sharedType(type));
+    mName = null;
+    mPrefix = prefix;
+    mId = id;
+  }
+
+  /**
+   * Returns the id of this variable within its function, or {@link #NO_ID} if the variable was not
+   * created by a function.
+   */
+  public int getId() {
+    return mId;
+  }
+
+  /**
+   * The base name of the variable without its id, e.g. the source name of a local variable. New
+   * versions of a variable are created with the same prefix.
+   */
+  public String getPrefix() {
+    return mPrefix;
+  }
+
+  /**
+   * Gives a variable that was read back without an id the id its function assigns it.
+   */
+  void setId(int id) {
+    mId = id;
   }
 
   public String getName() {
+    if (mName == null)
+      mName = formatName(mPrefix + mId);
     return mName;
   }
+
+  /**
+   * Decorates the base name of the variable (e.g. with a sigil marking the kind of variable).
+   */
+  protected abstract String formatName(String baseName);
+
+  public String toString() {
+    return getName();
+  }
+
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    ObjectOutputStream.PutField fields = out.putFields();
+    fields.put("mName", getName());
+    out.writeFields();
+  }
+
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    mName = (String) in.readFields().get("mName", "");
+    // Names were the prefix followed by the id, behind the sigil of the kind of variable.
+    int end = mName.length();
+    while (end > 1 && Character.isDigit(mName.charAt(end - 1)))
+      end--;
+    mPrefix = mName.isEmpty() ? "" : mName.substring(1, end);
+    mId = NO_ID;
+  }
 }
@@ -0,0 +1,61 @@
+package crux.ir.analysis;
+
+import crux.ir.Instruction;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A maximal straight-line sequence of instructions. Control can only enter at the first instruction
+ * and only leave at the last one. Blocks are numbered in reverse postorder of their
+ * {@link ControlFlowGraph}, so the entry block has number 0.
+ */
+public final class BasicBlock {
+  private final List<Instruction> mInstructions;
+  final List<BasicBlock> mSuccessors = new ArrayList<>(2);
+  final List<BasicBlock> mPredecessors = new ArrayList<>(2);
+  int mNumber;
+
+  BasicBlock(List<Instruction> instructions) {
+    mInstructions = Collections.unmodifiableList(instructions);
+  }
+
+  /**
+   * The position of this block in reverse postorder.
+   */
+  public int getNumber() {
+    return mNumber;
+  }
+
+  public List<Instruction> getInstructions() {
+    return mInstructions;
+  }
+
+  public Instruction getFirst() {
+    return mInstructions.get(0);
+  }
+
+  public Instruction getLast() {
+    return mInstructions.get(mInstructions.size() - 1);
+  }
+
+  /**
+   * The distinct successor blocks. For a block ending in a jump the false successor comes first.
+   */
+  public List<BasicBlock> getSuccessors() {
+    return Collections.unmodifiableList(mSuccessors);
+  }
+
+  /**
+   * The distinct predecessor blocks, ordered by their reverse postorder number.
+   */
+  public List<BasicBlock> getPredecessors() {
+    return Collections.unmodifiableList(mPredecessors);
+  }
+
+  @Override
+  public String toString() {
+    return "B" + mNumber;
+  }
+}
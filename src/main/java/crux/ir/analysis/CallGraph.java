@@ -0,0 +1,182 @@
+package crux.ir.analysis;
+
+import crux.ir.Function;
+import crux.ir.Instruction;
+import crux.ir.Program;
+import crux.ir.insts.CallInst;
+
+import java.util.*;
+
+/**
+ * The whole-program call graph: which functions each function calls, and from where. Callees are
+ * found by name; calls of the built-in functions, which have no body in the program, have no
+ * callee.
+ * <p>
+ * The strongly connected components of the graph are computed with Tarjan's algorithm and listed
+ * callees first, so visiting them in order sees every function after the functions it calls,
+ * except for calls within a component. A function is recursive if it can reach itself, i.e. it
+ * shares its component with another function or calls itself directly.
+ * <p>
+ * The graph is a snapshot of the program; it is not updated when calls are added or removed.
+ */
+public final class CallGraph {
+  private final Map<String, Function> mFunctions = new LinkedHashMap<>();
+  private final Map<Function, List<CallInst>> mCallSites = new HashMap<>();
+  private final Map<Function, List<Function>> mCallees = new HashMap<>();
+  private final Map<Function, List<Function>> mCallers = new HashMap<>();
+  private final Map<Function, Integer> mNumCalls = new HashMap<>();
+  private final List<List<Function>> mComponents = new ArrayList<>();
+  private final Map<Function, Integer> mComponentOf = new HashMap<>();
+  private final Set<Function> mRecursive = new HashSet<>();
+
+  private CallGraph(Program program) {
+    for (Iterator<Function> it = program.getFunctions(); it.hasNext();) {
+      Function function = it.next();
+      mFunctions.put(function.getName(), function);
+      mCallees.put(function, new ArrayList<>());
+      mCallers.put(function, new ArrayList<>());
+      mNumCalls.put(function, 0);
+    }
+    for (Function caller : mFunctions.values()) {
+      List<CallInst> calls = new ArrayList<>();
+      if (caller.getStart() != null) {
+        for (Instruction inst : caller.getCFG().instructions()) {
+          if (inst instanceof CallInst)
+            calls.add((CallInst) inst);
+        }
+      }
+      mCallSites.put(caller, Collections.unmodifiableList(calls));
+      for (CallInst call : calls) {
+        Function callee = getCallee(call);
+        if (callee == null)
+          continue;
+        mNumCalls.merge(callee, 1, Integer::sum);
+        if (callee == caller)
+          mRecursive.add(caller);
+        if (!mCallees.get(caller).contains(callee)) {
+          mCallees.get(caller).add(callee);
+          mCallers.get(callee).add(caller);
+        }
+      }
+    }
+    findComponents();
+  }
+
+  public static CallGraph build(Program program) {
+    return new CallGraph(program);
+  }
+
+  /**
+   * Returns the function with the given name, or null if the program does not define it.
+   */
+  public Function getFunction(String name) {
+    return mFunctions.get(name);
+  }
+
+  /**
+   * Returns the function a call invokes, or null for a built-in function.
+   */
+  public Function getCallee(CallInst call) {
+    return mFunctions.get(call.getCallee().getName());
+  }
+
+  /**
+   * Returns the reachable calls in the body of a function, in the order of its instructions.
+   */
+  public List<CallInst> getCallSites(Function caller) {
+    return mCallSites.get(caller);
+  }
+
+  /**
+   * Returns the functions of the program a function calls, each once.
+   */
+  public List<Function> getCallees(Function caller) {
+    return Collections.unmodifiableList(mCallees.get(caller));
+  }
+
+  /**
+   * Returns the functions that call a function, each once.
+   */
+  public List<Function> getCallers(Function callee) {
+    return Collections.unmodifiableList(mCallers.get(callee));
+  }
+
+  /**
+   * Returns the number of calls of a function in the whole program.
+   */
+  public int numCallSites(Function callee) {
+    return mNumCalls.get(callee);
+  }
+
+  /**
+   * Returns the strongly connected components, each component after all components it calls into.
+   */
+  public List<List<Function>> getComponents() {
+    return Collections.unmodifiableList(mComponents);
+  }
+
+  public boolean inSameComponent(Function a, Function b) {
+    return mComponentOf.get(a).equals(mComponentOf.get(b));
+  }
+
+  public boolean isRecursive(Function function) {
+    return mRecursive.contains(function);
+  }
+
+  /**
+   * Tarjan's algorithm, with an explicit stack of iterators instead of recursion so deep call
+   * chains do not overflow the Java stack.
+   */
+  private void findComponents() {
+    Map<Function, Integer> index = new HashMap<>();
+    Map<Function, Integer> lowLink = new HashMap<>();
+    Deque<Function> stack = new ArrayDeque<>();
+    Set<Function> onStack = new HashSet<>();
+    for (Function root : mFunctions.values()) {
+      if (index.containsKey(root))
+        continue;
+      Deque<Function> path = new ArrayDeque<>();
+      Deque<Iterator<Function>> succs = new ArrayDeque<>();
+      index.put(root, index.size());
+      lowLink.put(root, index.get(root));
+      stack.push(root);
+      onStack.add(root);
+      path.push(root);
+      succs.push(mCallees.get(root).iterator());
+      while (!path.isEmpty()) {
+        Function function = path.peek();
+        if (succs.peek().hasNext()) {
+          Function callee = succs.peek().next();
+          if (!index.containsKey(callee)) {
+            index.put(callee, index.size());
+            lowLink.put(callee, index.get(callee));
+            stack.push(callee);
+            onStack.add(callee);
+            path.push(callee);
+            succs.push(mCallees.get(callee).iterator());
+          } else if (onStack.contains(callee)) {
+            lowLink.put(function, Math.min(lowLink.get(function), index.get(callee)));
+          }
+          continue;
+        }
+        path.pop();
+        succs.pop();
+        if (!path.isEmpty())
+          lowLink.put(path.peek(), Math.min(lowLink.get(path.peek()), lowLink.get(function)));
+        if (!lowLink.get(function).equals(index.get(function)))
+          continue;
+        List<Function> component = new ArrayList<>();
+        Function member;
+        do {
+          member = stack.pop();
+          onStack.remove(member);
+          component.add(member);
+          mComponentOf.put(member, mComponents.size());
+        } while (member != function);
+        if (component.size() > 1)
+          mRecursive.addAll(component);
+        mComponents.add(Collections.unmodifiableList(component));
+      }
+    }
+  }
+}
@@ -0,0 +1,259 @@
+package crux.ir.analysis;
+
+import crux.ir.Function;
+import crux.ir.Instruction;
+import crux.ir.insts.PhiInst;
+import crux.ir.insts.ReturnInst;
+
+import java.util.*;
+
+/**
+ * The basic-block view of the instruction graph of a {@link Function}. Only blocks reachable from
+ * the start of the function are part of the graph, and they are kept in reverse postorder.
+ * <p>
+ * The graph is a snapshot. Use {@link Function#getCFG()} to get a cached instance, which is
+ * discarded automatically as soon as an edge of the function is changed.
+ */
+public final class ControlFlowGraph {
+  private final Function mFunction;
+  private final List<BasicBlock> mBlocks;
+  /** Dense ids of the reachable instructions, indexing mBlockOf and mIndexInBlock. */
+  private final Map<Instruction, Integer> mIds;
+  private final BasicBlock[] mBlockOf;
+  private final int[] mIndexInBlock;
+  private DominatorTree mDominatorTree;
+  private LoopForest mLoopForest;
+
+  private ControlFlowGraph(Function function, List<BasicBlock> blocks,
+      Map<Instruction, Integer> ids, BasicBlock[] blockOf, int[] indexInBlock) {
+    mFunction = function;
+    mBlocks = Collections.unmodifiableList(blocks);
+    mIds = ids;
+    mBlockOf = blockOf;
+    mIndexInBlock = indexInBlock;
+  }
+
+  /**
+   * Returns the control flow successors of an instruction. A return leaves the function, so it has
+   * no successors even if the lowering linked it to the following statement.
+   */
+  public static List<Instruction> successorsOf(Instruction inst) {
+    if (inst instanceof ReturnInst || inst.numNext() == 0)
+      return List.of();
+    if (inst.numNext() == 1)
+      return inst.getNext(0) == null ? List.of() : List.of(inst.getNext(0));
+    List<Instruction> succs = new ArrayList<>(inst.numNext());
+    for (int i = 0; i < inst.numNext(); i++) {
+      if (inst.getNext(i) != null)
+        succs.add(inst.getNext(i));
+    }
+    return succs;
+  }
+
+  /**
+   * Builds the graph from scratch. Prefer {@link Function#getCFG()}, which caches the result
+   * together with the analyses derived from it.
+   */
+  public static ControlFlowGraph build(Function function) {
+    // Number the reachable instructions in the order they are discovered.
+    Map<Instruction, Integer> ids = new IdentityHashMap<>();
+    List<Instruction> insts = new ArrayList<>();
+    Deque<Instruction> tovisit = new ArrayDeque<>();
+    if (function.getStart() != null) {
+      ids.put(function.getStart(), 0);
+      insts.add(function.getStart());
+      tovisit.push(function.getStart());
+    }
+    while (!tovisit.isEmpty()) {
+      for (Instruction succ : successorsOf(tovisit.pop())) {
+        if (!ids.containsKey(succ)) {
+          ids.put(succ, insts.size());
+          insts.add(succ);
+          tovisit.push(succ);
+        }
+      }
+    }
+
+    // Record the edges by number, in compressed rows.
+    int n = insts.size();
+    int[] succStart = new int[n + 1];
+    int[] succs = new int[Math.max(n, 1)];
+    int[] numPreds = new int[n];
+    int numEdges = 0;
+    for (int id = 0; id < n; id++) {
+      succStart[id] = numEdges;
+      for (Instruction succ : successorsOf(insts.get(id))) {
+        if (numEdges == succs.length)
+          succs = Arrays.copyOf(succs, 2 * succs.length);
+        int succId = ids.get(succ);
+        succs[numEdges++] = succId;
+        numPreds[succId]++;
+      }
+    }
+    succStart[n] = numEdges;
+
+    // An instruction starts a block if it is the entry, a merge point or a branch target. Phis
+    // always start a block, even after all but one of its predecessors went away.
+    boolean[] leader = new boolean[n];
+    if (n > 0)
+      leader[0] = true;
+    for (int id = 0; id < n; id++) {
+      int numSuccs = succStart[id + 1] - succStart[id];
+      for (int e = succStart[id]; e < succStart[id + 1]; e++) {
+        if (numSuccs > 1 || numPreds[succs[e]] != 1)
+          leader[succs[e]] = true;
+        else if (insts.get(succs[e]) instanceof PhiInst && !(insts.get(id) instanceof PhiInst))
+          leader[succs[e]] = true;
+      }
+    }
+
+    BasicBlock[] blockOf = new BasicBlock[n];
+    int[] indexInBlock = new int[n];
+    List<BasicBlock> blocks = new ArrayList<>();
+    for (int first = 0; first < n; first++) {
+      if (!leader[first])
+        continue;
+      List<Instruction> blockInsts = new ArrayList<>();
+      BasicBlock block = new BasicBlock(blockInsts);
+      int id = first;
+      while (true) {
+        blockOf[id] = block;
+        indexInBlock[id] = blockInsts.size();
+        blockInsts.add(insts.get(id));
+        if (succStart[id + 1] - succStart[id] != 1 || leader[succs[succStart[id]]])
+          break;
+        id = succs[succStart[id]];
+      }
+      blocks.add(block);
+    }
+
+    for (BasicBlock block : blocks) {
+      int last = ids.get(block.getLast());
+      for (int e = succStart[last]; e < succStart[last + 1]; e++) {
+        BasicBlock succBlock = blockOf[succs[e]];
+        if (!block.mSuccessors.contains(succBlock))
+          block.mSuccessors.add(succBlock);
+      }
+    }
+
+    List<BasicBlock> rpo = reversePostorder(n == 0 ? null : blockOf[0]);
+    for (int i = 0; i < rpo.size(); i++) {
+      rpo.get(i).mNumber = i;
+    }
+    for (BasicBlock block : rpo) {
+      for (BasicBlock succ : block.mSuccessors) {
+        succ.mPredecessors.add(block);
+      }
+    }
+    return new ControlFlowGraph(function, rpo, ids, blockOf, indexInBlock);
+  }
+
+  private static List<BasicBlock> reversePostorder(BasicBlock entry) {
+    List<BasicBlock> postorder = new ArrayList<>();
+    if (entry == null)
+      return postorder;
+    Set<BasicBlock> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+    Deque<BasicBlock> blockStack = new ArrayDeque<>();
+    Deque<Integer> succIdxStack = new ArrayDeque<>();
+    visited.add(entry);
+    blockStack.push(entry);
+    succIdxStack.push(0);
+    while (!blockStack.isEmpty()) {
+      BasicBlock block = blockStack.peek();
+      int succIdx = succIdxStack.pop();
+      if (succIdx < block.mSuccessors.size()) {
+        succIdxStack.push(succIdx + 1);
+        BasicBlock succ = block.mSuccessors.get(succIdx);
+        if (visited.add(succ)) {
+          blockStack.push(succ);
+          succIdxStack.push(0);
+        }
+      } else {
+        blockStack.pop();
+        postorder.add(block);
+      }
+    }
+    Collections.reverse(postorder);
+    return postorder;
+  }
+
+  public Function getFunction() {
+    return mFunction;
+  }
+
+  public BasicBlock getEntry() {
+    return mBlocks.isEmpty() ? null : mBlocks.get(0);
+  }
+
+  /**
+   * All reachable blocks in reverse postorder; the index of a block equals its number.
+   */
+  public List<BasicBlock> getBlocks() {
+    return mBlocks;
+  }
+
+  public int size() {
+    return mBlocks.size();
+  }
+
+  /**
+   * Returns the block containing the instruction, or null if it is unreachable.
+   */
+  public BasicBlock getBlock(Instruction inst) {
+    Integer id = mIds.get(inst);
+    return id == null ? null : mBlockOf[id];
+  }
+
+  /**
+   * Returns the position of a reachable instruction within its block.
+   */
+  public int getIndexInBlock(Instruction inst) {
+    return mIndexInBlock[mIds.get(inst)];
+  }
+
+  /**
+   * Returns the instructions with an edge to a reachable instruction: the previous instruction of
+   * its block, or the last instructions of the predecessor blocks for the first instruction of a
+   * block.
+   */
+  public List<Instruction> predecessorsOf(Instruction inst) {
+    int id = mIds.get(inst);
+    BasicBlock block = mBlockOf[id];
+    if (mIndexInBlock[id] > 0)
+      return List.of(block.getInstructions().get(mIndexInBlock[id] - 1));
+    List<Instruction> preds = new ArrayList<>(block.getPredecessors().size());
+    for (BasicBlock pred : block.getPredecessors()) {
+      preds.add(pred.getLast());
+    }
+    return preds;
+  }
+
+  /**
+   * Returns the dominator tree of this graph, computing it on first use.
+   */
+  public DominatorTree getDominatorTree() {
+    if (mDominatorTree == null)
+      mDominatorTree = new DominatorTree(this);
+    return mDominatorTree;
+  }
+
+  /**
+   * Returns the loop-nest forest of this graph, computing it on first use.
+   */
+  public LoopForest getLoopForest() {
+    if (mLoopForest == null)
+      mLoopForest = new LoopForest(getDominatorTree());
+    return mLoopForest;
+  }
+
+  /**
+   * Iterates over all reachable instructions, block by block in reverse postorder.
+   */
+  public Iterable<Instruction> instructions() {
+    List<Instruction> insts = new ArrayList<>(mBlockOf.length);
+    for (BasicBlock block : mBlocks) {
+      insts.addAll(block.getInstructions());
+    }
+    return insts;
+  }
+}
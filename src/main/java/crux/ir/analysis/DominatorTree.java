@@ -0,0 +1,183 @@
+package crux.ir.analysis;
+
+import crux.ir.Instruction;
+
+import java.util.*;
+
+/**
+ * The dominator tree of a {@link ControlFlowGraph}, computed with the iterative algorithm of Cooper,
+ * Harvey and Kennedy ("A Simple, Fast Dominance Algorithm"). Block A dominates block B if every
+ * path from the entry to B passes through A.
+ * <p>
+ * Dominance queries take constant time: they compare the pre- and postorder numbers of the blocks
+ * in the tree. Dominance frontiers are computed on first use.
+ */
+public final class DominatorTree {
+  private final ControlFlowGraph mCFG;
+  /** The immediate dominator of each block by number; the entry is its own dominator. */
+  private final int[] mIdom;
+  private final List<List<BasicBlock>> mChildren;
+  private final int[] mPreorder;
+  private final int[] mPostorder;
+  private final List<BasicBlock> mTreeOrder;
+  private List<Set<BasicBlock>> mFrontiers;
+
+  public DominatorTree(ControlFlowGraph cfg) {
+    mCFG = cfg;
+    int n = cfg.size();
+    mIdom = new int[n];
+    Arrays.fill(mIdom, -1);
+    if (n > 0)
+      mIdom[0] = 0;
+
+    List<BasicBlock> blocks = cfg.getBlocks();
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (int b = 1; b < n; b++) {
+        int newIdom = -1;
+        for (BasicBlock pred : blocks.get(b).getPredecessors()) {
+          int p = pred.getNumber();
+          if (mIdom[p] == -1)
+            continue;
+          newIdom = newIdom == -1 ? p : intersect(p, newIdom);
+        }
+        if (mIdom[b] != newIdom) {
+          mIdom[b] = newIdom;
+          changed = true;
+        }
+      }
+    }
+
+    mChildren = new ArrayList<>(n);
+    for (int b = 0; b < n; b++) {
+      mChildren.add(new ArrayList<>(2));
+    }
+    for (int b = 1; b < n; b++) {
+      mChildren.get(mIdom[b]).add(blocks.get(b));
+    }
+
+    mPreorder = new int[n];
+    mPostorder = new int[n];
+    mTreeOrder = new ArrayList<>(n);
+    if (n > 0)
+      numberTree(blocks.get(0));
+  }
+
+  private int intersect(int a, int b) {
+    // Block numbers are reverse postorder numbers, so a dominator always has a smaller number.
+    while (a != b) {
+      while (a > b)
+        a = mIdom[a];
+      while (b > a)
+        b = mIdom[b];
+    }
+    return a;
+  }
+
+  private void numberTree(BasicBlock root) {
+    int pre = 0, post = 0;
+    Deque<BasicBlock> blockStack = new ArrayDeque<>();
+    Deque<Integer> childIdxStack = new ArrayDeque<>();
+    blockStack.push(root);
+    childIdxStack.push(0);
+    mPreorder[root.getNumber()] = pre++;
+    mTreeOrder.add(root);
+    while (!blockStack.isEmpty()) {
+      BasicBlock block = blockStack.peek();
+      int childIdx = childIdxStack.pop();
+      List<BasicBlock> children = mChildren.get(block.getNumber());
+      if (childIdx < children.size()) {
+        childIdxStack.push(childIdx + 1);
+        BasicBlock child = children.get(childIdx);
+        mPreorder[child.getNumber()] = pre++;
+        mTreeOrder.add(child);
+        blockStack.push(child);
+        childIdxStack.push(0);
+      } else {
+        blockStack.pop();
+        mPostorder[block.getNumber()] = post++;
+      }
+    }
+  }
+
+  public ControlFlowGraph getCFG() {
+    return mCFG;
+  }
+
+  /**
+   * Returns the immediate dominator of the block, or null for the entry block.
+   */
+  public BasicBlock getIdom(BasicBlock block) {
+    int b = block.getNumber();
+    return b == 0 ? null : mCFG.getBlocks().get(mIdom[b]);
+  }
+
+  /**
+   * The blocks immediately dominated by the block.
+   */
+  public List<BasicBlock> getChildren(BasicBlock block) {
+    return Collections.unmodifiableList(mChildren.get(block.getNumber()));
+  }
+
+  /**
+   * All blocks in preorder of the dominator tree, so every block comes after its dominators.
+   */
+  public List<BasicBlock> getTreeOrder() {
+    return Collections.unmodifiableList(mTreeOrder);
+  }
+
+  /**
+   * Returns true if a dominates b. Every block dominates itself.
+   */
+  public boolean dominates(BasicBlock a, BasicBlock b) {
+    int x = a.getNumber(), y = b.getNumber();
+    return mPreorder[x] <= mPreorder[y] && mPostorder[x] >= mPostorder[y];
+  }
+
+  public boolean strictlyDominates(BasicBlock a, BasicBlock b) {
+    return a != b && dominates(a, b);
+  }
+
+  /**
+   * Returns true if instruction a is executed before instruction b on every path from the entry to
+   * b. An instruction dominates itself.
+   */
+  public boolean dominates(Instruction a, Instruction b) {
+    BasicBlock blockA = mCFG.getBlock(a), blockB = mCFG.getBlock(b);
+    if (blockA != blockB)
+      return dominates(blockA, blockB);
+    return mCFG.getIndexInBlock(a) <= mCFG.getIndexInBlock(b);
+  }
+
+  /**
+   * The dominance frontier of the block: the blocks where its dominance ends, i.e. blocks with a
+   * predecessor dominated by it that are not strictly dominated by it themselves.
+   */
+  public Set<BasicBlock> getFrontier(BasicBlock block) {
+    if (mFrontiers == null)
+      computeFrontiers();
+    return Collections.unmodifiableSet(mFrontiers.get(block.getNumber()));
+  }
+
+  private void computeFrontiers() {
+    int n = mCFG.size();
+    mFrontiers = new ArrayList<>(n);
+    for (int b = 0; b < n; b++) {
+      mFrontiers.add(new LinkedHashSet<>());
+    }
+    for (BasicBlock block : mCFG.getBlocks()) {
+      if (block.getPredecessors().size() < 2)
+        continue;
+      int idom = mIdom[block.getNumber()];
+      for (BasicBlock pred : block.getPredecessors()) {
+        int runner = pred.getNumber();
+        while (runner != idom) {
+          if (!mFrontiers.get(runner).add(block))
+            break;
+          runner = mIdom[runner];
+        }
+      }
+    }
+  }
+}
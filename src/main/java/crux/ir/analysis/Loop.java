@@ -0,0 +1,127 @@
+package crux.ir.analysis;
+
+import java.util.*;
+
+/**
+ * A natural loop: a header block together with all blocks that can reach one of its back edges
+ * without passing through the header. Back edges sharing a header form a single loop.
+ */
+public final class Loop {
+  private final LoopForest mForest;
+  private final BasicBlock mHeader;
+  private final List<BasicBlock> mLatches;
+  private final List<BasicBlock> mOwnBlocks = new ArrayList<>();
+  private final List<Loop> mChildren = new ArrayList<>();
+  private Set<BasicBlock> mBlocks;
+  Loop mParent;
+  int mDepth;
+  int mPreorder;
+  int mLastDescendant;
+
+  Loop(LoopForest forest, BasicBlock header, List<BasicBlock> latches) {
+    mForest = forest;
+    mHeader = header;
+    mLatches = latches;
+  }
+
+  public BasicBlock getHeader() {
+    return mHeader;
+  }
+
+  /**
+   * The sources of the back edges to the header.
+   */
+  public List<BasicBlock> getLatches() {
+    return Collections.unmodifiableList(mLatches);
+  }
+
+  /**
+   * All blocks of the loop, including the blocks of nested loops, ordered by number. The set is
+   * built on first use.
+   */
+  public Set<BasicBlock> getBlocks() {
+    if (mBlocks == null) {
+      List<BasicBlock> blocks = new ArrayList<>(mOwnBlocks);
+      for (Loop child : mChildren) {
+        blocks.addAll(child.getBlocks());
+      }
+      blocks.sort(Comparator.comparingInt(BasicBlock::getNumber));
+      mBlocks = Collections.unmodifiableSet(new LinkedHashSet<>(blocks));
+    }
+    return mBlocks;
+  }
+
+  /**
+   * Returns true if the block belongs to this loop or to a loop nested in it.
+   */
+  public boolean contains(BasicBlock block) {
+    Loop inner = mForest.getLoopFor(block);
+    return inner != null && contains(inner);
+  }
+
+  /**
+   * Returns true if the loop is this loop or nested in it.
+   */
+  public boolean contains(Loop loop) {
+    return mPreorder <= loop.mPreorder && loop.mPreorder <= mLastDescendant;
+  }
+
+  /**
+   * The innermost loop containing this one, or null for an outermost loop.
+   */
+  public Loop getParent() {
+    return mParent;
+  }
+
+  public List<Loop> getChildren() {
+    return Collections.unmodifiableList(mChildren);
+  }
+
+  /**
+   * The nesting depth; outermost loops have depth 1.
+   */
+  public int getDepth() {
+    return mDepth;
+  }
+
+  /**
+   * The predecessors of the header that are outside of the loop.
+   */
+  public List<BasicBlock> getEntries() {
+    List<BasicBlock> entries = new ArrayList<>();
+    for (BasicBlock pred : mHeader.getPredecessors()) {
+      if (!contains(pred))
+        entries.add(pred);
+    }
+    return entries;
+  }
+
+  /**
+   * The blocks outside of the loop that are reached directly from a block inside of it, ordered by
+   * number.
+   */
+  public List<BasicBlock> getExits() {
+    List<BasicBlock> exits = new ArrayList<>();
+    for (BasicBlock block : getBlocks()) {
+      for (BasicBlock succ : block.getSuccessors()) {
+        if (!contains(succ) && !exits.contains(succ))
+          exits.add(succ);
+      }
+    }
+    exits.sort(Comparator.comparingInt(BasicBlock::getNumber));
+    return exits;
+  }
+
+  void addOwnBlock(BasicBlock block) {
+    mOwnBlocks.add(block);
+  }
+
+  void addChild(Loop child) {
+    mChildren.add(child);
+  }
+
+  @Override
+  public String toString() {
+    return "Loop(" + mHeader + ")";
+  }
+}
@@ -0,0 +1,153 @@
+package crux.ir.analysis;
+
+import java.util.*;
+
+/**
+ * The loop-nest forest of a {@link ControlFlowGraph}. Loops are found from the back edges of the
+ * graph (edges whose target dominates their source), so only reducible loops are recognized; the
+ * structured control flow of Crux does not produce any other kind.
+ * <p>
+ * Headers are visited from the innermost to the outermost loop, and every discovered loop is
+ * collapsed into its header with a union-find structure. Walking the body of an outer loop then
+ * steps over each nested loop in one step, which keeps the construction close to linear even for
+ * deeply nested loops.
+ */
+public final class LoopForest {
+  private final List<Loop> mLoops = new ArrayList<>();
+  private final List<Loop> mTopLevel = new ArrayList<>();
+  private final Loop[] mInnermost;
+
+  public LoopForest(DominatorTree domTree) {
+    ControlFlowGraph cfg = domTree.getCFG();
+    List<BasicBlock> blocks = cfg.getBlocks();
+    int n = blocks.size();
+    mInnermost = new Loop[n];
+    Loop[] loopOfHeader = new Loop[n];
+    int[] representative = new int[n];
+    int[] visitedBy = new int[n];
+    for (int b = 0; b < n; b++) {
+      representative[b] = b;
+      visitedBy[b] = -1;
+    }
+
+    // A nested loop header is dominated by the outer header, so it has a larger number.
+    Deque<Integer> worklist = new ArrayDeque<>();
+    for (int h = n - 1; h >= 0; h--) {
+      BasicBlock header = blocks.get(h);
+      List<BasicBlock> latches = new ArrayList<>();
+      for (BasicBlock pred : header.getPredecessors()) {
+        if (domTree.dominates(header, pred))
+          latches.add(pred);
+      }
+      if (latches.isEmpty())
+        continue;
+
+      Loop loop = new Loop(this, header, latches);
+      loopOfHeader[h] = loop;
+      mInnermost[h] = loop;
+      loop.addOwnBlock(header);
+      mLoops.add(loop);
+      visitedBy[h] = h;
+      for (BasicBlock latch : latches) {
+        worklist.push(find(representative, latch.getNumber()));
+      }
+      while (!worklist.isEmpty()) {
+        int r = worklist.pop();
+        if (visitedBy[r] == h)
+          continue;
+        visitedBy[r] = h;
+        Loop inner = loopOfHeader[r];
+        if (inner != null) {
+          inner.mParent = loop;
+          loop.addChild(inner);
+        } else {
+          mInnermost[r] = loop;
+          loop.addOwnBlock(blocks.get(r));
+        }
+        representative[r] = h;
+        for (BasicBlock pred : blocks.get(r).getPredecessors()) {
+          if (!domTree.dominates(header, pred))
+            continue;
+          int rp = find(representative, pred.getNumber());
+          if (visitedBy[rp] != h)
+            worklist.push(rp);
+        }
+      }
+    }
+
+    for (int i = mLoops.size() - 1; i >= 0; i--) {
+      Loop loop = mLoops.get(i);
+      if (loop.mParent == null)
+        mTopLevel.add(loop);
+    }
+    int[] counter = { 0 };
+    for (Loop loop : mTopLevel) {
+      number(loop, 1, counter);
+    }
+  }
+
+  private static int find(int[] representative, int b) {
+    int root = b;
+    while (representative[root] != root)
+      root = representative[root];
+    while (representative[b] != root) {
+      int next = representative[b];
+      representative[b] = root;
+      b = next;
+    }
+    return root;
+  }
+
+  private static void number(Loop root, int depth, int[] counter) {
+    Deque<Loop> loopStack = new ArrayDeque<>();
+    Deque<Integer> childIdxStack = new ArrayDeque<>();
+    root.mDepth = depth;
+    root.mPreorder = counter[0]++;
+    loopStack.push(root);
+    childIdxStack.push(0);
+    while (!loopStack.isEmpty()) {
+      Loop loop = loopStack.peek();
+      int childIdx = childIdxStack.pop();
+      if (childIdx < loop.getChildren().size()) {
+        childIdxStack.push(childIdx + 1);
+        Loop child = loop.getChildren().get(childIdx);
+        child.mDepth = loop.mDepth + 1;
+        child.mPreorder = counter[0]++;
+        loopStack.push(child);
+        childIdxStack.push(0);
+      } else {
+        loopStack.pop();
+        loop.mLastDescendant = counter[0] - 1;
+      }
+    }
+  }
+
+  /**
+   * All loops, inner loops before the loops containing them.
+   */
+  public List<Loop> getLoops() {
+    return Collections.unmodifiableList(mLoops);
+  }
+
+  /**
+   * The outermost loops, ordered by the number of their header.
+   */
+  public List<Loop> getTopLevelLoops() {
+    return Collections.unmodifiableList(mTopLevel);
+  }
+
+  /**
+   * Returns the innermost loop containing the block, or null if the block is not in a loop.
+   */
+  public Loop getLoopFor(BasicBlock block) {
+    return mInnermost[block.getNumber()];
+  }
+
+  /**
+   * The number of loops containing the block.
+   */
+  public int getDepth(BasicBlock block) {
+    Loop loop = getLoopFor(block);
+    return loop == null ? 0 : loop.getDepth();
+  }
+}
@@ -0,0 +1,283 @@
+package crux.ir.analysis;
+
+import crux.ast.SymbolTable.Symbol;
+import crux.ir.*;
+import crux.ir.insts.*;
+
+import java.io.PrintStream;
+import java.util.*;
+
+/**
+ * What calling each function can do besides computing its result: the globals it may write (mod)
+ * and read (ref), whether it may do input or output, and whether it always returns. Everything a
+ * function's callees do counts for the function as well.
+ * <p>
+ * The built-in functions are the only ones that do input or output, and they touch no globals. A
+ * load or store whose address comes from address computations, possibly stepped by
+ * {@link AddressAdd}, touches the globals those computations start from; any other address may
+ * point anywhere, so it counts as touching every global of the program. A function always returns
+ * if it has no loops, is not recursive, only divides by constants other than 0 and -1, and only
+ * calls functions that always return.
+ * <p>
+ * The summaries are computed over the strongly connected components of the {@link CallGraph},
+ * callees first; all functions of a component share one summary, since each may end up calling
+ * the others. Optimizing a function only removes effects, so a summary stays valid while the
+ * function passes run; passes that add calls have to compute it again.
+ */
+public final class SideEffectSummary {
+  private final List<Function> mFunctions = new ArrayList<>();
+  private final Map<String, Function> mByName = new HashMap<>();
+  private final Map<Function, Set<Symbol>> mMod = new HashMap<>();
+  private final Map<Function, Set<Symbol>> mRef = new HashMap<>();
+  private final Set<Function> mIO = new HashSet<>();
+  private final Set<Function> mReturns = new HashSet<>();
+  private final Set<Symbol> mGlobals = new LinkedHashSet<>();
+
+  private SideEffectSummary(Program program, CallGraph graph) {
+    for (Iterator<GlobalDecl> it = program.getGlobals(); it.hasNext();) {
+      mGlobals.add(it.next().getSymbol());
+    }
+    for (Iterator<Function> it = program.getFunctions(); it.hasNext();) {
+      Function function = it.next();
+      mFunctions.add(function);
+      mByName.put(function.getName(), function);
+    }
+    for (List<Function> component : graph.getComponents()) {
+      Set<Symbol> mod = new LinkedHashSet<>();
+      Set<Symbol> ref = new LinkedHashSet<>();
+      boolean io = false;
+      boolean returns = component.size() == 1 && !graph.isRecursive(component.get(0));
+      for (Function function : component) {
+        returns &= addDirect(function, mod, ref);
+        for (CallInst call : graph.getCallSites(function)) {
+          Function callee = graph.getCallee(call);
+          if (callee == null) {
+            io = true;
+          } else if (!component.contains(callee)) {
+            mod.addAll(mMod.get(callee));
+            ref.addAll(mRef.get(callee));
+            io |= mIO.contains(callee);
+            returns &= mReturns.contains(callee);
+          }
+        }
+      }
+      for (Function function : component) {
+        mMod.put(function, Collections.unmodifiableSet(mod));
+        mRef.put(function, Collections.unmodifiableSet(ref));
+        if (io)
+          mIO.add(function);
+        if (returns)
+          mReturns.add(function);
+      }
+    }
+  }
+
+  public static SideEffectSummary build(Program program, CallGraph graph) {
+    return new SideEffectSummary(program, graph);
+  }
+
+  /**
+   * Returns the function a call calls, or null if it calls a built-in function.
+   */
+  public Function getCallee(CallInst call) {
+    return mByName.get(call.getCallee().getName());
+  }
+
+  /**
+   * Returns true if a call computes its result from its parameters alone, without effects. Calls
+   * of built-in functions never are.
+   */
+  public boolean isPure(CallInst call) {
+    Function callee = getCallee(call);
+    return callee != null && isPure(callee);
+  }
+
+  /**
+   * Returns true if a call has no effects, so memory is the same before and after it.
+   */
+  public boolean isReadOnly(CallInst call) {
+    Function callee = getCallee(call);
+    return callee != null && isReadOnly(callee);
+  }
+
+  /**
+   * Returns true if a call can be removed when its result is not used, or run where it would not
+   * have run: it is pure and always returns. A read-only call is not, since the emulator reports
+   * the reads of uninitialized memory it may do.
+   */
+  public boolean isRemovable(CallInst call) {
+    Function callee = getCallee(call);
+    return callee != null && isPure(callee) && alwaysReturns(callee);
+  }
+
+  /**
+   * Returns the globals a call may write; the built-in functions write none.
+   */
+  public Set<Symbol> getModified(CallInst call) {
+    Function callee = getCallee(call);
+    return callee != null ? mMod.get(callee) : Set.of();
+  }
+
+  /**
+   * Returns the globals a call may read; the built-in functions read none.
+   */
+  public Set<Symbol> getRead(CallInst call) {
+    Function callee = getCallee(call);
+    return callee != null ? mRef.get(callee) : Set.of();
+  }
+
+  /**
+   * Returns the globals a function may write.
+   */
+  public Set<Symbol> getModified(Function function) {
+    return mMod.get(function);
+  }
+
+  /**
+   * Returns the globals a function may read.
+   */
+  public Set<Symbol> getRead(Function function) {
+    return mRef.get(function);
+  }
+
+  /**
+   * Returns true if calling the function may read or write the global.
+   */
+  public boolean mayTouch(Function function, Symbol global) {
+    return mMod.get(function).contains(global) || mRef.get(function).contains(global);
+  }
+
+  /**
+   * Returns true if the function may call a built-in function.
+   */
+  public boolean performsIO(Function function) {
+    return mIO.contains(function);
+  }
+
+  /**
+   * Returns true if every call of the function returns, without looping forever or trapping.
+   */
+  public boolean alwaysReturns(Function function) {
+    return mReturns.contains(function);
+  }
+
+  /**
+   * Returns true if the function reads no memory and has no effects, so its result only depends on
+   * its arguments.
+   */
+  public boolean isPure(Function function) {
+    return isReadOnly(function) && mRef.get(function).isEmpty();
+  }
+
+  /**
+   * Returns true if the function has no effects, though its result may depend on globals.
+   */
+  public boolean isReadOnly(Function function) {
+    return mMod.get(function).isEmpty() && !mIO.contains(function);
+  }
+
+  /**
+   * Prints the summary of every function, in the order of the program.
+   */
+  public void print(PrintStream out) {
+    for (Function function : mFunctions) {
+      List<String> effects = new ArrayList<>();
+      if (isPure(function))
+        effects.add("pure");
+      else if (isReadOnly(function))
+        effects.add("read-only");
+      if (!mRef.get(function).isEmpty())
+        effects.add("reads " + names(mRef.get(function)));
+      if (!mMod.get(function).isEmpty())
+        effects.add("writes " + names(mMod.get(function)));
+      if (mIO.contains(function))
+        effects.add("does I/O");
+      if (!mReturns.contains(function))
+        effects.add("may not return");
+      out.printf("function %s: %s%n", function.getName(), String.join(", ", effects));
+    }
+  }
+
+  private static String names(Set<Symbol> globals) {
+    List<String> names = new ArrayList<>();
+    for (Symbol global : globals) {
+      names.add(global.getName());
+    }
+    return String.join(" ", names);
+  }
+
+  /**
+   * Adds the globals the body of a function touches itself, and returns false if the function may
+   * loop or trap.
+   */
+  private boolean addDirect(Function function, Set<Symbol> mod, Set<Symbol> ref) {
+    if (function.getStart() == null)
+      return true;
+    ControlFlowGraph cfg = function.getCFG();
+    Map<Variable, List<Instruction>> defs = new HashMap<>();
+    for (Instruction inst : cfg.instructions()) {
+      if (inst.getDestVar() != null)
+        defs.computeIfAbsent(inst.getDestVar(), v -> new ArrayList<>()).add(inst);
+    }
+    boolean returns = cfg.getLoopForest().getLoops().isEmpty();
+    for (Instruction inst : cfg.instructions()) {
+      if (inst instanceof LoadInst)
+        ref.addAll(basesOf(((LoadInst) inst).getSrcAddress(), defs));
+      else if (inst instanceof StoreInst)
+        mod.addAll(basesOf(((StoreInst) inst).getDestAddress(), defs));
+      else if (inst instanceof BinaryOperator
+          && ((BinaryOperator) inst).getOperator() == BinaryOperator.Op.Div)
+        returns &= isSafeDivisor(((BinaryOperator) inst).getRightOperand(), defs);
+    }
+    return returns;
+  }
+
+  private static boolean isSafeDivisor(LocalVar divisor, Map<Variable, List<Instruction>> defs) {
+    List<Instruction> divisorDefs = defs.getOrDefault(divisor, List.of());
+    if (divisorDefs.isEmpty())
+      return false;
+    for (Instruction def : divisorDefs) {
+      Value value = def instanceof CopyInst ? ((CopyInst) def).getSrcValue() : null;
+      if (!(value instanceof IntegerConstant))
+        return false;
+      long constant = ((IntegerConstant) value).getValue();
+      if (constant == 0 || constant == -1)
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Returns the globals an address may point into.
+   */
+  private Set<Symbol> basesOf(AddressVar address, Map<Variable, List<Instruction>> defs) {
+    Set<Symbol> bases = new HashSet<>();
+    Set<AddressVar> seen = new HashSet<>();
+    Deque<AddressVar> worklist = new ArrayDeque<>();
+    worklist.add(address);
+    while (!worklist.isEmpty()) {
+      AddressVar a = worklist.pop();
+      if (!seen.add(a))
+        continue;
+      List<Instruction> aDefs = defs.getOrDefault(a, List.of());
+      if (aDefs.isEmpty())
+        return mGlobals;
+      for (Instruction def : aDefs) {
+        if (def instanceof AddressAt) {
+          bases.add(((AddressAt) def).getBase());
+        } else if (def instanceof AddressAdd) {
+          worklist.add(((AddressAdd) def).getSrcAddress());
+        } else if (def instanceof PhiInst) {
+          for (int k = 0; k < def.numOperands(); k++) {
+            if (!(def.getOperand(k) instanceof AddressVar))
+              return mGlobals;
+            worklist.add((AddressVar) def.getOperand(k));
+          }
+        } else {
+          return mGlobals;
+        }
+      }
+    }
+    return bases;
+  }
+}
@@ -0,0 +1,48 @@
+package crux.ir.insts;
+
+import crux.ir.AddressVar;
+import crux.ir.Instruction;
+import crux.ir.IntegerConstant;
+import crux.ir.Value;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Moves an address by a constant number of elements. Produced by strength reduction, which
+ * replaces an address computed from a loop counter by one stepped in every iteration.
+ * <p>
+ * Operation (pseudo-code): {@code destVar = srcAddress + stride}
+ */
+public final class AddressAdd extends Instruction implements java.io.Serializable {
+  static final long serialVersionUID = 12022L;
+
+  public AddressAdd(AddressVar destVar, AddressVar srcAddress, IntegerConstant stride) {
+    super(destVar, List.of(srcAddress, stride));
+  }
+
+  public AddressVar getSrcAddress() {
+    return (AddressVar) mOperands[0];
+  }
+
+  public IntegerConstant getStride() {
+    return (IntegerConstant) mOperands[1];
+  }
+
+  public AddressVar getDst() {
+    return (AddressVar) mDestVar;
+  }
+
+  @Override
+  public void accept(InstVisitor v) {
+    v.visit(this);
+  }
+
+  @Override
+  public String format(Function<Value, String> valueFormatter) {
+    var dest = valueFormatter.apply(mDestVar);
+    var src = valueFormatter.apply(getSrcAddress());
+    var stride = valueFormatter.apply(getStride());
+    return String.format("%s = addressAdd %s, %s", dest, src, stride);
+  }
+}
@@ -34,7 +34,7 @@ public final class AddressAt extends Instruction implements java.io.Serializable
   }
 
   public LocalVar getOffset() {
-    return mOperands.size() != 0 ? (LocalVar) mOperands.get(0) : null;
+    return mOperands.length != 0 ? (LocalVar) mOperands[0] : null;
   }
 
   public AddressVar getDst() {
@@ -29,11 +29,11 @@ public final class BinaryOperator extends Instruction implements java.io.Seriali
   }
 
   public LocalVar getLeftOperand() {
-    return (LocalVar) mOperands.get(0);
+    return (LocalVar) mOperands[0];
   }
 
   public LocalVar getRightOperand() {
-    return (LocalVar) mOperands.get(1);
+    return (LocalVar) mOperands[1];
   }
 
   public LocalVar getDst() {
@@ -63,8 +63,8 @@ public final class BinaryOperator extends Instruction implements java.io.Seriali
         break;
     }
     var destVar = valueFormatter.apply(mDestVar);
-    var lhs = valueFormatter.apply(mOperands.get(0));
-    var rhs = valueFormatter.apply(mOperands.get(1));
+    var lhs = valueFormatter.apply(mOperands[0]);
+    var rhs = valueFormatter.apply(mOperands[1]);
     return String.format("%s = %s %s %s", destVar, lhs, opStr, rhs);
   }
 }
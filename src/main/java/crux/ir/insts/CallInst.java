@@ -24,6 +24,7 @@ import java.util.function.Function;
 public final class CallInst extends Instruction implements java.io.Serializable {
   static final long serialVersionUID = 12022L;
   Symbol callee;
+  private transient List<LocalVar> mParamView;
 
   static private List<Value> convert(List<LocalVar> params) {
     Value[] l = new Value[params.size()];
@@ -47,12 +48,40 @@ public final class CallInst extends Instruction implements java.io.Serializable
     return callee;
   }
 
+  /**
+   * Makes the call call another function with the same signature.
+   */
+  public void setCallee(Symbol callee) {
+    this.callee = callee;
+  }
+
+  /**
+   * Returns a read-only view of the parameters. The view is created once and does not copy the
+   * parameters, so it is cheap to call on every execution of the call.
+   */
   public List<LocalVar> getParams() {
-    ArrayList<LocalVar> params = new ArrayList<>();
-    for (Value v : mOperands)
-      params.add((LocalVar) v);
+    if (mParamView == null) {
+      mParamView = new AbstractList<>() {
+        @Override
+        public LocalVar get(int index) {
+          return (LocalVar) mOperands[index];
+        }
+
+        @Override
+        public int size() {
+          return mOperands.length;
+        }
+      };
+    }
+    return mParamView;
+  }
+
+  public int numParams() {
+    return mOperands.length;
+  }
 
-    return params;
+  public LocalVar getParam(int i) {
+    return (LocalVar) mOperands[i];
   }
 
   public LocalVar getDst() {
@@ -67,8 +96,7 @@ public final class CallInst extends Instruction implements java.io.Serializable
   @Override
   public String format(Function<Value, String> valueFormatter) {
     String paramstr = "";
-    List<LocalVar> lparams = getParams();
-    for (LocalVar p : lparams) {
+    for (LocalVar p : getParams()) {
       paramstr += valueFormatter.apply(p);
     }
     if (mDestVar != null) {
@@ -20,7 +20,7 @@ public final class CopyInst extends Instruction implements java.io.Serializable
   }
 
   public Value getSrcValue() {
-    return mOperands.get(0);
+    return mOperands[0];
   }
 
   public LocalVar getDstVar() {
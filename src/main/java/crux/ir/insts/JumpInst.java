@@ -32,7 +32,7 @@ public final class JumpInst extends Instruction implements java.io.Serializable
   }
 
   public LocalVar getPredicate() {
-    return (LocalVar) mOperands.get(0);
+    return (LocalVar) mOperands[0];
   }
 
   @Override
@@ -21,7 +21,7 @@ public final class LoadInst extends Instruction implements java.io.Serializable
   }
 
   public AddressVar getSrcAddress() {
-    return (AddressVar) mOperands.get(0);
+    return (AddressVar) mOperands[0];
   }
 
   public LocalVar getDst() {
@@ -0,0 +1,110 @@
+package crux.ir.insts;
+
+import crux.ir.Instruction;
+import crux.ir.LocalVar;
+import crux.ir.Value;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Merges the values of a variable that flow into a block from its predecessors. Phi instructions
+ * only exist while a function is in SSA form, and they always sit at the start of a block. Operand
+ * i is the value that flows in along the edge from incoming instruction i, which is the last
+ * instruction of a predecessor block.
+ * <p>
+ * Operation (pseudo-code): {@code destVar = value[i]}, where control arrived from
+ * {@code incoming[i]}
+ */
+public final class PhiInst extends Instruction implements java.io.Serializable {
+  static final long serialVersionUID = 12022L;
+  private Instruction[] mIncoming;
+
+  /**
+   * Creates a phi with one operand slot per incoming instruction. The operands are null until they
+   * are set.
+   */
+  public PhiInst(LocalVar destVar, List<Instruction> incoming) {
+    super(destVar, Arrays.asList(new Value[incoming.size()]));
+    mIncoming = incoming.toArray(new Instruction[0]);
+  }
+
+  public LocalVar getDst() {
+    return (LocalVar) mDestVar;
+  }
+
+  public int numIncoming() {
+    return mIncoming.length;
+  }
+
+  public Instruction getIncoming(int i) {
+    return mIncoming[i];
+  }
+
+  /**
+   * Returns the value flowing in from the given predecessor instruction.
+   */
+  public Value getValueFrom(Instruction pred) {
+    return mOperands[indexOf(pred)];
+  }
+
+  public void setValueFrom(Instruction pred, Value value) {
+    mOperands[indexOf(pred)] = value;
+  }
+
+  /**
+   * Renames an incoming edge, e.g. after an instruction was inserted on it.
+   */
+  public void replaceIncoming(Instruction from, Instruction to) {
+    mIncoming[indexOf(from)] = to;
+  }
+
+  public void addIncoming(Instruction pred, Value value) {
+    mIncoming = Arrays.copyOf(mIncoming, mIncoming.length + 1);
+    mIncoming[mIncoming.length - 1] = pred;
+    mOperands = Arrays.copyOf(mOperands, mOperands.length + 1);
+    mOperands[mOperands.length - 1] = value;
+  }
+
+  public void removeIncoming(Instruction pred) {
+    int i = indexOf(pred);
+    int last = mIncoming.length - 1;
+    mIncoming[i] = mIncoming[last];
+    mOperands[i] = mOperands[last];
+    mIncoming = Arrays.copyOf(mIncoming, last);
+    mOperands = Arrays.copyOf(mOperands, last);
+  }
+
+  public boolean hasIncoming(Instruction pred) {
+    for (Instruction inst : mIncoming) {
+      if (inst == pred)
+        return true;
+    }
+    return false;
+  }
+
+  private int indexOf(Instruction pred) {
+    for (int i = 0; i < mIncoming.length; i++) {
+      if (mIncoming[i] == pred)
+        return i;
+    }
+    throw new RuntimeException("no incoming edge from " + pred);
+  }
+
+  @Override
+  public void accept(InstVisitor v) {
+    v.visit(this);
+  }
+
+  @Override
+  public String format(Function<Value, String> valueFormatter) {
+    var values = new StringBuilder();
+    for (int i = 0; i < mOperands.length; i++) {
+      if (i > 0)
+        values.append(", ");
+      values.append(mOperands[i] == null ? "?" : valueFormatter.apply(mOperands[i]));
+    }
+    return String.format("%s = phi(%s)", valueFormatter.apply(mDestVar), values);
+  }
+}
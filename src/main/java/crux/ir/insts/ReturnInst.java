@@ -28,7 +28,7 @@ public final class ReturnInst extends Instruction implements java.io.Serializabl
   }
 
   public LocalVar getReturnValue() {
-    return (LocalVar) mOperands.get(0);
+    return (LocalVar) mOperands[0];
   }
 
   @Override
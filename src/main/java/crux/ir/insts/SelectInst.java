@@ -0,0 +1,53 @@
+package crux.ir.insts;
+
+import crux.ir.Instruction;
+import crux.ir.LocalVar;
+import crux.ir.Value;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Picks one of two values by a condition without branching. If-conversion makes it from the phi
+ * that joins the two sides of a small branch, once both sides run unconditionally.
+ * <p>
+ * Operation (pseudo-code): {@code destVar = condition ? trueValue : falseValue}
+ */
+public final class SelectInst extends Instruction implements java.io.Serializable {
+  static final long serialVersionUID = 12022L;
+
+  public SelectInst(LocalVar destVar, LocalVar condition, LocalVar trueValue,
+      LocalVar falseValue) {
+    super(destVar, List.of(condition, trueValue, falseValue));
+  }
+
+  public LocalVar getCondition() {
+    return (LocalVar) mOperands[0];
+  }
+
+  public LocalVar getTrueValue() {
+    return (LocalVar) mOperands[1];
+  }
+
+  public LocalVar getFalseValue() {
+    return (LocalVar) mOperands[2];
+  }
+
+  public LocalVar getDst() {
+    return (LocalVar) mDestVar;
+  }
+
+  @Override
+  public void accept(InstVisitor v) {
+    v.visit(this);
+  }
+
+  @Override
+  public String format(Function<Value, String> valueFormatter) {
+    var destVar = valueFormatter.apply(mDestVar);
+    var condition = valueFormatter.apply(getCondition());
+    var trueValue = valueFormatter.apply(getTrueValue());
+    var falseValue = valueFormatter.apply(getFalseValue());
+    return String.format("%s = select %s, %s, %s", destVar, condition, trueValue, falseValue);
+  }
+}
@@ -21,11 +21,11 @@ public final class StoreInst extends Instruction implements java.io.Serializable
   }
 
   public LocalVar getSrcValue() {
-    return (LocalVar) mOperands.get(0);
+    return (LocalVar) mOperands[0];
   }
 
   public AddressVar getDestAddress() {
-    return (AddressVar) mOperands.get(1);
+    return (AddressVar) mOperands[1];
   }
 
   @Override
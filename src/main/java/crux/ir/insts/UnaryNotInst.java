@@ -25,7 +25,7 @@ public final class UnaryNotInst extends Instruction implements java.io.Serializa
   }
 
   public LocalVar getInner() {
-    return (LocalVar) mOperands.get(0);
+    return (LocalVar) mOperands[0];
   }
 
   public LocalVar getDst() {
@@ -35,7 +35,7 @@ public final class UnaryNotInst extends Instruction implements java.io.Serializa
   @Override
   public String format(Function<Value, String> valueFormatter) {
     var destVar = valueFormatter.apply(mDestVar);
-    var operand = valueFormatter.apply(mOperands.get(0));
+    var operand = valueFormatter.apply(mOperands[0]);
     return String.format("%s = not %s", destVar, operand);
   }
 }
@@ -0,0 +1,231 @@
+package crux.ir.opt;
+
+import crux.ir.Function;
+import crux.ir.Instruction;
+import crux.ir.analysis.BasicBlock;
+import crux.ir.analysis.ControlFlowGraph;
+import crux.ir.insts.JumpInst;
+import crux.ir.insts.NopInst;
+import crux.ir.insts.PhiInst;
+import crux.ir.insts.ReturnInst;
+
+import java.util.*;
+
+/**
+ * Collects edits of the blocks of a function and applies them to the instruction graph at once.
+ * <p>
+ * Passes change the instruction list of a block and the successors of its last instruction, always
+ * in terms of the blocks of the CFG the editor was created with. {@link #commit()} then chains the
+ * instructions of every block, connects the last instruction of each block to the first
+ * instructions of its successors, and brings the incoming edges of phis up to date. Blocks that are
+ * no longer reached from the entry simply drop out of the function. This keeps passes free of the
+ * bookkeeping that single-edge surgery needs once several neighbouring instructions change.
+ */
+final class CFGEditor {
+  private final Function mFunction;
+  private final ControlFlowGraph mCFG;
+  private final List<List<Instruction>> mInsts;
+  private final List<List<BasicBlock>> mSuccs;
+  /** The block each block was merged into, or null. */
+  private final BasicBlock[] mMergedInto;
+  private boolean mChanged;
+
+  CFGEditor(Function function) {
+    mFunction = function;
+    mCFG = function.getCFG();
+    mInsts = new ArrayList<>(Collections.nCopies(mCFG.size(), null));
+    mSuccs = new ArrayList<>(Collections.nCopies(mCFG.size(), null));
+    mMergedInto = new BasicBlock[mCFG.size()];
+  }
+
+  /**
+   * The graph the edits refer to. It describes the function as it was when the editor was created.
+   */
+  ControlFlowGraph getCFG() {
+    return mCFG;
+  }
+
+  /**
+   * Returns the editable instruction list of a block.
+   */
+  List<Instruction> getInstructions(BasicBlock block) {
+    List<Instruction> insts = mInsts.get(block.getNumber());
+    if (insts == null) {
+      insts = new ArrayList<>(block.getInstructions());
+      mInsts.set(block.getNumber(), insts);
+    }
+    mChanged = true;
+    return insts;
+  }
+
+  /**
+   * Returns the editable successors of a block, one per successor slot of its last instruction;
+   * for a jump the false successor comes first.
+   */
+  List<BasicBlock> getSuccessors(BasicBlock block) {
+    List<BasicBlock> succs = mSuccs.get(block.getNumber());
+    if (succs == null) {
+      Instruction last = block.getLast();
+      succs = new ArrayList<>(2);
+      if (!(last instanceof ReturnInst)) {
+        for (int i = 0; i < last.numNext(); i++) {
+          if (last.getNext(i) != null)
+            succs.add(mCFG.getBlock(last.getNext(i)));
+        }
+      }
+      mSuccs.set(block.getNumber(), succs);
+    }
+    mChanged = true;
+    return succs;
+  }
+
+  /**
+   * Appends the instructions of a block to its only predecessor, which takes over its successors.
+   * The merged block drops out of the function; phis keyed by its last instruction are renamed to
+   * the last instruction of the block it ends up in.
+   */
+  void merge(BasicBlock pred, BasicBlock block) {
+    getInstructions(pred).addAll(getInstructions(block));
+    List<BasicBlock> succs = getSuccessors(pred);
+    succs.clear();
+    succs.addAll(getSuccessors(block));
+    mMergedInto[block.getNumber()] = pred;
+  }
+
+  void replace(Instruction inst, Instruction replacement) {
+    List<Instruction> insts = getInstructions(mCFG.getBlock(inst));
+    insts.set(indexOf(insts, inst), replacement);
+  }
+
+  void remove(Instruction inst) {
+    List<Instruction> insts = getInstructions(mCFG.getBlock(inst));
+    insts.remove(indexOf(insts, inst));
+  }
+
+  void insertBefore(Instruction at, Instruction inst) {
+    List<Instruction> insts = getInstructions(mCFG.getBlock(at));
+    insts.add(indexOf(insts, at), inst);
+  }
+
+  /**
+   * Inserts an instruction after the phis at the start of a block.
+   */
+  void insertAfterPhis(BasicBlock block, Instruction inst) {
+    List<Instruction> insts = getInstructions(block);
+    int i = 0;
+    while (i < insts.size() && insts.get(i) instanceof PhiInst)
+      i++;
+    insts.add(i, inst);
+  }
+
+  private static int indexOf(List<Instruction> insts, Instruction inst) {
+    for (int i = 0; i < insts.size(); i++) {
+      if (insts.get(i) == inst)
+        return i;
+    }
+    throw new RuntimeException("instruction is not in its block: " + inst);
+  }
+
+  /**
+   * Relinks the instruction graph. A block left without instructions, or with nothing but phis,
+   * gets a nop. Returns true if any block was edited.
+   */
+  boolean commit() {
+    if (!mChanged)
+      return false;
+    int n = mCFG.size();
+    List<BasicBlock> blocks = mCFG.getBlocks();
+    // Read the successors of every block before relinking changes the edges they are read from.
+    for (BasicBlock block : blocks) {
+      getSuccessors(block);
+    }
+    Instruction[] first = new Instruction[n];
+    Map<Instruction, Instruction> lastOf = new IdentityHashMap<>();
+    for (BasicBlock block : blocks) {
+      if (mMergedInto[block.getNumber()] != null)
+        continue;
+      List<Instruction> insts = mInsts.get(block.getNumber());
+      if (insts == null)
+        insts = block.getInstructions();
+      else if (insts.isEmpty() || insts.get(insts.size() - 1) instanceof PhiInst)
+        insts.add(new NopInst());
+      first[block.getNumber()] = insts.get(0);
+      Instruction last = insts.get(insts.size() - 1);
+      if (last != block.getLast())
+        lastOf.put(block.getLast(), last);
+    }
+    for (BasicBlock block : blocks) {
+      BasicBlock into = mMergedInto[block.getNumber()];
+      if (into == null)
+        continue;
+      while (mMergedInto[into.getNumber()] != null)
+        into = mMergedInto[into.getNumber()];
+      List<Instruction> insts = mInsts.get(into.getNumber());
+      Instruction last = insts.get(insts.size() - 1);
+      if (last != block.getLast())
+        lastOf.put(block.getLast(), last);
+    }
+
+    for (BasicBlock block : blocks) {
+      if (mMergedInto[block.getNumber()] != null)
+        continue;
+      List<Instruction> insts = mInsts.get(block.getNumber());
+      if (insts == null)
+        insts = block.getInstructions();
+      for (int i = 0; i + 1 < insts.size(); i++) {
+        Instruction inst = insts.get(i);
+        if (inst instanceof JumpInst || inst instanceof ReturnInst)
+          throw new RuntimeException("control flow instruction inside a block: " + inst);
+        if (inst.numNext() != 1)
+          inst.clearNext();
+        inst.setNext(0, insts.get(i + 1));
+      }
+      Instruction last = insts.get(insts.size() - 1);
+      List<BasicBlock> succs = getSuccessors(block);
+      int numSlots = last instanceof JumpInst ? 2 : last instanceof ReturnInst ? 0 : 1;
+      if (succs.size() > numSlots || last instanceof JumpInst && succs.size() != 2)
+        throw new RuntimeException("wrong number of successors for " + last);
+      if (last.numNext() != succs.size())
+        last.clearNext();
+      for (int i = 0; i < succs.size(); i++) {
+        last.setNext(i, first[succs.get(i).getNumber()]);
+      }
+    }
+    mFunction.setStart(first[mCFG.getEntry().getNumber()]);
+
+    repairPhis(lastOf);
+    return true;
+  }
+
+  /**
+   * Renames incoming edges whose source instruction was replaced, and drops the incoming edges of
+   * predecessors that no longer lead to the phi.
+   */
+  private void repairPhis(Map<Instruction, Instruction> lastOf) {
+    for (BasicBlock block : mFunction.getCFG().getBlocks()) {
+      if (!(block.getFirst() instanceof PhiInst))
+        continue;
+      Set<Instruction> preds = Collections.newSetFromMap(new IdentityHashMap<>());
+      for (BasicBlock pred : block.getPredecessors()) {
+        preds.add(pred.getLast());
+      }
+      for (Instruction inst : block.getInstructions()) {
+        if (!(inst instanceof PhiInst))
+          break;
+        PhiInst phi = (PhiInst) inst;
+        for (int i = phi.numIncoming() - 1; i >= 0; i--) {
+          Instruction incoming = phi.getIncoming(i);
+          Instruction renamed = lastOf.get(incoming);
+          if (renamed != null && !phi.hasIncoming(renamed)) {
+            phi.replaceIncoming(incoming, renamed);
+            incoming = renamed;
+          }
+          if (!preds.contains(incoming))
+            phi.removeIncoming(incoming);
+        }
+        if (phi.numIncoming() != preds.size())
+          throw new RuntimeException("phi does not cover all predecessors: " + phi);
+      }
+    }
+  }
+}
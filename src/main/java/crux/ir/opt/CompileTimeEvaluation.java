@@ -0,0 +1,122 @@
+package crux.ir.opt;
+
+import crux.ir.*;
+import crux.ir.analysis.CallGraph;
+import crux.ir.analysis.SideEffectSummary;
+import crux.ir.insts.CallInst;
+import crux.ir.insts.CopyInst;
+
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.util.*;
+
+/**
+ * Runs calls of pure functions whose parameters are all constants in the {@link Emulator} while
+ * compiling, and replaces each by a copy of its result, so e.g. {@code fib(20)} costs nothing when
+ * the program runs. Runs on the lowered program after inlining, which exposes the constants passed
+ * through inlined functions, and before memoization, since a memoized function is no longer pure.
+ * <p>
+ * A call is evaluated if the {@link SideEffectSummary} finds the callee pure, so nothing but its
+ * parameters decides its result and it does no I/O, and the callee returns a value. Parameters are
+ * constant as for {@link Specialization}; a result copied in counts as well, so nested calls are
+ * evaluated from the inside out. Each call may run at most {@code fuel} instructions, and all calls
+ * together ten times as many; a call that runs out, or fails like a division by zero, stays as it
+ * is and keeps its behavior at run time.
+ */
+public final class CompileTimeEvaluation implements ProgramPass {
+  public static final int DEFAULT_FUEL = 1000000;
+  private static final int TOTAL_FUEL_FACTOR = 10;
+  private final long mFuel;
+
+  public CompileTimeEvaluation() {
+    this(DEFAULT_FUEL);
+  }
+
+  /**
+   * Creates a pass that runs each call for at most {@code fuel} instructions. A fuel of 0 or less
+   * turns the pass off.
+   */
+  public CompileTimeEvaluation(long fuel) {
+    mFuel = fuel;
+  }
+
+  @Override
+  public boolean run(Program program, OptimizationReport report) {
+    if (mFuel <= 0)
+      return false;
+    CallGraph graph = CallGraph.build(program);
+    SideEffectSummary effects = program.getSideEffects();
+    Emulator emulator = new Emulator(program, new ByteArrayInputStream(new byte[0]),
+        OutputStream.nullOutputStream());
+    long budget = mFuel * TOTAL_FUEL_FACTOR;
+    boolean changed = false;
+    for (Iterator<Function> it = program.getFunctions(); it.hasNext();) {
+      Function caller = it.next();
+      if (caller.getStart() == null)
+        continue;
+      Map<Variable, List<Instruction>> defs = Edits.definitionsOf(caller);
+      CFGEditor editor = new CFGEditor(caller);
+      int evaluated = 0, failed = 0;
+      Set<CallInst> done = new HashSet<>();
+      boolean progress = true;
+      while (progress && budget > 0) {
+        progress = false;
+        for (CallInst call : graph.getCallSites(caller)) {
+          Function callee = graph.getCallee(call);
+          if (done.contains(call) || call.getDst() == null || callee == null
+              || callee.getStart() == null || !effects.isPure(callee))
+            continue;
+          List<Object> args = argumentsOf(call, caller, defs);
+          if (args == null)
+            continue;
+          done.add(call);
+          Object result;
+          try {
+            result = emulator.evaluate(callee, args, Math.min(mFuel, budget));
+          } catch (RuntimeException e) {
+            result = null;
+          }
+          budget -= emulator.getSteps();
+          if (result == null) {
+            failed++;
+            continue;
+          }
+          Constant constant = result instanceof Long
+              ? IntegerConstant.get(program, (Long) result)
+              : BooleanConstant.get(program, (Boolean) result);
+          CopyInst copy = new CopyInst(call.getDst(), constant);
+          editor.replace(call, copy);
+          List<Instruction> dstDefs = defs.get(call.getDst());
+          dstDefs.set(dstDefs.indexOf(call), copy);
+          evaluated++;
+          progress = true;
+        }
+      }
+      if (evaluated > 0)
+        editor.commit();
+      report.add("eval", caller, "evaluated calls", evaluated);
+      report.add("eval", caller, "calls left alone", failed);
+      changed |= evaluated > 0;
+    }
+    return changed;
+  }
+
+  /**
+   * Returns the values of the parameters of a call as the emulator represents them, or null if
+   * some parameter is not constant.
+   */
+  private static List<Object> argumentsOf(CallInst call, Function caller,
+      Map<Variable, List<Instruction>> defs) {
+    List<Object> args = new ArrayList<>();
+    for (LocalVar param : call.getParams()) {
+      Constant constant = Edits.constantOf(param, caller, defs);
+      if (constant instanceof IntegerConstant)
+        args.add(((IntegerConstant) constant).getValue());
+      else if (constant instanceof BooleanConstant)
+        args.add(((BooleanConstant) constant).getValue());
+      else
+        return null;
+    }
+    return args;
+  }
+}
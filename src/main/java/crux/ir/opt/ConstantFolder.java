@@ -0,0 +1,64 @@
+package crux.ir.opt;
+
+import crux.ir.*;
+import crux.ir.insts.BinaryOperator;
+import crux.ir.insts.CompareInst;
+
+/**
+ * Evaluates operators on constants exactly like the emulator and the generated code do. Results
+ * that would differ between the two, or that trap at run time, are not folded.
+ */
+final class ConstantFolder {
+  private ConstantFolder() {}
+
+  /**
+   * Returns the result of a binary operator, or null if it must be left to run time: a division by
+   * zero traps, and so does {@code Long.MIN_VALUE / -1} in the generated code.
+   */
+  static IntegerConstant binary(Program program, BinaryOperator.Op op, long lhs, long rhs) {
+    switch (op) {
+      case Add:
+        return IntegerConstant.get(program, lhs + rhs);
+      case Sub:
+        return IntegerConstant.get(program, lhs - rhs);
+      case Mul:
+        return IntegerConstant.get(program, lhs * rhs);
+      case Div:
+        if (rhs == 0 || lhs == Long.MIN_VALUE && rhs == -1)
+          return null;
+        return IntegerConstant.get(program, lhs / rhs);
+    }
+    throw new RuntimeException("unknown operator " + op);
+  }
+
+  static BooleanConstant compare(Program program, CompareInst.Predicate predicate, long lhs,
+      long rhs) {
+    switch (predicate) {
+      case GE:
+        return BooleanConstant.get(program, lhs >= rhs);
+      case GT:
+        return BooleanConstant.get(program, lhs > rhs);
+      case LE:
+        return BooleanConstant.get(program, lhs <= rhs);
+      case LT:
+        return BooleanConstant.get(program, lhs < rhs);
+      case EQ:
+        return BooleanConstant.get(program, lhs == rhs);
+      case NE:
+        return BooleanConstant.get(program, lhs != rhs);
+    }
+    throw new RuntimeException("unknown predicate " + predicate);
+  }
+
+  static BooleanConstant not(Program program, boolean value) {
+    return BooleanConstant.get(program, !value);
+  }
+
+  static boolean sameConstant(Constant a, Constant b) {
+    if (a instanceof IntegerConstant && b instanceof IntegerConstant)
+      return ((IntegerConstant) a).getValue() == ((IntegerConstant) b).getValue();
+    if (a instanceof BooleanConstant && b instanceof BooleanConstant)
+      return ((BooleanConstant) a).getValue() == ((BooleanConstant) b).getValue();
+    return false;
+  }
+}
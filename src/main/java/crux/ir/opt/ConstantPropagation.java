@@ -0,0 +1,321 @@
+package crux.ir.opt;
+
+import crux.ir.*;
+import crux.ir.analysis.BasicBlock;
+import crux.ir.analysis.ControlFlowGraph;
+import crux.ir.insts.*;
+
+import java.util.*;
+
+/**
+ * Sparse conditional constant propagation (Wegman and Zadeck) over a function in SSA form.
+ * <p>
+ * Every variable starts out unknown and can only move down to a single constant and then to
+ * "varying". Blocks and edges start out unreachable, and an edge only becomes reachable once the
+ * branch leading to it can take it. Values and reachability are propagated together along the
+ * def-use chains and the reachable edges, so a constant that only holds because a branch is never
+ * taken is still found.
+ * <p>
+ * Afterwards every pure instruction with a constant result becomes a copy of the constant, every
+ * jump on a constant predicate becomes straight-line flow to the side that is taken, and the blocks
+ * that were never reached are dropped.
+ */
+public final class ConstantPropagation implements FunctionPass {
+  private static final int UNKNOWN = 0;
+  private static final int CONSTANT = 1;
+  private static final int VARYING = 2;
+
+  private Program mProgram;
+  private ControlFlowGraph mCFG;
+  private int[] mState;
+  private Constant[] mConstant;
+  private List<List<Instruction>> mUsers;
+  private boolean[] mReachable;
+  private Set<Long> mReachableEdges;
+  private Deque<Long> mEdgeWorklist;
+  private Deque<Instruction> mInstWorklist;
+
+  @Override
+  public boolean run(Program program, Function function, OptimizationReport report) {
+    mProgram = program;
+    mCFG = function.getCFG();
+    int numVars = function.getNumTempVars();
+    mState = new int[numVars];
+    mConstant = new Constant[numVars];
+    mUsers = new ArrayList<>(numVars);
+    int[] numDefs = new int[numVars];
+    for (int v = 0; v < numVars; v++) {
+      mUsers.add(new ArrayList<>(2));
+    }
+    for (Instruction inst : mCFG.instructions()) {
+      int d = indexOf(inst.getDestVar());
+      if (d >= 0)
+        numDefs[d]++;
+      for (int k = 0; k < inst.numOperands(); k++) {
+        int v = indexOf(inst.getOperand(k));
+        if (v >= 0)
+          mUsers.get(v).add(inst);
+      }
+    }
+    // Arguments, undefined variables and variables that are not in SSA form vary.
+    for (int v = 0; v < numVars; v++) {
+      mState[v] = numDefs[v] == 1 ? UNKNOWN : VARYING;
+    }
+
+    mReachable = new boolean[mCFG.size()];
+    mReachableEdges = new HashSet<>();
+    mEdgeWorklist = new ArrayDeque<>();
+    mInstWorklist = new ArrayDeque<>();
+    visitBlock(mCFG.getEntry());
+    while (!mEdgeWorklist.isEmpty() || !mInstWorklist.isEmpty()) {
+      if (!mEdgeWorklist.isEmpty()) {
+        long edge = mEdgeWorklist.poll();
+        if (!mReachableEdges.add(edge))
+          continue;
+        BasicBlock succ = mCFG.getBlocks().get((int) (edge % mCFG.size()));
+        if (!mReachable[succ.getNumber()]) {
+          visitBlock(succ);
+        } else {
+          for (Instruction inst : succ.getInstructions()) {
+            if (!(inst instanceof PhiInst))
+              break;
+            evaluate(inst);
+          }
+        }
+      } else {
+        Instruction inst = mInstWorklist.poll();
+        if (mReachable[mCFG.getBlock(inst).getNumber()])
+          evaluate(inst);
+      }
+    }
+
+    boolean changed = rewrite(function, report);
+    mProgram = null;
+    mCFG = null;
+    mUsers = null;
+    return changed;
+  }
+
+  private int indexOf(Value value) {
+    if (!(value instanceof LocalVar))
+      return -1;
+    int id = ((LocalVar) value).getId();
+    return id >= 0 && id < mState.length ? id : -1;
+  }
+
+  private void visitBlock(BasicBlock block) {
+    mReachable[block.getNumber()] = true;
+    for (Instruction inst : block.getInstructions()) {
+      evaluate(inst);
+    }
+    Instruction last = block.getLast();
+    if (!(last instanceof JumpInst)) {
+      for (BasicBlock succ : block.getSuccessors()) {
+        addEdge(block, succ);
+      }
+    }
+  }
+
+  private void addEdge(BasicBlock from, BasicBlock to) {
+    mEdgeWorklist.add((long) from.getNumber() * mCFG.size() + to.getNumber());
+  }
+
+  private boolean isReachableEdge(BasicBlock from, BasicBlock to) {
+    return mReachableEdges.contains((long) from.getNumber() * mCFG.size() + to.getNumber());
+  }
+
+  private void evaluate(Instruction inst) {
+    if (inst instanceof JumpInst) {
+      BasicBlock block = mCFG.getBlock(inst);
+      int p = indexOf(((JumpInst) inst).getPredicate());
+      int state = p < 0 ? VARYING : mState[p];
+      if (state == VARYING || state == CONSTANT && isTrue(mConstant[p]))
+        addEdge(block, mCFG.getBlock(inst.getNext(1)));
+      if (state == VARYING || state == CONSTANT && !isTrue(mConstant[p]))
+        addEdge(block, mCFG.getBlock(inst.getNext(0)));
+      return;
+    }
+    int d = indexOf(inst.getDestVar());
+    if (d < 0 || mState[d] == VARYING)
+      return;
+
+    Constant result = null;
+    boolean varying = false;
+    if (inst instanceof CopyInst) {
+      Value src = ((CopyInst) inst).getSrcValue();
+      if (src instanceof Constant) {
+        result = (Constant) src;
+      } else {
+        int s = indexOf(src);
+        if (s < 0 || mState[s] == VARYING)
+          varying = true;
+        else if (mState[s] == UNKNOWN)
+          return;
+        else
+          result = mConstant[s];
+      }
+    } else if (inst instanceof PhiInst) {
+      PhiInst phi = (PhiInst) inst;
+      BasicBlock block = mCFG.getBlock(phi);
+      for (int i = 0; i < phi.numIncoming() && !varying; i++) {
+        if (!isReachableEdge(mCFG.getBlock(phi.getIncoming(i)), block))
+          continue;
+        Value value = phi.getOperand(i);
+        Constant c;
+        if (value instanceof Constant) {
+          c = (Constant) value;
+        } else {
+          int s = indexOf(value);
+          if (s < 0 || mState[s] == VARYING) {
+            varying = true;
+            continue;
+          }
+          if (mState[s] == UNKNOWN)
+            continue;
+          c = mConstant[s];
+        }
+        if (result == null)
+          result = c;
+        else if (!ConstantFolder.sameConstant(result, c))
+          varying = true;
+      }
+      if (!varying && result == null)
+        return;
+    } else if (inst instanceof SelectInst) {
+      // A constant condition picks one value; otherwise both values have to agree.
+      SelectInst select = (SelectInst) inst;
+      int p = indexOf(select.getCondition());
+      int state = p < 0 ? VARYING : mState[p];
+      if (state == UNKNOWN)
+        return;
+      List<LocalVar> values = state == VARYING
+          ? List.of(select.getTrueValue(), select.getFalseValue())
+          : List.of(isTrue(mConstant[p]) ? select.getTrueValue() : select.getFalseValue());
+      for (LocalVar value : values) {
+        int s = indexOf(value);
+        if (s < 0 || mState[s] == VARYING) {
+          varying = true;
+          break;
+        }
+        if (mState[s] == UNKNOWN)
+          continue;
+        if (result == null)
+          result = mConstant[s];
+        else if (!ConstantFolder.sameConstant(result, mConstant[s]))
+          varying = true;
+      }
+      if (!varying && result == null)
+        return;
+    } else if (inst instanceof BinaryOperator || inst instanceof CompareInst
+        || inst instanceof UnaryNotInst) {
+      Constant[] operands = new Constant[inst.numOperands()];
+      for (int k = 0; k < operands.length; k++) {
+        int s = indexOf(inst.getOperand(k));
+        if (s < 0 || mState[s] == VARYING) {
+          varying = true;
+          break;
+        }
+        if (mState[s] == UNKNOWN)
+          return;
+        operands[k] = mConstant[s];
+      }
+      if (!varying) {
+        result = fold(inst, operands);
+        varying = result == null;
+      }
+    } else {
+      // Loads, calls and anything else the analysis does not understand.
+      varying = true;
+    }
+
+    if (varying) {
+      lower(d, VARYING, null);
+    } else if (mState[d] == UNKNOWN) {
+      lower(d, CONSTANT, result);
+    } else if (!ConstantFolder.sameConstant(mConstant[d], result)) {
+      lower(d, VARYING, null);
+    }
+  }
+
+  private void lower(int v, int state, Constant constant) {
+    mState[v] = state;
+    mConstant[v] = constant;
+    mInstWorklist.addAll(mUsers.get(v));
+  }
+
+  private Constant fold(Instruction inst, Constant[] operands) {
+    if (inst instanceof BinaryOperator) {
+      return ConstantFolder.binary(mProgram, ((BinaryOperator) inst).getOperator(),
+          longValue(operands[0]), longValue(operands[1]));
+    }
+    if (inst instanceof CompareInst) {
+      if (!(operands[0] instanceof IntegerConstant) || !(operands[1] instanceof IntegerConstant))
+        return null;
+      return ConstantFolder.compare(mProgram, ((CompareInst) inst).getPredicate(),
+          longValue(operands[0]), longValue(operands[1]));
+    }
+    return ConstantFolder.not(mProgram, isTrue(operands[0]));
+  }
+
+  private static long longValue(Constant constant) {
+    return ((IntegerConstant) constant).getValue();
+  }
+
+  private static boolean isTrue(Constant constant) {
+    return ((BooleanConstant) constant).getValue();
+  }
+
+  private boolean rewrite(Function function, OptimizationReport report) {
+    CFGEditor editor = new CFGEditor(function);
+    int folded = 0, branches = 0;
+    for (BasicBlock block : mCFG.getBlocks()) {
+      if (!mReachable[block.getNumber()])
+        continue;
+      List<Instruction> foldedPhis = new ArrayList<>();
+      for (Instruction inst : block.getInstructions()) {
+        if (inst instanceof JumpInst) {
+          int p = indexOf(((JumpInst) inst).getPredicate());
+          if (p >= 0 && mState[p] == CONSTANT) {
+            BasicBlock taken = mCFG.getBlock(inst.getNext(isTrue(mConstant[p]) ? 1 : 0));
+            editor.remove(inst);
+            editor.getSuccessors(block).clear();
+            editor.getSuccessors(block).add(taken);
+            branches++;
+          }
+          continue;
+        }
+        int d = indexOf(inst.getDestVar());
+        if (d < 0 || mState[d] != CONSTANT)
+          continue;
+        if (inst instanceof CopyInst && ((CopyInst) inst).getSrcValue() instanceof Constant)
+          continue;
+        if (inst instanceof LoadInst || inst instanceof CallInst || inst instanceof AddressAt)
+          continue;
+        CopyInst copy = new CopyInst((LocalVar) inst.getDestVar(), mConstant[d]);
+        if (inst instanceof PhiInst) {
+          // Phis have to stay together at the start of the block.
+          editor.remove(inst);
+          foldedPhis.add(copy);
+        } else {
+          editor.replace(inst, copy);
+        }
+        folded++;
+      }
+      for (int i = foldedPhis.size() - 1; i >= 0; i--) {
+        editor.insertAfterPhis(block, foldedPhis.get(i));
+      }
+    }
+    if (folded == 0 && branches == 0)
+      return false;
+    int removed = 0;
+    for (boolean reachable : mReachable) {
+      if (!reachable)
+        removed++;
+    }
+    editor.commit();
+    report.add("sccp", function, "folded instructions", folded);
+    report.add("sccp", function, "folded branches", branches);
+    report.add("sccp", function, "removed blocks", removed);
+    return true;
+  }
+}
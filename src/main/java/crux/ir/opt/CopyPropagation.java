@@ -0,0 +1,152 @@
+package crux.ir.opt;
+
+import crux.ir.*;
+import crux.ir.analysis.ControlFlowGraph;
+import crux.ir.analysis.DominatorTree;
+import crux.ir.insts.CopyInst;
+import crux.ir.insts.PhiInst;
+
+import java.util.*;
+
+/**
+ * Replaces uses of the destination of a copy by its source and removes the copies that are no longer
+ * read.
+ * <p>
+ * A copy {@code x = y} is propagated when x and y each have a single definition and the definition
+ * of y dominates the copy; a use of x is rewritten when the copy dominates it. Then y holds the same
+ * value at the use, because reaching y's definition again would mean passing the copy again first.
+ * The conditions always hold in SSA form, but are checked so the pass can also run after it.
+ * <p>
+ * A copy of a constant is propagated into the instructions that can take a constant operand, which
+ * are other copies and phis. Everything else reads the variable the constant was first copied to.
+ */
+public final class CopyPropagation implements FunctionPass {
+  private LocalVar[] mVar;
+  private Constant[] mConstant;
+  private CopyInst[] mDef;
+  private int[] mNumDefs;
+
+  @Override
+  public boolean run(Program program, Function function, OptimizationReport report) {
+    ControlFlowGraph cfg = function.getCFG();
+    if (cfg.size() == 0)
+      return false;
+    DominatorTree domTree = cfg.getDominatorTree();
+    int numVars = function.getNumTempVars();
+    mVar = new LocalVar[numVars];
+    mConstant = new Constant[numVars];
+    mDef = new CopyInst[numVars];
+    mNumDefs = new int[numVars];
+    Instruction[] defOf = new Instruction[numVars];
+    for (LocalVar arg : function.getArguments()) {
+      int v = indexOf(arg);
+      if (v >= 0)
+        mNumDefs[v]++;
+    }
+    for (Instruction inst : cfg.instructions()) {
+      int d = indexOf(inst.getDestVar());
+      if (d < 0)
+        continue;
+      mNumDefs[d]++;
+      defOf[d] = inst;
+      if (inst instanceof CopyInst)
+        mDef[d] = (CopyInst) inst;
+    }
+    for (int v = 0; v < numVars; v++) {
+      if (mNumDefs[v] != 1 || mDef[v] == null)
+        mDef[v] = null;
+    }
+    for (int v = 0; v < numVars; v++) {
+      CopyInst copy = mDef[v];
+      if (copy == null || copy.getSrcValue() instanceof Constant)
+        continue;
+      // A source without a defining instruction is an argument.
+      int s = indexOf(copy.getSrcValue());
+      if (s < 0 || s == v || mNumDefs[s] != 1
+          || defOf[s] != null && !domTree.dominates(defOf[s], copy))
+        mDef[v] = null;
+    }
+
+    int uses = 0;
+    for (Instruction inst : cfg.instructions()) {
+      for (int k = 0; k < inst.numOperands(); k++) {
+        int v = indexOf(inst.getOperand(k));
+        if (v < 0 || mDef[v] == null || mDef[v] == inst)
+          continue;
+        Instruction at = inst instanceof PhiInst ? ((PhiInst) inst).getIncoming(k) : inst;
+        if (!domTree.dominates(mDef[v], at))
+          continue;
+        resolve(v);
+        boolean takesConstant = inst instanceof CopyInst || inst instanceof PhiInst;
+        Value replacement = takesConstant && mConstant[v] != null ? mConstant[v] : mVar[v];
+        if (replacement != inst.getOperand(k)) {
+          inst.setOperand(k, replacement);
+          uses++;
+        }
+      }
+    }
+
+    // Remove the copies nothing reads any more.
+    boolean[] used = new boolean[numVars];
+    for (Instruction inst : cfg.instructions()) {
+      for (int k = 0; k < inst.numOperands(); k++) {
+        int v = indexOf(inst.getOperand(k));
+        if (v >= 0)
+          used[v] = true;
+      }
+    }
+    CFGEditor editor = new CFGEditor(function);
+    int removed = 0;
+    for (Instruction inst : cfg.instructions()) {
+      int d = indexOf(inst.getDestVar());
+      if (inst instanceof CopyInst && d >= 0 && !used[d]) {
+        editor.remove(inst);
+        removed++;
+      }
+    }
+    if (removed > 0)
+      editor.commit();
+    report.add("copyprop", function, "propagated uses", uses);
+    report.add("copyprop", function, "removed copies", removed);
+    mVar = null;
+    mConstant = null;
+    mDef = null;
+    mNumDefs = null;
+    return uses + removed > 0;
+  }
+
+  private int indexOf(Value value) {
+    if (!(value instanceof LocalVar))
+      return -1;
+    int id = ((LocalVar) value).getId();
+    return id >= 0 && id < mNumDefs.length ? id : -1;
+  }
+
+  /**
+   * Follows the chain of propagated copies from a variable to the variable at its start, and to
+   * the constant copied into that variable, if any.
+   */
+  private void resolve(int v) {
+    Deque<Integer> chain = new ArrayDeque<>();
+    int s = v;
+    while (mVar[s] == null) {
+      chain.push(s);
+      Value src = mDef[s].getSrcValue();
+      if (src instanceof Constant) {
+        mVar[s] = mDef[s].getDstVar();
+        mConstant[s] = (Constant) src;
+        break;
+      }
+      int t = indexOf(src);
+      if (mDef[t] == null) {
+        mVar[s] = (LocalVar) src;
+        break;
+      }
+      s = t;
+    }
+    for (int c : chain) {
+      mVar[c] = mVar[s];
+      mConstant[c] = mConstant[s];
+    }
+  }
+}
@@ -0,0 +1,181 @@
+package crux.ir.opt;
+
+import crux.ast.SymbolTable.Symbol;
+import crux.ast.types.FuncType;
+import crux.ast.types.Type;
+import crux.ast.types.TypeList;
+import crux.ast.types.VoidType;
+import crux.ir.*;
+import crux.ir.analysis.CallGraph;
+import crux.ir.insts.*;
+
+import java.util.*;
+
+/**
+ * Removes the parameters a function never needs from the function and all calls of it, and makes
+ * a function void if no call needs its result, so calls no longer pass values nobody reads and no
+ * longer store results nobody uses. Runs on the optimized program after the function passes, when
+ * constants have been folded into specialized functions and dead code is gone, and removes the code
+ * that computed the values with {@link DeadCodeElimination}.
+ * <p>
+ * Which parameters and results are needed is found optimistically over the whole program, so a
+ * parameter a recursive function only passes on to itself, e.g. as {@code depth + 1}, is unneeded.
+ * Within a function, stores, jumps, returns of needed results, loads, divisions and calls of
+ * built-in functions need their operands, and other instructions need theirs if their result is
+ * needed. A call needs the parameters its callee needs, and needs its callee's result if the call's
+ * result is needed. Main and the built-in functions keep their signatures. A function that becomes
+ * void ends where it returned, like functions declared void.
+ */
+public final class DeadArgumentElimination implements ProgramPass {
+  private CallGraph mCallGraph;
+  private final Set<LocalVar> mNeededArgs = new HashSet<>();
+  private final Set<Function> mNeededResults = new HashSet<>();
+
+  @Override
+  public boolean run(Program program, OptimizationReport report) {
+    mCallGraph = CallGraph.build(program);
+    List<Function> functions = new ArrayList<>();
+    for (Iterator<Function> it = program.getFunctions(); it.hasNext();) {
+      Function function = it.next();
+      if (function.getStart() == null)
+        continue;
+      functions.add(function);
+      if (function.getName().equals("main")) {
+        mNeededArgs.addAll(function.getArguments());
+        mNeededResults.add(function);
+      }
+    }
+    boolean progress = true;
+    while (progress) {
+      progress = false;
+      for (Function function : functions) {
+        progress |= markNeeded(function);
+      }
+    }
+
+    Map<Function, Symbol> symbols = new HashMap<>();
+    for (Function function : functions) {
+      if (!mNeededArgs.containsAll(function.getArguments()) || !isVoid(function)
+          && !mNeededResults.contains(function))
+        symbols.put(function, Symbol.generated(function.getName(), signatureOf(function)));
+    }
+
+    DeadCodeElimination dce = new DeadCodeElimination();
+    for (Function function : functions) {
+      CFGEditor editor = new CFGEditor(function);
+      int calls = 0;
+      for (CallInst call : mCallGraph.getCallSites(function)) {
+        Function callee = mCallGraph.getCallee(call);
+        if (!symbols.containsKey(callee))
+          continue;
+        List<LocalVar> params = new ArrayList<>();
+        for (int i = 0; i < call.numParams(); i++) {
+          if (mNeededArgs.contains(callee.getArguments().get(i)))
+            params.add(call.getParam(i));
+        }
+        LocalVar dst = mNeededResults.contains(callee) ? call.getDst() : null;
+        editor.replace(call, dst != null ? new CallInst(dst, symbols.get(callee), params)
+            : new CallInst(symbols.get(callee), params));
+        calls++;
+      }
+      int returns = 0;
+      if (symbols.containsKey(function) && !mNeededResults.contains(function)) {
+        for (Instruction inst : function.getCFG().instructions()) {
+          if (inst instanceof ReturnInst) {
+            editor.replace(inst, new NopInst());
+            returns++;
+          }
+        }
+      }
+      if (calls + returns > 0) {
+        editor.commit();
+        dce.run(program, function, report);
+      }
+      report.add("deadargs", function, "rewritten calls", calls);
+    }
+
+    for (var entry : symbols.entrySet()) {
+      Function function = entry.getKey();
+      List<LocalVar> args = new ArrayList<>(function.getArguments());
+      args.retainAll(mNeededArgs);
+      report.add("deadargs", function, "removed parameters",
+          function.getArguments().size() - args.size());
+      report.add("deadargs", function, "removed results",
+          isVoid(function) || mNeededResults.contains(function) ? 0 : 1);
+      function.setArguments(args);
+      function.setFuncType((FuncType) entry.getValue().getType());
+    }
+    mCallGraph = null;
+    mNeededArgs.clear();
+    mNeededResults.clear();
+    return !symbols.isEmpty();
+  }
+
+  private static boolean isVoid(Function function) {
+    return function.getFuncType().getRet() instanceof VoidType;
+  }
+
+  /**
+   * Marks the arguments of a function that it needs, and the results of the functions it calls
+   * that it needs. Returns true if anything new was marked.
+   */
+  private boolean markNeeded(Function function) {
+    Map<Variable, List<Instruction>> defs = Edits.definitionsOf(function);
+    Set<Value> needed = new HashSet<>();
+    Deque<Value> worklist = new ArrayDeque<>();
+    for (Instruction inst : function.getCFG().instructions()) {
+      if (inst instanceof CallInst) {
+        Function callee = mCallGraph.getCallee((CallInst) inst);
+        for (int i = 0; i < inst.numOperands(); i++) {
+          if (callee == null || mNeededArgs.contains(callee.getArguments().get(i)))
+            worklist.add(inst.getOperand(i));
+        }
+      } else if (inst instanceof ReturnInst) {
+        if (mNeededResults.contains(function))
+          worklist.add(((ReturnInst) inst).getReturnValue());
+      } else if (isCritical(inst)) {
+        for (int i = 0; i < inst.numOperands(); i++) {
+          worklist.add(inst.getOperand(i));
+        }
+      }
+    }
+    boolean changed = false;
+    while (!worklist.isEmpty()) {
+      Value value = worklist.pop();
+      if (!needed.add(value) || !(value instanceof Variable))
+        continue;
+      for (Instruction def : defs.getOrDefault(value, List.of())) {
+        if (def instanceof CallInst) {
+          Function callee = mCallGraph.getCallee((CallInst) def);
+          if (callee != null)
+            changed |= mNeededResults.add(callee);
+        } else {
+          for (int i = 0; i < def.numOperands(); i++) {
+            worklist.add(def.getOperand(i));
+          }
+        }
+      }
+    }
+    for (LocalVar arg : function.getArguments()) {
+      if (needed.contains(arg))
+        changed |= mNeededArgs.add(arg);
+    }
+    return changed;
+  }
+
+  private static boolean isCritical(Instruction inst) {
+    return inst.getDestVar() == null || inst instanceof LoadInst || inst instanceof BinaryOperator
+        && ((BinaryOperator) inst).getOperator() == BinaryOperator.Op.Div;
+  }
+
+  private FuncType signatureOf(Function function) {
+    List<Type> args = new ArrayList<>();
+    Iterator<LocalVar> vars = function.getArguments().iterator();
+    for (Type arg : function.getFuncType().getArgs()) {
+      if (mNeededArgs.contains(vars.next()))
+        args.add(arg);
+    }
+    Type ret = mNeededResults.contains(function) ? function.getFuncType().getRet() : new VoidType();
+    return new FuncType(new TypeList(args), ret);
+  }
+}
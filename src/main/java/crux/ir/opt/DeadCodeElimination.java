@@ -0,0 +1,284 @@
+package crux.ir.opt;
+
+import crux.ir.*;
+import crux.ir.analysis.BasicBlock;
+import crux.ir.analysis.ControlFlowGraph;
+import crux.ir.analysis.SideEffectSummary;
+import crux.ir.insts.*;
+
+import java.util.*;
+
+/**
+ * Removes dead definitions and simplifies the control flow graph. Works with and without phis.
+ * <p>
+ * Dead code is found by mark and sweep: stores, calls, jumps and returns are live, and so is every
+ * definition a live instruction reads. Loads stay as well, since the emulator reports reads of
+ * uninitialized memory, and so do divisions that might trap. Every other unmarked definition is
+ * removed; a call whose result is never read loses its destination. Calls of pure functions that
+ * always return, according to the {@link crux.ir.analysis.SideEffectSummary}, are only live if
+ * their result is read, and are removed otherwise.
+ * <p>
+ * The graph is then cleaned up: nops are removed, edges into blocks that only pass control on are
+ * redirected to the block they lead to, a jump whose two successors are the same block becomes
+ * straight-line flow, and a block is merged into its only predecessor if that predecessor has no
+ * other successor. Blocks that are no longer reached from the entry drop out of the function.
+ * Both steps repeat until neither finds anything to do, since each can make work for the other.
+ */
+public final class DeadCodeElimination implements FunctionPass {
+  private int mNumLocals;
+  private List<List<Instruction>> mDefs;
+  private SideEffectSummary mEffects;
+
+  @Override
+  public boolean run(Program program, Function function, OptimizationReport report) {
+    mEffects = program.getSideEffects();
+    int blocksBefore = function.getCFG().size();
+    Edits.normalize(function);
+    boolean changed = false;
+    boolean progress = true;
+    while (progress) {
+      progress = sweep(function, report);
+      progress |= simplify(function, report);
+      changed |= progress;
+    }
+    report.add("dce", function, "removed blocks", blocksBefore - function.getCFG().size());
+    mDefs = null;
+    mEffects = null;
+    return changed || blocksBefore != function.getCFG().size();
+  }
+
+  private int slotOf(Value value) {
+    if (value instanceof LocalVar) {
+      int id = ((LocalVar) value).getId();
+      return id >= 0 && id < mNumLocals ? id : -1;
+    }
+    if (value instanceof AddressVar) {
+      int id = ((AddressVar) value).getId();
+      return id >= 0 && mNumLocals + id < mDefs.size() ? mNumLocals + id : -1;
+    }
+    return -1;
+  }
+
+  /**
+   * Removes the definitions no live instruction reads.
+   */
+  private boolean sweep(Function function, OptimizationReport report) {
+    ControlFlowGraph cfg = function.getCFG();
+    mNumLocals = function.getNumTempVars();
+    int numSlots = mNumLocals + function.getNumTempAddressVars();
+    mDefs = new ArrayList<>(numSlots);
+    for (int v = 0; v < numSlots; v++) {
+      mDefs.add(new ArrayList<>(1));
+    }
+    for (Instruction inst : cfg.instructions()) {
+      int d = slotOf(inst.getDestVar());
+      if (d >= 0)
+        mDefs.get(d).add(inst);
+    }
+
+    Set<Instruction> live = Collections.newSetFromMap(new IdentityHashMap<>());
+    Deque<Instruction> worklist = new ArrayDeque<>();
+    for (Instruction inst : cfg.instructions()) {
+      if (isCritical(inst) && live.add(inst))
+        worklist.add(inst);
+    }
+    boolean[] liveVar = new boolean[numSlots];
+    while (!worklist.isEmpty()) {
+      Instruction inst = worklist.poll();
+      for (int k = 0; k < inst.numOperands(); k++) {
+        int v = slotOf(inst.getOperand(k));
+        if (v < 0 || liveVar[v])
+          continue;
+        liveVar[v] = true;
+        for (Instruction def : mDefs.get(v)) {
+          if (live.add(def))
+            worklist.add(def);
+        }
+      }
+    }
+
+    CFGEditor editor = new CFGEditor(function);
+    int removed = 0, results = 0, calls = 0;
+    for (Instruction inst : cfg.instructions()) {
+      if (inst instanceof CallInst && !live.contains(inst)) {
+        editor.remove(inst);
+        calls++;
+        continue;
+      }
+      int d = slotOf(inst.getDestVar());
+      if (d < 0 || liveVar[d])
+        continue;
+      if (inst instanceof CallInst) {
+        CallInst call = (CallInst) inst;
+        editor.replace(call, new CallInst(call.getCallee(), call.getParams()));
+        results++;
+      } else if (!live.contains(inst)) {
+        editor.remove(inst);
+        removed++;
+      }
+    }
+    if (removed + results + calls == 0)
+      return false;
+    editor.commit();
+    report.add("dce", function, "removed instructions", removed);
+    report.add("dce", function, "unused call results", results);
+    report.add("dce", function, "removed calls", calls);
+    return true;
+  }
+
+  private boolean isCritical(Instruction inst) {
+    if (inst instanceof NopInst)
+      return false;
+    if (inst instanceof CallInst)
+      return !mEffects.isRemovable((CallInst) inst);
+    if (inst.getDestVar() == null || inst instanceof LoadInst)
+      return true;
+    if (inst instanceof BinaryOperator
+        && ((BinaryOperator) inst).getOperator() == BinaryOperator.Op.Div)
+      return mayTrap((BinaryOperator) inst);
+    return false;
+  }
+
+  /**
+   * Returns true unless the divisor is a constant other than 0 and -1.
+   */
+  private boolean mayTrap(BinaryOperator division) {
+    int v = slotOf(division.getRightOperand());
+    if (v < 0 || mDefs.get(v).isEmpty())
+      return true;
+    for (Instruction def : mDefs.get(v)) {
+      if (!(def instanceof CopyInst)
+          || !(((CopyInst) def).getSrcValue() instanceof IntegerConstant))
+        return true;
+      long divisor = ((IntegerConstant) ((CopyInst) def).getSrcValue()).getValue();
+      if (divisor == 0 || divisor == -1)
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * Removes nops, bypasses empty blocks, folds jumps with a single target and merges straight-line
+   * chains of blocks.
+   */
+  private boolean simplify(Function function, OptimizationReport report) {
+    ControlFlowGraph cfg = function.getCFG();
+    List<BasicBlock> blocks = cfg.getBlocks();
+    CFGEditor editor = new CFGEditor(function);
+    int nops = 0, bypassed = 0, branches = 0, merged = 0;
+
+    boolean[] empty = new boolean[cfg.size()];
+    for (BasicBlock block : blocks) {
+      List<Instruction> insts = block.getInstructions();
+      int count = 0, phis = 0;
+      for (Instruction inst : insts) {
+        if (inst instanceof NopInst)
+          count++;
+        else if (inst instanceof PhiInst)
+          phis++;
+      }
+      empty[block.getNumber()] = count == insts.size();
+      if (count + phis == insts.size())
+        count--;
+      if (count <= 0)
+        continue;
+      dropNops(editor.getInstructions(block));
+      nops += count;
+    }
+
+    for (BasicBlock block : blocks) {
+      List<BasicBlock> succs = editor.getSuccessors(block);
+      for (int i = 0; i < succs.size(); i++) {
+        BasicBlock target = bypass(cfg, editor, empty, succs.get(i));
+        if (target != succs.get(i)) {
+          succs.set(i, target);
+          bypassed++;
+        }
+      }
+      if (block.getLast() instanceof JumpInst && succs.get(0) == succs.get(1)
+          && !hasPhis(succs.get(0))) {
+        editor.remove(block.getLast());
+        succs.remove(1);
+        branches++;
+      }
+    }
+
+    // Count the predecessors of the edited graph, then merge blocks into their only predecessor.
+    int[] numPreds = new int[cfg.size()];
+    boolean[] reached = new boolean[cfg.size()];
+    Deque<BasicBlock> stack = new ArrayDeque<>();
+    stack.push(cfg.getEntry());
+    reached[cfg.getEntry().getNumber()] = true;
+    while (!stack.isEmpty()) {
+      for (BasicBlock succ : editor.getSuccessors(stack.pop())) {
+        numPreds[succ.getNumber()]++;
+        if (!reached[succ.getNumber()]) {
+          reached[succ.getNumber()] = true;
+          stack.push(succ);
+        }
+      }
+    }
+    boolean[] mergedAway = new boolean[cfg.size()];
+    for (BasicBlock block : blocks) {
+      if (!reached[block.getNumber()] || mergedAway[block.getNumber()])
+        continue;
+      List<BasicBlock> succs = editor.getSuccessors(block);
+      while (succs.size() == 1) {
+        BasicBlock succ = succs.get(0);
+        if (succ == block || succ == cfg.getEntry() || numPreds[succ.getNumber()] != 1
+            || hasPhis(succ))
+          break;
+        editor.merge(block, succ);
+        dropNops(editor.getInstructions(block));
+        mergedAway[succ.getNumber()] = true;
+        merged++;
+      }
+    }
+
+    if (nops + bypassed + branches + merged == 0)
+      return false;
+    editor.commit();
+    report.add("dce", function, "removed nops", nops);
+    report.add("dce", function, "bypassed edges", bypassed);
+    report.add("dce", function, "folded branches", branches);
+    report.add("dce", function, "merged blocks", merged);
+    return true;
+  }
+
+  /**
+   * Removes the nops from an instruction list, but keeps one if the list has nothing else, or
+   * nothing but phis: phis are keyed by the last instruction of each predecessor, and that must not
+   * be a phi itself.
+   */
+  private static void dropNops(List<Instruction> insts) {
+    Instruction nop = null;
+    for (Iterator<Instruction> it = insts.iterator(); it.hasNext();) {
+      Instruction inst = it.next();
+      if (inst instanceof NopInst) {
+        nop = inst;
+        it.remove();
+      }
+    }
+    if (nop != null && (insts.isEmpty() || insts.get(insts.size() - 1) instanceof PhiInst))
+      insts.add(nop);
+  }
+
+  /**
+   * Follows a chain of empty blocks and returns the first block that does something.
+   */
+  private static BasicBlock bypass(ControlFlowGraph cfg, CFGEditor editor, boolean[] empty,
+      BasicBlock block) {
+    Set<BasicBlock> seen = new HashSet<>();
+    while (empty[block.getNumber()] && block != cfg.getEntry() && seen.add(block)) {
+      List<BasicBlock> succs = editor.getSuccessors(block);
+      if (succs.size() != 1 || hasPhis(succs.get(0)))
+        break;
+      block = succs.get(0);
+    }
+    return block;
+  }
+
+  private static boolean hasPhis(BasicBlock block) {
+    return block.getFirst() instanceof PhiInst;
+  }
+}
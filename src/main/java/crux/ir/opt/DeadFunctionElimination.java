@@ -0,0 +1,46 @@
+package crux.ir.opt;
+
+import crux.ir.Function;
+import crux.ir.Program;
+import crux.ir.analysis.CallGraph;
+
+import java.util.*;
+
+/**
+ * Removes the functions main no longer calls, directly or through other functions. Once the
+ * {@link Inliner} has copied a function into its only caller, or {@link Specialization} has moved
+ * all calls of a function to its clones, the original would otherwise still be optimized and
+ * emitted. Runs on the lowered program after each of the two.
+ * <p>
+ * A program without main, such as a library on its own, keeps all its functions.
+ */
+public final class DeadFunctionElimination implements ProgramPass {
+  @Override
+  public boolean run(Program program, OptimizationReport report) {
+    CallGraph graph = CallGraph.build(program);
+    Function main = graph.getFunction("main");
+    if (main == null)
+      return false;
+    Set<Function> reachable = new HashSet<>();
+    Deque<Function> worklist = new ArrayDeque<>();
+    reachable.add(main);
+    worklist.add(main);
+    while (!worklist.isEmpty()) {
+      for (Function callee : graph.getCallees(worklist.pop())) {
+        if (reachable.add(callee))
+          worklist.add(callee);
+      }
+    }
+    List<Function> dead = new ArrayList<>();
+    for (Iterator<Function> it = program.getFunctions(); it.hasNext();) {
+      Function function = it.next();
+      if (!reachable.contains(function))
+        dead.add(function);
+    }
+    for (Function function : dead) {
+      program.removeFunction(function);
+      report.add("functions", function, "removed", 1);
+    }
+    return !dead.isEmpty();
+  }
+}
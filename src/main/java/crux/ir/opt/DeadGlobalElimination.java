@@ -0,0 +1,148 @@
+package crux.ir.opt;
+
+import crux.ast.SymbolTable.Symbol;
+import crux.ir.*;
+import crux.ir.analysis.SideEffectSummary;
+import crux.ir.insts.AddressAdd;
+import crux.ir.insts.AddressAt;
+import crux.ir.insts.StoreInst;
+
+import java.util.*;
+
+/**
+ * Removes the globals no function reads, along with the stores to them and the address
+ * computations of those stores, so arrays a program only fills take no space in the BSS section.
+ * Lowering already skips the globals no reachable function names; this pass also catches those
+ * that are written but never read, also after inlining and compile-time evaluation removed their
+ * readers. Runs on the lowered program after the other program passes, before SSA form is built.
+ * <p>
+ * A global is read if the {@link SideEffectSummary} says some function may read it, so a load from
+ * an address of unknown origin keeps every global. A global is kept as well if one of its addresses
+ * is used by anything but a store or an address computation, e.g. copied to another variable, or
+ * may also point into a global that is kept.
+ */
+public final class DeadGlobalElimination implements ProgramPass {
+  @Override
+  public boolean run(Program program, OptimizationReport report) {
+    SideEffectSummary effects = program.getSideEffects();
+    Map<Symbol, GlobalDecl> dead = new LinkedHashMap<>();
+    for (Iterator<GlobalDecl> it = program.getGlobals(); it.hasNext();) {
+      GlobalDecl global = it.next();
+      dead.put(global.getSymbol(), global);
+    }
+    List<Function> functions = new ArrayList<>();
+    for (Iterator<Function> it = program.getFunctions(); it.hasNext();) {
+      Function function = it.next();
+      if (function.getStart() == null)
+        continue;
+      functions.add(function);
+      dead.keySet().removeAll(effects.getRead(function));
+    }
+    if (dead.isEmpty())
+      return false;
+
+    List<Map<AddressVar, Set<Symbol>>> bases = new ArrayList<>();
+    for (Function function : functions) {
+      Map<AddressVar, Set<Symbol>> functionBases = basesOf(function);
+      bases.add(functionBases);
+      for (Instruction inst : function.getCFG().instructions()) {
+        if (inst instanceof AddressAt && !functionBases.containsKey(inst.getDestVar()))
+          dead.remove(((AddressAt) inst).getBase());
+        for (int k = 0; k < inst.numOperands(); k++) {
+          Value operand = inst.getOperand(k);
+          if (operand instanceof AddressVar && !isRemovableUse(inst, operand, functionBases)) {
+            Set<Symbol> escaped = functionBases.get(operand);
+            if (escaped != null)
+              dead.keySet().removeAll(escaped);
+          }
+        }
+      }
+    }
+    // An address that may point into a kept global keeps every global it may point into.
+    boolean changed = true;
+    while (changed && !dead.isEmpty()) {
+      changed = false;
+      for (Map<AddressVar, Set<Symbol>> functionBases : bases) {
+        for (Set<Symbol> targets : functionBases.values()) {
+          if (!dead.keySet().containsAll(targets))
+            changed |= dead.keySet().removeAll(targets);
+        }
+      }
+    }
+    if (dead.isEmpty())
+      return false;
+
+    for (int i = 0; i < functions.size(); i++) {
+      Function function = functions.get(i);
+      Map<AddressVar, Set<Symbol>> functionBases = bases.get(i);
+      CFGEditor editor = new CFGEditor(function);
+      int stores = 0, addresses = 0;
+      for (Instruction inst : function.getCFG().instructions()) {
+        Variable address = inst instanceof StoreInst ? ((StoreInst) inst).getDestAddress()
+            : inst.getDestVar() instanceof AddressVar ? inst.getDestVar() : null;
+        Set<Symbol> targets = functionBases.get(address);
+        if (targets == null || !dead.keySet().containsAll(targets))
+          continue;
+        editor.remove(inst);
+        if (inst instanceof StoreInst)
+          stores++;
+        else
+          addresses++;
+      }
+      if (stores + addresses > 0)
+        editor.commit();
+      report.add("globals", function, "removed stores", stores);
+      report.add("globals", function, "removed address computations", addresses);
+    }
+    for (GlobalDecl global : dead.values()) {
+      program.removeGlobalVar(global);
+    }
+    return true;
+  }
+
+  /**
+   * Returns true if an address operand goes away with the global it points into: it is where a
+   * store writes to, or the start of another address computation whose origin is known.
+   */
+  private static boolean isRemovableUse(Instruction inst, Value operand,
+      Map<AddressVar, Set<Symbol>> bases) {
+    if (inst instanceof StoreInst)
+      return ((StoreInst) inst).getDestAddress() == operand;
+    return inst instanceof AddressAdd && bases.containsKey(inst.getDestVar());
+  }
+
+  /**
+   * Returns the globals each address of a function points into, for the addresses that only come
+   * from {@link AddressAt} and {@link AddressAdd}.
+   */
+  private static Map<AddressVar, Set<Symbol>> basesOf(Function function) {
+    Map<Variable, List<Instruction>> defs = Edits.definitionsOf(function);
+    Map<AddressVar, Set<Symbol>> bases = new HashMap<>();
+    for (Variable var : defs.keySet()) {
+      if (!(var instanceof AddressVar))
+        continue;
+      Set<Symbol> varBases = new HashSet<>();
+      Set<AddressVar> seen = new HashSet<>();
+      Deque<AddressVar> worklist = new ArrayDeque<>();
+      worklist.add((AddressVar) var);
+      while (varBases != null && !worklist.isEmpty()) {
+        AddressVar address = worklist.pop();
+        if (!seen.add(address))
+          continue;
+        for (Instruction def : defs.getOrDefault(address, List.of())) {
+          if (def instanceof AddressAt) {
+            varBases.add(((AddressAt) def).getBase());
+          } else if (def instanceof AddressAdd) {
+            worklist.add(((AddressAdd) def).getSrcAddress());
+          } else {
+            varBases = null;
+            break;
+          }
+        }
+      }
+      if (varBases != null && !varBases.isEmpty())
+        bases.put((AddressVar) var, varBases);
+    }
+    return bases;
+  }
+}
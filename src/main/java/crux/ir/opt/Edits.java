@@ -0,0 +1,205 @@
+package crux.ir.opt;
+
+import crux.ir.Constant;
+import crux.ir.Function;
+import crux.ir.Instruction;
+import crux.ir.LocalVar;
+import crux.ir.Value;
+import crux.ir.Variable;
+import crux.ir.analysis.BasicBlock;
+import crux.ir.analysis.ControlFlowGraph;
+import crux.ir.analysis.Loop;
+import crux.ir.insts.*;
+
+import java.util.*;
+
+/**
+ * Small edits of the instruction graph shared by the passes.
+ */
+final class Edits {
+  private Edits() {}
+
+  /**
+   * Brings a function into the shape the passes expect: returns have no successors (the lowering
+   * links them to the following statement), and no edge leads back to the start, so the entry
+   * block has no predecessors.
+   */
+  static void normalize(Function function) {
+    ControlFlowGraph cfg = function.getCFG();
+    for (Instruction inst : cfg.instructions()) {
+      if (inst instanceof ReturnInst && inst.numNext() > 0)
+        inst.clearNext();
+    }
+    cfg = function.getCFG();
+    if (cfg.getEntry() != null && !cfg.getEntry().getPredecessors().isEmpty()) {
+      NopInst entry = new NopInst();
+      entry.setNext(0, function.getStart());
+      function.setStart(entry);
+    }
+  }
+
+  /**
+   * Gives every loop a preheader: a block outside of the loop whose only successor is the header,
+   * and which is the only way into the loop. Code placed at its end runs once before the loop
+   * starts. Loops whose single entry already has no other successor keep it. Otherwise a new block
+   * takes over all entry edges; if the header has phis, the new block merges their entry values with
+   * phis of its own. Returns the number of blocks created.
+   */
+  static int insertPreheaders(Function function) {
+    ControlFlowGraph cfg = function.getCFG();
+    List<BasicBlock> headers = new ArrayList<>();
+    List<List<BasicBlock>> entries = new ArrayList<>();
+    for (Loop loop : cfg.getLoopForest().getLoops()) {
+      List<BasicBlock> loopEntries = loop.getEntries();
+      if (loopEntries.size() == 1 && loopEntries.get(0).getSuccessors().size() == 1)
+        continue;
+      headers.add(loop.getHeader());
+      entries.add(loopEntries);
+    }
+
+    for (int i = 0; i < headers.size(); i++) {
+      BasicBlock header = headers.get(i);
+      List<Instruction> entryLasts = new ArrayList<>();
+      for (BasicBlock entry : entries.get(i)) {
+        entryLasts.add(entry.getLast());
+      }
+      NopInst nop = new NopInst();
+      nop.setNext(0, header.getFirst());
+      Instruction first = nop;
+      for (Instruction inst : header.getInstructions()) {
+        if (!(inst instanceof PhiInst))
+          break;
+        PhiInst phi = (PhiInst) inst;
+        if (entryLasts.size() == 1) {
+          phi.replaceIncoming(entryLasts.get(0), nop);
+          continue;
+        }
+        LocalVar merged = function.getTempVar(phi.getDst().getType(), phi.getDst().getPrefix());
+        PhiInst entryPhi = new PhiInst(merged, entryLasts);
+        for (Instruction last : entryLasts) {
+          entryPhi.setValueFrom(last, phi.getValueFrom(last));
+          phi.removeIncoming(last);
+        }
+        phi.addIncoming(nop, merged);
+        entryPhi.setNext(0, first);
+        first = entryPhi;
+      }
+      for (Instruction last : entryLasts) {
+        last.replaceNext(header.getFirst(), first);
+      }
+    }
+    function.invalidateCFG();
+    return headers.size();
+  }
+
+  /**
+   * Returns a new instruction that does the same as the given one, with the same destination and
+   * operands but no successors. A copied phi keeps the incoming instructions of the original.
+   */
+  static Instruction copyOf(Instruction inst) {
+    if (inst instanceof AddressAt) {
+      AddressAt addressAt = (AddressAt) inst;
+      if (addressAt.getOffset() == null)
+        return new AddressAt(addressAt.getDst(), addressAt.getBase());
+      return new AddressAt(addressAt.getDst(), addressAt.getBase(), addressAt.getOffset());
+    }
+    if (inst instanceof AddressAdd) {
+      AddressAdd add = (AddressAdd) inst;
+      return new AddressAdd(add.getDst(), add.getSrcAddress(), add.getStride());
+    }
+    if (inst instanceof BinaryOperator) {
+      BinaryOperator binary = (BinaryOperator) inst;
+      return new BinaryOperator(binary.getOperator(), binary.getDst(), binary.getLeftOperand(),
+          binary.getRightOperand());
+    }
+    if (inst instanceof CallInst) {
+      CallInst call = (CallInst) inst;
+      if (call.getDst() == null)
+        return new CallInst(call.getCallee(), call.getParams());
+      return new CallInst(call.getDst(), call.getCallee(), call.getParams());
+    }
+    if (inst instanceof CompareInst) {
+      CompareInst compare = (CompareInst) inst;
+      return new CompareInst(compare.getDst(), compare.getPredicate(), compare.getLeftOperand(),
+          compare.getRightOperand());
+    }
+    if (inst instanceof CopyInst)
+      return new CopyInst(((CopyInst) inst).getDstVar(), ((CopyInst) inst).getSrcValue());
+    if (inst instanceof JumpInst)
+      return new JumpInst(((JumpInst) inst).getPredicate());
+    if (inst instanceof LoadInst)
+      return new LoadInst(((LoadInst) inst).getDst(), ((LoadInst) inst).getSrcAddress());
+    if (inst instanceof NopInst)
+      return new NopInst();
+    if (inst instanceof ReturnInst)
+      return new ReturnInst(((ReturnInst) inst).getReturnValue());
+    if (inst instanceof StoreInst)
+      return new StoreInst(((StoreInst) inst).getSrcValue(), ((StoreInst) inst).getDestAddress());
+    if (inst instanceof UnaryNotInst)
+      return new UnaryNotInst(((UnaryNotInst) inst).getDst(), ((UnaryNotInst) inst).getInner());
+    if (inst instanceof SelectInst) {
+      SelectInst select = (SelectInst) inst;
+      return new SelectInst(select.getDst(), select.getCondition(), select.getTrueValue(),
+          select.getFalseValue());
+    }
+    if (inst instanceof PhiInst) {
+      PhiInst phi = (PhiInst) inst;
+      List<Instruction> incoming = new ArrayList<>();
+      for (int i = 0; i < phi.numIncoming(); i++) {
+        incoming.add(phi.getIncoming(i));
+      }
+      PhiInst copy = new PhiInst(phi.getDst(), incoming);
+      for (int i = 0; i < phi.numIncoming(); i++) {
+        copy.setOperand(i, phi.getOperand(i));
+      }
+      return copy;
+    }
+    throw new RuntimeException("cannot copy " + inst);
+  }
+
+  /**
+   * Maps every variable of a function to the instructions that assign it.
+   */
+  static Map<Variable, List<Instruction>> definitionsOf(Function function) {
+    Map<Variable, List<Instruction>> defs = new HashMap<>();
+    for (Instruction inst : function.getCFG().instructions()) {
+      if (inst.getDestVar() != null)
+        defs.computeIfAbsent(inst.getDestVar(), v -> new ArrayList<>()).add(inst);
+    }
+    return defs;
+  }
+
+  /**
+   * Returns the constant a variable of a function in lowered form always holds: every assignment
+   * copies that constant or a variable that always holds it. Returns null if it may hold anything
+   * else; the arguments of the function never are constant.
+   */
+  static Constant constantOf(LocalVar var, Function function,
+      Map<Variable, List<Instruction>> defs) {
+    Constant constant = null;
+    Set<Variable> seen = new HashSet<>();
+    Deque<Variable> worklist = new ArrayDeque<>();
+    worklist.add(var);
+    while (!worklist.isEmpty()) {
+      Variable v = worklist.pop();
+      if (!seen.add(v))
+        continue;
+      List<Instruction> vDefs = defs.get(v);
+      if (vDefs == null || function.getArguments().contains(v))
+        return null;
+      for (Instruction def : vDefs) {
+        if (!(def instanceof CopyInst))
+          return null;
+        Value src = ((CopyInst) def).getSrcValue();
+        if (src instanceof Variable) {
+          worklist.add((Variable) src);
+        } else if (constant == null) {
+          constant = (Constant) src;
+        } else if (constant != src) {
+          return null;
+        }
+      }
+    }
+    return constant;
+  }
+}
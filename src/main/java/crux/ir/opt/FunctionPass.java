@@ -0,0 +1,15 @@
+package crux.ir.opt;
+
+import crux.ir.Function;
+import crux.ir.Program;
+
+/**
+ * A transformation of a single function. Passes edit the instruction graph in place; the program is
+ * passed along for the constants they create, and the report collects what they did.
+ */
+public interface FunctionPass {
+  /**
+   * Transforms the function and returns true if anything changed.
+   */
+  boolean run(Program program, Function function, OptimizationReport report);
+}
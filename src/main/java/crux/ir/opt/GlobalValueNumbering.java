@@ -0,0 +1,289 @@
+package crux.ir.opt;
+
+import crux.ir.*;
+import crux.ir.analysis.BasicBlock;
+import crux.ir.analysis.ControlFlowGraph;
+import crux.ir.analysis.DominatorTree;
+import crux.ir.analysis.SideEffectSummary;
+import crux.ir.insts.*;
+
+import java.util.*;
+
+/**
+ * Dominator-based global value numbering over a function in SSA form.
+ * <p>
+ * The dominator tree is walked with a scoped table from expressions to the variable that first
+ * computed them. An arithmetic, compare, not or address computation whose expression is already in
+ * the table is redundant: it is removed and its uses read the earlier variable instead. Since the
+ * table only holds expressions of dominating blocks, the earlier definition is available at every
+ * use. Operands are compared by value number, so a copy has the number of its source, copies of
+ * equal constants share a number, and the operands of commutative operators are put in a fixed
+ * order.
+ * <p>
+ * Loads are numbered together with the memory state they read. Every store and every call with
+ * effects starts a new state, and so does every block with more than one predecessor; a block with
+ * a single predecessor continues the state its predecessor ends with. A load is therefore only
+ * reused when no store or call can change memory between the two loads.
+ * <p>
+ * Calls are numbered by the {@link SideEffectSummary} of their callee: a call of a pure function is
+ * an expression of its parameters, and a call of a read-only function is numbered with the memory
+ * state as well, like a load. Calls with effects are never numbered.
+ */
+public final class GlobalValueNumbering implements FunctionPass {
+  private int mNumLocals;
+  /** The value number of each variable: the slot of the variable it is known to be equal to. */
+  private int[] mNumber;
+  /** The variable that replaces each variable defined by a removed instruction. */
+  private Variable[] mReplacement;
+  private int[] mNumDefs;
+  private Map<List<Object>, Variable> mTable;
+  private int mMemoryState;
+  private int mNumMemoryStates;
+  private SideEffectSummary mEffects;
+
+  @Override
+  public boolean run(Program program, Function function, OptimizationReport report) {
+    ControlFlowGraph cfg = function.getCFG();
+    if (cfg.size() == 0)
+      return false;
+    mEffects = program.getSideEffects();
+    mNumLocals = function.getNumTempVars();
+    int numSlots = mNumLocals + function.getNumTempAddressVars();
+    mNumber = new int[numSlots];
+    mReplacement = new Variable[numSlots];
+    mNumDefs = new int[numSlots];
+    for (int v = 0; v < numSlots; v++) {
+      mNumber[v] = v;
+    }
+    for (LocalVar arg : function.getArguments()) {
+      int v = slotOf(arg);
+      if (v >= 0)
+        mNumDefs[v]++;
+    }
+    for (Instruction inst : cfg.instructions()) {
+      int d = slotOf(inst.getDestVar());
+      if (d >= 0)
+        mNumDefs[d]++;
+    }
+
+    DominatorTree domTree = new DominatorTree(cfg);
+    CFGEditor editor = new CFGEditor(function);
+    mTable = new HashMap<>();
+    mNumMemoryStates = 0;
+    int[] exitState = new int[cfg.size()];
+    int expressions = 0, loads = 0, calls = 0;
+
+    Deque<BasicBlock> blockStack = new ArrayDeque<>();
+    Deque<Integer> childIdxStack = new ArrayDeque<>();
+    Deque<List<List<Object>>> addedStack = new ArrayDeque<>();
+    blockStack.push(cfg.getEntry());
+    childIdxStack.push(-1);
+    while (!blockStack.isEmpty()) {
+      BasicBlock block = blockStack.peek();
+      int childIdx = childIdxStack.pop();
+      if (childIdx == -1) {
+        List<BasicBlock> preds = block.getPredecessors();
+        if (preds.size() == 1)
+          mMemoryState = exitState[preds.get(0).getNumber()];
+        else
+          mMemoryState = newMemoryState();
+
+        List<List<Object>> added = new ArrayList<>();
+        for (Instruction inst : block.getInstructions()) {
+          if (inst instanceof StoreInst
+              || inst instanceof CallInst && !mEffects.isReadOnly((CallInst) inst))
+            mMemoryState = newMemoryState();
+          int d = slotOf(inst.getDestVar());
+          if (d < 0 || mNumDefs[d] != 1)
+            continue;
+          if (inst instanceof CopyInst) {
+            numberCopy((CopyInst) inst, added);
+            continue;
+          }
+          List<Object> key = keyOf(inst);
+          if (key == null)
+            continue;
+          Variable leader = mTable.get(key);
+          if (leader == null) {
+            mTable.put(key, inst.getDestVar());
+            added.add(key);
+            continue;
+          }
+          mNumber[d] = mNumber[slotOf(leader)];
+          mReplacement[d] = leader;
+          editor.remove(inst);
+          if (inst instanceof LoadInst)
+            loads++;
+          else if (inst instanceof CallInst)
+            calls++;
+          else
+            expressions++;
+        }
+        exitState[block.getNumber()] = mMemoryState;
+        addedStack.push(added);
+        childIdx = 0;
+      }
+      List<BasicBlock> children = domTree.getChildren(block);
+      if (childIdx < children.size()) {
+        childIdxStack.push(childIdx + 1);
+        blockStack.push(children.get(childIdx));
+        childIdxStack.push(-1);
+      } else {
+        blockStack.pop();
+        for (List<Object> key : addedStack.pop()) {
+          mTable.remove(key);
+        }
+      }
+    }
+
+    boolean changed = expressions + loads + calls > 0;
+    if (changed) {
+      editor.commit();
+      for (Instruction inst : function.getCFG().instructions()) {
+        for (int k = 0; k < inst.numOperands(); k++) {
+          Variable replacement = resolve(inst.getOperand(k));
+          if (replacement != null)
+            inst.setOperand(k, replacement);
+        }
+      }
+      report.add("gvn", function, "removed expressions", expressions);
+      report.add("gvn", function, "removed loads", loads);
+      report.add("gvn", function, "removed calls", calls);
+    }
+    mNumber = null;
+    mReplacement = null;
+    mNumDefs = null;
+    mTable = null;
+    mEffects = null;
+    return changed;
+  }
+
+  private int slotOf(Value value) {
+    if (value instanceof LocalVar) {
+      int id = ((LocalVar) value).getId();
+      return id >= 0 && id < mNumLocals ? id : -1;
+    }
+    if (value instanceof AddressVar) {
+      int id = ((AddressVar) value).getId();
+      return id >= 0 && mNumLocals + id < mNumber.length ? mNumLocals + id : -1;
+    }
+    return -1;
+  }
+
+  private int newMemoryState() {
+    return mNumMemoryStates++;
+  }
+
+  /**
+   * Gives the destination of a copy the number of its source. Copies of a constant are numbered
+   * like an expression, so that equal constants get the same number.
+   */
+  private void numberCopy(CopyInst copy, List<List<Object>> added) {
+    int d = slotOf(copy.getDstVar());
+    Value src = copy.getSrcValue();
+    if (src instanceof Constant) {
+      List<Object> key = List.of("const", constantKey((Constant) src));
+      Variable leader = mTable.get(key);
+      if (leader == null) {
+        mTable.put(key, copy.getDstVar());
+        added.add(key);
+      } else {
+        mNumber[d] = mNumber[slotOf(leader)];
+      }
+      return;
+    }
+    int s = slotOf(src);
+    if (s >= 0 && mNumDefs[s] <= 1)
+      mNumber[d] = mNumber[s];
+  }
+
+  private static Object constantKey(Constant constant) {
+    if (constant instanceof IntegerConstant)
+      return ((IntegerConstant) constant).getValue();
+    return ((BooleanConstant) constant).getValue();
+  }
+
+  /**
+   * Returns the expression an instruction computes, or null if it is not numbered. Operands with
+   * more than one definition are not in SSA form, so their value depends on where they are read.
+   */
+  private List<Object> keyOf(Instruction inst) {
+    int[] operands = new int[inst.numOperands()];
+    for (int k = 0; k < operands.length; k++) {
+      int s = slotOf(inst.getOperand(k));
+      if (s < 0 || mNumDefs[s] > 1)
+        return null;
+      operands[k] = mNumber[s];
+    }
+    if (inst instanceof BinaryOperator) {
+      BinaryOperator.Op op = ((BinaryOperator) inst).getOperator();
+      boolean commutative = op == BinaryOperator.Op.Add || op == BinaryOperator.Op.Mul;
+      if (commutative && operands[0] > operands[1])
+        return List.of(op, operands[1], operands[0]);
+      return List.of(op, operands[0], operands[1]);
+    }
+    if (inst instanceof CompareInst) {
+      CompareInst.Predicate predicate = ((CompareInst) inst).getPredicate();
+      if (operands[0] > operands[1])
+        return List.of(swapped(predicate), operands[1], operands[0]);
+      return List.of(predicate, operands[0], operands[1]);
+    }
+    if (inst instanceof UnaryNotInst)
+      return List.of("not", operands[0]);
+    if (inst instanceof SelectInst)
+      return List.of("select", operands[0], operands[1], operands[2]);
+    if (inst instanceof AddressAt) {
+      // The emulator reads the type of a loaded value off the type of its address, so addresses
+      // of different types stay apart.
+      Object base = ((AddressAt) inst).getBase();
+      String type = inst.getDestVar().getType().toString();
+      return operands.length == 0 ? List.of("addressAt", base, type)
+          : List.of("addressAt", base, type, operands[0]);
+    }
+    if (inst instanceof LoadInst)
+      return List.of("load", operands[0], mMemoryState);
+    if (inst instanceof CallInst && mEffects.isReadOnly((CallInst) inst)) {
+      List<Object> key = new ArrayList<>();
+      key.add("call");
+      key.add(((CallInst) inst).getCallee().getName());
+      for (int operand : operands) {
+        key.add(operand);
+      }
+      if (!mEffects.isPure((CallInst) inst))
+        key.add(mMemoryState);
+      return key;
+    }
+    return null;
+  }
+
+  /**
+   * Returns the predicate that gives the same result with the operands swapped.
+   */
+  private static CompareInst.Predicate swapped(CompareInst.Predicate predicate) {
+    switch (predicate) {
+      case GE:
+        return CompareInst.Predicate.LE;
+      case GT:
+        return CompareInst.Predicate.LT;
+      case LE:
+        return CompareInst.Predicate.GE;
+      case LT:
+        return CompareInst.Predicate.GT;
+      default:
+        return predicate;
+    }
+  }
+
+  /**
+   * Returns the variable that replaces an operand, or null if the operand stays.
+   */
+  private Variable resolve(Value value) {
+    int s = slotOf(value);
+    Variable replacement = null;
+    while (s >= 0 && mReplacement[s] != null) {
+      replacement = mReplacement[s];
+      s = slotOf(replacement);
+    }
+    return replacement;
+  }
+}
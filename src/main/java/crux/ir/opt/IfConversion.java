@@ -0,0 +1,204 @@
+package crux.ir.opt;
+
+import crux.ir.*;
+import crux.ir.analysis.BasicBlock;
+import crux.ir.insts.*;
+
+import java.util.*;
+
+/**
+ * Turns small branches that only compute values into straight-line code: both sides run, and each
+ * phi that joins them becomes a {@link SelectInst}, which code generation lowers to a conditional
+ * move. A branch on data, like a comparison in a sort or the right side of {@code &&}, is then no
+ * longer mispredicted. Works on SSA form.
+ * <p>
+ * A branch is converted if it forms a diamond, where each side is a block of its own that only the
+ * branch leads to and that continues at a common join, or a triangle, where one side goes to the
+ * join directly. The join must have no other predecessors. The sides may only contain arithmetic
+ * other than division, compares, nots, copies, selects and address computations, which cannot trap
+ * and have no effects, so running them unconditionally is harmless. Both sides always run after the
+ * conversion, so a branch is only converted if the instructions on its sides plus the selects and
+ * the constants they need are at most the cost limit. Converting an inner branch can make an outer
+ * one convertible, so the pass repeats until nothing changes.
+ */
+public final class IfConversion implements FunctionPass {
+  public static final int DEFAULT_COST_LIMIT = 6;
+  private final int mCostLimit;
+
+  public IfConversion() {
+    this(DEFAULT_COST_LIMIT);
+  }
+
+  /**
+   * Creates a pass that converts branches costing at most {@code costLimit} instructions. A limit
+   * of 0 turns the pass off.
+   */
+  public IfConversion(int costLimit) {
+    mCostLimit = costLimit;
+  }
+
+  /**
+   * A branch to convert: the block ending in the jump, its false and true sides, which are null
+   * for a side that goes to the join directly, and the join.
+   */
+  private static final class Diamond {
+    BasicBlock branch, falseSide, trueSide, join;
+  }
+
+  @Override
+  public boolean run(Program program, Function function, OptimizationReport report) {
+    if (function.getStart() == null || mCostLimit <= 0)
+      return false;
+    int branches = 0, selects = 0;
+    boolean progress = true;
+    while (progress) {
+      progress = false;
+      CFGEditor editor = new CFGEditor(function);
+      Set<BasicBlock> touched = new HashSet<>();
+      for (BasicBlock block : editor.getCFG().getBlocks()) {
+        Diamond diamond = diamondAt(block);
+        if (diamond == null || touched.contains(block) || touched.contains(diamond.join)
+            || touched.contains(diamond.falseSide) || touched.contains(diamond.trueSide))
+          continue;
+        touched.addAll(Arrays.asList(block, diamond.join, diamond.falseSide, diamond.trueSide));
+        selects += convert(function, editor, diamond);
+        branches++;
+        progress = true;
+      }
+      if (progress)
+        editor.commit();
+    }
+    report.add("ifconvert", function, "converted branches", branches);
+    report.add("ifconvert", function, "created selects", selects);
+    return branches > 0;
+  }
+
+  /**
+   * Returns the branch that ends in a block if it can be converted within the cost limit, or null.
+   */
+  private Diamond diamondAt(BasicBlock block) {
+    if (!(block.getLast() instanceof JumpInst) || block.getSuccessors().size() != 2)
+      return null;
+    BasicBlock falseSucc = block.getSuccessors().get(0);
+    BasicBlock trueSucc = block.getSuccessors().get(1);
+    Diamond diamond = new Diamond();
+    diamond.branch = block;
+    if (isSide(falseSucc, block) && isSide(trueSucc, block)
+        && falseSucc.getSuccessors().get(0) == trueSucc.getSuccessors().get(0)) {
+      diamond.falseSide = falseSucc;
+      diamond.trueSide = trueSucc;
+      diamond.join = falseSucc.getSuccessors().get(0);
+    } else if (isSide(falseSucc, block) && falseSucc.getSuccessors().get(0) == trueSucc) {
+      diamond.falseSide = falseSucc;
+      diamond.join = trueSucc;
+    } else if (isSide(trueSucc, block) && trueSucc.getSuccessors().get(0) == falseSucc) {
+      diamond.trueSide = trueSucc;
+      diamond.join = falseSucc;
+    } else {
+      return null;
+    }
+    if (diamond.join == block || diamond.join.getPredecessors().size() != 2)
+      return null;
+
+    int cost = sizeOf(diamond.falseSide) + sizeOf(diamond.trueSide);
+    for (Instruction inst : diamond.join.getInstructions()) {
+      if (!(inst instanceof PhiInst))
+        break;
+      cost++;
+      for (int i = 0; i < inst.numOperands(); i++) {
+        Value value = inst.getOperand(i);
+        if (value instanceof Constant)
+          cost++;
+        else if (!(value instanceof LocalVar))
+          return null;
+      }
+    }
+    return cost <= mCostLimit ? diamond : null;
+  }
+
+  /**
+   * Returns true if a block only runs after the branch, continues at a single successor, and only
+   * computes values.
+   */
+  private static boolean isSide(BasicBlock side, BasicBlock branch) {
+    if (side == branch || side.getPredecessors().size() != 1 || side.getSuccessors().size() != 1
+        || side.getSuccessors().get(0) == side)
+      return false;
+    for (Instruction inst : side.getInstructions()) {
+      if (!isSpeculatable(inst))
+        return false;
+    }
+    return true;
+  }
+
+  private static boolean isSpeculatable(Instruction inst) {
+    if (inst instanceof BinaryOperator)
+      return ((BinaryOperator) inst).getOperator() != BinaryOperator.Op.Div;
+    return inst instanceof CompareInst || inst instanceof UnaryNotInst || inst instanceof CopyInst
+        || inst instanceof SelectInst || inst instanceof AddressAt || inst instanceof AddressAdd
+        || inst instanceof NopInst;
+  }
+
+  private static int sizeOf(BasicBlock side) {
+    int size = 0;
+    if (side != null) {
+      for (Instruction inst : side.getInstructions()) {
+        if (!(inst instanceof NopInst))
+          size++;
+      }
+    }
+    return size;
+  }
+
+  /**
+   * Moves the sides of a branch in front of it, replaces the phis of the join by selects and the
+   * jump by straight-line flow to the join. Returns the number of selects.
+   */
+  private static int convert(Function function, CFGEditor editor, Diamond diamond) {
+    List<Instruction> insts = editor.getInstructions(diamond.branch);
+    JumpInst jump = (JumpInst) insts.remove(insts.size() - 1);
+    Instruction falseEnd = diamond.falseSide != null ? diamond.falseSide.getLast() : jump;
+    Instruction trueEnd = diamond.trueSide != null ? diamond.trueSide.getLast() : jump;
+    for (BasicBlock side : Arrays.asList(diamond.falseSide, diamond.trueSide)) {
+      if (side == null)
+        continue;
+      List<Instruction> sideInsts = editor.getInstructions(side);
+      for (Instruction inst : sideInsts) {
+        if (!(inst instanceof NopInst))
+          insts.add(inst);
+      }
+      sideInsts.clear();
+    }
+
+    int selects = 0;
+    List<Instruction> joinInsts = editor.getInstructions(diamond.join);
+    while (!joinInsts.isEmpty() && joinInsts.get(0) instanceof PhiInst) {
+      PhiInst phi = (PhiInst) joinInsts.remove(0);
+      Value trueValue = phi.getValueFrom(trueEnd);
+      Value falseValue = phi.getValueFrom(falseEnd);
+      if (trueValue == falseValue) {
+        insts.add(new CopyInst(phi.getDst(), trueValue));
+        continue;
+      }
+      insts.add(new SelectInst(phi.getDst(), jump.getPredicate(),
+          valueOf(trueValue, phi, function, insts), valueOf(falseValue, phi, function, insts)));
+      selects++;
+    }
+    List<BasicBlock> succs = editor.getSuccessors(diamond.branch);
+    succs.clear();
+    succs.add(diamond.join);
+    return selects;
+  }
+
+  /**
+   * Returns a variable holding the value, copying a constant into a new one first.
+   */
+  private static LocalVar valueOf(Value value, PhiInst phi, Function function,
+      List<Instruction> insts) {
+    if (value instanceof LocalVar)
+      return (LocalVar) value;
+    LocalVar var = function.getTempVar(phi.getDst().getType());
+    insts.add(new CopyInst(var, value));
+    return var;
+  }
+}
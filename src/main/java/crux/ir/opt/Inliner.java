@@ -0,0 +1,171 @@
+package crux.ir.opt;
+
+import crux.ir.*;
+import crux.ir.analysis.CallGraph;
+import crux.ir.analysis.ControlFlowGraph;
+import crux.ir.insts.CallInst;
+import crux.ir.insts.CopyInst;
+import crux.ir.insts.NopInst;
+import crux.ir.insts.ReturnInst;
+
+import java.util.*;
+
+/**
+ * Replaces calls by a copy of the body of the called function, which saves passing the arguments,
+ * setting up a stack frame and returning, and lets the function passes optimize the body together
+ * with the code around the call. Runs on the lowered program, before SSA form is built.
+ * <p>
+ * The copy gets fresh temporaries of the caller. It starts by copying the call's parameters into
+ * the copies of the callee's arguments, and every return becomes a copy of the returned value into
+ * the destination of the call, followed by the instruction after the call.
+ * <p>
+ * Functions are visited callees first along the {@link CallGraph}, so a function is inlined with
+ * the calls it inlined itself. Recursive functions are never inlined. Otherwise a callee is inlined
+ * if it is at most as big as the size limit, if it is so small that a call costs about as much as
+ * its body, or if the call is its only one in the program and it is at most four times the size
+ * limit, since the out-of-line version then is no longer needed and {@link DeadFunctionElimination}
+ * removes it. A caller does not grow beyond {@link #MAX_CALLER_SIZE} instructions.
+ */
+public final class Inliner implements ProgramPass {
+  public static final int DEFAULT_SIZE_LIMIT = 40;
+  /** Callees up to this size are inlined even when the size limit is lower. */
+  private static final int ALWAYS_INLINE_SIZE = 8;
+  /** How much bigger than the size limit a callee called only once may be. */
+  private static final int SINGLE_CALL_FACTOR = 4;
+  static final int MAX_CALLER_SIZE = 1000;
+  private final int mSizeLimit;
+
+  public Inliner() {
+    this(DEFAULT_SIZE_LIMIT);
+  }
+
+  /**
+   * Creates an inliner for callees of at most {@code sizeLimit} instructions. A limit of 0 or less
+   * turns inlining off.
+   */
+  public Inliner(int sizeLimit) {
+    mSizeLimit = sizeLimit;
+  }
+
+  @Override
+  public boolean run(Program program, OptimizationReport report) {
+    if (mSizeLimit <= 0)
+      return false;
+    CallGraph graph = CallGraph.build(program);
+    Map<Function, Integer> sizes = new HashMap<>();
+    Map<Function, Integer> numCalls = new HashMap<>();
+    boolean changed = false;
+    for (List<Function> component : graph.getComponents()) {
+      for (Function caller : component) {
+        if (caller.getStart() == null)
+          continue;
+        Edits.normalize(caller);
+        int size = sizeOf(caller);
+        int inlined = 0, grown = 0;
+        for (CallInst call : graph.getCallSites(caller)) {
+          Function callee = graph.getCallee(call);
+          if (callee == null || callee.getStart() == null || graph.isRecursive(callee))
+            continue;
+          // The callee is in an earlier component, so it is final.
+          int calleeSize = sizes.get(callee);
+          int calls = numCalls.computeIfAbsent(callee, graph::numCallSites);
+          if (!isProfitable(callee, calleeSize, calls, size))
+            continue;
+          inline(caller, call, callee);
+          numCalls.put(callee, calls - 1);
+          size += calleeSize;
+          grown += calleeSize;
+          inlined++;
+        }
+        sizes.put(caller, size);
+        report.add("inline", caller, "inlined calls", inlined);
+        report.add("inline", caller, "inlined instructions", grown);
+        changed |= inlined > 0;
+      }
+    }
+    return changed;
+  }
+
+  private boolean isProfitable(Function callee, int calleeSize, int calls, int callerSize) {
+    if (callerSize + calleeSize > MAX_CALLER_SIZE)
+      return false;
+    if (calleeSize <= ALWAYS_INLINE_SIZE || calleeSize <= mSizeLimit)
+      return true;
+    return calls == 1 && !callee.getName().equals("main")
+        && calleeSize <= SINGLE_CALL_FACTOR * mSizeLimit;
+  }
+
+  /**
+   * Returns the number of instructions of a function that do something, i.e. are not nops.
+   */
+  private static int sizeOf(Function function) {
+    int size = 0;
+    for (Instruction inst : function.getCFG().instructions()) {
+      if (!(inst instanceof NopInst))
+        size++;
+    }
+    return size;
+  }
+
+  /**
+   * Replaces a call by a copy of the body of the callee.
+   */
+  private static void inline(Function caller, CallInst call, Function callee) {
+    Map<Variable, Variable> vars = new HashMap<>();
+    java.util.function.Function<Variable, Variable> fresh = v -> vars.computeIfAbsent(v,
+        w -> w instanceof AddressVar ? caller.getTempAddressVar(w.getType())
+            : caller.getTempVar(w.getType(), w.getPrefix()));
+
+    List<Instruction> entry = new ArrayList<>();
+    List<LocalVar> args = callee.getArguments();
+    for (int i = 0; i < args.size(); i++) {
+      entry.add(new CopyInst((LocalVar) fresh.apply(args.get(i)), call.getParam(i)));
+    }
+
+    Map<Instruction, Instruction> copies = new HashMap<>();
+    for (Instruction inst : callee.getCFG().instructions()) {
+      Instruction copy;
+      if (inst instanceof ReturnInst) {
+        LocalVar value = (LocalVar) fresh.apply(((ReturnInst) inst).getReturnValue());
+        copy = call.getDst() != null ? new CopyInst(call.getDst(), value) : new NopInst();
+      } else {
+        copy = Edits.copyOf(inst);
+        if (inst.getDestVar() != null)
+          copy.setDestVar(fresh.apply(inst.getDestVar()));
+        for (int k = 0; k < copy.numOperands(); k++) {
+          if (copy.getOperand(k) instanceof Variable)
+            copy.setOperand(k, fresh.apply((Variable) copy.getOperand(k)));
+        }
+      }
+      copies.put(inst, copy);
+    }
+
+    // Link the copies like the originals; the ends of the body continue after the call.
+    Instruction after = call.getNext(0);
+    for (Map.Entry<Instruction, Instruction> pair : copies.entrySet()) {
+      Instruction inst = pair.getKey();
+      List<Instruction> succs = ControlFlowGraph.successorsOf(inst);
+      if (succs.isEmpty()) {
+        if (after != null)
+          pair.getValue().setNext(0, after);
+        continue;
+      }
+      for (int i = 0; i < inst.numNext(); i++) {
+        if (inst.getNext(i) != null)
+          pair.getValue().setNext(i, copies.get(inst.getNext(i)));
+      }
+    }
+    entry.add(copies.get(callee.getStart()));
+    for (int i = 0; i + 1 < entry.size(); i++) {
+      entry.get(i).setNext(0, entry.get(i + 1));
+    }
+
+    Instruction first = entry.get(0);
+    for (Instruction inst : caller.getCFG().instructions()) {
+      inst.replaceNext(call, first);
+    }
+    if (caller.getStart() == call)
+      caller.setStart(first);
+    caller.invalidateCFG();
+  }
+}
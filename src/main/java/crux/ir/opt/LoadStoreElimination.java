@@ -0,0 +1,285 @@
+package crux.ir.opt;
+
+import crux.ast.SymbolTable.Symbol;
+import crux.ir.*;
+import crux.ir.analysis.BasicBlock;
+import crux.ir.analysis.ControlFlowGraph;
+import crux.ir.analysis.SideEffectSummary;
+import crux.ir.insts.*;
+
+import java.util.*;
+
+/**
+ * Removes loads of globals whose value is already known and stores that are overwritten before
+ * anything reads them. Works on SSA form.
+ * <p>
+ * A memory location is a global together with the element it addresses: a constant index, or the
+ * variable holding the index when it is not constant. Distinct globals never overlap, and neither
+ * do different constant elements of one global; two elements with a variable index may be the same.
+ * <p>
+ * A forward analysis finds, for every point, the locations whose value some variable holds on all
+ * paths leading there: a load or a store leaves the loaded or stored variable behind, and a store
+ * forgets the values of the locations it may overwrite. A load of a known location becomes a copy
+ * of the variable. A backward analysis finds the locations that are written on all paths from a
+ * point before they may be read; a store to such a location is dead. A call forgets the values of
+ * the globals its callee may write, and counts as a read of the globals it may read, according to
+ * the {@link SideEffectSummary}; the built-in functions do not touch globals. Leaving the function
+ * reads everything.
+ * <p>
+ * A location or a value named by a variable only describes the current value of that variable, so
+ * it is forgotten where the variable is defined, e.g. by a phi of a loop header.
+ */
+public final class LoadStoreElimination implements FunctionPass {
+  private ControlFlowGraph mCFG;
+  private SideEffectSummary mEffects;
+  private int mNumLocals;
+  private int[] mNumDefs;
+  private Instruction[] mDefOf;
+  /** The loads replaced by copies; they no longer read memory. */
+  private Map<Instruction, LocalVar> mForwarded;
+  private int mFromStores, mFromLoads;
+
+  @Override
+  public boolean run(Program program, Function function, OptimizationReport report) {
+    mCFG = function.getCFG();
+    if (mCFG.size() == 0)
+      return false;
+    mEffects = program.getSideEffects();
+    mNumLocals = function.getNumTempVars();
+    int numSlots = mNumLocals + function.getNumTempAddressVars();
+    mNumDefs = new int[numSlots];
+    mDefOf = new Instruction[numSlots];
+    for (LocalVar arg : function.getArguments()) {
+      int v = slotOf(arg);
+      if (v >= 0)
+        mNumDefs[v]++;
+    }
+    for (Instruction inst : mCFG.instructions()) {
+      int d = slotOf(inst.getDestVar());
+      if (d >= 0) {
+        mNumDefs[d]++;
+        mDefOf[d] = inst;
+      }
+    }
+
+    mForwarded = new IdentityHashMap<>();
+    mFromStores = 0;
+    mFromLoads = 0;
+    forwardLoads();
+    List<StoreInst> dead = findDeadStores();
+
+    CFGEditor editor = new CFGEditor(function);
+    for (var load : mForwarded.entrySet()) {
+      Instruction inst = load.getKey();
+      editor.replace(inst, new CopyInst((LocalVar) inst.getDestVar(), load.getValue()));
+    }
+    for (StoreInst store : dead) {
+      editor.remove(store);
+    }
+    boolean changed = !mForwarded.isEmpty() || !dead.isEmpty();
+    if (changed)
+      editor.commit();
+    report.add("loadstore", function, "forwarded stores", mFromStores);
+    report.add("loadstore", function, "reused loads", mFromLoads);
+    report.add("loadstore", function, "removed stores", dead.size());
+    mCFG = null;
+    mEffects = null;
+    mNumDefs = null;
+    mDefOf = null;
+    mForwarded = null;
+    return changed;
+  }
+
+  private int slotOf(Value value) {
+    if (value instanceof LocalVar) {
+      int id = ((LocalVar) value).getId();
+      return id >= 0 && id < mNumLocals ? id : -1;
+    }
+    if (value instanceof AddressVar) {
+      int id = ((AddressVar) value).getId();
+      return id >= 0 && mNumLocals + id < mNumDefs.length ? mNumLocals + id : -1;
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the location an address points to as a list of the global and the index, which is a
+   * constant or a variable, or null if the address is not computed by a single address
+   * computation.
+   */
+  private List<Object> locationOf(AddressVar address) {
+    int a = slotOf(address);
+    if (a < 0 || mNumDefs[a] != 1 || !(mDefOf[a] instanceof AddressAt))
+      return null;
+    AddressAt at = (AddressAt) mDefOf[a];
+    LocalVar offset = at.getOffset();
+    if (offset == null)
+      return List.of(at.getBase(), 0L);
+    int v = slotOf(offset);
+    if (v >= 0 && mNumDefs[v] == 1 && mDefOf[v] instanceof CopyInst) {
+      Value index = ((CopyInst) mDefOf[v]).getSrcValue();
+      if (index instanceof IntegerConstant)
+        return List.of(at.getBase(), ((IntegerConstant) index).getValue());
+    }
+    return List.of(at.getBase(), offset);
+  }
+
+  private static boolean mayAlias(List<Object> a, List<Object> b) {
+    if (a.get(0) != b.get(0))
+      return false;
+    if (a.get(1) instanceof Long && b.get(1) instanceof Long)
+      return a.get(1).equals(b.get(1));
+    return true;
+  }
+
+  /**
+   * Computes the known values of locations at the start of every block, then replaces the loads of
+   * known locations.
+   */
+  private void forwardLoads() {
+    List<BasicBlock> blocks = mCFG.getBlocks();
+    List<Map<List<Object>, LocalVar>> out =
+        new ArrayList<>(Collections.nCopies(blocks.size(), null));
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (BasicBlock block : blocks) {
+        Map<List<Object>, LocalVar> values = valuesOnEntry(block, out);
+        forward(block, values, false);
+        if (!values.equals(out.get(block.getNumber()))) {
+          out.set(block.getNumber(), values);
+          changed = true;
+        }
+      }
+    }
+    for (BasicBlock block : blocks) {
+      forward(block, valuesOnEntry(block, out), true);
+    }
+  }
+
+  /**
+   * Intersects the values known at the end of the predecessors. Predecessors not visited yet do not
+   * restrict the result; the entry block starts with nothing known.
+   */
+  private static Map<List<Object>, LocalVar> valuesOnEntry(BasicBlock block,
+      List<Map<List<Object>, LocalVar>> out) {
+    Map<List<Object>, LocalVar> values = null;
+    for (BasicBlock pred : block.getPredecessors()) {
+      Map<List<Object>, LocalVar> predValues = out.get(pred.getNumber());
+      if (predValues == null)
+        continue;
+      if (values == null)
+        values = new HashMap<>(predValues);
+      else
+        values.entrySet().retainAll(predValues.entrySet());
+    }
+    return values != null ? values : new HashMap<>();
+  }
+
+  private void forward(BasicBlock block, Map<List<Object>, LocalVar> values, boolean rewrite) {
+    for (Instruction inst : block.getInstructions()) {
+      List<Object> location = null;
+      LocalVar value = null;
+      if (inst instanceof LoadInst) {
+        location = locationOf(((LoadInst) inst).getSrcAddress());
+        LocalVar known = location != null ? values.get(location) : null;
+        if (known == null) {
+          value = (LocalVar) inst.getDestVar();
+        } else if (rewrite) {
+          mForwarded.put(inst, known);
+          if (mDefOf[slotOf(known)] instanceof LoadInst)
+            mFromLoads++;
+          else
+            mFromStores++;
+        }
+      } else if (inst instanceof StoreInst) {
+        location = locationOf(((StoreInst) inst).getDestAddress());
+        value = ((StoreInst) inst).getSrcValue();
+        List<Object> stored = location;
+        if (stored == null)
+          values.clear();
+        else
+          values.keySet().removeIf(l -> mayAlias(l, stored));
+      } else if (inst instanceof CallInst) {
+        Set<Symbol> modified = mEffects.getModified((CallInst) inst);
+        values.keySet().removeIf(l -> modified.contains(l.get(0)));
+      }
+
+      Variable dest = inst.getDestVar();
+      if (dest instanceof LocalVar)
+        values.entrySet().removeIf(e -> e.getKey().get(1) == dest || e.getValue() == dest);
+      if (location != null && value != null)
+        values.put(location, value);
+    }
+  }
+
+  /**
+   * Computes the locations written before they are read on all paths from the end of every block,
+   * then returns the stores to locations that are overwritten that way.
+   */
+  private List<StoreInst> findDeadStores() {
+    List<BasicBlock> blocks = mCFG.getBlocks();
+    List<Set<List<Object>>> in = new ArrayList<>(Collections.nCopies(blocks.size(), null));
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (int b = blocks.size() - 1; b >= 0; b--) {
+        BasicBlock block = blocks.get(b);
+        Set<List<Object>> written = writtenOnExit(block, in);
+        backward(block, written, null);
+        if (!written.equals(in.get(b))) {
+          in.set(b, written);
+          changed = true;
+        }
+      }
+    }
+    List<StoreInst> dead = new ArrayList<>();
+    for (BasicBlock block : blocks) {
+      backward(block, writtenOnExit(block, in), dead);
+    }
+    return dead;
+  }
+
+  private static Set<List<Object>> writtenOnExit(BasicBlock block, List<Set<List<Object>>> in) {
+    Set<List<Object>> written = null;
+    for (BasicBlock succ : block.getSuccessors()) {
+      Set<List<Object>> succWritten = in.get(succ.getNumber());
+      if (succWritten == null)
+        continue;
+      if (written == null)
+        written = new HashSet<>(succWritten);
+      else
+        written.retainAll(succWritten);
+    }
+    // Leaving the function makes every global visible.
+    if (block.getSuccessors().isEmpty())
+      return new HashSet<>();
+    return written != null ? written : new HashSet<>();
+  }
+
+  private void backward(BasicBlock block, Set<List<Object>> written, List<StoreInst> dead) {
+    List<Instruction> insts = block.getInstructions();
+    for (int i = insts.size() - 1; i >= 0; i--) {
+      Instruction inst = insts.get(i);
+      Variable dest = inst.getDestVar();
+      if (dest instanceof LocalVar)
+        written.removeIf(l -> l.get(1) == dest);
+      if (inst instanceof StoreInst) {
+        List<Object> location = locationOf(((StoreInst) inst).getDestAddress());
+        if (location == null)
+          continue;
+        if (!written.add(location) && dead != null)
+          dead.add((StoreInst) inst);
+      } else if (inst instanceof LoadInst && !mForwarded.containsKey(inst)) {
+        List<Object> location = locationOf(((LoadInst) inst).getSrcAddress());
+        if (location == null)
+          written.clear();
+        else
+          written.removeIf(l -> mayAlias(l, location));
+      } else if (inst instanceof CallInst) {
+        Set<Symbol> read = mEffects.getRead((CallInst) inst);
+        written.removeIf(l -> read.contains(l.get(0)));
+      }
+    }
+  }
+}
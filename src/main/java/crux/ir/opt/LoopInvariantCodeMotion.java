@@ -0,0 +1,206 @@
+package crux.ir.opt;
+
+import crux.ast.SymbolTable.Symbol;
+import crux.ir.*;
+import crux.ir.analysis.BasicBlock;
+import crux.ir.analysis.ControlFlowGraph;
+import crux.ir.analysis.DominatorTree;
+import crux.ir.analysis.Loop;
+import crux.ir.analysis.SideEffectSummary;
+import crux.ir.insts.*;
+
+import java.util.*;
+
+/**
+ * Moves computations that produce the same value in every iteration of a loop into the preheader
+ * of the loop, so they run once. Works on SSA form.
+ * <p>
+ * An instruction is invariant if each of its operands is defined outside of the loop or by an
+ * invariant instruction. Arithmetic, compares, nots, address computations and copies are hoisted
+ * when invariant; they cannot trap, so running them even when the loop body would not have is
+ * harmless. Divisions are only hoisted when the divisor is a constant other than 0 and -1, and
+ * calls only when the {@link SideEffectSummary} finds the callee pure and always returning.
+ * <p>
+ * A load is hoisted if its address is invariant, no store or call in the loop may write to the
+ * global the address points into, and the load runs in every iteration before the
+ * loop can be left, so hoisting it never reads memory the loop would not have read. Loops are
+ * visited from the inside out, so an instruction hoisted out of an inner loop can move on into the
+ * preheader of the enclosing loop.
+ */
+public final class LoopInvariantCodeMotion implements FunctionPass {
+  private ControlFlowGraph mCFG;
+  private int mNumLocals;
+  private int[] mNumDefs;
+  private Instruction[] mDefOf;
+  /** The block of each hoisted instruction, which the editor's graph does not know about. */
+  private Map<Instruction, BasicBlock> mMoved;
+  private SideEffectSummary mEffects;
+
+  @Override
+  public boolean run(Program program, Function function, OptimizationReport report) {
+    if (function.getCFG().size() == 0)
+      return false;
+    mEffects = program.getSideEffects();
+    int preheaders = Edits.insertPreheaders(function);
+    mCFG = function.getCFG();
+    List<Loop> loops = mCFG.getLoopForest().getLoops();
+    if (loops.isEmpty())
+      return preheaders > 0;
+
+    mNumLocals = function.getNumTempVars();
+    int numSlots = mNumLocals + function.getNumTempAddressVars();
+    mNumDefs = new int[numSlots];
+    mDefOf = new Instruction[numSlots];
+    for (LocalVar arg : function.getArguments()) {
+      int v = slotOf(arg);
+      if (v >= 0)
+        mNumDefs[v]++;
+    }
+    for (Instruction inst : mCFG.instructions()) {
+      int d = slotOf(inst.getDestVar());
+      if (d >= 0) {
+        mNumDefs[d]++;
+        mDefOf[d] = inst;
+      }
+    }
+
+    CFGEditor editor = new CFGEditor(function);
+    mMoved = new IdentityHashMap<>();
+    int hoisted = 0, loads = 0;
+    for (Loop loop : loops) {
+      BasicBlock preheader = loop.getEntries().get(0);
+      boolean loadsHoistable = true;
+      Set<Symbol> stored = new HashSet<>();
+      // An iteration ends at a latch or at an edge out of the loop.
+      List<BasicBlock> iterationEnds = new ArrayList<>(loop.getLatches());
+      for (BasicBlock block : loop.getBlocks()) {
+        for (Instruction inst : editor.getInstructions(block)) {
+          if (inst instanceof CallInst) {
+            stored.addAll(mEffects.getModified((CallInst) inst));
+          } else if (inst instanceof StoreInst) {
+            Symbol base = baseOf(((StoreInst) inst).getDestAddress());
+            if (base == null)
+              loadsHoistable = false;
+            stored.add(base);
+          }
+        }
+        for (BasicBlock succ : block.getSuccessors()) {
+          if (!loop.contains(succ) && !iterationEnds.contains(block))
+            iterationEnds.add(block);
+        }
+      }
+
+      List<Instruction> target = editor.getInstructions(preheader);
+      for (BasicBlock block : loop.getBlocks()) {
+        List<Instruction> insts = editor.getInstructions(block);
+        for (int i = 0; i < insts.size(); i++) {
+          Instruction inst = insts.get(i);
+          boolean hoist;
+          if (inst instanceof LoadInst) {
+            hoist = loadsHoistable && isInvariant(inst, loop)
+                && !stored.contains(baseOf(((LoadInst) inst).getSrcAddress()))
+                && runsEveryIteration(inst, iterationEnds);
+          } else {
+            hoist = isPure(inst) && isInvariant(inst, loop);
+          }
+          if (!hoist)
+            continue;
+          insts.remove(i--);
+          target.add(inst);
+          mMoved.put(inst, preheader);
+          if (inst instanceof LoadInst)
+            loads++;
+          else
+            hoisted++;
+        }
+      }
+    }
+
+    if (hoisted + loads > 0)
+      editor.commit();
+    report.add("licm", function, "created preheaders", preheaders);
+    report.add("licm", function, "hoisted instructions", hoisted);
+    report.add("licm", function, "hoisted loads", loads);
+    mCFG = null;
+    mNumDefs = null;
+    mDefOf = null;
+    mMoved = null;
+    mEffects = null;
+    return preheaders + hoisted + loads > 0;
+  }
+
+  private int slotOf(Value value) {
+    if (value instanceof LocalVar) {
+      int id = ((LocalVar) value).getId();
+      return id >= 0 && id < mNumLocals ? id : -1;
+    }
+    if (value instanceof AddressVar) {
+      int id = ((AddressVar) value).getId();
+      return id >= 0 && mNumLocals + id < mNumDefs.length ? mNumLocals + id : -1;
+    }
+    return -1;
+  }
+
+  private BasicBlock blockOf(Instruction inst) {
+    BasicBlock block = mMoved.get(inst);
+    return block != null ? block : mCFG.getBlock(inst);
+  }
+
+  /**
+   * Returns the global an address points into, or null if it is not known.
+   */
+  private Symbol baseOf(AddressVar address) {
+    int a = slotOf(address);
+    if (a < 0 || mNumDefs[a] != 1 || !(mDefOf[a] instanceof AddressAt))
+      return null;
+    return ((AddressAt) mDefOf[a]).getBase();
+  }
+
+  private boolean isPure(Instruction inst) {
+    if (inst instanceof BinaryOperator) {
+      if (((BinaryOperator) inst).getOperator() != BinaryOperator.Op.Div)
+        return true;
+      int v = slotOf(((BinaryOperator) inst).getRightOperand());
+      if (v < 0 || mNumDefs[v] != 1 || !(mDefOf[v] instanceof CopyInst))
+        return false;
+      Value divisor = ((CopyInst) mDefOf[v]).getSrcValue();
+      return divisor instanceof IntegerConstant && ((IntegerConstant) divisor).getValue() != 0
+          && ((IntegerConstant) divisor).getValue() != -1;
+    }
+    if (inst instanceof CallInst)
+      return mEffects.isRemovable((CallInst) inst);
+    return inst instanceof CompareInst || inst instanceof UnaryNotInst || inst instanceof AddressAt
+        || inst instanceof CopyInst || inst instanceof SelectInst;
+  }
+
+  private boolean isInvariant(Instruction inst, Loop loop) {
+    int d = slotOf(inst.getDestVar());
+    if (d < 0 || mNumDefs[d] != 1)
+      return false;
+    for (int k = 0; k < inst.numOperands(); k++) {
+      Value operand = inst.getOperand(k);
+      if (operand instanceof Constant)
+        continue;
+      int s = slotOf(operand);
+      if (s < 0 || mNumDefs[s] > 1)
+        return false;
+      // Arguments and undefined variables have no defining instruction.
+      if (mDefOf[s] != null && loop.contains(blockOf(mDefOf[s])))
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Returns true if the instruction runs in every iteration before the loop can be left.
+   */
+  private boolean runsEveryIteration(Instruction inst, List<BasicBlock> iterationEnds) {
+    DominatorTree domTree = mCFG.getDominatorTree();
+    BasicBlock block = blockOf(inst);
+    for (BasicBlock end : iterationEnds) {
+      if (!domTree.dominates(block, end))
+        return false;
+    }
+    return true;
+  }
+}
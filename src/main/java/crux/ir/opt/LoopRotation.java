@@ -0,0 +1,97 @@
+package crux.ir.opt;
+
+import crux.ir.*;
+import crux.ir.analysis.BasicBlock;
+import crux.ir.analysis.Loop;
+import crux.ir.insts.*;
+
+import java.util.*;
+
+/**
+ * Turns loops that test their condition at the top into loops that test it at the bottom. Works on
+ * lowered form, after {@link SSADestructor}.
+ * <p>
+ * {@link ASTLower} makes a header of a {@code for} statement that tests the condition and either
+ * enters the body or leaves the loop, and the increment continues at the header, so every
+ * iteration jumps back to the header and then jumps into the body. The pass appends a copy of the
+ * header to each latch that goes to the header unconditionally, so the latch tests the condition
+ * itself and goes straight to the body or out of the loop. The header then only runs once, as the
+ * guard in front of the loop, and an iteration takes a single jump. Exits elsewhere in the loop,
+ * like those of {@code break}, still go where they went.
+ * <p>
+ * In lowered form a variable may be assigned more than once, so the copied instructions simply
+ * assign the same variables again. A header is only copied if it has at most the size limit of
+ * instructions besides its jump, and leaves the loop on one of its successors.
+ */
+public final class LoopRotation implements FunctionPass {
+  public static final int DEFAULT_SIZE_LIMIT = 8;
+  private final int mSizeLimit;
+
+  public LoopRotation() {
+    this(DEFAULT_SIZE_LIMIT);
+  }
+
+  /**
+   * Creates a pass that copies headers of at most {@code sizeLimit} instructions. A limit of 0
+   * turns the pass off.
+   */
+  public LoopRotation(int sizeLimit) {
+    mSizeLimit = sizeLimit;
+  }
+
+  @Override
+  public boolean run(Program program, Function function, OptimizationReport report) {
+    if (function.getCFG().size() == 0 || mSizeLimit <= 0)
+      return false;
+    CFGEditor editor = new CFGEditor(function);
+    int rotated = 0, copied = 0;
+    for (Loop loop : editor.getCFG().getLoopForest().getLoops()) {
+      BasicBlock header = loop.getHeader();
+      List<Instruction> headerInsts = headerOf(loop);
+      if (headerInsts == null)
+        continue;
+      boolean rotatedLoop = false;
+      for (BasicBlock latch : loop.getLatches()) {
+        if (latch == header || latch.getLast() instanceof JumpInst)
+          continue;
+        List<Instruction> insts = editor.getInstructions(latch);
+        for (Instruction inst : headerInsts) {
+          insts.add(Edits.copyOf(inst));
+        }
+        List<BasicBlock> succs = editor.getSuccessors(latch);
+        succs.clear();
+        succs.addAll(header.getSuccessors());
+        copied += headerInsts.size() - 1;
+        rotatedLoop = true;
+      }
+      if (rotatedLoop)
+        rotated++;
+    }
+    if (rotated > 0)
+      editor.commit();
+    report.add("rotate", function, "rotated loops", rotated);
+    report.add("rotate", function, "copied instructions", copied);
+    return rotated > 0;
+  }
+
+  /**
+   * Returns the instructions of the header of a loop that a latch copies, ending with its jump, or
+   * null if the header does not test whether to leave the loop or is too large.
+   */
+  private List<Instruction> headerOf(Loop loop) {
+    BasicBlock header = loop.getHeader();
+    if (!(header.getLast() instanceof JumpInst))
+      return null;
+    List<BasicBlock> succs = header.getSuccessors();
+    if (succs.size() != 2 || loop.contains(succs.get(0)) == loop.contains(succs.get(1)))
+      return null;
+    List<Instruction> insts = new ArrayList<>();
+    for (Instruction inst : header.getInstructions()) {
+      if (inst instanceof PhiInst)
+        return null;
+      if (!(inst instanceof NopInst))
+        insts.add(inst);
+    }
+    return insts.size() - 1 <= mSizeLimit ? insts : null;
+  }
+}
@@ -0,0 +1,568 @@
+package crux.ir.opt;
+
+import crux.ast.types.Type;
+import crux.ir.*;
+import crux.ir.analysis.BasicBlock;
+import crux.ir.analysis.ControlFlowGraph;
+import crux.ir.analysis.Loop;
+import crux.ir.insts.*;
+
+import java.util.*;
+
+/**
+ * Unrolls innermost counted loops. Works on SSA form.
+ * <p>
+ * The pass handles loops shaped like the ones {@link ASTLower} makes of a {@code for} statement:
+ * a header that tests a counter and either enters the body or leaves the loop, a body that is
+ * only left through the single latch, and a counter that is a header phi increased by a constant
+ * on the back edge and compared against a value that does not change in the loop. One iteration
+ * is the header without its phis and jump, followed by the body.
+ * <p>
+ * If the counter starts at a constant and is compared against a constant, the trip count is
+ * known. A loop whose iterations fit into the size budget all together is replaced by that many
+ * copies of an iteration, followed by one more copy of the header, whose values are the ones the
+ * loop leaves with. Other loops are unrolled by the configured factor: a new loop in front of the
+ * original one runs the given number of iterations per trip while the counter is far enough from
+ * the bound, and the original loop runs the remaining iterations as an epilogue. Each copy starts
+ * with copies of the values the header phis hold in that iteration; later passes fold them.
+ * <p>
+ * The budget is the number of instructions the copies of a loop may add up to, and bounds both
+ * kinds of unrolling. A budget of 0 turns the pass off.
+ */
+public final class LoopUnrolling implements FunctionPass {
+  public static final int DEFAULT_FACTOR = 4;
+  public static final int DEFAULT_BUDGET = 64;
+
+  /** A loop the pass can unroll. The predicate holds while the loop keeps running. */
+  private static final class Shape {
+    Loop loop;
+    BasicBlock preheader;
+    BasicBlock header;
+    BasicBlock body;
+    BasicBlock exit;
+    List<PhiInst> phis = new ArrayList<>();
+    PhiInst counter;
+    long step;
+    Long start;
+    Value bound;
+    Long boundConstant;
+    CompareInst.Predicate stay;
+    int size;
+  }
+
+  /** One copy of an iteration, or of the header alone. */
+  private static final class Iteration {
+    final Map<Variable, Variable> vars = new IdentityHashMap<>();
+    final Map<Instruction, Instruction> insts = new IdentityHashMap<>();
+    Instruction first;
+    Instruction headerLast;
+    /** The copied instructions and successor slots that lead back to the header. */
+    final List<Instruction> backEdges = new ArrayList<>();
+    final List<Integer> backSlots = new ArrayList<>();
+    Value[] next;
+
+    Value map(Value value) {
+      Variable var = value instanceof Variable ? vars.get(value) : null;
+      return var != null ? var : value;
+    }
+
+    void connectBack(Instruction target) {
+      for (int i = 0; i < backEdges.size(); i++) {
+        backEdges.get(i).setNext(backSlots.get(i), target);
+      }
+    }
+  }
+
+  private final int mFactor;
+  private final int mBudget;
+  private Function mFunction;
+  private ControlFlowGraph mCFG;
+  private int mNumLocals;
+  private int[] mNumDefs;
+  private Instruction[] mDefOf;
+
+  public LoopUnrolling() {
+    this(DEFAULT_FACTOR, DEFAULT_BUDGET);
+  }
+
+  public LoopUnrolling(int factor, int budget) {
+    mFactor = factor;
+    mBudget = budget;
+  }
+
+  @Override
+  public boolean run(Program program, Function function, OptimizationReport report) {
+    if (mBudget <= 0 || function.getCFG().size() == 0)
+      return false;
+    mFunction = function;
+    int preheaders = 0, full = 0, partial = 0;
+    // Every header is looked at once; unrolling a loop changes the graph, so the search restarts.
+    Set<Instruction> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+    boolean progress = true;
+    while (progress) {
+      progress = false;
+      preheaders += Edits.insertPreheaders(function);
+      mCFG = function.getCFG();
+      for (Loop loop : mCFG.getLoopForest().getLoops()) {
+        if (!loop.getChildren().isEmpty() || !seen.add(loop.getHeader().getFirst()))
+          continue;
+        Shape shape = analyze(loop);
+        if (shape == null)
+          continue;
+        Long trips = tripCount(shape);
+        if (trips != null && trips * shape.size <= mBudget) {
+          unrollFully(shape, trips);
+          full++;
+        } else if (mFactor > 1 && (long) mFactor * shape.size <= mBudget && isMonotonic(shape)) {
+          seen.add(unrollPartially(program, shape));
+          partial++;
+        } else {
+          continue;
+        }
+        function.invalidateCFG();
+        progress = true;
+        break;
+      }
+    }
+    report.add("unroll", function, "created preheaders", preheaders);
+    report.add("unroll", function, "fully unrolled loops", full);
+    report.add("unroll", function, "partially unrolled loops", partial);
+    mFunction = null;
+    mCFG = null;
+    mNumDefs = null;
+    mDefOf = null;
+    return preheaders + full + partial > 0;
+  }
+
+  private int slotOf(Value value) {
+    if (value instanceof LocalVar) {
+      int id = ((LocalVar) value).getId();
+      return id >= 0 && id < mNumLocals ? id : -1;
+    }
+    if (value instanceof AddressVar) {
+      int id = ((AddressVar) value).getId();
+      return id >= 0 && mNumLocals + id < mNumDefs.length ? mNumLocals + id : -1;
+    }
+    return -1;
+  }
+
+  private void collectDefs() {
+    mNumLocals = mFunction.getNumTempVars();
+    int numSlots = mNumLocals + mFunction.getNumTempAddressVars();
+    mNumDefs = new int[numSlots];
+    mDefOf = new Instruction[numSlots];
+    for (LocalVar arg : mFunction.getArguments()) {
+      int v = slotOf(arg);
+      if (v >= 0)
+        mNumDefs[v]++;
+    }
+    for (Instruction inst : mCFG.instructions()) {
+      int d = slotOf(inst.getDestVar());
+      if (d >= 0) {
+        mNumDefs[d]++;
+        mDefOf[d] = inst;
+      }
+    }
+  }
+
+  /**
+   * Returns the value of a variable that holds a constant, or null.
+   */
+  private Long constantOf(Value value) {
+    if (value instanceof IntegerConstant)
+      return ((IntegerConstant) value).getValue();
+    int v = slotOf(value);
+    if (v < 0 || mNumDefs[v] != 1 || !(mDefOf[v] instanceof CopyInst))
+      return null;
+    Value src = ((CopyInst) mDefOf[v]).getSrcValue();
+    return src instanceof IntegerConstant ? ((IntegerConstant) src).getValue() : null;
+  }
+
+  /**
+   * Returns the shape of a loop, or null if the pass cannot unroll it.
+   */
+  private Shape analyze(Loop loop) {
+    if (loop.getLatches().size() != 1 || loop.getEntries().size() != 1)
+      return null;
+    Shape shape = new Shape();
+    shape.loop = loop;
+    shape.header = loop.getHeader();
+    shape.preheader = loop.getEntries().get(0);
+    BasicBlock latch = loop.getLatches().get(0);
+    if (latch == shape.header || shape.preheader.getSuccessors().size() != 1
+        || !(shape.header.getLast() instanceof JumpInst))
+      return null;
+    for (BasicBlock block : loop.getBlocks()) {
+      if (block == shape.header)
+        continue;
+      for (BasicBlock succ : block.getSuccessors()) {
+        if (!loop.contains(succ))
+          return null;
+      }
+      shape.size += sizeOf(block);
+    }
+    shape.size += sizeOf(shape.header) - 1;
+    JumpInst jump = (JumpInst) shape.header.getLast();
+    BasicBlock onFalse = mCFG.getBlock(jump.getNext(0));
+    BasicBlock onTrue = mCFG.getBlock(jump.getNext(1));
+    if (loop.contains(onFalse) == loop.contains(onTrue))
+      return null;
+    boolean stayOnTrue = loop.contains(onTrue);
+    shape.body = stayOnTrue ? onTrue : onFalse;
+    shape.exit = stayOnTrue ? onFalse : onTrue;
+
+    collectDefs();
+    CompareInst compare = null;
+    for (Instruction inst : shape.header.getInstructions()) {
+      if (inst instanceof PhiInst)
+        shape.phis.add((PhiInst) inst);
+      else if (inst.getDestVar() == jump.getPredicate() && inst instanceof CompareInst)
+        compare = (CompareInst) inst;
+    }
+    if (compare == null)
+      return null;
+    CompareInst.Predicate predicate = compare.getPredicate();
+    Value bound = compare.getRightOperand();
+    shape.counter = counterOf(compare.getLeftOperand(), shape, latch);
+    if (shape.counter == null) {
+      predicate = reversed(predicate);
+      bound = compare.getLeftOperand();
+      shape.counter = counterOf(compare.getRightOperand(), shape, latch);
+    }
+    if (shape.counter == null)
+      return null;
+    shape.stay = stayOnTrue ? predicate : negated(predicate);
+    shape.start = constantOf(shape.counter.getValueFrom(shape.preheader.getLast()));
+    shape.bound = bound;
+    shape.boundConstant = constantOf(bound);
+    int b = slotOf(bound);
+    if (shape.boundConstant == null && (b < 0 || mNumDefs[b] != 1
+        || mDefOf[b] != null && loop.contains(mCFG.getBlock(mDefOf[b]))))
+      return null;
+    return shape;
+  }
+
+  private static int sizeOf(BasicBlock block) {
+    int size = 0;
+    for (Instruction inst : block.getInstructions()) {
+      if (!(inst instanceof PhiInst) && !(inst instanceof NopInst))
+        size++;
+    }
+    return size;
+  }
+
+  /**
+   * Returns the header phi a compare operand reads if it is a counter, and sets its step.
+   */
+  private PhiInst counterOf(Value operand, Shape shape, BasicBlock latch) {
+    for (PhiInst phi : shape.phis) {
+      if (phi.getDst() != operand || phi.numIncoming() != 2)
+        continue;
+      int n = slotOf(phi.getValueFrom(latch.getLast()));
+      if (n < 0 || mNumDefs[n] != 1 || !(mDefOf[n] instanceof BinaryOperator))
+        return null;
+      BinaryOperator update = (BinaryOperator) mDefOf[n];
+      Value lhs = update.getLeftOperand(), rhs = update.getRightOperand();
+      Long step = null;
+      if (update.getOperator() == BinaryOperator.Op.Add) {
+        step = lhs == phi.getDst() ? constantOf(rhs) : rhs == phi.getDst() ? constantOf(lhs) : null;
+      } else if (update.getOperator() == BinaryOperator.Op.Sub && lhs == phi.getDst()) {
+        step = constantOf(rhs);
+        step = step != null ? -step : null;
+      }
+      if (step == null || step == 0)
+        return null;
+      shape.step = step;
+      return phi;
+    }
+    return null;
+  }
+
+  /**
+   * Returns the number of iterations of a loop with constant start and bound, or null if it is
+   * unknown or more than the budget allows.
+   */
+  private Long tripCount(Shape shape) {
+    if (shape.start == null || shape.boundConstant == null || shape.size == 0)
+      return null;
+    long limit = mBudget / shape.size;
+    long value = shape.start;
+    for (long trips = 0; trips <= limit; trips++) {
+      if (!holds(shape.stay, value, shape.boundConstant))
+        return trips;
+      value += shape.step;
+    }
+    return null;
+  }
+
+  /**
+   * Returns true if the counter moves towards the bound, so that the test can be moved forward by
+   * several iterations.
+   */
+  private static boolean isMonotonic(Shape shape) {
+    if (shape.step > 0)
+      return shape.stay == CompareInst.Predicate.LT || shape.stay == CompareInst.Predicate.LE;
+    return shape.stay == CompareInst.Predicate.GT || shape.stay == CompareInst.Predicate.GE;
+  }
+
+  private static boolean holds(CompareInst.Predicate predicate, long lhs, long rhs) {
+    switch (predicate) {
+      case GE:
+        return lhs >= rhs;
+      case GT:
+        return lhs > rhs;
+      case LE:
+        return lhs <= rhs;
+      case LT:
+        return lhs < rhs;
+      case EQ:
+        return lhs == rhs;
+      default:
+        return lhs != rhs;
+    }
+  }
+
+  /**
+   * Returns the predicate that gives the same result with the operands swapped.
+   */
+  private static CompareInst.Predicate reversed(CompareInst.Predicate predicate) {
+    switch (predicate) {
+      case GE:
+        return CompareInst.Predicate.LE;
+      case GT:
+        return CompareInst.Predicate.LT;
+      case LE:
+        return CompareInst.Predicate.GE;
+      case LT:
+        return CompareInst.Predicate.GT;
+      default:
+        return predicate;
+    }
+  }
+
+  private static CompareInst.Predicate negated(CompareInst.Predicate predicate) {
+    switch (predicate) {
+      case GE:
+        return CompareInst.Predicate.LT;
+      case GT:
+        return CompareInst.Predicate.LE;
+      case LE:
+        return CompareInst.Predicate.GT;
+      case LT:
+        return CompareInst.Predicate.GE;
+      case EQ:
+        return CompareInst.Predicate.NE;
+      default:
+        return CompareInst.Predicate.EQ;
+    }
+  }
+
+  /**
+   * Copies the header of a loop, without phis and jump, and unless {@code headerOnly} is set the
+   * body after it. The copy starts with the given values of the header phis. The copied header
+   * falls through into the copied body, and the back edges are left for the caller to connect.
+   */
+  private Iteration copyIteration(Shape shape, Value[] values, boolean headerOnly) {
+    Iteration it = new Iteration();
+    List<Instruction> header = new ArrayList<>();
+    for (int j = 0; j < shape.phis.size(); j++) {
+      LocalVar phiVar = shape.phis.get(j).getDst();
+      LocalVar var = mFunction.getTempVar(phiVar.getType(), phiVar.getPrefix());
+      header.add(new CopyInst(var, values[j]));
+      it.vars.put(phiVar, var);
+    }
+    for (Instruction inst : shape.header.getInstructions()) {
+      if (!(inst instanceof PhiInst) && !(inst instanceof JumpInst))
+        header.add(copyOf(inst, it));
+    }
+    chain(header);
+    it.first = header.get(0);
+    it.headerLast = header.get(header.size() - 1);
+    // Phis in the body that merge an edge from the header are keyed by its last copied instruction.
+    it.insts.put(shape.header.getLast(), it.headerLast);
+    Map<BasicBlock, List<Instruction>> blocks = new HashMap<>();
+    for (BasicBlock block : shape.loop.getBlocks()) {
+      if (block == shape.header || headerOnly)
+        continue;
+      List<Instruction> insts = new ArrayList<>();
+      for (Instruction inst : block.getInstructions()) {
+        insts.add(copyOf(inst, it));
+      }
+      chain(insts);
+      blocks.put(block, insts);
+    }
+    for (Instruction copy : it.insts.values()) {
+      for (int k = 0; k < copy.numOperands(); k++) {
+        copy.setOperand(k, it.map(copy.getOperand(k)));
+      }
+      if (copy instanceof PhiInst) {
+        PhiInst phi = (PhiInst) copy;
+        for (int i = 0; i < phi.numIncoming(); i++) {
+          phi.replaceIncoming(phi.getIncoming(i), it.insts.get(phi.getIncoming(i)));
+        }
+      }
+    }
+    if (headerOnly)
+      return it;
+    it.headerLast.setNext(0, blocks.get(shape.body).get(0));
+    for (BasicBlock block : shape.loop.getBlocks()) {
+      if (block == shape.header)
+        continue;
+      Instruction last = block.getLast();
+      Instruction copy = it.insts.get(last);
+      for (int i = 0; i < last.numNext(); i++) {
+        BasicBlock succ = mCFG.getBlock(last.getNext(i));
+        if (succ == shape.header) {
+          it.backEdges.add(copy);
+          it.backSlots.add(i);
+        } else {
+          copy.setNext(i, blocks.get(succ).get(0));
+        }
+      }
+    }
+    Instruction latchLast = shape.loop.getLatches().get(0).getLast();
+    it.next = new Value[shape.phis.size()];
+    for (int j = 0; j < shape.phis.size(); j++) {
+      it.next[j] = it.map(shape.phis.get(j).getValueFrom(latchLast));
+    }
+    return it;
+  }
+
+  /**
+   * Copies an instruction into an iteration with a fresh destination. The operands are renamed
+   * once the whole iteration is copied.
+   */
+  private Instruction copyOf(Instruction inst, Iteration it) {
+    Instruction copy = Edits.copyOf(inst);
+    Variable dest = inst.getDestVar();
+    if (dest instanceof LocalVar) {
+      Variable var = mFunction.getTempVar(dest.getType(), dest.getPrefix());
+      copy.setDestVar(var);
+      it.vars.put(dest, var);
+    } else if (dest instanceof AddressVar) {
+      Variable var = mFunction.getTempAddressVar(dest.getType());
+      copy.setDestVar(var);
+      it.vars.put(dest, var);
+    }
+    it.insts.put(inst, copy);
+    return copy;
+  }
+
+  private static void chain(List<Instruction> insts) {
+    for (int i = 0; i + 1 < insts.size(); i++) {
+      insts.get(i).setNext(0, insts.get(i + 1));
+    }
+  }
+
+  private Value[] startValues(Shape shape) {
+    Value[] values = new Value[shape.phis.size()];
+    for (int j = 0; j < values.length; j++) {
+      values[j] = shape.phis.get(j).getValueFrom(shape.preheader.getLast());
+    }
+    return values;
+  }
+
+  /**
+   * Replaces a loop by one copy of each iteration and a final copy of the header.
+   */
+  private void unrollFully(Shape shape, long trips) {
+    Value[] values = startValues(shape);
+    Iteration previous = null;
+    Instruction first = null;
+    for (long k = 0; k <= trips; k++) {
+      Iteration it = copyIteration(shape, values, k == trips);
+      if (previous == null)
+        first = it.first;
+      else
+        previous.connectBack(it.first);
+      values = it.next;
+      previous = it;
+    }
+    previous.headerLast.setNext(0, shape.exit.getFirst());
+
+    // Only values of the header reach past the loop; they now come from the final copy.
+    for (Instruction inst : mCFG.instructions()) {
+      if (shape.loop.contains(mCFG.getBlock(inst)))
+        continue;
+      for (int k = 0; k < inst.numOperands(); k++) {
+        inst.setOperand(k, previous.map(inst.getOperand(k)));
+      }
+    }
+    for (Instruction inst : shape.exit.getInstructions()) {
+      if (!(inst instanceof PhiInst))
+        break;
+      ((PhiInst) inst).replaceIncoming(shape.header.getLast(), previous.headerLast);
+    }
+    shape.preheader.getLast().replaceNext(shape.header.getFirst(), first);
+  }
+
+  /**
+   * Puts a loop running {@code factor} iterations per trip in front of a loop, and returns its
+   * first instruction. The original loop runs the iterations that are left.
+   */
+  private Instruction unrollPartially(Program program, Shape shape) {
+    Type intType = shape.counter.getDst().getType();
+    Value[] values = new Value[shape.phis.size()];
+    for (int j = 0; j < values.length; j++) {
+      LocalVar phiVar = shape.phis.get(j).getDst();
+      values[j] = mFunction.getTempVar(phiVar.getType(), phiVar.getPrefix());
+    }
+    LocalVar counter = (LocalVar) values[shape.phis.indexOf(shape.counter)];
+
+    // The guard tests the counter of the last iteration of a trip. Its constants are set up once,
+    // in front of the new loop.
+    List<Instruction> setup = new ArrayList<>();
+    setup.add(shape.preheader.getLast());
+    LocalVar distance = mFunction.getTempVar(intType);
+    setup.add(new CopyInst(distance, IntegerConstant.get(program, (mFactor - 1) * shape.step)));
+    LocalVar bound;
+    if (shape.boundConstant != null) {
+      bound = mFunction.getTempVar(intType);
+      setup.add(new CopyInst(bound, IntegerConstant.get(program, shape.boundConstant)));
+    } else {
+      bound = (LocalVar) shape.bound;
+    }
+    List<Instruction> guard = new ArrayList<>();
+    LocalVar last = mFunction.getTempVar(intType);
+    guard.add(new BinaryOperator(BinaryOperator.Op.Add, last, counter, distance));
+    LocalVar test = mFunction.getTempVar(((JumpInst) shape.header.getLast()).getPredicate()
+        .getType());
+    guard.add(new CompareInst(test, shape.stay, last, bound));
+    JumpInst jump = new JumpInst(test);
+    guard.add(jump);
+    chain(guard);
+
+    Iteration previous = null;
+    Value[] next = values;
+    for (int k = 0; k < mFactor; k++) {
+      Iteration it = copyIteration(shape, next, false);
+      if (previous == null)
+        jump.setNext(1, it.first);
+      else
+        previous.connectBack(it.first);
+      next = it.next;
+      previous = it;
+    }
+    jump.setNext(0, shape.header.getFirst());
+
+    Instruction preheaderLast = shape.preheader.getLast();
+    Instruction entry = setup.get(setup.size() - 1);
+    Instruction backEdge = previous.backEdges.get(0);
+    Instruction first = guard.get(0);
+    for (int j = shape.phis.size() - 1; j >= 0; j--) {
+      PhiInst phi = new PhiInst((LocalVar) values[j], List.of(entry, backEdge));
+      PhiInst original = shape.phis.get(j);
+      phi.setValueFrom(entry, original.getValueFrom(preheaderLast));
+      phi.setValueFrom(backEdge, next[j]);
+      phi.setNext(0, first);
+      first = phi;
+      original.replaceIncoming(preheaderLast, jump);
+      original.setValueFrom(jump, values[j]);
+    }
+    previous.connectBack(first);
+    preheaderLast.replaceNext(shape.header.getFirst(), setup.get(1));
+    chain(setup.subList(1, setup.size()));
+    entry.setNext(0, first);
+    return first;
+  }
+}
@@ -0,0 +1,241 @@
+package crux.ir.opt;
+
+import crux.ast.SymbolTable.Symbol;
+import crux.ast.types.ArrayType;
+import crux.ast.types.BoolType;
+import crux.ast.types.IntType;
+import crux.ir.*;
+import crux.ir.analysis.CallGraph;
+import crux.ir.analysis.SideEffectSummary;
+import crux.ir.insts.*;
+
+import java.util.*;
+
+/**
+ * Remembers the results of recursive functions that compute an integer from integer arguments
+ * alone, so recursion like {@code fib(n - 1) + fib(n - 2)} computes every value once instead of
+ * an exponential number of times. Runs on the lowered program after inlining and compile-time
+ * evaluation, which both need the function to stay pure.
+ * <p>
+ * A function is memoized if the {@link SideEffectSummary} finds it pure, it is recursive, and it
+ * has at most {@link #MAX_PARAMS} parameters. Its results are kept in two global arrays of
+ * {@link #TABLE_SIZE} elements: whether an entry is known, and its value. Each argument gets an
+ * equal share of the index range, e.g. 64 values each for two arguments. On entry the function
+ * checks that every argument is in range, and returns the value of a known entry right away;
+ * otherwise the original body runs, and if the arguments were in range, every return stores its
+ * value in the table first. Calls with arguments out of range run as before, so the results never
+ * change, and the tables stay the same size whatever the input.
+ * <p>
+ * The start of main clears the arrays of known entries, since the emulator reports reads of memory
+ * nothing was stored to. Memoization costs a few instructions per call, so it only runs when asked
+ * for.
+ */
+public final class Memoization implements ProgramPass {
+  public static final int TABLE_SIZE = 4096;
+  public static final int MAX_PARAMS = 3;
+
+  @Override
+  public boolean run(Program program, OptimizationReport report) {
+    CallGraph graph = CallGraph.build(program);
+    SideEffectSummary effects = program.getSideEffects();
+    Function main = graph.getFunction("main");
+    if (main == null || main.getStart() == null)
+      return false;
+    List<Symbol> tables = new ArrayList<>();
+    for (Iterator<Function> it = program.getFunctions(); it.hasNext();) {
+      Function function = it.next();
+      if (!isCandidate(function, graph, effects))
+        continue;
+      int range = rangeOf(function.getArguments().size());
+      int size = (int) Math.pow(range, function.getArguments().size());
+      Symbol known = Symbol.generated(function.getName() + ".known",
+          new ArrayType(size, new BoolType()));
+      Symbol values = Symbol.generated(function.getName() + ".memo",
+          new ArrayType(size, new IntType()));
+      program.addGlobalVar(new GlobalDecl(known, IntegerConstant.get(program, size)));
+      program.addGlobalVar(new GlobalDecl(values, IntegerConstant.get(program, size)));
+      memoize(program, function, range, known, values);
+      tables.add(known);
+      report.add("memo", function, "memoized functions", 1);
+      report.add("memo", function, "table entries", size);
+    }
+    if (tables.isEmpty())
+      return false;
+    clearTables(program, main, tables);
+    return true;
+  }
+
+  private static boolean isCandidate(Function function, CallGraph graph,
+      SideEffectSummary effects) {
+    if (function.getStart() == null || function.getName().equals("main")
+        || !(function.getFuncType().getRet() instanceof IntType))
+      return false;
+    List<LocalVar> args = function.getArguments();
+    if (args.isEmpty() || args.size() > MAX_PARAMS)
+      return false;
+    for (LocalVar arg : args) {
+      if (!(arg.getType() instanceof IntType))
+        return false;
+    }
+    return graph.isRecursive(function) && effects.isPure(function);
+  }
+
+  /**
+   * Returns the number of values each of the given number of arguments may take.
+   */
+  private static int rangeOf(int numArgs) {
+    int range = 1;
+    while (Math.pow(range + 1, numArgs) <= TABLE_SIZE)
+      range++;
+    return range;
+  }
+
+  /**
+   * Puts the lookup in front of the body of a function and the update in front of its returns.
+   */
+  private static void memoize(Program program, Function function, int range, Symbol known,
+      Symbol values) {
+    Edits.normalize(function);
+    List<Instruction> insts = instructionsOf(function);
+    Instruction body = function.getStart();
+    LocalVar index = function.getTempVar(new IntType(), "memo");
+    LocalVar inRange = function.getTempVar(new BoolType());
+    LocalVar zero = function.getTempVar(new IntType());
+    LocalVar limit = function.getTempVar(new IntType());
+
+    // Compute the index while checking the ranges; any argument out of range goes to the body.
+    List<Instruction> lookup = new ArrayList<>();
+    lookup.add(new CopyInst(inRange, BooleanConstant.get(program, false)));
+    lookup.add(new CopyInst(index, IntegerConstant.get(program, 0)));
+    lookup.add(new CopyInst(zero, IntegerConstant.get(program, 0)));
+    lookup.add(new CopyInst(limit, IntegerConstant.get(program, range)));
+    for (LocalVar arg : function.getArguments()) {
+      lookup.add(check(function, arg, CompareInst.Predicate.GE, zero, body));
+      lookup.add(check(function, arg, CompareInst.Predicate.LT, limit, body));
+      lookup.add(new BinaryOperator(BinaryOperator.Op.Mul, index, index, limit));
+      lookup.add(new BinaryOperator(BinaryOperator.Op.Add, index, index, arg));
+    }
+    lookup.add(new CopyInst(inRange, BooleanConstant.get(program, true)));
+    LocalVar isKnown = function.getTempVar(new BoolType());
+    AddressVar knownAddress = function.getTempAddressVar(new BoolType());
+    lookup.add(new AddressAt(knownAddress, known, index));
+    lookup.add(new LoadInst(isKnown, knownAddress));
+    JumpInst jump = new JumpInst(isKnown);
+    lookup.add(jump);
+    chain(lookup);
+    jump.setNext(0, body);
+
+    LocalVar value = function.getTempVar(new IntType());
+    AddressVar valueAddress = function.getTempAddressVar(new IntType());
+    List<Instruction> hit = new ArrayList<>();
+    hit.add(new AddressAt(valueAddress, values, index));
+    hit.add(new LoadInst(value, valueAddress));
+    hit.add(new ReturnInst(value));
+    chain(hit);
+    jump.setNext(1, hit.get(0));
+
+    // Every return goes through one exit that stores the result if the arguments were in range.
+    LocalVar result = function.getTempVar(new IntType());
+    LocalVar isTrue = function.getTempVar(new BoolType());
+    AddressVar resultAddress = function.getTempAddressVar(new IntType());
+    AddressVar setAddress = function.getTempAddressVar(new BoolType());
+    ReturnInst ret = new ReturnInst(result);
+    JumpInst store = new JumpInst(inRange);
+    List<Instruction> update = new ArrayList<>();
+    update.add(store);
+    update.add(new AddressAt(resultAddress, values, index));
+    update.add(new StoreInst(result, resultAddress));
+    update.add(new CopyInst(isTrue, BooleanConstant.get(program, true)));
+    update.add(new AddressAt(setAddress, known, index));
+    update.add(new StoreInst(isTrue, setAddress));
+    update.add(ret);
+    chain(update);
+    store.setNext(0, ret);
+
+    for (Instruction inst : insts) {
+      if (!(inst instanceof ReturnInst))
+        continue;
+      CopyInst copy = new CopyInst(result, ((ReturnInst) inst).getReturnValue());
+      copy.setNext(0, store);
+      for (Instruction pred : insts) {
+        pred.replaceNext(inst, copy);
+      }
+    }
+    function.setStart(lookup.get(0));
+    function.invalidateCFG();
+  }
+
+  /**
+   * Returns a comparison of the argument with the bound, followed by a jump to the body if it does
+   * not hold. Code linked to the jump's true edge runs if it does.
+   */
+  private static Instruction check(Function function, LocalVar arg, CompareInst.Predicate predicate,
+      LocalVar bound, Instruction body) {
+    LocalVar holds = function.getTempVar(new BoolType());
+    CompareInst compare = new CompareInst(holds, predicate, arg, bound);
+    JumpInst jump = new JumpInst(holds);
+    compare.setNext(0, jump);
+    jump.setNext(0, body);
+    return compare;
+  }
+
+  /**
+   * Clears the arrays of known entries at the start of main.
+   */
+  private static void clearTables(Program program, Function main, List<Symbol> tables) {
+    Edits.normalize(main);
+    Instruction next = main.getStart();
+    for (Symbol table : tables) {
+      LocalVar i = main.getTempVar(new IntType(), "memo");
+      LocalVar size = main.getTempVar(new IntType());
+      LocalVar one = main.getTempVar(new IntType());
+      LocalVar isFalse = main.getTempVar(new BoolType());
+      LocalVar inBounds = main.getTempVar(new BoolType());
+      AddressVar address = main.getTempAddressVar(new BoolType());
+      CompareInst header = new CompareInst(inBounds, CompareInst.Predicate.LT, i, size);
+      JumpInst loop = new JumpInst(inBounds);
+      header.setNext(0, loop);
+      loop.setNext(0, next);
+
+      List<Instruction> init = new ArrayList<>();
+      init.add(new CopyInst(i, IntegerConstant.get(program, 0)));
+      init.add(new CopyInst(size,
+          IntegerConstant.get(program, ((ArrayType) table.getType()).getExtent())));
+      init.add(new CopyInst(one, IntegerConstant.get(program, 1)));
+      init.add(new CopyInst(isFalse, BooleanConstant.get(program, false)));
+      init.add(header);
+      chain(init);
+      List<Instruction> body = new ArrayList<>();
+      body.add(new AddressAt(address, table, i));
+      body.add(new StoreInst(isFalse, address));
+      body.add(new BinaryOperator(BinaryOperator.Op.Add, i, i, one));
+      body.add(header);
+      chain(body);
+      loop.setNext(1, body.get(0));
+      next = init.get(0);
+    }
+    main.setStart(next);
+    main.invalidateCFG();
+  }
+
+  private static List<Instruction> instructionsOf(Function function) {
+    List<Instruction> insts = new ArrayList<>();
+    for (Instruction inst : function.getCFG().instructions()) {
+      insts.add(inst);
+    }
+    return insts;
+  }
+
+  /**
+   * Links a list of instructions in order. A jump continues on its true edge, and a range check is
+   * followed to the jump it ends with.
+   */
+  private static void chain(List<Instruction> insts) {
+    for (int k = 0; k + 1 < insts.size(); k++) {
+      Instruction last = insts.get(k);
+      while (!(last instanceof JumpInst) && last.numNext() > 0 && last.getNext(0) != null)
+        last = last.getNext(0);
+      last.setNext(last instanceof JumpInst ? 1 : 0, insts.get(k + 1));
+    }
+  }
+}
@@ -0,0 +1,57 @@
+package crux.ir.opt;
+
+import crux.ir.Function;
+
+import java.io.PrintStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Counts what the passes did, per function and pass. Passes add to named counters, e.g. the number
+ * of instructions they folded; counters that stay zero are not printed.
+ */
+public final class OptimizationReport {
+  /** Function name, then pass name, then counter name. */
+  private final Map<String, Map<String, Map<String, Integer>>> mCounts = new LinkedHashMap<>();
+
+  public void add(String pass, Function function, String counter, int amount) {
+    if (amount == 0)
+      return;
+    mCounts.computeIfAbsent(function.getName(), f -> new LinkedHashMap<>())
+        .computeIfAbsent(pass, p -> new LinkedHashMap<>()).merge(counter, amount, Integer::sum);
+  }
+
+  /**
+   * Returns the value of a counter for one function.
+   */
+  public int get(String pass, Function function, String counter) {
+    return mCounts.getOrDefault(function.getName(), Map.of()).getOrDefault(pass, Map.of())
+        .getOrDefault(counter, 0);
+  }
+
+  /**
+   * Returns the sum of a counter over all functions.
+   */
+  public int getTotal(String pass, String counter) {
+    int total = 0;
+    for (var passes : mCounts.values()) {
+      total += passes.getOrDefault(pass, Map.of()).getOrDefault(counter, 0);
+    }
+    return total;
+  }
+
+  public void print(PrintStream out) {
+    for (var function : mCounts.entrySet()) {
+      out.printf("function %s%n", function.getKey());
+      for (var pass : function.getValue().entrySet()) {
+        var counters = new StringBuilder();
+        for (var counter : pass.getValue().entrySet()) {
+          if (counters.length() > 0)
+            counters.append(", ");
+          counters.append(counter.getKey()).append(": ").append(counter.getValue());
+        }
+        out.printf("  %-12s %s%n", pass.getKey(), counters);
+      }
+    }
+  }
+}
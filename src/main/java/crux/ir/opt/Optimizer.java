@@ -0,0 +1,110 @@
+package crux.ir.opt;
+
+import crux.ir.Function;
+import crux.ir.Program;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Runs the optimization passes over a program: first the program passes, then the function passes
+ * over every function, then the final program passes, which clean up across functions after them.
+ * The function passes work on SSA form, so their pipeline starts with {@link SSABuilder} and ends
+ * with {@link SSADestructor}, followed by the cleanups and {@link LoopRotation}, which work on
+ * lowered form; the result can be emulated or compiled like any lowered program.
+ */
+public final class Optimizer {
+  private final List<ProgramPass> mProgramPasses = new ArrayList<>();
+  private final List<FunctionPass> mPasses = new ArrayList<>();
+  private final List<ProgramPass> mFinalPasses = new ArrayList<>();
+  private final OptimizationReport mReport = new OptimizationReport();
+
+  public Optimizer() {
+    this(Inliner.DEFAULT_SIZE_LIMIT, LoopUnrolling.DEFAULT_FACTOR, LoopUnrolling.DEFAULT_BUDGET);
+  }
+
+  /**
+   * Creates an optimizer that inlines callees of at most {@code inlineLimit} instructions, unrolls
+   * loops by the given factor, and lets the copies of a loop grow to at most {@code unrollBudget}
+   * instructions.
+   */
+  public Optimizer(int inlineLimit, int unrollFactor, int unrollBudget) {
+    this(inlineLimit, unrollFactor, unrollBudget, CompileTimeEvaluation.DEFAULT_FUEL, false);
+  }
+
+  /**
+   * Creates an optimizer like {@link #Optimizer(int, int, int)} that also runs calls of pure
+   * functions on constants for at most {@code evalFuel} instructions while compiling, and memoizes
+   * pure recursive functions if {@code memoize} is set.
+   */
+  public Optimizer(int inlineLimit, int unrollFactor, int unrollBudget, long evalFuel,
+      boolean memoize) {
+    // Loops made from tail recursion leave functions that are no longer recursive to the inliner.
+    mProgramPasses.add(ProgramPass.forEachFunction(new TailRecursionElimination()));
+    mProgramPasses.add(new Inliner(inlineLimit));
+    mProgramPasses.add(new DeadFunctionElimination());
+    mProgramPasses.add(new CompileTimeEvaluation(evalFuel));
+    if (memoize)
+      mProgramPasses.add(new Memoization());
+    mProgramPasses.add(new Specialization());
+    mProgramPasses.add(new DeadFunctionElimination());
+    mProgramPasses.add(new ScalarPromotion());
+    mProgramPasses.add(new DeadGlobalElimination());
+    mPasses.add(new SSABuilder());
+    mPasses.add(new ConstantPropagation());
+    mPasses.add(new GlobalValueNumbering());
+    mPasses.add(new LoadStoreElimination());
+    mPasses.add(new CopyPropagation());
+    mPasses.add(new DeadCodeElimination());
+    mPasses.add(new IfConversion());
+    mPasses.add(new LoopInvariantCodeMotion());
+    mPasses.add(new LoopUnrolling(unrollFactor, unrollBudget));
+    mPasses.add(new ConstantPropagation());
+    mPasses.add(new GlobalValueNumbering());
+    mPasses.add(new LoadStoreElimination());
+    mPasses.add(new CopyPropagation());
+    mPasses.add(new DeadCodeElimination());
+    mPasses.add(new StrengthReduction());
+    mPasses.add(new SSADestructor());
+    mPasses.add(new CopyPropagation());
+    mPasses.add(new DeadCodeElimination());
+    mPasses.add(new LoopRotation());
+    mFinalPasses.add(new DeadArgumentElimination());
+  }
+
+  public void optimize(Program program) {
+    for (ProgramPass pass : mProgramPasses) {
+      if (pass.run(program, mReport))
+        program.invalidateSideEffects();
+    }
+    for (Iterator<Function> it = program.getFunctions(); it.hasNext();) {
+      Function function = it.next();
+      for (FunctionPass pass : mPasses) {
+        pass.run(program, function, mReport);
+      }
+    }
+    for (ProgramPass pass : mFinalPasses) {
+      if (pass.run(program, mReport))
+        program.invalidateSideEffects();
+    }
+  }
+
+  /**
+   * Leaves the passes of a kind out of the pipeline, so that what they do can be measured against
+   * the rest of it.
+   */
+  public Optimizer without(Class<?> kind) {
+    mProgramPasses.removeIf(kind::isInstance);
+    mPasses.removeIf(kind::isInstance);
+    mFinalPasses.removeIf(kind::isInstance);
+    return this;
+  }
+
+  /**
+   * What the passes did in all programs optimized so far.
+   */
+  public OptimizationReport getReport() {
+    return mReport;
+  }
+}
@@ -0,0 +1,32 @@
+package crux.ir.opt;
+
+import crux.ir.Function;
+import crux.ir.Program;
+
+import java.util.Iterator;
+
+/**
+ * A transformation that looks at several functions at once, e.g. to move code from one function into
+ * another. Program passes run before the function passes, or after them to clean up across
+ * functions.
+ */
+public interface ProgramPass {
+  /**
+   * Transforms the program and returns true if anything changed.
+   */
+  boolean run(Program program, OptimizationReport report);
+
+  /**
+   * Returns a program pass that runs a function pass over every function, e.g. to prepare the
+   * functions for a later program pass.
+   */
+  static ProgramPass forEachFunction(FunctionPass pass) {
+    return (program, report) -> {
+      boolean changed = false;
+      for (Iterator<Function> it = program.getFunctions(); it.hasNext();) {
+        changed |= pass.run(program, it.next(), report);
+      }
+      return changed;
+    };
+  }
+}
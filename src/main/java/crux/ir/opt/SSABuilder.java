@@ -0,0 +1,243 @@
+package crux.ir.opt;
+
+import crux.ir.*;
+import crux.ir.analysis.BasicBlock;
+import crux.ir.analysis.ControlFlowGraph;
+import crux.ir.analysis.DominatorTree;
+import crux.ir.insts.PhiInst;
+
+import java.util.*;
+
+/**
+ * Converts a function into static single assignment form: every local variable gets exactly one
+ * definition, and {@link PhiInst}s merge the versions that meet at join points.
+ * <p>
+ * Phis are placed on the iterated dominance frontiers of the definitions (Cytron et al.), but only
+ * for variables that have more than one definition and are live on entry to some block
+ * ("semi-pruned" form, Briggs et al.). Variables with a single definition already are in SSA form
+ * and keep their name.
+ * <p>
+ * Renaming walks the dominator tree. The first definition of a variable keeps the original
+ * variable, and later ones get fresh temporaries from the function. An argument counts as defined
+ * on entry, so all of its assignments are renamed. A use that no definition reaches keeps the
+ * original variable, as before.
+ * <p>
+ * {@link SSADestructor} converts the function back before it reaches the emulator or the code
+ * generator.
+ */
+public final class SSABuilder implements FunctionPass {
+  private Function mFunction;
+  private LocalVar[] mOriginal;
+  private boolean[] mRenamed;
+  private boolean[] mKeepOriginal;
+  private List<List<LocalVar>> mStacks;
+  private List<List<PhiInst>> mPhis;
+  private Map<PhiInst, LocalVar> mPhiVar;
+
+  @Override
+  public boolean run(Program program, Function function, OptimizationReport report) {
+    Edits.normalize(function);
+    mFunction = function;
+    ControlFlowGraph cfg = function.getCFG();
+    if (cfg.size() == 0)
+      return false;
+    List<BasicBlock> blocks = cfg.getBlocks();
+    int numVars = function.getNumTempVars();
+    mOriginal = new LocalVar[numVars];
+    mRenamed = new boolean[numVars];
+    mKeepOriginal = new boolean[numVars];
+    int[] numDefs = new int[numVars];
+    boolean[] nonLocal = new boolean[numVars];
+    List<List<BasicBlock>> defBlocks = new ArrayList<>(numVars);
+    for (int v = 0; v < numVars; v++) {
+      defBlocks.add(new ArrayList<>(1));
+      mKeepOriginal[v] = true;
+    }
+
+    for (LocalVar arg : function.getArguments()) {
+      int v = indexOf(arg);
+      if (v < 0)
+        continue;
+      mOriginal[v] = arg;
+      mKeepOriginal[v] = false;
+      numDefs[v]++;
+      defBlocks.get(v).add(cfg.getEntry());
+    }
+
+    // Find the variables defined more than once and those used before being defined in a block.
+    int[] definedIn = new int[numVars];
+    Arrays.fill(definedIn, -1);
+    for (BasicBlock block : blocks) {
+      int b = block.getNumber();
+      for (Instruction inst : block.getInstructions()) {
+        for (int k = 0; k < inst.numOperands(); k++) {
+          int v = indexOf(inst.getOperand(k));
+          if (v >= 0 && definedIn[v] != b)
+            nonLocal[v] = true;
+        }
+        int d = indexOf(inst.getDestVar());
+        if (d >= 0) {
+          mOriginal[d] = (LocalVar) inst.getDestVar();
+          numDefs[d]++;
+          if (definedIn[d] != b)
+            defBlocks.get(d).add(block);
+          definedIn[d] = b;
+        }
+      }
+    }
+
+    mPhis = new ArrayList<>(Collections.nCopies(blocks.size(), null));
+    mPhiVar = new IdentityHashMap<>();
+    DominatorTree domTree = cfg.getDominatorTree();
+    int[] hasPhi = new int[blocks.size()];
+    int[] inWorklist = new int[blocks.size()];
+    Arrays.fill(hasPhi, -1);
+    Arrays.fill(inWorklist, -1);
+    Deque<BasicBlock> worklist = new ArrayDeque<>();
+    for (int v = 0; v < numVars; v++) {
+      mRenamed[v] = numDefs[v] > 1;
+      if (!mRenamed[v] || !nonLocal[v])
+        continue;
+      for (BasicBlock block : defBlocks.get(v)) {
+        inWorklist[block.getNumber()] = v;
+        worklist.add(block);
+      }
+      while (!worklist.isEmpty()) {
+        BasicBlock block = worklist.poll();
+        for (BasicBlock join : domTree.getFrontier(block)) {
+          int j = join.getNumber();
+          if (hasPhi[j] == v)
+            continue;
+          hasPhi[j] = v;
+          addPhi(join, v);
+          if (inWorklist[j] != v) {
+            inWorklist[j] = v;
+            worklist.add(join);
+          }
+        }
+      }
+    }
+
+    mStacks = new ArrayList<>(numVars);
+    for (int v = 0; v < numVars; v++) {
+      mStacks.add(mRenamed[v] ? new ArrayList<>() : null);
+    }
+    rename(cfg, domTree);
+
+    boolean changed = false;
+    for (BasicBlock block : blocks) {
+      List<PhiInst> blockPhis = mPhis.get(block.getNumber());
+      if (blockPhis == null)
+        continue;
+      Instruction first = block.getFirst();
+      for (BasicBlock pred : block.getPredecessors()) {
+        pred.getLast().replaceNext(first, blockPhis.get(0));
+      }
+      for (int i = 0; i + 1 < blockPhis.size(); i++) {
+        blockPhis.get(i).setNext(0, blockPhis.get(i + 1));
+      }
+      blockPhis.get(blockPhis.size() - 1).setNext(0, first);
+      changed = true;
+    }
+    for (int v = 0; v < numVars; v++) {
+      changed |= mRenamed[v];
+    }
+    mFunction = null;
+    mStacks = null;
+    mPhis = null;
+    mPhiVar = null;
+    return changed;
+  }
+
+  /**
+   * Returns the index of a local variable of this function, or -1 for anything else.
+   */
+  private int indexOf(Value value) {
+    if (!(value instanceof LocalVar))
+      return -1;
+    int id = ((LocalVar) value).getId();
+    return id >= 0 && id < mOriginal.length ? id : -1;
+  }
+
+  private void addPhi(BasicBlock block, int v) {
+    List<Instruction> incoming = new ArrayList<>(block.getPredecessors().size());
+    for (BasicBlock pred : block.getPredecessors()) {
+      incoming.add(pred.getLast());
+    }
+    PhiInst phi = new PhiInst(mOriginal[v], incoming);
+    if (mPhis.get(block.getNumber()) == null)
+      mPhis.set(block.getNumber(), new ArrayList<>(2));
+    mPhis.get(block.getNumber()).add(phi);
+    mPhiVar.put(phi, mOriginal[v]);
+  }
+
+  /**
+   * Renames all definitions and uses in a preorder walk of the dominator tree. The walk keeps an
+   * explicit stack, since deeply nested code gives deep trees.
+   */
+  private void rename(ControlFlowGraph cfg, DominatorTree domTree) {
+    List<Integer> pushLog = new ArrayList<>();
+    int[] logMark = new int[cfg.size()];
+    Deque<Integer> tovisit = new ArrayDeque<>();
+    tovisit.push(cfg.getEntry().getNumber());
+    while (!tovisit.isEmpty()) {
+      int b = tovisit.pop();
+      if (b < 0) {
+        // All blocks dominated by ~b are done; forget the versions defined in them.
+        int mark = logMark[~b];
+        for (int i = pushLog.size() - 1; i >= mark; i--) {
+          List<LocalVar> stack = mStacks.get(pushLog.remove(i));
+          stack.remove(stack.size() - 1);
+        }
+        continue;
+      }
+      BasicBlock block = cfg.getBlocks().get(b);
+      logMark[b] = pushLog.size();
+      if (mPhis.get(b) != null) {
+        for (PhiInst phi : mPhis.get(b)) {
+          phi.setDestVar(define(indexOf(mPhiVar.get(phi)), pushLog));
+        }
+      }
+      for (Instruction inst : block.getInstructions()) {
+        for (int k = 0; k < inst.numOperands(); k++) {
+          int v = indexOf(inst.getOperand(k));
+          if (v >= 0 && mRenamed[v])
+            inst.setOperand(k, current(v));
+        }
+        int d = indexOf(inst.getDestVar());
+        if (d >= 0 && mRenamed[d])
+          inst.setDestVar(define(d, pushLog));
+      }
+      for (BasicBlock succ : block.getSuccessors()) {
+        if (mPhis.get(succ.getNumber()) == null)
+          continue;
+        for (PhiInst phi : mPhis.get(succ.getNumber())) {
+          phi.setValueFrom(block.getLast(), current(indexOf(mPhiVar.get(phi))));
+        }
+      }
+      tovisit.push(~b);
+      List<BasicBlock> children = domTree.getChildren(block);
+      for (int i = children.size() - 1; i >= 0; i--) {
+        tovisit.push(children.get(i).getNumber());
+      }
+    }
+  }
+
+  private LocalVar define(int v, List<Integer> pushLog) {
+    LocalVar version;
+    if (mKeepOriginal[v]) {
+      mKeepOriginal[v] = false;
+      version = mOriginal[v];
+    } else {
+      version = mFunction.getTempVar(mOriginal[v].getType(), mOriginal[v].getPrefix());
+    }
+    mStacks.get(v).add(version);
+    pushLog.add(v);
+    return version;
+  }
+
+  private LocalVar current(int v) {
+    List<LocalVar> stack = mStacks.get(v);
+    return stack.isEmpty() ? mOriginal[v] : stack.get(stack.size() - 1);
+  }
+}
@@ -0,0 +1,96 @@
+package crux.ir.opt;
+
+import crux.ir.*;
+import crux.ir.analysis.BasicBlock;
+import crux.ir.analysis.ControlFlowGraph;
+import crux.ir.insts.CopyInst;
+import crux.ir.insts.PhiInst;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Converts a function out of SSA form by replacing the phis of each block with copies on its
+ * incoming edges.
+ * <p>
+ * The copies for one edge form a parallel copy: all phis of a block read their operands before any
+ * of them is written. They are sequentialized so that a destination is only overwritten after every
+ * copy reading it has been emitted; a cycle is broken by saving one destination in a fresh
+ * temporary (the "swap problem"). The copies are placed on the edge itself rather than at the end
+ * of the predecessor, so they only run when control actually takes that edge (the "lost copy
+ * problem"). Since edges connect single instructions, this never requires splitting a block.
+ */
+public final class SSADestructor implements FunctionPass {
+  @Override
+  public boolean run(Program program, Function function, OptimizationReport report) {
+    ControlFlowGraph cfg = function.getCFG();
+    boolean changed = false;
+    for (BasicBlock block : cfg.getBlocks()) {
+      List<PhiInst> phis = new ArrayList<>();
+      for (Instruction inst : block.getInstructions()) {
+        if (!(inst instanceof PhiInst))
+          break;
+        phis.add((PhiInst) inst);
+      }
+      if (phis.isEmpty())
+        continue;
+      changed = true;
+      Instruction body = phis.get(phis.size() - 1).getNext(0);
+      if (block == cfg.getEntry())
+        function.setStart(body);
+      for (BasicBlock pred : block.getPredecessors()) {
+        Instruction last = pred.getLast();
+        List<LocalVar> dsts = new ArrayList<>(phis.size());
+        List<Value> srcs = new ArrayList<>(phis.size());
+        for (PhiInst phi : phis) {
+          dsts.add(phi.getDst());
+          srcs.add(phi.getValueFrom(last));
+        }
+        Instruction head = body;
+        List<CopyInst> copies = sequentialize(function, dsts, srcs);
+        for (int i = copies.size() - 1; i >= 0; i--) {
+          copies.get(i).setNext(0, head);
+          head = copies.get(i);
+        }
+        last.replaceNext(phis.get(0), head);
+      }
+    }
+    return changed;
+  }
+
+  /**
+   * Orders the parallel copy {@code dsts[i] = srcs[i]} into a sequence of copies with the same
+   * effect.
+   */
+  static List<CopyInst> sequentialize(Function function, List<LocalVar> dsts, List<Value> srcs) {
+    dsts = new ArrayList<>(dsts);
+    srcs = new ArrayList<>(srcs);
+    for (int i = dsts.size() - 1; i >= 0; i--) {
+      if (dsts.get(i) == srcs.get(i)) {
+        dsts.remove(i);
+        srcs.remove(i);
+      }
+    }
+    List<CopyInst> copies = new ArrayList<>(dsts.size());
+    while (!dsts.isEmpty()) {
+      int ready = -1;
+      for (int i = 0; i < dsts.size() && ready < 0; i++) {
+        if (!srcs.contains(dsts.get(i)))
+          ready = i;
+      }
+      if (ready >= 0) {
+        copies.add(new CopyInst(dsts.remove(ready), srcs.remove(ready)));
+        continue;
+      }
+      // Every destination is still read by another copy, so the remaining copies form cycles.
+      LocalVar blocked = dsts.get(0);
+      LocalVar saved = function.getTempVar(blocked.getType());
+      copies.add(new CopyInst(saved, blocked));
+      for (int i = 0; i < srcs.size(); i++) {
+        if (srcs.get(i) == blocked)
+          srcs.set(i, saved);
+      }
+    }
+    return copies;
+  }
+}
@@ -0,0 +1,207 @@
+package crux.ir.opt;
+
+import crux.ast.SymbolTable.Symbol;
+import crux.ir.*;
+import crux.ir.analysis.BasicBlock;
+import crux.ir.analysis.CallGraph;
+import crux.ir.analysis.ControlFlowGraph;
+import crux.ir.analysis.Loop;
+import crux.ir.analysis.SideEffectSummary;
+import crux.ir.insts.*;
+
+import java.util.*;
+
+/**
+ * Keeps global scalars that a loop reads or writes in a temporary while the loop runs. The global
+ * is loaded into the temporary in the preheader, the loads and stores in the loop become copies
+ * from and to the temporary, and if the loop stored the global, the temporary is stored back at
+ * the start of every exit block. Runs on the lowered program after inlining, before SSA form is
+ * built, which then turns the temporary into phis.
+ * <p>
+ * A global is promoted in a loop if every load and store in the loop has a known address, no call
+ * in the loop may touch the global according to the {@link SideEffectSummary}, and every exit block
+ * is only reached from the loop. The load in the preheader must not read memory the loop would
+ * not have read, since the emulator reports reads of uninitialized memory: either the global was
+ * stored on every path to the preheader, or the header loads it before the loop can be left.
+ * Loops are visited from the outside in, so a global is promoted in the outermost loop possible.
+ */
+public final class ScalarPromotion implements ProgramPass {
+  private CallGraph mCallGraph;
+  private SideEffectSummary mEffects;
+  private Map<AddressVar, AddressAt> mAddressOf;
+
+  @Override
+  public boolean run(Program program, OptimizationReport report) {
+    mCallGraph = CallGraph.build(program);
+    mEffects = SideEffectSummary.build(program, mCallGraph);
+    boolean changed = false;
+    for (Iterator<Function> it = program.getFunctions(); it.hasNext();) {
+      changed |= run(it.next(), report);
+    }
+    mCallGraph = null;
+    mEffects = null;
+    mAddressOf = null;
+    return changed;
+  }
+
+  private boolean run(Function function, OptimizationReport report) {
+    if (function.getStart() == null)
+      return false;
+    Edits.normalize(function);
+    int preheaders = Edits.insertPreheaders(function);
+    ControlFlowGraph cfg = function.getCFG();
+    List<Loop> loops = new ArrayList<>(cfg.getLoopForest().getLoops());
+    loops.sort(Comparator.comparingInt(Loop::getDepth));
+
+    Map<AddressVar, Integer> numDefs = new HashMap<>();
+    mAddressOf = new HashMap<>();
+    for (Instruction inst : cfg.instructions()) {
+      if (inst.getDestVar() instanceof AddressVar) {
+        numDefs.merge((AddressVar) inst.getDestVar(), 1, Integer::sum);
+        if (inst instanceof AddressAt)
+          mAddressOf.put((AddressVar) inst.getDestVar(), (AddressAt) inst);
+      }
+    }
+    mAddressOf.keySet().removeIf(a -> numDefs.get(a) != 1);
+    List<Set<Symbol>> stored = loops.isEmpty() ? null : storedOnExit(cfg);
+
+    CFGEditor editor = new CFGEditor(function);
+    Set<Instruction> promoted = Collections.newSetFromMap(new IdentityHashMap<>());
+    int globals = 0, accesses = 0;
+    for (Loop loop : loops) {
+      BasicBlock preheader = loop.getEntries().get(0);
+      if (preheader.getLast() instanceof JumpInst || !hasDedicatedExits(loop))
+        continue;
+      Map<Symbol, List<Instruction>> candidates = new LinkedHashMap<>();
+      Set<Symbol> touched = new HashSet<>();
+      boolean known = true;
+      for (BasicBlock block : loop.getBlocks()) {
+        for (Instruction inst : block.getInstructions()) {
+          AddressVar address = addressOf(inst);
+          if (address != null) {
+            AddressAt at = mAddressOf.get(address);
+            if (at == null)
+              known = false;
+            else if (at.getOffset() == null && !promoted.contains(inst))
+              candidates.computeIfAbsent(at.getBase(), g -> new ArrayList<>()).add(inst);
+          } else if (inst instanceof CallInst) {
+            Function callee = mCallGraph.getCallee((CallInst) inst);
+            if (callee != null) {
+              touched.addAll(mEffects.getModified(callee));
+              touched.addAll(mEffects.getRead(callee));
+            }
+          }
+        }
+      }
+      if (!known)
+        continue;
+
+      for (var candidate : candidates.entrySet()) {
+        Symbol global = candidate.getKey();
+        if (touched.contains(global) || !stored.get(preheader.getNumber()).contains(global)
+            && !isLoadedFirst(loop.getHeader(), global))
+          continue;
+        LocalVar temp = function.getTempVar(global.getType(), global.getName());
+        AddressVar address = function.getTempAddressVar(global.getType());
+        List<Instruction> preheaderInsts = editor.getInstructions(preheader);
+        preheaderInsts.add(new AddressAt(address, global));
+        preheaderInsts.add(new LoadInst(temp, address));
+        boolean writes = false;
+        for (Instruction inst : candidate.getValue()) {
+          if (inst instanceof LoadInst) {
+            editor.replace(inst, new CopyInst((LocalVar) inst.getDestVar(), temp));
+          } else {
+            editor.replace(inst, new CopyInst(temp, ((StoreInst) inst).getSrcValue()));
+            writes = true;
+          }
+          promoted.add(inst);
+        }
+        if (writes) {
+          for (BasicBlock exit : loop.getExits()) {
+            AddressVar exitAddress = function.getTempAddressVar(global.getType());
+            List<Instruction> exitInsts = editor.getInstructions(exit);
+            exitInsts.add(0, new AddressAt(exitAddress, global));
+            exitInsts.add(1, new StoreInst(temp, exitAddress));
+          }
+        }
+        globals++;
+        accesses += candidate.getValue().size();
+      }
+    }
+    if (globals > 0)
+      editor.commit();
+    report.add("promote", function, "created preheaders", preheaders);
+    report.add("promote", function, "promoted globals", globals);
+    report.add("promote", function, "promoted accesses", accesses);
+    return preheaders + globals > 0;
+  }
+
+  private static AddressVar addressOf(Instruction inst) {
+    if (inst instanceof LoadInst)
+      return ((LoadInst) inst).getSrcAddress();
+    if (inst instanceof StoreInst)
+      return ((StoreInst) inst).getDestAddress();
+    return null;
+  }
+
+  private static boolean hasDedicatedExits(Loop loop) {
+    for (BasicBlock exit : loop.getExits()) {
+      for (BasicBlock pred : exit.getPredecessors()) {
+        if (!loop.contains(pred))
+          return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns true if the first access to the global in the header is a load.
+   */
+  private boolean isLoadedFirst(BasicBlock header, Symbol global) {
+    for (Instruction inst : header.getInstructions()) {
+      AddressVar address = addressOf(inst);
+      AddressAt at = address != null ? mAddressOf.get(address) : null;
+      if (address != null && (at == null || at.getBase() == global))
+        return at != null && inst instanceof LoadInst;
+    }
+    return false;
+  }
+
+  /**
+   * Computes the global scalars that are stored on every path from the entry to the end of each
+   * block.
+   */
+  private List<Set<Symbol>> storedOnExit(ControlFlowGraph cfg) {
+    List<BasicBlock> blocks = cfg.getBlocks();
+    List<Set<Symbol>> out = new ArrayList<>(Collections.nCopies(blocks.size(), null));
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (BasicBlock block : blocks) {
+        Set<Symbol> stored = null;
+        for (BasicBlock pred : block.getPredecessors()) {
+          Set<Symbol> predStored = out.get(pred.getNumber());
+          if (predStored == null)
+            continue;
+          if (stored == null)
+            stored = new HashSet<>(predStored);
+          else
+            stored.retainAll(predStored);
+        }
+        if (stored == null)
+          stored = new HashSet<>();
+        for (Instruction inst : block.getInstructions()) {
+          AddressAt at = inst instanceof StoreInst
+              ? mAddressOf.get(((StoreInst) inst).getDestAddress()) : null;
+          if (at != null && at.getOffset() == null)
+            stored.add(at.getBase());
+        }
+        if (!stored.equals(out.get(block.getNumber()))) {
+          out.set(block.getNumber(), stored);
+          changed = true;
+        }
+      }
+    }
+    return out;
+  }
+}
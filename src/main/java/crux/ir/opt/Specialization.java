@@ -0,0 +1,151 @@
+package crux.ir.opt;
+
+import crux.ast.SymbolTable.Symbol;
+import crux.ir.*;
+import crux.ir.analysis.CallGraph;
+import crux.ir.analysis.ControlFlowGraph;
+import crux.ir.insts.CallInst;
+import crux.ir.insts.CopyInst;
+import crux.ir.insts.NopInst;
+
+import java.util.*;
+
+/**
+ * Gives calls that pass constants their own copy of the callee, in which those arguments are
+ * constants as well, so the function passes can fold the code that depends on them: a mode flag
+ * picks one branch, a fixed size gives loops a known trip count. Runs on the lowered program after
+ * inlining, so it only sees the calls the inliner left, before SSA form is built.
+ * <p>
+ * A parameter is constant if its variable is only ever assigned one constant, directly or through
+ * copies of variables that are. A call is specialized if it passes a constant for an argument the
+ * callee reads and the callee has at most {@link #MAX_CLONE_SIZE} instructions. Calls passing the
+ * same constants for the same arguments share one clone, and a function gets at most
+ * {@link #MAX_CLONES} clones. A clone has the signature of the original, so the calls only change
+ * the function they call; it starts by assigning the constants to its arguments. An original that
+ * no longer has calls is left to {@link DeadFunctionElimination}.
+ */
+public final class Specialization implements ProgramPass {
+  public static final int MAX_CLONES = 4;
+  static final int MAX_CLONE_SIZE = 200;
+
+  @Override
+  public boolean run(Program program, OptimizationReport report) {
+    CallGraph graph = CallGraph.build(program);
+    List<Function> functions = new ArrayList<>();
+    for (Iterator<Function> it = program.getFunctions(); it.hasNext();) {
+      functions.add(it.next());
+    }
+    Map<Function, Map<List<Constant>, Function>> clones = new HashMap<>();
+    Map<Function, Symbol> symbols = new HashMap<>();
+    Map<Function, Set<LocalVar>> readArgs = new HashMap<>();
+    boolean changed = false;
+    for (Function caller : functions) {
+      if (caller.getStart() == null)
+        continue;
+      Map<Variable, List<Instruction>> defs = Edits.definitionsOf(caller);
+      int specialized = 0;
+      for (CallInst call : graph.getCallSites(caller)) {
+        Function callee = graph.getCallee(call);
+        if (callee == null || callee.getStart() == null || sizeOf(callee) > MAX_CLONE_SIZE)
+          continue;
+        Set<LocalVar> read = readArgs.computeIfAbsent(callee, Specialization::readArgumentsOf);
+        List<Constant> constants = new ArrayList<>();
+        boolean useful = false;
+        for (int i = 0; i < call.numParams(); i++) {
+          Constant constant = Edits.constantOf(call.getParam(i), caller, defs);
+          constants.add(constant);
+          useful |= constant != null && read.contains(callee.getArguments().get(i));
+        }
+        if (!useful)
+          continue;
+        Map<List<Constant>, Function> calleeClones =
+            clones.computeIfAbsent(callee, f -> new HashMap<>());
+        Function clone = calleeClones.get(constants);
+        if (clone == null) {
+          if (calleeClones.size() >= MAX_CLONES)
+            continue;
+          clone = cloneOf(callee, constants, calleeClones.size() + 1);
+          calleeClones.put(constants, clone);
+          program.addFunction(clone);
+          symbols.put(clone, Symbol.generated(clone.getName(), clone.getFuncType()));
+          report.add("specialize", callee, "cloned functions", 1);
+        }
+        call.setCallee(symbols.get(clone));
+        specialized++;
+      }
+      report.add("specialize", caller, "specialized calls", specialized);
+      changed |= specialized > 0;
+    }
+    return changed;
+  }
+
+  private static Set<LocalVar> readArgumentsOf(Function function) {
+    Set<LocalVar> read = new HashSet<>();
+    List<LocalVar> args = function.getArguments();
+    for (Instruction inst : function.getCFG().instructions()) {
+      for (int k = 0; k < inst.numOperands(); k++) {
+        if (args.contains(inst.getOperand(k)))
+          read.add((LocalVar) inst.getOperand(k));
+      }
+    }
+    return read;
+  }
+
+  private static int sizeOf(Function function) {
+    int size = 0;
+    for (Instruction inst : function.getCFG().instructions()) {
+      if (!(inst instanceof NopInst))
+        size++;
+    }
+    return size;
+  }
+
+  /**
+   * Returns a copy of a function with fresh variables that starts by assigning the given constants
+   * to its arguments; null entries leave an argument as passed.
+   */
+  private static Function cloneOf(Function function, List<Constant> constants, int number) {
+    Function clone = new Function(function.getName() + "." + number, function.getFuncType());
+    Map<Variable, Variable> vars = new HashMap<>();
+    java.util.function.Function<Variable, Variable> fresh = v -> vars.computeIfAbsent(v,
+        w -> w instanceof AddressVar ? clone.getTempAddressVar(w.getType())
+            : clone.getTempVar(w.getType(), w.getPrefix()));
+    List<LocalVar> args = new ArrayList<>();
+    for (LocalVar arg : function.getArguments()) {
+      args.add((LocalVar) fresh.apply(arg));
+    }
+    clone.setArguments(args);
+
+    Map<Instruction, Instruction> copies = new HashMap<>();
+    for (Instruction inst : function.getCFG().instructions()) {
+      Instruction copy = Edits.copyOf(inst);
+      if (inst.getDestVar() != null)
+        copy.setDestVar(fresh.apply(inst.getDestVar()));
+      for (int k = 0; k < copy.numOperands(); k++) {
+        if (copy.getOperand(k) instanceof Variable)
+          copy.setOperand(k, fresh.apply((Variable) copy.getOperand(k)));
+      }
+      copies.put(inst, copy);
+    }
+    for (Map.Entry<Instruction, Instruction> pair : copies.entrySet()) {
+      Instruction inst = pair.getKey();
+      if (ControlFlowGraph.successorsOf(inst).isEmpty())
+        continue;
+      for (int i = 0; i < inst.numNext(); i++) {
+        if (inst.getNext(i) != null)
+          pair.getValue().setNext(i, copies.get(inst.getNext(i)));
+      }
+    }
+
+    Instruction start = copies.get(function.getStart());
+    for (int i = args.size() - 1; i >= 0; i--) {
+      if (constants.get(i) == null)
+        continue;
+      Instruction assign = new CopyInst(args.get(i), constants.get(i));
+      assign.setNext(0, start);
+      start = assign;
+    }
+    clone.setStart(start);
+    return clone;
+  }
+}
@@ -0,0 +1,488 @@
+package crux.ir.opt;
+
+import crux.ast.SymbolTable.Symbol;
+import crux.ast.types.Type;
+import crux.ir.*;
+import crux.ir.analysis.BasicBlock;
+import crux.ir.analysis.ControlFlowGraph;
+import crux.ir.analysis.Loop;
+import crux.ir.insts.*;
+
+import java.util.*;
+
+/**
+ * Replaces array addresses computed from a loop counter in every iteration by addresses that are
+ * stepped forward once per iteration. Works on SSA form.
+ * <p>
+ * A basic induction variable is a phi in the loop header that starts with a value from the
+ * preheader and is increased by a constant on the back edge. A derived induction variable is
+ * {@code scale * i + offset (+ invariant)}, computed from a basic one by adding, subtracting and
+ * multiplying constants, and adding one variable defined outside of the loop. An
+ * {@code addressAt a, t} with a derived t whose result is only used inside the loop becomes a
+ * pointer: it is computed from the start value in the preheader and moved by
+ * {@code scale * step} elements with an {@code addressAdd} at the end of the single latch.
+ * <p>
+ * If the counter is then only used by its own increment, by the removed address computations and
+ * by compares against values defined outside of the loop, the compares are rewritten to test the
+ * pointer against the address the counter's bound corresponds to. Nothing reads the counter any
+ * more, and dead code elimination removes it. The pointer has two definitions, so the passes that
+ * rely on SSA leave it alone.
+ */
+public final class StrengthReduction implements FunctionPass {
+  /** A value of the form {@code scale * basis + offset + invariant}; invariant may be null. */
+  private static final class Induction {
+    final PhiInst basis;
+    final long scale;
+    final long offset;
+    final LocalVar invariant;
+
+    Induction(PhiInst basis, long scale, long offset, LocalVar invariant) {
+      this.basis = basis;
+      this.scale = scale;
+      this.offset = offset;
+      this.invariant = invariant;
+    }
+  }
+
+  /** A pointer that replaces the address computations with the same base, type and index. */
+  private static final class Pointer {
+    final AddressVar var;
+    final Symbol base;
+    final Induction index;
+
+    Pointer(AddressVar var, Symbol base, Induction index) {
+      this.var = var;
+      this.base = base;
+      this.index = index;
+    }
+  }
+
+  private Program mProgram;
+  private Function mFunction;
+  private ControlFlowGraph mCFG;
+  private CFGEditor mEditor;
+  private int mNumLocals;
+  private int[] mNumDefs;
+  private Instruction[] mDefOf;
+  private List<List<Instruction>> mUsers;
+  private Map<Instruction, BasicBlock> mBlockOf;
+  private Induction[] mInduction;
+  /** The constant each basic induction variable is increased by in every iteration. */
+  private Map<PhiInst, Long> mStep;
+
+  @Override
+  public boolean run(Program program, Function function, OptimizationReport report) {
+    if (function.getCFG().size() == 0)
+      return false;
+    int preheaders = Edits.insertPreheaders(function);
+    mProgram = program;
+    mFunction = function;
+    mCFG = function.getCFG();
+    mEditor = new CFGEditor(function);
+    int reduced = 0, counters = 0;
+    for (Loop loop : mCFG.getLoopForest().getLoops()) {
+      if (loop.getLatches().size() != 1 || loop.getEntries().size() != 1)
+        continue;
+      analyze(loop);
+      List<Pointer> pointers = new ArrayList<>();
+      reduced += reduceAddresses(loop, pointers);
+      Set<PhiInst> bases = Collections.newSetFromMap(new IdentityHashMap<>());
+      for (Pointer pointer : pointers) {
+        if (bases.add(pointer.index.basis) && replaceCounter(loop, pointer))
+          counters++;
+      }
+    }
+
+    if (reduced > 0)
+      mEditor.commit();
+    report.add("strength", function, "created preheaders", preheaders);
+    report.add("strength", function, "reduced addresses", reduced);
+    report.add("strength", function, "replaced counters", counters);
+    mProgram = null;
+    mFunction = null;
+    mCFG = null;
+    mEditor = null;
+    mNumDefs = null;
+    mDefOf = null;
+    mUsers = null;
+    mBlockOf = null;
+    mInduction = null;
+    mStep = null;
+    return preheaders + reduced > 0;
+  }
+
+  private int slotOf(Value value) {
+    if (value instanceof LocalVar) {
+      int id = ((LocalVar) value).getId();
+      return id >= 0 && id < mNumLocals ? id : -1;
+    }
+    if (value instanceof AddressVar) {
+      int id = ((AddressVar) value).getId();
+      return id >= 0 && mNumLocals + id < mNumDefs.length ? mNumLocals + id : -1;
+    }
+    return -1;
+  }
+
+  /**
+   * Collects the definitions and uses of the edited function, which earlier loops may have
+   * changed, and finds the induction variables of a loop.
+   */
+  private void analyze(Loop loop) {
+    mNumLocals = mFunction.getNumTempVars();
+    int numSlots = mNumLocals + mFunction.getNumTempAddressVars();
+    mNumDefs = new int[numSlots];
+    mDefOf = new Instruction[numSlots];
+    mUsers = new ArrayList<>(numSlots);
+    for (int v = 0; v < numSlots; v++) {
+      mUsers.add(new ArrayList<>(2));
+    }
+    mBlockOf = new IdentityHashMap<>();
+    for (LocalVar arg : mFunction.getArguments()) {
+      int v = slotOf(arg);
+      if (v >= 0)
+        mNumDefs[v]++;
+    }
+    for (BasicBlock block : mCFG.getBlocks()) {
+      for (Instruction inst : mEditor.getInstructions(block)) {
+        mBlockOf.put(inst, block);
+        int d = slotOf(inst.getDestVar());
+        if (d >= 0) {
+          mNumDefs[d]++;
+          mDefOf[d] = inst;
+        }
+        for (int k = 0; k < inst.numOperands(); k++) {
+          int v = slotOf(inst.getOperand(k));
+          if (v >= 0)
+            mUsers.get(v).add(inst);
+        }
+      }
+    }
+
+    mInduction = new Induction[numSlots];
+    mStep = new IdentityHashMap<>();
+    BasicBlock preheader = loop.getEntries().get(0);
+    BasicBlock latch = loop.getLatches().get(0);
+    List<PhiInst> candidates = new ArrayList<>();
+    for (Instruction inst : mEditor.getInstructions(loop.getHeader())) {
+      if (!(inst instanceof PhiInst))
+        break;
+      PhiInst phi = (PhiInst) inst;
+      if (phi.numIncoming() != 2 || slotOf(phi.getDst()) < 0)
+        continue;
+      BasicBlock pred0 = mBlockOf.get(phi.getIncoming(0));
+      BasicBlock pred1 = mBlockOf.get(phi.getIncoming(1));
+      if (pred0 == preheader && pred1 == latch || pred0 == latch && pred1 == preheader)
+        candidates.add(phi);
+    }
+    // A candidate is a basic induction variable if its value on the back edge is itself plus a
+    // constant, which may be added in several steps. Dropping a candidate can invalidate others,
+    // so the derivation repeats until every remaining candidate passes.
+    boolean dropped = true;
+    while (dropped) {
+      Arrays.fill(mInduction, null);
+      for (PhiInst phi : candidates) {
+        mInduction[slotOf(phi.getDst())] = new Induction(phi, 1, 0, null);
+      }
+      // Blocks are numbered in reverse postorder, so definitions come before their uses.
+      for (BasicBlock block : loop.getBlocks()) {
+        for (Instruction inst : mEditor.getInstructions(block)) {
+          int d = slotOf(inst.getDestVar());
+          if (d >= 0 && mNumDefs[d] == 1 && mInduction[d] == null)
+            mInduction[d] = derive(inst, loop);
+        }
+      }
+      dropped = false;
+      for (Iterator<PhiInst> it = candidates.iterator(); it.hasNext();) {
+        PhiInst phi = it.next();
+        Induction next = inductionOf(nextOf(phi, latch));
+        if (next != null && next.basis == phi && next.scale == 1 && next.invariant == null
+            && next.offset != 0) {
+          mStep.put(phi, next.offset);
+          continue;
+        }
+        it.remove();
+        dropped = true;
+      }
+    }
+  }
+
+  /**
+   * Returns the value of a variable that holds a constant, or null.
+   */
+  private Long constantOf(Value value) {
+    int v = slotOf(value);
+    if (v < 0 || mNumDefs[v] != 1 || !(mDefOf[v] instanceof CopyInst))
+      return null;
+    Value src = ((CopyInst) mDefOf[v]).getSrcValue();
+    return src instanceof IntegerConstant ? ((IntegerConstant) src).getValue() : null;
+  }
+
+  /**
+   * Returns true if a variable has the same value in every iteration of the loop.
+   */
+  private boolean isInvariant(Value value, Loop loop) {
+    int v = slotOf(value);
+    if (!(value instanceof LocalVar) || v < 0 || mNumDefs[v] != 1)
+      return false;
+    // Arguments have no defining instruction.
+    return mDefOf[v] == null || !loop.contains(mBlockOf.get(mDefOf[v]));
+  }
+
+  private Induction inductionOf(Value value) {
+    int v = slotOf(value);
+    return v >= 0 ? mInduction[v] : null;
+  }
+
+  /**
+   * Returns the induction variable an instruction computes, or null.
+   */
+  private Induction derive(Instruction inst, Loop loop) {
+    if (inst instanceof CopyInst)
+      return inductionOf(((CopyInst) inst).getSrcValue());
+    if (!(inst instanceof BinaryOperator))
+      return null;
+    BinaryOperator binary = (BinaryOperator) inst;
+    Value lhs = binary.getLeftOperand(), rhs = binary.getRightOperand();
+    Induction left = inductionOf(lhs), right = inductionOf(rhs);
+    switch (binary.getOperator()) {
+      case Add:
+        if (left == null) {
+          Value swap = lhs;
+          lhs = rhs;
+          rhs = swap;
+          left = right;
+        }
+        if (left == null)
+          return null;
+        if (constantOf(rhs) != null)
+          return new Induction(left.basis, left.scale, left.offset + constantOf(rhs),
+              left.invariant);
+        if (left.invariant == null && isInvariant(rhs, loop))
+          return new Induction(left.basis, left.scale, left.offset, (LocalVar) rhs);
+        return null;
+      case Sub:
+        if (left != null && constantOf(rhs) != null)
+          return new Induction(left.basis, left.scale, left.offset - constantOf(rhs),
+              left.invariant);
+        if (right != null && right.invariant == null && constantOf(lhs) != null)
+          return new Induction(right.basis, -right.scale, constantOf(lhs) - right.offset, null);
+        return null;
+      case Mul:
+        if (left == null) {
+          Value swap = lhs;
+          lhs = rhs;
+          rhs = swap;
+          left = right;
+        }
+        if (left == null || left.invariant != null || constantOf(rhs) == null)
+          return null;
+        long factor = constantOf(rhs);
+        return new Induction(left.basis, left.scale * factor, left.offset * factor, null);
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Turns the address computations indexed by an induction variable into pointers and returns how
+   * many were removed. The pointers are added to the list.
+   */
+  private int reduceAddresses(Loop loop, List<Pointer> pointers) {
+    BasicBlock preheader = loop.getEntries().get(0);
+    BasicBlock latch = loop.getLatches().get(0);
+    Map<List<Object>, Pointer> byKey = new HashMap<>();
+    int reduced = 0;
+    for (BasicBlock block : loop.getBlocks()) {
+      for (Instruction inst : new ArrayList<>(mEditor.getInstructions(block))) {
+        if (!(inst instanceof AddressAt) || ((AddressAt) inst).getOffset() == null)
+          continue;
+        AddressAt addressAt = (AddressAt) inst;
+        int d = slotOf(addressAt.getDst());
+        Induction index = inductionOf(addressAt.getOffset());
+        if (d < 0 || mNumDefs[d] != 1 || index == null || !usedOnlyIn(d, loop))
+          continue;
+        long stride = index.scale * mStep.get(index.basis);
+        if (stride == 0)
+          continue;
+        String type = addressAt.getDst().getType().toString();
+        List<Object> key = Arrays.asList(addressAt.getBase(), type, index.basis, index.scale,
+            index.offset, index.invariant);
+        Pointer pointer = byKey.get(key);
+        if (pointer == null) {
+          AddressVar var = mFunction.getTempAddressVar(addressAt.getDst().getType());
+          pointer = new Pointer(var, addressAt.getBase(), index);
+          byKey.put(key, pointer);
+          pointers.add(pointer);
+          List<Instruction> init = new ArrayList<>();
+          Value start = startOf(index.basis, preheader);
+          LocalVar offset = emitIndex(init, start, index);
+          init.add(new AddressAt(var, pointer.base, offset));
+          appendAll(preheader, init);
+          IntegerConstant step = IntegerConstant.get(mProgram, stride);
+          appendAll(latch, List.of(new AddressAdd(var, var, step)));
+        }
+        for (Instruction user : mUsers.get(d)) {
+          for (int k = 0; k < user.numOperands(); k++) {
+            if (user.getOperand(k) == addressAt.getDst())
+              user.setOperand(k, pointer.var);
+          }
+        }
+        mEditor.getInstructions(block).remove(addressAt);
+        reduced++;
+      }
+    }
+    return reduced;
+  }
+
+  private boolean usedOnlyIn(int v, Loop loop) {
+    for (Instruction user : mUsers.get(v)) {
+      if (!loop.contains(mBlockOf.get(user)))
+        return false;
+    }
+    return true;
+  }
+
+  private Value startOf(PhiInst phi, BasicBlock preheader) {
+    for (int i = 0; i < phi.numIncoming(); i++) {
+      if (mBlockOf.get(phi.getIncoming(i)) == preheader)
+        return phi.getOperand(i);
+    }
+    throw new RuntimeException("phi has no value from the preheader: " + phi);
+  }
+
+  private Value nextOf(PhiInst phi, BasicBlock latch) {
+    for (int i = 0; i < phi.numIncoming(); i++) {
+      if (mBlockOf.get(phi.getIncoming(i)) == latch)
+        return phi.getOperand(i);
+    }
+    throw new RuntimeException("phi has no value from the latch: " + phi);
+  }
+
+  /**
+   * Appends instructions that compute {@code scale * value + offset + invariant} and returns the
+   * variable holding the result.
+   */
+  private LocalVar emitIndex(List<Instruction> insts, Value value, Induction index) {
+    Type type = index.basis.getDst().getType();
+    Long constant = value instanceof IntegerConstant ? (Long) ((IntegerConstant) value).getValue()
+        : constantOf(value);
+    LocalVar result;
+    if (constant != null) {
+      long start = index.scale * constant + index.offset;
+      result = mFunction.getTempVar(type);
+      insts.add(new CopyInst(result, IntegerConstant.get(mProgram, start)));
+    } else {
+      result = (LocalVar) value;
+      if (index.scale != 1)
+        result = emitBinary(insts, BinaryOperator.Op.Mul, result, emitConstant(insts, type,
+            index.scale));
+      if (index.offset != 0)
+        result = emitBinary(insts, BinaryOperator.Op.Add, result, emitConstant(insts, type,
+            index.offset));
+    }
+    if (index.invariant != null)
+      result = emitBinary(insts, BinaryOperator.Op.Add, result, index.invariant);
+    return result;
+  }
+
+  private LocalVar emitConstant(List<Instruction> insts, Type type, long value) {
+    LocalVar var = mFunction.getTempVar(type);
+    insts.add(new CopyInst(var, IntegerConstant.get(mProgram, value)));
+    return var;
+  }
+
+  private LocalVar emitBinary(List<Instruction> insts, BinaryOperator.Op op, LocalVar lhs,
+      LocalVar rhs) {
+    LocalVar var = mFunction.getTempVar(lhs.getType());
+    insts.add(new BinaryOperator(op, var, lhs, rhs));
+    return var;
+  }
+
+  /**
+   * Adds instructions at the end of a block, in front of its jump if it ends with one.
+   */
+  private void appendAll(BasicBlock block, List<Instruction> added) {
+    List<Instruction> insts = mEditor.getInstructions(block);
+    int at = insts.size();
+    if (at > 0 && insts.get(at - 1) instanceof JumpInst)
+      at--;
+    insts.addAll(at, added);
+  }
+
+  /**
+   * Rewrites the compares of a counter whose only other uses were replaced by a pointer, so that
+   * they test the pointer instead. A compare may read the counter plus a constant. Returns true if
+   * the counter is no longer read.
+   */
+  private boolean replaceCounter(Loop loop, Pointer pointer) {
+    PhiInst phi = pointer.index.basis;
+    Set<Instruction> computations = Collections.newSetFromMap(new IdentityHashMap<>());
+    for (BasicBlock block : loop.getBlocks()) {
+      for (Instruction inst : mEditor.getInstructions(block)) {
+        Induction index = inductionOf(inst.getDestVar());
+        if (index != null && index.basis == phi)
+          computations.add(inst);
+      }
+    }
+
+    List<CompareInst> compares = new ArrayList<>();
+    for (Instruction inst : computations) {
+      Induction index = inductionOf(inst.getDestVar());
+      for (Instruction user : mUsers.get(slotOf(inst.getDestVar()))) {
+        if (computations.contains(user) || !mEditor.getInstructions(mBlockOf.get(user))
+            .contains(user))
+          continue;
+        if (!(user instanceof CompareInst) || index.scale != 1 || index.invariant != null
+            || !loop.contains(mBlockOf.get(user)))
+          return false;
+        CompareInst compare = (CompareInst) user;
+        Value bound = compare.getLeftOperand() == inst.getDestVar() ? compare.getRightOperand()
+            : compare.getLeftOperand();
+        if (!isInvariant(bound, loop))
+          return false;
+        compares.add(compare);
+      }
+    }
+
+    BasicBlock preheader = loop.getEntries().get(0);
+    Induction pointed = pointer.index;
+    for (CompareInst compare : compares) {
+      Induction counter = inductionOf(compare.getLeftOperand());
+      boolean left = counter != null && counter.basis == phi;
+      if (!left)
+        counter = inductionOf(compare.getRightOperand());
+      Value bound = left ? compare.getRightOperand() : compare.getLeftOperand();
+      // counter + c < bound holds when the pointer is below the address of bound - c.
+      Induction limitIndex = new Induction(phi, pointed.scale,
+          pointed.offset - pointed.scale * counter.offset, pointed.invariant);
+      List<Instruction> init = new ArrayList<>();
+      LocalVar offset = emitIndex(init, bound, limitIndex);
+      AddressVar limit = mFunction.getTempAddressVar(pointer.var.getType());
+      init.add(new AddressAt(limit, pointer.base, offset));
+      appendAll(preheader, init);
+      // A negative scale reverses the order of the addresses.
+      CompareInst.Predicate predicate = pointed.scale > 0 ? compare.getPredicate()
+          : reversed(compare.getPredicate());
+      List<Instruction> insts = mEditor.getInstructions(mBlockOf.get(compare));
+      insts.set(insts.indexOf(compare), left
+          ? new CompareInst(compare.getDst(), predicate, pointer.var, limit)
+          : new CompareInst(compare.getDst(), predicate, limit, pointer.var));
+    }
+    return true;
+  }
+
+  private static CompareInst.Predicate reversed(CompareInst.Predicate predicate) {
+    switch (predicate) {
+      case GE:
+        return CompareInst.Predicate.LE;
+      case GT:
+        return CompareInst.Predicate.LT;
+      case LE:
+        return CompareInst.Predicate.GE;
+      case LT:
+        return CompareInst.Predicate.GT;
+      default:
+        return predicate;
+    }
+  }
+}
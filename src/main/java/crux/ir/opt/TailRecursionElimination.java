@@ -0,0 +1,215 @@
+package crux.ir.opt;
+
+import crux.ir.*;
+import crux.ir.insts.*;
+
+import java.util.*;
+
+/**
+ * Turns calls of a function to itself whose result is returned right away into jumps back to the
+ * start of the function, so recursion like {@code return gcd(b, a - a / b * b)} runs in constant
+ * stack space. The parameters of the call are copied into the arguments, through temporaries
+ * because a parameter may read an argument that is assigned first. A call of a void function
+ * that ends the function is a tail call as well.
+ * <p>
+ * A call whose result is combined with another value before it is returned, as in
+ * {@code return n * fact(n - 1)}, becomes a tail call by keeping the pending operations in an
+ * accumulator. This works for addition and multiplication, which are associative and commutative
+ * also when they wrap around: the accumulator starts as the neutral element, the call site
+ * multiplies (or adds) the other operand into it and jumps back, and every remaining return
+ * combines its value with the accumulator. Only one operator is accumulated per function; sites
+ * with the other one stay calls. The instructions between the call and the operation may only be
+ * pure computations that cannot trap, since they run before the recursive work afterwards.
+ * <p>
+ * Runs on the lowered program, before SSA form is built.
+ */
+public final class TailRecursionElimination implements FunctionPass {
+  /** A recursive call to eliminate, the operation it feeds, if any, and the return. */
+  private static final class Site {
+    final CallInst call;
+    final BinaryOperator operation;
+    final LocalVar other;
+
+    Site(CallInst call, BinaryOperator operation, LocalVar other) {
+      this.call = call;
+      this.operation = operation;
+      this.other = other;
+    }
+  }
+
+  @Override
+  public boolean run(Program program, Function function, OptimizationReport report) {
+    if (function.getStart() == null)
+      return false;
+    Edits.normalize(function);
+    List<Instruction> insts = instructionsOf(function);
+    List<Site> sites = new ArrayList<>();
+    BinaryOperator.Op accumulated = null;
+    for (Instruction inst : insts) {
+      if (!(inst instanceof CallInst)
+          || !((CallInst) inst).getCallee().getName().equals(function.getName()))
+        continue;
+      Site site = siteOf((CallInst) inst);
+      if (site == null)
+        continue;
+      if (site.operation != null) {
+        if (accumulated == null)
+          accumulated = site.operation.getOperator();
+        else if (accumulated != site.operation.getOperator())
+          continue;
+      }
+      sites.add(site);
+    }
+    if (sites.isEmpty())
+      return false;
+
+    // The loop enters below a new start, which keeps the entry block free of predecessors.
+    Instruction body = function.getStart();
+    List<Instruction> entry = new ArrayList<>();
+    entry.add(new NopInst());
+    LocalVar accumulator = null;
+    if (accumulated != null) {
+      accumulator = function.getTempVar(function.getFuncType().getRet(), "acc");
+      long neutral = accumulated == BinaryOperator.Op.Add ? 0 : 1;
+      entry.add(new CopyInst(accumulator, IntegerConstant.get(program, neutral)));
+    }
+    entry.add(body);
+    chain(entry);
+    function.setStart(entry.get(0));
+
+    int accumulatedCalls = 0;
+    List<LocalVar> args = function.getArguments();
+    for (Site site : sites) {
+      List<Instruction> jump = new ArrayList<>();
+      if (site.operation != null) {
+        jump.add(new BinaryOperator(accumulated, accumulator, accumulator, site.other));
+        accumulatedCalls++;
+      }
+      List<LocalVar> temps = new ArrayList<>();
+      for (LocalVar param : site.call.getParams()) {
+        LocalVar temp = function.getTempVar(param.getType());
+        jump.add(new CopyInst(temp, param));
+        temps.add(temp);
+      }
+      for (int i = 0; i < args.size(); i++) {
+        jump.add(new CopyInst(args.get(i), temps.get(i)));
+      }
+      jump.add(body);
+      chain(jump);
+      if (site.operation != null) {
+        redirect(insts, site.call, site.call.getNext(0));
+        redirect(insts, site.operation, jump.get(0));
+      } else {
+        redirect(insts, site.call, jump.get(0));
+      }
+    }
+
+    if (accumulator != null) {
+      List<Instruction> reachable = instructionsOf(function);
+      for (Instruction inst : reachable) {
+        if (!(inst instanceof ReturnInst))
+          continue;
+        ReturnInst ret = (ReturnInst) inst;
+        LocalVar result = function.getTempVar(accumulator.getType());
+        Instruction combine =
+            new BinaryOperator(accumulated, result, accumulator, ret.getReturnValue());
+        redirect(reachable, ret, combine);
+        combine.setNext(0, ret);
+        ret.setOperand(0, result);
+      }
+    }
+    function.invalidateCFG();
+    report.add("tailrec", function, "eliminated tail calls", sites.size() - accumulatedCalls);
+    report.add("tailrec", function, "accumulated calls", accumulatedCalls);
+    return true;
+  }
+
+  /**
+   * Returns the site of a recursive call if it is a tail call or can be made one, and null
+   * otherwise.
+   */
+  private static Site siteOf(CallInst call) {
+    LocalVar result = call.getDst();
+    Instruction next = skipNops(call.getNext(0));
+    if (next == null)
+      return new Site(call, null, null);
+    if (next instanceof ReturnInst)
+      return ((ReturnInst) next).getReturnValue() == result ? new Site(call, null, null) : null;
+    if (result == null)
+      return null;
+
+    // Look for the operation that combines the result with another value, then returns.
+    while (next != null && !(next instanceof BinaryOperator && uses(next, result))) {
+      if (!isPure(next) || uses(next, result) || writesParam(next, call))
+        return null;
+      next = skipNops(next.getNext(0));
+    }
+    if (next == null)
+      return null;
+    BinaryOperator operation = (BinaryOperator) next;
+    BinaryOperator.Op op = operation.getOperator();
+    if (op != BinaryOperator.Op.Add && op != BinaryOperator.Op.Mul)
+      return null;
+    LocalVar other = operation.getLeftOperand() == result ? operation.getRightOperand()
+        : operation.getLeftOperand();
+    if (other == result)
+      return null;
+    Instruction ret = skipNops(operation.getNext(0));
+    if (!(ret instanceof ReturnInst) || ((ReturnInst) ret).getReturnValue() != operation.getDst())
+      return null;
+    return new Site(call, operation, other);
+  }
+
+  /**
+   * Returns the first instruction from the given one on that is not a nop, or null if the path
+   * ends (or loops) before one.
+   */
+  private static Instruction skipNops(Instruction inst) {
+    Set<Instruction> seen = new HashSet<>();
+    while (inst instanceof NopInst && inst.numNext() > 0 && seen.add(inst))
+      inst = inst.getNext(0);
+    return inst instanceof NopInst ? null : inst;
+  }
+
+  /**
+   * Returns true for instructions with a single successor that neither trap nor have effects.
+   */
+  private static boolean isPure(Instruction inst) {
+    if (inst instanceof BinaryOperator)
+      return ((BinaryOperator) inst).getOperator() != BinaryOperator.Op.Div;
+    return inst instanceof CompareInst || inst instanceof UnaryNotInst
+        || inst instanceof CopyInst || inst instanceof AddressAt || inst instanceof SelectInst;
+  }
+
+  private static boolean uses(Instruction inst, Value value) {
+    for (int k = 0; k < inst.numOperands(); k++) {
+      if (inst.getOperand(k) == value)
+        return true;
+    }
+    return false;
+  }
+
+  private static boolean writesParam(Instruction inst, CallInst call) {
+    return inst.getDestVar() != null && call.getParams().contains(inst.getDestVar());
+  }
+
+  private static List<Instruction> instructionsOf(Function function) {
+    List<Instruction> insts = new ArrayList<>();
+    for (Instruction inst : function.getCFG().instructions()) {
+      insts.add(inst);
+    }
+    return insts;
+  }
+
+  private static void redirect(List<Instruction> insts, Instruction from, Instruction to) {
+    for (Instruction inst : insts) {
+      inst.replaceNext(from, to);
+    }
+  }
+
+  private static void chain(List<Instruction> insts) {
+    for (int i = 0; i + 1 < insts.size(); i++) {
+      insts.get(i).setNext(0, insts.get(i + 1));
+    }
+  }
+}
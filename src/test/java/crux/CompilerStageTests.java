@@ -182,11 +182,37 @@ final class CompilerStageTests {
 
   @TestFactory
   Stream<DynamicTest> emulateIR() throws IOException {
+    return emulatorTests(false);
+  }
+
+  @TestFactory
+  Stream<DynamicTest> emulateOptimizedIR() throws IOException {
+    return emulatorTests(true);
+  }
+
+  /**
+   * Runs the memoization corpus, whose recursion also leaves the range of the tables, and the IR
+   * corpus with {@code --memoize}. The expected outputs are those of the unoptimized programs, and
+   * the memoization corpus runs unoptimized as well to check them.
+   */
+  @TestFactory
+  Stream<DynamicTest> emulateMemoizedIR() throws IOException {
+    return Stream.of(emulatorTests("memoize", false, false), emulatorTests("memoize", true, true),
+        emulatorTests("ir", true, true)).flatMap(tests -> tests);
+  }
+
+  private Stream<DynamicTest> emulatorTests(boolean optimize) throws IOException {
+    return emulatorTests("ir", optimize, false);
+  }
+
+  private Stream<DynamicTest> emulatorTests(String stageName, boolean optimize, boolean memoize)
+      throws IOException {
     if (skipStage("stage4")) {
       return Stream.empty();
     }
 
-    var tests = getTests("ir");
+    var kind = memoize ? "Memoized IR" : optimize ? "Optimized IR" : "IR";
+    var tests = getTests(stageName);
     return tests.stream().map(test -> dynamicTest(test.in, () -> {
       ExecutorService executor = Executors.newSingleThreadExecutor();
       Future<StringPair> future = executor.submit(new Callable<StringPair>() {
@@ -200,6 +226,10 @@ final class CompilerStageTests {
           var driver = new Driver(outPrintStream, outPrintStream);
           driver.enableEmulator();
           driver.setEmulatorInput(input);
+          if (optimize)
+            driver.enableOptimizations();
+          if (memoize)
+            driver.enableMemoization();
 
           if (!driver.hasSupportEndToEnd()) {
             driver.readASTTYPE(loader.getResourceAsStream(test.inputdeserial));
@@ -222,21 +252,57 @@ final class CompilerStageTests {
         future.cancel(true);
       }
       if (sp == null) {
-        Assertions.fail(String.format("Timeout for IR for program %s.", test.in));
+        Assertions.fail(String.format("Timeout for %s for program %s.", kind, test.in));
       } else {
         Assertions.assertEquals(sanitize(sp.a).trim(), sanitize(sp.b).trim(),
-            String.format("IR for program %s differs from expected output.", test.in));
+            String.format("%s for program %s differs from expected output.", kind, test.in));
       }
     }));
   }
 
   @TestFactory
   Stream<DynamicTest> codegen() throws IOException {
+    return codegenTests(false);
+  }
+
+  @TestFactory
+  Stream<DynamicTest> codegenOptimized() throws IOException {
+    return codegenTests(true);
+  }
+
+  @TestFactory
+  Stream<DynamicTest> codegenSerializedIR() throws IOException {
+    return codegenTests(false, true);
+  }
+
+  @TestFactory
+  Stream<DynamicTest> codegenMemoized() throws IOException {
+    return Stream.concat(codegenTests("memoize", true, true, false),
+        codegenTests("codegen", true, true, false));
+  }
+
+  private Stream<DynamicTest> codegenTests(boolean optimize) throws IOException {
+    return codegenTests(optimize, false);
+  }
+
+  private Stream<DynamicTest> codegenTests(boolean optimize, boolean serialized)
+      throws IOException {
+    return codegenTests("codegen", optimize, false, serialized);
+  }
+
+  /**
+   * Compiles a corpus and checks the output of the executables. With {@code serialized}, the IR is
+   * read from the serialized IR next to each program instead of compiling the program.
+   */
+  private Stream<DynamicTest> codegenTests(String stageName, boolean optimize, boolean memoize,
+      boolean serialized) throws IOException {
     if (skipStage("stage5")) {
       return Stream.empty();
     }
 
-    var tests = getTests("codegen");
+    var kind = serialized ? "Serialized IR CodeGen"
+        : memoize ? "Memoized CodeGen" : optimize ? "Optimized CodeGen" : "CodeGen";
+    var tests = getTests(stageName);
     Runtime runtime = Runtime.getRuntime();
 
     return tests.stream().map(test -> dynamicTest(test.in, () -> {
@@ -248,8 +314,12 @@ final class CompilerStageTests {
           var input = loader.getResourceAsStream(test.input);
 
           var driver = new Driver();
+          if (optimize)
+            driver.enableOptimizations();
+          if (memoize)
+            driver.enableMemoization();
 
-          if (!driver.hasSupportEndToEnd()) {
+          if (serialized || !driver.hasSupportEndToEnd()) {
             driver.readIR(loader.getResourceAsStream(test.inputdeserial));
             driver.run();
           } else {
@@ -302,10 +372,10 @@ final class CompilerStageTests {
         future.cancel(true);
       }
       if (sp == null) {
-        Assertions.fail(String.format("Timeout for CodeGen for program %s.", test.in));
+        Assertions.fail(String.format("Timeout for %s for program %s.", kind, test.in));
       } else {
         Assertions.assertEquals(sanitize(sp.a).trim(), sanitize(sp.b).trim(),
-            String.format("CodeGen for program %s differs from expected output.", test.in));
+            String.format("%s for program %s differs from expected output.", kind, test.in));
       }
     }));
   }
@@ -0,0 +1,61 @@
+package crux;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Checks what the driver lowers and prints for the different options.
+ */
+final class DriverTests {
+  private static final String PROGRAM = "int used;\n"
+      + "int unused[100];\n"
+      + "int helper(int x) { unused[x] = x; return x + 1; }\n"
+      + "int neverCalled(int x) { return helper(x) * 2; }\n"
+      + "void main() { used = helper(1); printInt(used); }\n";
+
+  private static String printIR(boolean optimize) {
+    var out = new ByteArrayOutputStream();
+    var err = new ByteArrayOutputStream();
+    var driver = new Driver(new PrintStream(out), new PrintStream(err));
+    driver.setInputStream(new ByteArrayInputStream(PROGRAM.getBytes(StandardCharsets.UTF_8)));
+    driver.enablePrintIR();
+    if (optimize)
+      driver.enableOptimizations();
+    Assertions.assertEquals(State.Finished, driver.run(), err.toString(StandardCharsets.UTF_8));
+    return out.toString(StandardCharsets.UTF_8);
+  }
+
+  @Test
+  void plainBuildLowersEverything() {
+    String ir = printIR(false);
+    Assertions.assertTrue(ir.contains("neverCalled"), ir);
+    Assertions.assertTrue(ir.contains("unused"), ir);
+  }
+
+  @Test
+  void optimizedBuildSkipsWhatMainCannotReach() {
+    String ir = printIR(true);
+    Assertions.assertFalse(ir.contains("neverCalled"), ir);
+    Assertions.assertTrue(ir.contains("main"), ir);
+  }
+
+  @Test
+  void reachabilityReportOptimizes() {
+    var out = new ByteArrayOutputStream();
+    var err = new ByteArrayOutputStream();
+    var driver = new Driver(new PrintStream(out), new PrintStream(err));
+    driver.setInputStream(new ByteArrayInputStream(PROGRAM.getBytes(StandardCharsets.UTF_8)));
+    driver.enablePrintIR();
+    driver.enableReachabilityReport();
+    Assertions.assertEquals(State.Finished, driver.run());
+    String report = err.toString(StandardCharsets.UTF_8);
+    Assertions.assertTrue(report.contains("unreachable functions: 1 of 3"), report);
+    Assertions.assertTrue(report.contains("(neverCalled)"), report);
+    Assertions.assertFalse(out.toString(StandardCharsets.UTF_8).contains("neverCalled"));
+  }
+}
@@ -0,0 +1,67 @@
+package crux.ir;
+
+import crux.ir.analysis.ControlFlowGraph;
+import crux.ir.analysis.DominatorTree;
+import crux.ir.analysis.LoopForest;
+
+/**
+ * Times the dominator tree, the dominance frontiers and the loop forest of a generated function
+ * with {@code nests} loop nests of {@code depth} loops each, every loop holding a branch and every
+ * third one a break. Prints the best of 15 runs of each analysis; building the CFG is not timed.
+ * Not a test; {@code bench/analysis.sh} runs it.
+ */
+public final class AnalysisBenchmark {
+  private static final int RUNS = 15;
+
+  private AnalysisBenchmark() {}
+
+  public static void main(String[] args) {
+    int nests = Integer.parseInt(args[0]);
+    int depth = Integer.parseInt(args[1]);
+    Function main = TestPrograms.function(TestPrograms.lower(source(nests, depth)), "main");
+    long dom = Long.MAX_VALUE, frontiers = Long.MAX_VALUE, loops = Long.MAX_VALUE;
+    ControlFlowGraph cfg = null;
+    for (int run = 0; run < RUNS; run++) {
+      main.invalidateCFG();
+      cfg = main.getCFG();
+      long start = System.nanoTime();
+      DominatorTree domTree = cfg.getDominatorTree();
+      long domDone = System.nanoTime();
+      for (var block : cfg.getBlocks()) {
+        domTree.getFrontier(block);
+      }
+      long frontiersDone = System.nanoTime();
+      cfg.getLoopForest();
+      long loopsDone = System.nanoTime();
+      dom = Math.min(dom, domDone - start);
+      frontiers = Math.min(frontiers, frontiersDone - domDone);
+      loops = Math.min(loops, loopsDone - frontiersDone);
+    }
+    LoopForest forest = cfg.getLoopForest();
+    System.out.printf("%4d x %-4d  blocks %6d  loops %5d  dom %6.1f ms  DF %6.1f ms"
+        + "  loops %6.1f ms%n", nests, depth, cfg.size(), forest.getLoops().size(), dom / 1e6,
+        frontiers / 1e6, loops / 1e6);
+  }
+
+  static String source(int nests, int depth) {
+    var source = new StringBuilder("void main() {\n  int x;\n  x = 0;\n");
+    for (int d = 0; d < depth; d++) {
+      source.append("  int i").append(d).append(";\n");
+    }
+    for (int n = 0; n < nests; n++) {
+      for (int d = 0; d < depth; d++) {
+        String i = "i" + d;
+        source.append("  for (").append(i).append(" = 0; ").append(i).append(" < 3; ").append(i)
+            .append(" = ").append(i).append(" + 1) {\n");
+        source.append("    if (x > ").append(n + d)
+            .append(") { x = x - 1; } else { x = x + 2; }\n");
+        if (d % 3 == 2)
+          source.append("    if (x == 7) { break; }\n");
+      }
+      for (int d = 0; d < depth; d++) {
+        source.append("  }\n");
+      }
+    }
+    return source.append("  printInt(x);\n}\n").toString();
+  }
+}
@@ -0,0 +1,88 @@
+package crux.ir;
+
+import crux.ir.opt.Optimizer;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks that constants are interned per program, and that the pools go away with their programs
+ * when many programs are compiled in one process.
+ */
+final class ConstantPoolTests {
+  private static final int ROUNDS = 4;
+
+  @Test
+  void constantsAreInternedPerProgram() {
+    Program first = new Program();
+    Program second = new Program();
+    Assertions.assertSame(IntegerConstant.get(first, 7), IntegerConstant.get(first, 7));
+    Assertions.assertSame(BooleanConstant.get(first, true), BooleanConstant.get(first, true));
+    Assertions.assertNotSame(IntegerConstant.get(first, 7), IntegerConstant.get(second, 7));
+    Assertions.assertNotSame(BooleanConstant.get(first, true), BooleanConstant.get(second, true));
+  }
+
+  @Test
+  void longMapKeepsKeysAcrossGrowth() {
+    var map = new LongMap<String>();
+    long[] keys = {0, -1, 1, Long.MIN_VALUE, Long.MAX_VALUE, 1L << 32, -(1L << 32)};
+    for (long key : keys) {
+      map.put(key, Long.toString(key));
+    }
+    // Keys that are multiples of the table size all hash near each other before mixing.
+    for (long key = 0; key < 1000 * 1024; key += 1024) {
+      map.computeIfAbsent(key, Long::toString);
+    }
+    Assertions.assertEquals(keys.length + 999, map.size());
+    for (long key : keys) {
+      Assertions.assertEquals(Long.toString(key), map.get(key));
+    }
+    for (long key = 0; key < 1000 * 1024; key += 1024) {
+      Assertions.assertEquals(Long.toString(key), map.get(key));
+    }
+    Assertions.assertNull(map.get(3));
+    map.clear();
+    Assertions.assertEquals(0, map.size());
+    Assertions.assertFalse(map.containsKey(0));
+  }
+
+  /**
+   * Lowers, optimizes and emulates the IR corpus several times in this process, then checks that
+   * the garbage collector reclaims every program and the constants interned for it.
+   */
+  @Test
+  void compilingManyProgramsReleasesTheirPools() throws IOException, InterruptedException {
+    List<WeakReference<Program>> programs = new ArrayList<>();
+    List<WeakReference<IntegerConstant>> constants = new ArrayList<>();
+    for (int round = 0; round < ROUNDS; round++) {
+      for (String test : TestPrograms.corpus("crux/stages/ir")) {
+        Program program = TestPrograms.lower(TestPrograms.readResource(test + ".crx"));
+        new Optimizer().optimize(program);
+        TestPrograms.emulate(program, TestPrograms.readResource(test + ".in"));
+        programs.add(new WeakReference<>(program));
+        long unique = 1L << 40 | programs.size();
+        constants.add(new WeakReference<>(IntegerConstant.get(program, unique)));
+      }
+    }
+    for (int attempt = 0; attempt < 50 && countLive(programs) + countLive(constants) > 0;
+        attempt++) {
+      System.gc();
+      Thread.sleep(20);
+    }
+    Assertions.assertEquals(0, countLive(programs), "programs still reachable");
+    Assertions.assertEquals(0, countLive(constants), "constants still reachable");
+  }
+
+  private static int countLive(List<? extends WeakReference<?>> refs) {
+    int live = 0;
+    for (WeakReference<?> ref : refs) {
+      if (ref.get() != null)
+        live++;
+    }
+    return live;
+  }
+}
@@ -0,0 +1,85 @@
+package crux.ir;
+
+import crux.ir.insts.CallInst;
+import crux.ir.opt.Optimizer;
+import crux.printing.IRValueFormatter;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.TestFactory;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.DynamicTest.dynamicTest;
+
+/**
+ * Checks that the dense form of every function of the IR corpus converts back to the same
+ * instructions, both as lowered and as optimized, so that the emulator running on it computes what
+ * the instructions say.
+ */
+final class DenseFunctionTests {
+  @TestFactory
+  Stream<DynamicTest> roundTrip() throws IOException {
+    return TestPrograms.corpus("crux/stages/ir").stream().flatMap(test -> Stream.of(
+        dynamicTest(test, () -> roundTrip(test, false)),
+        dynamicTest(test + " optimized", () -> roundTrip(test, true))));
+  }
+
+  private static void roundTrip(String test, boolean optimize) throws IOException {
+    Program program = TestPrograms.lower(TestPrograms.readResource(test + ".crx"));
+    if (optimize)
+      new Optimizer().optimize(program);
+    String input = TestPrograms.readResource(test + ".in");
+    String expected = TestPrograms.emulate(program, input);
+    String format = program.format(new IRValueFormatter());
+    for (Iterator<Function> it = program.getFunctions(); it.hasNext();) {
+      Function function = it.next();
+      DenseFunction dense = DenseFunction.build(function);
+      checkDenseForm(function, dense);
+      dense.writeBack();
+    }
+    Assertions.assertEquals(format, program.format(new IRValueFormatter()));
+    Assertions.assertEquals(expected, TestPrograms.emulate(program, input));
+  }
+
+  /**
+   * Compares the dense form instruction by instruction with the graph it was built from, visiting
+   * both in the same order from the start.
+   */
+  private static void checkDenseForm(Function function, DenseFunction dense) {
+    Map<Instruction, Integer> ids = new IdentityHashMap<>();
+    Deque<Instruction> worklist = new ArrayDeque<>();
+    if (function.getStart() != null) {
+      ids.put(function.getStart(), 0);
+      worklist.add(function.getStart());
+    }
+    while (!worklist.isEmpty()) {
+      Instruction inst = worklist.pop();
+      int id = ids.get(inst);
+      Assertions.assertEquals(inst.numOperands(), dense.numOperands(id));
+      Assertions.assertSame(inst.getDestVar(), dense.getValue(dense.getDest(id)));
+      for (int k = 0; k < inst.numOperands(); k++) {
+        Assertions.assertSame(inst.getOperand(k), dense.getValue(dense.getOperand(id, k)));
+      }
+      if (inst instanceof CallInst)
+        Assertions.assertSame(((CallInst) inst).getCallee(), dense.getSymbol(id));
+      Assertions.assertEquals(inst.numNext(), dense.numNext(id));
+      for (int i = 0; i < inst.numNext(); i++) {
+        Instruction next = inst.getNext(i);
+        int nextId = dense.getNext(id, i);
+        Assertions.assertEquals(next == null, nextId == DenseFunction.NONE);
+        if (next == null)
+          continue;
+        Integer known = ids.putIfAbsent(next, nextId);
+        Assertions.assertEquals(known == null ? nextId : known, nextId);
+        if (known == null)
+          worklist.add(next);
+      }
+    }
+    Assertions.assertEquals(ids.size(), dense.size());
+    for (int i = 0; i < function.getArguments().size(); i++) {
+      Assertions.assertSame(function.getArguments().get(i), dense.getValue(dense.getArgument(i)));
+    }
+  }
+}
@@ -0,0 +1,151 @@
+package crux.ir;
+
+import crux.printing.IRValueFormatter;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestFactory;
+
+import java.io.*;
+import java.util.*;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.DynamicTest.dynamicTest;
+
+/**
+ * Checks that IR survives serialization: programs read back print and run the same, and their
+ * variables and constants are numbered and interned like those of a freshly lowered program.
+ */
+final class IRSerializationTests {
+  private static final long STACK_SIZE = 256L << 20;
+
+  @TestFactory
+  Stream<DynamicTest> roundTrip() throws IOException {
+    return TestPrograms.corpus("crux/stages/ir").stream().map(test -> dynamicTest(test, () -> {
+      Program program = TestPrograms.lower(TestPrograms.readResource(test + ".crx"));
+      String input = TestPrograms.readResource(test + ".in");
+      String expected = TestPrograms.emulate(program, input);
+      Program copy = read(write(program));
+      Assertions.assertEquals(program.format(new IRValueFormatter()),
+          copy.format(new IRValueFormatter()));
+      Assertions.assertEquals(expected, TestPrograms.emulate(copy, input));
+      checkNumbering(copy);
+    }));
+  }
+
+  /**
+   * The serialized IR in the test corpus was written before instructions kept their operands and
+   * successors in arrays; it has to stay readable.
+   */
+  @TestFactory
+  Stream<DynamicTest> committedIR() throws IOException {
+    var loader = getClass().getClassLoader();
+    return TestPrograms.corpus("crux/stages/codegen").stream().map(test -> dynamicTest(test, () -> {
+      byte[] bytes;
+      try (var in = Objects.requireNonNull(loader.getResourceAsStream(test + ".ser"))) {
+        bytes = in.readAllBytes();
+      }
+      Program program = read(bytes);
+      checkNumbering(program);
+      Program copy = read(write(program));
+      Assertions.assertEquals(program.format(new IRValueFormatter()),
+          copy.format(new IRValueFormatter()));
+    }));
+  }
+
+  @Test
+  void variablesKeepTheirNames() throws Exception {
+    Program program = TestPrograms.lower("int g;\n"
+        + "int f(int a, int b) { int c; c = a + b; return c * 2; }\n"
+        + "void main() { g = f(1, 2); printInt(g); }\n");
+    Program copy = read(write(program));
+    Function f = TestPrograms.function(copy, "f");
+    Assertions.assertEquals("a", f.getArguments().get(0).getPrefix());
+    Assertions.assertEquals("b", f.getArguments().get(1).getPrefix());
+    Assertions.assertEquals(TestPrograms.function(program, "f").getArguments().toString(),
+        f.getArguments().toString());
+    // New temporaries continue after the ones read back instead of reusing their ids.
+    LocalVar fresh = f.getTempVar(f.getArguments().get(0).getType());
+    for (LocalVar arg : f.getArguments()) {
+      Assertions.assertNotEquals(arg.getId(), fresh.getId());
+    }
+    Assertions.assertEquals(f.getNumTempVars() - 1, fresh.getId());
+  }
+
+  /**
+   * Checks that each function numbers its variables densely and distinctly, and that equal
+   * constants are the program's interned ones.
+   */
+  private static void checkNumbering(Program program) {
+    for (Iterator<Function> it = program.getFunctions(); it.hasNext();) {
+      Function function = it.next();
+      Map<Integer, Variable> locals = new HashMap<>();
+      Map<Integer, Variable> addresses = new HashMap<>();
+      List<Value> values = new ArrayList<>(function.getArguments());
+      for (Instruction inst : TestPrograms.instructions(function, Instruction.class)) {
+        values.add(inst.getDestVar());
+        for (int i = 0; i < inst.numOperands(); i++) {
+          values.add(inst.getOperand(i));
+        }
+      }
+      for (Value value : values) {
+        if (value instanceof IntegerConstant) {
+          long v = ((IntegerConstant) value).getValue();
+          Assertions.assertSame(IntegerConstant.get(program, v), value);
+        } else if (value instanceof BooleanConstant) {
+          boolean v = ((BooleanConstant) value).getValue();
+          Assertions.assertSame(BooleanConstant.get(program, v), value);
+        } else if (value instanceof Variable) {
+          Variable var = (Variable) value;
+          boolean isAddress = var instanceof AddressVar;
+          int limit = isAddress ? function.getNumTempAddressVars() : function.getNumTempVars();
+          Assertions.assertTrue(var.getId() >= 0 && var.getId() < limit,
+              var + " has id " + var.getId() + " in " + function.getName());
+          Variable other = (isAddress ? addresses : locals).putIfAbsent(var.getId(), var);
+          Assertions.assertTrue(other == null || other == var,
+              var + " shares its id with " + other + " in " + function.getName());
+        }
+      }
+    }
+  }
+
+  private static byte[] write(Program program) throws Exception {
+    var bytes = new ByteArrayOutputStream();
+    onLargeStack(() -> {
+      try (var out = new ObjectOutputStream(bytes)) {
+        out.writeObject(program);
+      }
+      return null;
+    });
+    return bytes.toByteArray();
+  }
+
+  private static Program read(byte[] bytes) throws Exception {
+    return onLargeStack(() -> {
+      try (var in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+        return (Program) in.readObject();
+      }
+    });
+  }
+
+  /**
+   * Serialization recurses along the successors of instructions, so it runs on a large stack, as
+   * in the driver.
+   */
+  private static <T> T onLargeStack(java.util.concurrent.Callable<T> task) throws Exception {
+    List<T> result = new ArrayList<>();
+    List<Exception> error = new ArrayList<>();
+    Thread thread = new Thread(null, () -> {
+      try {
+        result.add(task.call());
+      } catch (Exception e) {
+        error.add(e);
+      }
+    }, "serialization", STACK_SIZE);
+    thread.start();
+    thread.join();
+    if (!error.isEmpty())
+      throw error.get(0);
+    return result.get(0);
+  }
+}
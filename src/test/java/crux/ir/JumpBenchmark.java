@@ -0,0 +1,71 @@
+package crux.ir;
+
+import crux.backend.CodeGen;
+import crux.ir.opt.Optimizer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Optimizes a program, leaving out the passes of {@code crux.ir.opt} named after the program and
+ * its input, then emulates it and counts the jumps the native code executes, and writes the native
+ * code to {@code a.s}.
+ * <p>
+ * Code generation emits the instructions of a function in the order {@link DenseFunction} numbers
+ * them, so an edge to the next instruction that is not the following one becomes a {@code jmp},
+ * and a conditional jump is taken when it goes to its true successor. The program has to print its
+ * number of iterations last. Not a test; {@code bench/rotate.sh} runs it.
+ */
+public final class JumpBenchmark {
+  private JumpBenchmark() {}
+
+  public static void main(String[] args) throws IOException, ClassNotFoundException {
+    Program program = TestPrograms.lower(Files.readString(Path.of(args[0])));
+    String input = Files.readString(Path.of(args[1]));
+    var optimizer = new Optimizer();
+    for (int i = 2; i < args.length; i++) {
+      optimizer.without(Class.forName("crux.ir.opt." + args[i]));
+    }
+    optimizer.optimize(program);
+
+    var out = new ByteArrayOutputStream();
+    var emulator = new Emulator(program,
+        new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), out);
+    emulator.stack.push(emulator.new CallContext(TestPrograms.function(program, "main"), null,
+        DenseFunction.NONE));
+    long instructions = 0, conditional = 0, taken = 0, unconditional = 0;
+    while (!emulator.stack.isEmpty()) {
+      Emulator.CallContext context = emulator.stack.peek();
+      if (context.pc == DenseFunction.NONE) {
+        emulator.stack.pop();
+        continue;
+      }
+      DenseFunction function = context.f;
+      int pc = context.pc;
+      context.step();
+      instructions++;
+      if (function.getOpcode(pc) == DenseFunction.Opcode.JUMP) {
+        conditional++;
+        if (context.pc == function.getNext(pc, 1)) {
+          taken++;
+          continue;
+        }
+      }
+      int next = function.getNext(pc, 0);
+      if (next != DenseFunction.NONE && next != pc + 1 && context.pc == next)
+        unconditional++;
+    }
+    new CodeGen(program).genCode();
+
+    String[] lines = out.toString(StandardCharsets.UTF_8).trim().split("\n");
+    long iterations = Long.parseLong(lines[lines.length - 1].trim());
+    System.out.printf("instructions %d, conditional jumps %d (taken %d), jmp %d, iterations %d%n",
+        instructions, conditional, taken, unconditional, iterations);
+    System.out.printf("per iteration: instructions %.2f, executed jumps %.3f%n",
+        (double) instructions / iterations, (double) (taken + unconditional) / iterations);
+  }
+}
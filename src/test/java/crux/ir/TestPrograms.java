@@ -0,0 +1,131 @@
+package crux.ir;
+
+import crux.ast.DeclarationList;
+import crux.ast.ParseTreeLower;
+import crux.ast.types.TypeChecker;
+import crux.ir.insts.CallInst;
+import crux.pt.CruxLexer;
+import crux.pt.CruxParser;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+/**
+ * Helpers for tests that work on the IR of small programs: lowering source code, running it in the
+ * emulator, and finding functions and instructions.
+ */
+public final class TestPrograms {
+  private TestPrograms() {}
+
+  public static DeclarationList parse(String source) {
+    var parser = new CruxParser(new CommonTokenStream(new CruxLexer(CharStreams.fromString(source))));
+    var parseTreeLower = new ParseTreeLower(System.err);
+    DeclarationList ast = parseTreeLower.lower(parser.program());
+    if (parseTreeLower.hasEncounteredError())
+      throw new RuntimeException("program does not parse");
+    TypeChecker typeChecker = new TypeChecker();
+    typeChecker.check(ast);
+    if (!typeChecker.getErrors().isEmpty())
+      throw new RuntimeException("program does not type check: " + typeChecker.getErrors());
+    return ast;
+  }
+
+  /**
+   * Lowers a program to IR, keeping every function and global.
+   */
+  public static Program lower(String source) {
+    return new ASTLower().lower(parse(source));
+  }
+
+  /**
+   * Runs main in the emulator with the given input and returns what it prints.
+   */
+  public static String emulate(Program program, String input) {
+    var out = new ByteArrayOutputStream();
+    var in = new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8));
+    new Emulator(program, in, out).run();
+    return out.toString(StandardCharsets.UTF_8);
+  }
+
+  public static Function function(Program program, String name) {
+    for (Iterator<Function> it = program.getFunctions(); it.hasNext();) {
+      Function function = it.next();
+      if (function.getName().equals(name))
+        return function;
+    }
+    throw new RuntimeException("no function " + name);
+  }
+
+  public static List<String> functionNames(Program program) {
+    List<String> names = new ArrayList<>();
+    for (Iterator<Function> it = program.getFunctions(); it.hasNext();) {
+      names.add(it.next().getName());
+    }
+    return names;
+  }
+
+  /**
+   * Returns the instructions of a kind that a function can reach.
+   */
+  public static <T extends Instruction> List<T> instructions(Function function, Class<T> kind) {
+    List<T> insts = new ArrayList<>();
+    if (function.getStart() == null)
+      return insts;
+    for (Instruction inst : function.getCFG().instructions()) {
+      if (kind.isInstance(inst))
+        insts.add(kind.cast(inst));
+    }
+    return insts;
+  }
+
+  public static int count(Function function, Class<? extends Instruction> kind) {
+    return instructions(function, kind).size();
+  }
+
+  /**
+   * Returns the number of calls of a function, or of a built-in function, that a function makes.
+   */
+  public static int countCalls(Function function, String callee) {
+    int calls = 0;
+    for (CallInst call : instructions(function, CallInst.class)) {
+      if (call.getCallee().getName().equals(callee))
+        calls++;
+    }
+    return calls;
+  }
+
+  /**
+   * Returns how many loops an instruction is nested in.
+   */
+  public static int loopDepth(Function function, Instruction inst) {
+    return function.getCFG().getLoopForest().getDepth(function.getCFG().getBlock(inst));
+  }
+
+  public static String readResource(String name) throws IOException {
+    var loader = TestPrograms.class.getClassLoader();
+    try (var in = Objects.requireNonNull(loader.getResourceAsStream(name))) {
+      return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+    }
+  }
+
+  /**
+   * Returns the names of the programs in a folder of the test corpus, e.g. {@code crux/stages/ir},
+   * without their extension.
+   */
+  public static List<String> corpus(String folder) throws IOException {
+    var loader = TestPrograms.class.getClassLoader();
+    try (var listing = Objects.requireNonNull(loader.getResourceAsStream(folder));
+        var reader = new BufferedReader(new InputStreamReader(listing, StandardCharsets.UTF_8))) {
+      return reader.lines().filter(name -> name.endsWith(".crx")).sorted()
+          .map(name -> folder + "/" + name.substring(0, name.length() - 4))
+          .collect(Collectors.toList());
+    }
+  }
+}
@@ -0,0 +1,232 @@
+package crux.ir.analysis;
+
+import crux.ast.SymbolTable.Symbol;
+import crux.ir.Function;
+import crux.ir.Program;
+import crux.ir.TestPrograms;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestFactory;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.DynamicTest.dynamicTest;
+
+/**
+ * Checks the dominator tree and the loop forest against their definitions, computed the slow way,
+ * on every function of the IR corpus, the loop forest of a small nest of loops, and the side
+ * effects of a few small functions.
+ */
+final class AnalysisTests {
+  @TestFactory
+  Stream<DynamicTest> corpus() throws IOException {
+    return TestPrograms.corpus("crux/stages/ir").stream().map(test -> dynamicTest(test, () -> {
+      Program program = TestPrograms.lower(TestPrograms.readResource(test + ".crx"));
+      for (Iterator<Function> it = program.getFunctions(); it.hasNext();) {
+        ControlFlowGraph cfg = it.next().getCFG();
+        if (cfg.size() == 0)
+          continue;
+        boolean[][] dominates = dominatorsOf(cfg);
+        checkDominatorTree(cfg, dominates);
+        checkLoopForest(cfg, dominates);
+      }
+    }));
+  }
+
+  @Test
+  void nestedLoops() {
+    Program program = TestPrograms.lower("void main() { int i; int j; int s; s = 0;\n"
+        + "  for (i = 0; i < 3; i = i + 1) {\n"
+        + "    for (j = 0; j < i; j = j + 1) { s = s + j; }\n"
+        + "    if (s > 100) { break; }\n"
+        + "  }\n"
+        + "  for (i = 0; i < 2; i = i + 1) { s = s * 2; }\n"
+        + "  printInt(s); }\n");
+    ControlFlowGraph cfg = TestPrograms.function(program, "main").getCFG();
+    LoopForest forest = cfg.getLoopForest();
+    Assertions.assertEquals(3, forest.getLoops().size());
+    Assertions.assertEquals(2, forest.getTopLevelLoops().size());
+    Loop outer = forest.getTopLevelLoops().get(0);
+    Loop second = forest.getTopLevelLoops().get(1);
+    Assertions.assertEquals(1, outer.getChildren().size());
+    Loop inner = outer.getChildren().get(0);
+    Assertions.assertTrue(forest.getLoops().indexOf(inner) < forest.getLoops().indexOf(outer));
+    Assertions.assertSame(outer, inner.getParent());
+    Assertions.assertEquals(2, inner.getDepth());
+    Assertions.assertEquals(1, second.getDepth());
+    Assertions.assertTrue(outer.contains(inner));
+    Assertions.assertFalse(outer.contains(second.getHeader()));
+    Assertions.assertEquals(2, forest.getDepth(inner.getHeader()));
+    Assertions.assertEquals(0, forest.getDepth(cfg.getEntry()));
+    // The outer loop is left by its condition and by the break, both for the second loop.
+    Assertions.assertEquals(List.of(second.getEntries().get(0)), outer.getExits());
+    int exiting = 0;
+    for (BasicBlock block : outer.getBlocks()) {
+      if (block.getSuccessors().contains(outer.getExits().get(0)))
+        exiting++;
+    }
+    Assertions.assertEquals(2, exiting);
+  }
+
+  @Test
+  void sideEffectSummaries() {
+    Program program = TestPrograms.lower("int g; int h;\n"
+        + "int sq(int x) { return x * x; }\n"
+        + "int get() { return g; }\n"
+        + "void set(int x) { g = sq(x); }\n"
+        + "void say(int x) { printInt(get() + x); }\n"
+        + "int spin(int x) { int i; for (i = 0; i < x; i = i + 1) { } return x; }\n"
+        + "int half(int x) { return x / 2; }\n"
+        + "bool even(int x) { h = x; if (x < 2) { return x == 0; } return even(x - 2); }\n"
+        + "void main() { set(readInt()); say(spin(3)); even(half(4)); }\n");
+    SideEffectSummary effects = program.getSideEffects();
+    Function sq = TestPrograms.function(program, "sq");
+    Function get = TestPrograms.function(program, "get");
+    Function set = TestPrograms.function(program, "set");
+    Function say = TestPrograms.function(program, "say");
+    Function spin = TestPrograms.function(program, "spin");
+    Function half = TestPrograms.function(program, "half");
+    Function even = TestPrograms.function(program, "even");
+    Assertions.assertTrue(effects.isPure(sq));
+    Assertions.assertTrue(effects.alwaysReturns(sq));
+    Assertions.assertFalse(effects.isPure(get));
+    Assertions.assertTrue(effects.isReadOnly(get));
+    Assertions.assertEquals(Set.of("g"), names(effects.getRead(get)));
+    Assertions.assertEquals(Set.of("g"), names(effects.getModified(set)));
+    Assertions.assertFalse(effects.isReadOnly(set));
+    Assertions.assertTrue(effects.performsIO(say));
+    Assertions.assertFalse(effects.isReadOnly(say));
+    Assertions.assertTrue(effects.mayTouch(say, effects.getRead(get).iterator().next()));
+    // A loop or recursion may keep a function from returning; a division by a constant does not.
+    Assertions.assertTrue(effects.isPure(spin));
+    Assertions.assertFalse(effects.alwaysReturns(spin));
+    Assertions.assertTrue(effects.alwaysReturns(half));
+    Assertions.assertFalse(effects.alwaysReturns(even));
+    Assertions.assertEquals(Set.of("h"), names(effects.getModified(even)));
+    Assertions.assertFalse(effects.performsIO(even));
+  }
+
+  private static Set<String> names(Set<Symbol> globals) {
+    Set<String> names = new HashSet<>();
+    for (Symbol global : globals) {
+      names.add(global.getName());
+    }
+    return names;
+  }
+
+  /**
+   * Returns whether block a dominates block b, found by removing a and checking whether b is still
+   * reachable from the entry.
+   */
+  private static boolean[][] dominatorsOf(ControlFlowGraph cfg) {
+    int n = cfg.size();
+    boolean[][] dominates = new boolean[n][];
+    for (int a = 0; a < n; a++) {
+      boolean[] reached = reachable(cfg, cfg.getEntry(), cfg.getBlocks().get(a));
+      dominates[a] = new boolean[n];
+      for (int b = 0; b < n; b++) {
+        dominates[a][b] = a == b || !reached[b];
+      }
+    }
+    return dominates;
+  }
+
+  /**
+   * Returns the blocks reachable from a start block along successors without entering a blocked
+   * block.
+   */
+  private static boolean[] reachable(ControlFlowGraph cfg, BasicBlock start, BasicBlock blocked) {
+    boolean[] reached = new boolean[cfg.size()];
+    Deque<BasicBlock> worklist = new ArrayDeque<>();
+    if (start != blocked) {
+      reached[start.getNumber()] = true;
+      worklist.add(start);
+    }
+    while (!worklist.isEmpty()) {
+      for (BasicBlock succ : worklist.pop().getSuccessors()) {
+        if (succ != blocked && !reached[succ.getNumber()]) {
+          reached[succ.getNumber()] = true;
+          worklist.add(succ);
+        }
+      }
+    }
+    return reached;
+  }
+
+  private static void checkDominatorTree(ControlFlowGraph cfg, boolean[][] dominates) {
+    DominatorTree domTree = cfg.getDominatorTree();
+    List<BasicBlock> blocks = cfg.getBlocks();
+    Assertions.assertNull(domTree.getIdom(cfg.getEntry()));
+    Assertions.assertEquals(blocks.size(), domTree.getTreeOrder().size());
+    for (BasicBlock a : blocks) {
+      for (BasicBlock b : blocks) {
+        Assertions.assertEquals(dominates[a.getNumber()][b.getNumber()], domTree.dominates(a, b),
+            a + " dominates " + b);
+      }
+      BasicBlock idom = domTree.getIdom(a);
+      if (idom != null) {
+        // The immediate dominator is the strict dominator all other strict dominators dominate.
+        Assertions.assertTrue(domTree.getChildren(idom).contains(a));
+        for (BasicBlock other : blocks) {
+          if (domTree.strictlyDominates(other, a))
+            Assertions.assertTrue(domTree.dominates(other, idom));
+        }
+      }
+      Set<BasicBlock> frontier = new HashSet<>();
+      for (BasicBlock b : blocks) {
+        for (BasicBlock pred : b.getPredecessors()) {
+          if (domTree.dominates(a, pred) && !domTree.strictlyDominates(a, b))
+            frontier.add(b);
+        }
+      }
+      Assertions.assertEquals(frontier, domTree.getFrontier(a), "frontier of " + a);
+    }
+  }
+
+  /**
+   * Compares each loop with the natural loop of its back edges, and checks that its parent is the
+   * smallest loop containing it.
+   */
+  private static void checkLoopForest(ControlFlowGraph cfg, boolean[][] dominates) {
+    Map<BasicBlock, Set<BasicBlock>> natural = new HashMap<>();
+    for (BasicBlock header : cfg.getBlocks()) {
+      for (BasicBlock latch : header.getPredecessors()) {
+        if (!dominates[header.getNumber()][latch.getNumber()])
+          continue;
+        Set<BasicBlock> body = natural.computeIfAbsent(header, h -> new HashSet<>(List.of(h)));
+        Deque<BasicBlock> worklist = new ArrayDeque<>();
+        if (body.add(latch))
+          worklist.add(latch);
+        while (!worklist.isEmpty()) {
+          for (BasicBlock pred : worklist.pop().getPredecessors()) {
+            if (body.add(pred))
+              worklist.add(pred);
+          }
+        }
+      }
+    }
+    LoopForest forest = cfg.getLoopForest();
+    Assertions.assertEquals(natural.size(), forest.getLoops().size());
+    for (Loop loop : forest.getLoops()) {
+      Assertions.assertEquals(natural.get(loop.getHeader()), loop.getBlocks(), loop.toString());
+      Loop smallest = null;
+      for (Loop other : forest.getLoops()) {
+        if (other != loop && other.getBlocks().containsAll(loop.getBlocks())
+            && (smallest == null || other.getBlocks().size() < smallest.getBlocks().size()))
+          smallest = other;
+      }
+      Assertions.assertSame(smallest, loop.getParent(), loop.toString());
+    }
+    for (BasicBlock block : cfg.getBlocks()) {
+      int depth = 0;
+      for (Set<BasicBlock> body : natural.values()) {
+        if (body.contains(block))
+          depth++;
+      }
+      Assertions.assertEquals(depth, forest.getDepth(block), block.toString());
+    }
+  }
+}
@@ -0,0 +1,57 @@
+package crux.ir.opt;
+
+import crux.ir.Program;
+import crux.ir.TestPrograms;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+/**
+ * Checks which functions are left once main no longer calls them.
+ */
+final class DeadFunctionEliminationTests {
+  @Test
+  void removesFunctionsInlinedIntoTheirOnlyCaller() {
+    Program program = TestPrograms.lower("int g;\n"
+        + "int f(int x) { int i; int s; s = 0;\n"
+        + "  for (i = 0; i < x; i = i + 1) { s = s + i * x; } return s; }\n"
+        + "int k(int x) { return f(x) + g; }\n"
+        + "void main() { g = readInt(); printInt(k(g)); }\n");
+    String expected = TestPrograms.emulate(program, "7");
+    var report = new OptimizationReport();
+    Assertions.assertTrue(new Inliner().run(program, report));
+    Assertions.assertTrue(new DeadFunctionElimination().run(program, report));
+    Assertions.assertEquals(List.of("main"), TestPrograms.functionNames(program));
+    Assertions.assertEquals(expected, TestPrograms.emulate(program, "7"));
+  }
+
+  @Test
+  void removesFunctionsEveryCallOfWhichWasSpecialized() {
+    Program program = TestPrograms.lower("int scale(int x, int mode) {\n"
+        + "  if (mode == 0) { return x * 3; } return x + mode; }\n"
+        + "void main() { int x; x = readInt();\n"
+        + "  printInt(scale(x, 0)); printInt(scale(x, 5)); printInt(scale(x + 1, 0)); }\n");
+    String expected = TestPrograms.emulate(program, "4");
+    var report = new OptimizationReport();
+    Assertions.assertTrue(new Specialization().run(program, report));
+    Assertions.assertTrue(new DeadFunctionElimination().run(program, report));
+    Assertions.assertEquals(List.of("main", "scale.1", "scale.2"),
+        TestPrograms.functionNames(program));
+    Assertions.assertEquals(expected, TestPrograms.emulate(program, "4"));
+  }
+
+  @Test
+  void keepsWhatMainStillCalls() {
+    Program program = TestPrograms.lower("int fib(int n) {\n"
+        + "  if (n < 2) { return n; } return fib(n - 1) + fib(n - 2); }\n"
+        + "int twice(int n) { if (n == 0) { return 0; } return twice(n - 1) + 2; }\n"
+        + "int unused(int n) { return twice(n) + fib(n); }\n"
+        + "void main() { printInt(fib(readInt())); }\n");
+    var report = new OptimizationReport();
+    Assertions.assertTrue(new DeadFunctionElimination().run(program, report));
+    Assertions.assertEquals(List.of("fib", "main"), TestPrograms.functionNames(program));
+    Assertions.assertEquals(2, report.getTotal("functions", "removed"));
+    Assertions.assertFalse(new DeadFunctionElimination().run(program, report));
+  }
+}
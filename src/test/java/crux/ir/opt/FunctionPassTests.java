@@ -0,0 +1,356 @@
+package crux.ir.opt;
+
+import crux.ast.types.VoidType;
+import crux.ir.*;
+import crux.ir.analysis.BasicBlock;
+import crux.ir.analysis.Loop;
+import crux.ir.insts.*;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Runs single passes on small functions and checks what they did, both in the report and in the
+ * shape of the IR, and that the program still prints the same.
+ */
+final class FunctionPassTests {
+  /** A conditional followed by a count-down inner loop, inside a counted loop. */
+  private static final String NESTED_LOOPS = "int g; void main() { int i; int j; int s; int t;\n"
+      + "  g = readInt(); s = 0;\n"
+      + "  for (i = 0; i < 4; i = i + 1) { t = i; if (g < t) { s = s + t; }\n"
+      + "    for (j = 3; j > 0; j = j - 1) { s = s + j; } }\n"
+      + "  printInt(s); }\n";
+
+  /**
+   * Runs the passes on one function of a program, building SSA form first and converting back
+   * afterwards if {@code ssa} is set, and checks that the program prints the same for the input.
+   */
+  private static OptimizationReport run(Program program, String name, String input, boolean ssa,
+      FunctionPass... passes) {
+    String expected = TestPrograms.emulate(program, input);
+    Function function = TestPrograms.function(program, name);
+    var report = new OptimizationReport();
+    if (ssa)
+      new SSABuilder().run(program, function, report);
+    for (FunctionPass pass : passes) {
+      pass.run(program, function, report);
+    }
+    if (ssa) {
+      SSATests.checkSSA(function);
+      new SSADestructor().run(program, function, report);
+    }
+    Assertions.assertEquals(expected, TestPrograms.emulate(program, input));
+    return report;
+  }
+
+  @Test
+  void constantPropagationFoldsBranchesNeverTaken() {
+    // x only stays 1 because the assignment of 2 is never reached.
+    Program program = TestPrograms.lower("int f(int n) { int x; int i; x = 1;\n"
+        + "  for (i = 0; i < n; i = i + 1) { if (x != 1) { x = 2; } }\n"
+        + "  return x * 10 + n; }\n"
+        + "void main() { printInt(f(readInt())); }\n");
+    var report = run(program, "f", "5", true, new ConstantPropagation());
+    Assertions.assertEquals(1, report.getTotal("sccp", "folded branches"));
+    Assertions.assertTrue(report.getTotal("sccp", "removed blocks") >= 1);
+    Function f = TestPrograms.function(program, "f");
+    // Only the loop condition is left to test.
+    Assertions.assertEquals(1, TestPrograms.count(f, JumpInst.class));
+    for (BinaryOperator op : TestPrograms.instructions(f, BinaryOperator.class)) {
+      Assertions.assertNotEquals(BinaryOperator.Op.Mul, op.getOperator());
+    }
+  }
+
+  @Test
+  void valueNumberingRemovesRepeatedExpressionsAndLoads() {
+    Program program = TestPrograms.lower("int g[4];\n"
+        + "int f(int a, int b) { int c; int d;\n"
+        + "  c = a * b + 1; d = b * a + 1; return c + d + g[a] + g[a]; }\n"
+        + "void main() { g[2] = 7; printInt(f(2, readInt())); }\n");
+    var report = run(program, "f", "3", true, new GlobalValueNumbering());
+    // b * a is a * b, the second + 1 is the first, and the second g[a] has the same address and
+    // reads the same value as the first.
+    Assertions.assertEquals(3, report.getTotal("gvn", "removed expressions"));
+    Assertions.assertEquals(1, report.getTotal("gvn", "removed loads"));
+    Function f = TestPrograms.function(program, "f");
+    Assertions.assertEquals(1, TestPrograms.count(f, LoadInst.class));
+    Assertions.assertEquals(1, TestPrograms.count(f, AddressAt.class));
+  }
+
+  /**
+   * In SSA form every copy of a variable can go, including those feeding the phis of a count-down
+   * inner loop behind a conditional; copies of constants stay for the instructions that cannot take
+   * a constant operand.
+   */
+  @Test
+  void copyPropagationRemovesCopiesOfVariables() {
+    Program program = TestPrograms.lower(NESTED_LOOPS);
+    Function main = TestPrograms.function(program, "main");
+    var report = new OptimizationReport();
+    new SSABuilder().run(program, main, report);
+    int copies = TestPrograms.count(main, CopyInst.class);
+    Assertions.assertTrue(new CopyPropagation().run(program, main, report));
+    SSATests.checkSSA(main);
+    Assertions.assertTrue(report.getTotal("copyprop", "propagated uses") > 0);
+    Assertions.assertEquals(copies - TestPrograms.count(main, CopyInst.class),
+        report.getTotal("copyprop", "removed copies"));
+    for (CopyInst copy : TestPrograms.instructions(main, CopyInst.class)) {
+      Assertions.assertTrue(copy.getSrcValue() instanceof Constant, copy.toString());
+    }
+    new SSADestructor().run(program, main, report);
+    Assertions.assertEquals("int?27", TestPrograms.emulate(program, "2"));
+  }
+
+  @Test
+  void copyPropagationKeepsVariablesWithSeveralDefinitionsOutsideSSA() {
+    var ssa = run(TestPrograms.lower(NESTED_LOOPS), "main", "2", true, new CopyPropagation());
+    // Without phis, the copies into i, j and s each have a sibling and must stay.
+    var plain = run(TestPrograms.lower(NESTED_LOOPS), "main", "2", false, new CopyPropagation());
+    Assertions.assertTrue(plain.getTotal("copyprop", "removed copies") > 0);
+    Assertions.assertTrue(plain.getTotal("copyprop", "removed copies")
+        < ssa.getTotal("copyprop", "removed copies"));
+  }
+
+  /**
+   * Copy propagation leaves the empty if and the start of the inner loop as a chain of blocks whose
+   * last nop keys the phis of the inner loop header; merging the chain must rename those keys.
+   */
+  @Test
+  void deadCodeEliminationMergesBlocksThatEndInPhiKeys() {
+    Program program = TestPrograms.lower("int g; void main() { int i; int j; g = readInt();\n"
+        + "  for (i = 0; i < 3; i = i + 1) { if (g < i) { }\n"
+        + "    for (j = 2; j >= 0; j = j - 1) { } }\n"
+        + "  printInt(i); }\n");
+    var report = run(program, "main", "1", true, new CopyPropagation(),
+        new DeadCodeElimination());
+    Assertions.assertTrue(report.getTotal("dce", "merged blocks") >= 1);
+    // The empty if is gone; only the two loop conditions are left to test.
+    Assertions.assertEquals(2, TestPrograms.count(TestPrograms.function(program, "main"),
+        JumpInst.class));
+    Assertions.assertEquals("int?3", TestPrograms.emulate(program, "1"));
+  }
+
+  @Test
+  void loopInvariantCodeMotionHoistsOutOfNestedLoops() {
+    // a[k] is read in the condition of the outer loop, before it can be left, and no store in the
+    // loop writes to a; g is written in the inner loop, so its load has to stay there.
+    Program program = TestPrograms.lower("int a[4]; int g;\n"
+        + "int f(int n, int k) { int i; int j; int s; s = 0;\n"
+        + "  for (i = 0; i < a[k]; i = i + 1) { if (k > i) { s = s + 1; }\n"
+        + "    for (j = 3; j > 0; j = j - 1) { s = s + n * k + 7; g = g + j; } }\n"
+        + "  return s + g; }\n"
+        + "void main() { a[1] = 3; g = 0; printInt(f(readInt(), 1)); }\n");
+    var report = run(program, "f", "5", true, new LoopInvariantCodeMotion());
+    Assertions.assertTrue(report.getTotal("licm", "hoisted instructions") > 0);
+    Assertions.assertEquals(1, report.getTotal("licm", "hoisted loads"));
+    Function f = TestPrograms.function(program, "f");
+    for (BinaryOperator op : TestPrograms.instructions(f, BinaryOperator.class)) {
+      if (op.getOperator() == BinaryOperator.Op.Mul)
+        Assertions.assertEquals(0, TestPrograms.loopDepth(f, op));
+    }
+    int[] loads = new int[3];
+    for (LoadInst load : TestPrograms.instructions(f, LoadInst.class)) {
+      loads[TestPrograms.loopDepth(f, load)]++;
+    }
+    // a[k] and the final read of g are outside the loops; the read of g in the inner loop stays.
+    Assertions.assertArrayEquals(new int[] {2, 0, 1}, loads);
+    Assertions.assertEquals("int?127", TestPrograms.emulate(program, "5"));
+  }
+
+  @Test
+  void strengthReductionStepsPointersThroughArrays() {
+    // i is stored as well, so only its address goes; k is only used to index a and to test, so the
+    // compare moves to the pointer and k goes too. Dead code elimination first removes the phis of
+    // k in the outer loop, which would read k after the inner loop.
+    Program program = TestPrograms.lower("int a[20];\n"
+        + "void main() { int i; int j; int k; int n; int s; n = readInt(); s = 0;\n"
+        + "  for (i = 0; i < 20; i = i + 1) { a[i] = i; }\n"
+        + "  for (j = 9; j >= 0; j = j - 1) { if (n > j) { s = s + 1; }\n"
+        + "    for (k = 0; k < n; k = k + 1) { s = s + a[2 * k + 1]; } }\n"
+        + "  printInt(s); }\n");
+    var report = run(program, "main", "5", true, new DeadCodeElimination(),
+        new StrengthReduction(), new DeadCodeElimination());
+    Assertions.assertEquals(2, report.getTotal("strength", "reduced addresses"));
+    Assertions.assertEquals(1, report.getTotal("strength", "replaced counters"));
+    Function main = TestPrograms.function(program, "main");
+    Assertions.assertEquals(2, TestPrograms.count(main, AddressAdd.class));
+    // Both arrays are walked in innermost loops, and no address is computed there any more.
+    for (AddressAt address : TestPrograms.instructions(main, AddressAt.class)) {
+      Loop loop = main.getCFG().getLoopForest().getLoopFor(main.getCFG().getBlock(address));
+      Assertions.assertTrue(loop == null || !loop.getChildren().isEmpty());
+    }
+    for (BinaryOperator op : TestPrograms.instructions(main, BinaryOperator.class)) {
+      // Only the sum is left in the inner loop.
+      if (TestPrograms.loopDepth(main, op) == 2)
+        Assertions.assertEquals(BinaryOperator.Op.Add, op.getOperator());
+    }
+    Assertions.assertEquals("int?255", TestPrograms.emulate(program, "5"));
+  }
+
+  @Test
+  void loopUnrollingUnrollsCountedLoopsFullyOrByTheFactor() {
+    // The count-down inner loop runs three times and goes away; the loop up to n is unrolled by
+    // the factor, with the original loop left as an epilogue.
+    Program program = TestPrograms.lower("void main() { int i; int j; int k; int n; int s;\n"
+        + "  n = readInt(); s = 0;\n"
+        + "  for (i = 0; i < n; i = i + 1) { if (n > i) { s = s + 1; }\n"
+        + "    for (j = 3; j > 0; j = j - 1) { s = s + j * i; } }\n"
+        + "  for (k = 0; k < n; k = k + 1) { s = s + k; }\n"
+        + "  printInt(s); }\n");
+    String[] expected = new String[9];
+    for (int n = 0; n < expected.length; n++) {
+      expected[n] = TestPrograms.emulate(program, Integer.toString(n));
+    }
+    var report = run(program, "main", "7", true, new CopyPropagation(),
+        new DeadCodeElimination(), new LoopUnrolling());
+    Assertions.assertEquals(1, report.getTotal("unroll", "fully unrolled loops"));
+    Assertions.assertEquals(1, report.getTotal("unroll", "partially unrolled loops"));
+    Function main = TestPrograms.function(program, "main");
+    var loops = main.getCFG().getLoopForest().getLoops();
+    Assertions.assertEquals(3, loops.size());
+    for (Loop loop : loops) {
+      Assertions.assertTrue(loop.getChildren().isEmpty());
+    }
+    // Every trip count up to twice the factor, so each number of leftover iterations is run.
+    for (int n = 0; n < expected.length; n++) {
+      Assertions.assertEquals(expected[n], TestPrograms.emulate(program, Integer.toString(n)));
+    }
+  }
+
+  @Test
+  void pureCallsAreNumberedHoistedAndRemoved() {
+    // sq is pure and returns; get reads g, and spin may loop for as long as it likes.
+    Program program = TestPrograms.lower("int g;\n"
+        + "int sq(int x) { return x * x; }\n"
+        + "int get() { return g; }\n"
+        + "int spin(int x) { int i; for (i = 0; i < x; i = i + 1) { } return x; }\n"
+        + "int f(int n) { int i; int j; int s; s = 0;\n"
+        + "  for (i = 0; i < n; i = i + 1) { if (n > i) { s = s + get(); }\n"
+        + "    for (j = 3; j > 0; j = j - 1) { s = s + sq(n) + sq(n); } }\n"
+        + "  sq(s); spin(s); get(); return s; }\n"
+        + "void main() { g = 2; printInt(f(readInt())); }\n");
+    var report = run(program, "f", "4", true, new GlobalValueNumbering(),
+        new LoopInvariantCodeMotion(), new DeadCodeElimination());
+    Assertions.assertEquals(1, report.getTotal("gvn", "removed calls"));
+    Assertions.assertEquals(1, report.getTotal("dce", "removed calls"));
+    Function f = TestPrograms.function(program, "f");
+    // The second sq(n) is the first, which runs once before the loops; sq(s) is unused.
+    Assertions.assertEquals(1, TestPrograms.countCalls(f, "sq"));
+    for (CallInst call : TestPrograms.instructions(f, CallInst.class)) {
+      if (call.getCallee().getName().equals("sq"))
+        Assertions.assertEquals(0, TestPrograms.loopDepth(f, call));
+    }
+    // get may read uninitialized memory and spin may not return, so both stay even when unused.
+    Assertions.assertEquals(2, TestPrograms.countCalls(f, "get"));
+    Assertions.assertEquals(1, TestPrograms.countCalls(f, "spin"));
+    Assertions.assertEquals("int?392", TestPrograms.emulate(program, "4"));
+  }
+
+  @Test
+  void loopRotationTestsConditionsAtTheLatch() {
+    // The inner loop can also be left by its break, which has to keep its target.
+    Program program = TestPrograms.lower("int g; void main() { int i; int j; int s; int t;\n"
+        + "  g = readInt(); s = 0;\n"
+        + "  for (i = 0; i < 4; i = i + 1) { t = i; if (g < t) { s = s + t; }\n"
+        + "    for (j = 3; j > 0; j = j - 1) { s = s + j; if (s > 40) { break; } } }\n"
+        + "  printInt(s); }\n");
+    String[] inputs = {"0", "2", "9"};
+    String[] expected = new String[inputs.length];
+    for (int k = 0; k < inputs.length; k++) {
+      expected[k] = TestPrograms.emulate(program, inputs[k]);
+    }
+    var report = run(program, "main", "2", false, new LoopRotation(1));
+    Assertions.assertEquals(0, report.getTotal("rotate", "rotated loops"));
+    report = run(program, "main", "2", false, new LoopRotation());
+    Assertions.assertEquals(2, report.getTotal("rotate", "rotated loops"));
+    Function main = TestPrograms.function(program, "main");
+    var loops = main.getCFG().getLoopForest().getLoops();
+    Assertions.assertEquals(2, loops.size());
+    for (Loop loop : loops) {
+      for (BasicBlock latch : loop.getLatches()) {
+        Assertions.assertTrue(latch.getLast() instanceof JumpInst);
+      }
+    }
+    // The tests at the headers only guard the loops now; each latch has its own.
+    Assertions.assertEquals(6, TestPrograms.count(main, JumpInst.class));
+    for (int k = 0; k < inputs.length; k++) {
+      Assertions.assertEquals(expected[k], TestPrograms.emulate(program, inputs[k]));
+    }
+  }
+
+  @Test
+  void tailRecursionAccumulatesPendingProducts() {
+    Program program = TestPrograms.lower("int fact(int n) {\n"
+        + "  if (n <= 1) { return 1; } return n * fact(n - 1); }\n"
+        + "int gcd(int a, int b) { if (b == 0) { return a; } return gcd(b, a - a / b * b); }\n"
+        + "void main() { int n; n = readInt(); printInt(fact(n)); printInt(gcd(n * 6, 21)); }\n");
+    var report = run(program, "fact", "10", false, new TailRecursionElimination());
+    Assertions.assertEquals(1, report.getTotal("tailrec", "accumulated calls"));
+    Assertions.assertEquals(0, report.getTotal("tailrec", "eliminated tail calls"));
+    Assertions.assertEquals(0, TestPrograms.count(TestPrograms.function(program, "fact"),
+        CallInst.class));
+    report = run(program, "gcd", "10", false, new TailRecursionElimination());
+    Assertions.assertEquals(1, report.getTotal("tailrec", "eliminated tail calls"));
+    Assertions.assertEquals(0, report.getTotal("tailrec", "accumulated calls"));
+    Assertions.assertEquals(0, TestPrograms.count(TestPrograms.function(program, "gcd"),
+        CallInst.class));
+  }
+
+  @Test
+  void loadStoreEliminationForwardsStoresAndRemovesOverwrittenOnes() {
+    Program program = TestPrograms.lower("int g; int h[2];\n"
+        + "void main() { g = readInt(); printInt(g);\n"
+        + "  h[0] = 1; h[1] = g; h[0] = 2; printInt(h[0] + h[1]); }\n");
+    var report = run(program, "main", "4", true, new LoadStoreElimination(),
+        new CopyPropagation(), new DeadCodeElimination());
+    Assertions.assertEquals(3, report.getTotal("loadstore", "forwarded stores"));
+    Assertions.assertEquals(1, report.getTotal("loadstore", "removed stores"));
+    Function main = TestPrograms.function(program, "main");
+    Assertions.assertEquals(0, TestPrograms.count(main, LoadInst.class));
+    // The stores stay, since leaving main reads everything.
+    Assertions.assertEquals(3, TestPrograms.count(main, StoreInst.class));
+  }
+
+  @Test
+  void deadArgumentEliminationShrinksSignatures() {
+    // b is only passed on to f itself, and no call reads the result, which is all d is for.
+    Program program = TestPrograms.lower("int f(int a, int b, int d) { printInt(a);\n"
+        + "  if (a > 3) { return d; } return f(a + 1, b * 2, d + 1); }\n"
+        + "void main() { f(readInt(), 5, 0); }\n");
+    String expected = TestPrograms.emulate(program, "1");
+    var report = new OptimizationReport();
+    Assertions.assertTrue(new DeadArgumentElimination().run(program, report));
+    Assertions.assertEquals(expected, TestPrograms.emulate(program, "1"));
+    Function f = TestPrograms.function(program, "f");
+    Assertions.assertEquals(2, report.get("deadargs", f, "removed parameters"));
+    Assertions.assertEquals(1, report.get("deadargs", f, "removed results"));
+    Assertions.assertEquals(1, f.getArguments().size());
+    Assertions.assertTrue(f.getFuncType().getRet() instanceof VoidType);
+    for (CallInst call : TestPrograms.instructions(TestPrograms.function(program, "main"),
+        CallInst.class)) {
+      if (call.getCallee().getName().equals("f")) {
+        Assertions.assertEquals(1, call.numParams());
+        Assertions.assertNull(call.getDst());
+      }
+    }
+  }
+  @Test
+  void ifConversionTurnsSmallDiamondsIntoSelects() {
+    Program program = TestPrograms.lower("int f(int a, int b) { int m;\n"
+        + "  if (a < b) { m = a; } else { m = b; } return m; }\n"
+        + "int g(int a, int b) { int q;\n"
+        + "  if (b != 0) { q = a / b; } else { q = 0; } return q; }\n"
+        + "void main() { int a; a = readInt();\n"
+        + "  printInt(f(a, 3)); printInt(g(a, 0)); printInt(g(a, 2)); }\n");
+    var report = run(program, "f", "5", true, new IfConversion(), new DeadCodeElimination());
+    Assertions.assertEquals(1, report.getTotal("ifconvert", "converted branches"));
+    Assertions.assertEquals(1, report.getTotal("ifconvert", "created selects"));
+    Function f = TestPrograms.function(program, "f");
+    Assertions.assertEquals(0, TestPrograms.count(f, JumpInst.class));
+    Assertions.assertEquals(1, TestPrograms.count(f, SelectInst.class));
+    // A division may trap, so it must stay behind its branch.
+    report = run(program, "g", "5", true, new IfConversion());
+    Assertions.assertEquals(0, report.getTotal("ifconvert", "converted branches"));
+    Assertions.assertEquals(0, TestPrograms.count(TestPrograms.function(program, "g"),
+        SelectInst.class));
+  }
+}
@@ -0,0 +1,146 @@
+package crux.ir.opt;
+
+import crux.ir.*;
+import crux.ir.insts.CopyInst;
+import crux.ir.insts.JumpInst;
+import crux.ir.insts.LoadInst;
+import crux.ir.insts.StoreInst;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs single passes over whole programs and checks what they did, both in the report and in the
+ * shape of the IR, and that the program still prints the same.
+ */
+final class ProgramPassTests {
+  /**
+   * Runs the passes on a program and checks that it prints the same for the input.
+   */
+  private static OptimizationReport run(Program program, String input, ProgramPass... passes) {
+    String expected = TestPrograms.emulate(program, input);
+    var report = new OptimizationReport();
+    for (ProgramPass pass : passes) {
+      pass.run(program, report);
+    }
+    Assertions.assertEquals(expected, TestPrograms.emulate(program, input));
+    return report;
+  }
+
+  /**
+   * Returns the integer constants a function copies into temporaries.
+   */
+  private static long[] copiedConstants(Function function) {
+    return TestPrograms.instructions(function, CopyInst.class).stream()
+        .filter(copy -> copy.getSrcValue() instanceof IntegerConstant)
+        .mapToLong(copy -> ((IntegerConstant) copy.getSrcValue()).getValue()).toArray();
+  }
+
+  @Test
+  void scalarPromotionKeepsGlobalsInTemporariesAcrossNestedLoops() {
+    // g is promoted in the outer loop, which takes the inner count-down loop along; h is written
+    // by a call in its loop and stays in memory.
+    Program program = TestPrograms.lower("int g; int h;\n"
+        + "void bump() { h = h + 1; }\n"
+        + "void main() { int i; int j; int n; n = readInt(); g = 0; h = 0;\n"
+        + "  for (i = 0; i < n; i = i + 1) { if (n > i) { g = g + 1; }\n"
+        + "    for (j = 3; j > 0; j = j - 1) { g = g + j; } }\n"
+        + "  for (i = 0; i < n; i = i + 1) { h = h + i; bump(); }\n"
+        + "  printInt(g); printInt(h); }\n");
+    var report = run(program, "5", new ScalarPromotion());
+    Function main = TestPrograms.function(program, "main");
+    Assertions.assertEquals(1, report.get("promote", main, "promoted globals"));
+    Assertions.assertEquals(4, report.get("promote", main, "promoted accesses"));
+    // Only the load and store of h are left in a loop.
+    int loads = 0, stores = 0;
+    for (LoadInst load : TestPrograms.instructions(main, LoadInst.class)) {
+      if (TestPrograms.loopDepth(main, load) > 0)
+        loads++;
+    }
+    for (StoreInst store : TestPrograms.instructions(main, StoreInst.class)) {
+      if (TestPrograms.loopDepth(main, store) > 0)
+        stores++;
+    }
+    Assertions.assertEquals(1, loads);
+    Assertions.assertEquals(1, stores);
+    Assertions.assertEquals("int?3515", TestPrograms.emulate(program, "5"));
+    Assertions.assertEquals("int?00", TestPrograms.emulate(program, "0"));
+  }
+
+  @Test
+  void specializationClonesCalleesForConstantArguments() {
+    Program program = TestPrograms.lower("int pow(int x, int e) { int r; int i; r = 1;\n"
+        + "  for (i = 0; i < e; i = i + 1) { r = r * x; } return r; }\n"
+        + "int scale(int x, int mode) { int j; int s; s = 0;\n"
+        + "  if (mode == 0) { return x * 3; }\n"
+        + "  for (j = mode; j > 0; j = j - 1) { s = s + pow(x, 2); } return s; }\n"
+        + "void main() { int x; x = readInt(); printInt(scale(x, 0)); printInt(scale(x, 2));\n"
+        + "  printInt(scale(x + 1, 0)); printInt(pow(x, x)); }\n");
+    var report = run(program, "3", new Specialization());
+    // Both calls passing mode 0 share a clone; pow(x, x) passes no constant and keeps the original.
+    Assertions.assertEquals(3, report.getTotal("specialize", "cloned functions"));
+    Assertions.assertEquals(4, report.getTotal("specialize", "specialized calls"));
+    Assertions.assertEquals(List.of("pow", "scale", "main", "pow.1", "scale.1", "scale.2"),
+        TestPrograms.functionNames(program));
+    Function main = TestPrograms.function(program, "main");
+    Assertions.assertEquals(2, TestPrograms.countCalls(main, "scale.1"));
+    Assertions.assertEquals(1, TestPrograms.countCalls(main, "scale.2"));
+    Assertions.assertEquals(0, TestPrograms.countCalls(main, "scale"));
+    Assertions.assertEquals(1, TestPrograms.countCalls(main, "pow"));
+    Assertions.assertEquals(1,
+        TestPrograms.countCalls(TestPrograms.function(program, "scale.2"), "pow.1"));
+    // With mode known to be 0, constant propagation folds the loop away.
+    Function clone = TestPrograms.function(program, "scale.1");
+    new SSABuilder().run(program, clone, report);
+    new ConstantPropagation().run(program, clone, report);
+    new SSADestructor().run(program, clone, report);
+    Assertions.assertEquals(0, TestPrograms.count(clone, JumpInst.class));
+    Assertions.assertEquals("int?9181227", TestPrograms.emulate(program, "3"));
+  }
+
+  @Test
+  void compileTimeEvaluationFoldsResultsBeyond32Bits() {
+    Program program = TestPrograms.lower("int fact(int n) {\n"
+        + "  if (n <= 1) { return 1; } return n * fact(n - 1); }\n"
+        + "void main() { printInt(fact(20)); printInt(fact(readInt())); }\n");
+    var report = run(program, "5", new CompileTimeEvaluation());
+    // fact(readInt()) is not constant.
+    Assertions.assertEquals(1, report.getTotal("eval", "evaluated calls"));
+    Function main = TestPrograms.function(program, "main");
+    Assertions.assertEquals(1, TestPrograms.countCalls(main, "fact"));
+    Assertions.assertTrue(Arrays.stream(copiedConstants(main))
+        .anyMatch(c -> c == 2432902008176640000L));
+    Assertions.assertEquals("2432902008176640000int?120", TestPrograms.emulate(program, "5"));
+  }
+
+  @Test
+  void compileTimeEvaluationFoldsNestedCallsInsideLoops() {
+    // The result of the inner call is the constant passed to the outer one.
+    Program program = TestPrograms.lower("int fact(int n) {\n"
+        + "  if (n <= 1) { return 1; } return n * fact(n - 1); }\n"
+        + "void main() { int i; int j; int s; int n; n = readInt(); s = 0;\n"
+        + "  for (i = 0; i < n; i = i + 1) { if (n > i) { s = s + 1; }\n"
+        + "    for (j = 3; j > 0; j = j - 1) { s = s + fact(fact(3)); } }\n"
+        + "  printInt(s); }\n");
+    var report = run(program, "2", new CompileTimeEvaluation());
+    Assertions.assertEquals(2, report.getTotal("eval", "evaluated calls"));
+    Function main = TestPrograms.function(program, "main");
+    Assertions.assertEquals(0, TestPrograms.countCalls(main, "fact"));
+    Assertions.assertTrue(Arrays.stream(copiedConstants(main)).anyMatch(c -> c == 720));
+    Assertions.assertEquals("int?4322", TestPrograms.emulate(program, "2"));
+  }
+
+  @Test
+  void compileTimeEvaluationLeavesCallsThatRunOutOfFuel() {
+    Program program = TestPrograms.lower("int fib(int n) {\n"
+        + "  if (n < 2) { return n; } return fib(n - 1) + fib(n - 2); }\n"
+        + "void main() { printInt(fib(5)); printInt(fib(25)); }\n");
+    var report = run(program, "", new CompileTimeEvaluation(10000));
+    Assertions.assertEquals(1, report.getTotal("eval", "evaluated calls"));
+    Assertions.assertEquals(1, report.getTotal("eval", "calls left alone"));
+    Assertions.assertEquals(1,
+        TestPrograms.countCalls(TestPrograms.function(program, "main"), "fib"));
+  }
+}
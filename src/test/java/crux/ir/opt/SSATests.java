@@ -0,0 +1,134 @@
+package crux.ir.opt;
+
+import crux.ir.*;
+import crux.ir.analysis.BasicBlock;
+import crux.ir.analysis.DominatorTree;
+import crux.ir.insts.PhiInst;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestFactory;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.DynamicTest.dynamicTest;
+
+/**
+ * Checks that {@link SSABuilder} gives every variable a single definition that dominates its uses,
+ * and that {@link SSADestructor} turns the phis back into copies that compute the same.
+ */
+final class SSATests {
+  @TestFactory
+  Stream<DynamicTest> corpus() throws IOException {
+    return TestPrograms.corpus("crux/stages/ir").stream().map(test -> dynamicTest(test, () -> {
+      Program program = TestPrograms.lower(TestPrograms.readResource(test + ".crx"));
+      String input = TestPrograms.readResource(test + ".in");
+      String expected = TestPrograms.emulate(program, input);
+      var report = new OptimizationReport();
+      for (Iterator<Function> it = program.getFunctions(); it.hasNext();) {
+        Function function = it.next();
+        new SSABuilder().run(program, function, report);
+        checkSSA(function);
+        new SSADestructor().run(program, function, report);
+        Assertions.assertEquals(0, TestPrograms.count(function, PhiInst.class));
+      }
+      Assertions.assertEquals(expected, TestPrograms.emulate(program, input));
+    }));
+  }
+
+  @Test
+  void loopVariablesMeetInPhisAtTheHeader() {
+    Program program = TestPrograms.lower("void main() { int i; int s; int n; n = readInt();\n"
+        + "  s = 0; for (i = 0; i < n; i = i + 1) { s = s + i; } printInt(s); }\n");
+    Function main = TestPrograms.function(program, "main");
+    new SSABuilder().run(program, main, new OptimizationReport());
+    checkSSA(main);
+    // Only i and s change in the loop; n has a single definition and needs none.
+    BasicBlock header = main.getCFG().getLoopForest().getLoops().get(0).getHeader();
+    List<PhiInst> phis = TestPrograms.instructions(main, PhiInst.class);
+    Assertions.assertEquals(2, phis.size());
+    for (PhiInst phi : phis) {
+      Assertions.assertSame(header, main.getCFG().getBlock(phi));
+      Assertions.assertEquals(header.getPredecessors().size(), phi.numIncoming());
+    }
+  }
+
+  /**
+   * Swapping two variables in a loop leaves phis that read each other once copies are propagated,
+   * so the copies on the back edge have to go through a temporary.
+   */
+  @Test
+  void destructsPhisThatSwapValues() {
+    Program program = TestPrograms.lower("void main() { int a; int b; int t; int i;\n"
+        + "  a = readInt(); b = readInt();\n"
+        + "  for (i = 0; i < 5; i = i + 1) { t = a; a = b; b = t; printInt(a - b); }\n"
+        + "  printInt(a); printInt(b); }\n");
+    String expected = TestPrograms.emulate(program, "3\n10\n");
+    Function main = TestPrograms.function(program, "main");
+    var report = new OptimizationReport();
+    new SSABuilder().run(program, main, report);
+    new CopyPropagation().run(program, main, report);
+    new DeadCodeElimination().run(program, main, report);
+    checkSSA(main);
+    Set<Value> phiDsts = new HashSet<>();
+    for (PhiInst phi : TestPrograms.instructions(main, PhiInst.class)) {
+      phiDsts.add(phi.getDst());
+    }
+    boolean swaps = false;
+    for (PhiInst phi : TestPrograms.instructions(main, PhiInst.class)) {
+      for (int i = 0; i < phi.numIncoming(); i++) {
+        Value value = phi.getValueFrom(phi.getIncoming(i));
+        swaps |= value != phi.getDst() && phiDsts.contains(value);
+      }
+    }
+    Assertions.assertTrue(swaps, "the phis do not read each other");
+    new SSADestructor().run(program, main, report);
+    Assertions.assertEquals(0, TestPrograms.count(main, PhiInst.class));
+    Assertions.assertEquals(expected, TestPrograms.emulate(program, "3\n10\n"));
+  }
+
+  /**
+   * Checks that no variable is defined twice, that arguments are never assigned, and that the
+   * definition of every variable dominates its uses. A phi uses its operand at the end of the
+   * predecessor it comes from; semi-pruned form leaves phis nothing reads, whose operands may be
+   * undefined on some paths, so only phis that other instructions read are checked.
+   */
+  static void checkSSA(Function function) {
+    if (function.getStart() == null)
+      return;
+    DominatorTree domTree = function.getCFG().getDominatorTree();
+    Map<Variable, Instruction> defs = new HashMap<>();
+    Set<Value> read = new HashSet<>();
+    for (Instruction inst : function.getCFG().instructions()) {
+      Variable dst = inst.getDestVar();
+      if (dst instanceof LocalVar) {
+        Assertions.assertFalse(function.getArguments().contains(dst), inst.toString());
+        Instruction other = defs.put(dst, inst);
+        Assertions.assertNull(other, dst + " is defined twice in " + function.getName());
+      }
+      for (int k = 0; k < inst.numOperands() && !(inst instanceof PhiInst); k++) {
+        read.add(inst.getOperand(k));
+      }
+    }
+    for (Instruction inst : function.getCFG().instructions()) {
+      if (inst instanceof PhiInst) {
+        PhiInst phi = (PhiInst) inst;
+        for (int i = 0; i < phi.numIncoming() && read.contains(phi.getDst()); i++) {
+          Instruction def = defs.get(phi.getValueFrom(phi.getIncoming(i)));
+          if (def != null)
+            Assertions.assertTrue(domTree.dominates(def, phi.getIncoming(i)),
+                phi.format(Value::toString));
+        }
+        continue;
+      }
+      for (int k = 0; k < inst.numOperands(); k++) {
+        Instruction def = defs.get(inst.getOperand(k));
+        if (def != null)
+          Assertions.assertTrue(def != inst && domTree.dominates(def, inst),
+              inst.format(Value::toString));
+      }
+    }
+  }
+}